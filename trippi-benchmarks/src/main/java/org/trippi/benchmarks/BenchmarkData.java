@@ -0,0 +1,145 @@
+package org.trippi.benchmarks;
+
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jrdf.graph.Node;
+import org.jrdf.graph.Triple;
+import org.jrdf.graph.URIReference;
+import org.trippi.RDFUtil;
+import org.trippi.TupleIterator;
+import org.trippi.TupleRow;
+
+/**
+ * Repeatable test data for the benchmarks, shaped like a small Fedora
+ * repository: each object has a label, a content model, a state, a
+ * creation date and a few relationships to other objects.
+ */
+public class BenchmarkData {
+
+    public static final String MODEL = "info:fedora/fedora-system:def/model#";
+    public static final String RELS = "info:fedora/fedora-system:def/relations-external#";
+    public static final String XSD = "http://www.w3.org/2001/XMLSchema#";
+
+    public static final String[] TUPLE_NAMES = new String[] { "s", "label", "model", "date" };
+
+    private BenchmarkData() { }
+
+    /**
+     * Get the triples describing the given number of objects, grouped by
+     * subject, as a store would typically return them.
+     */
+    public static Set<Triple> triples(int objects) throws Exception {
+        RDFUtil util = new RDFUtil();
+        URIReference label = util.createResource(new URI(MODEL + "label"));
+        URIReference hasModel = util.createResource(new URI(MODEL + "hasModel"));
+        URIReference state = util.createResource(new URI(MODEL + "state"));
+        URIReference created = util.createResource(new URI(MODEL + "createdDate"));
+        URIReference isMemberOf = util.createResource(new URI(RELS + "isMemberOf"));
+        URIReference active = util.createResource(new URI(MODEL + "Active"));
+        URI dateTime = new URI(XSD + "dateTime");
+        Set<Triple> triples = new LinkedHashSet<Triple>();
+        for (int i = 0; i < objects; i++) {
+            URIReference s = object(util, i);
+            triples.add(util.createTriple(s, label, util.createLiteral("Object " + i + " \u00e9t\u00e9")));
+            triples.add(util.createTriple(s, hasModel, object(util, i % 10)));
+            triples.add(util.createTriple(s, state, active));
+            triples.add(util.createTriple(s, created, util.createLiteral(date(i), dateTime)));
+            triples.add(util.createTriple(s, isMemberOf, object(util, i / 100)));
+        }
+        return triples;
+    }
+
+    /**
+     * Get the given number of tuples, as from a query for each object's
+     * label, content model and creation date.  Every tenth row has a null
+     * (unbound) date, as stores return for optional matches.  Like the
+     * built-in iterators, the rows are <code>TupleRow</code>s sharing
+     * <code>TUPLE_NAMES</code>.
+     */
+    public static List<Map<String, Node>> tuples(int rows) throws Exception {
+        RDFUtil util = new RDFUtil();
+        URI dateTime = new URI(XSD + "dateTime");
+        List<Map<String, Node>> tuples = new ArrayList<Map<String, Node>>(rows);
+        for (int i = 0; i < rows; i++) {
+            Node date = null;
+            if (i % 10 != 0) {
+                date = util.createLiteral(date(i), dateTime);
+            }
+            tuples.add(new TupleRow(TUPLE_NAMES, new Node[] {
+                    object(util, i),
+                    util.createLiteral("Object " + i + " <\u00e9t\u00e9> & \"more\""),
+                    object(util, i % 10),
+                    date }));
+        }
+        return tuples;
+    }
+
+    private static URIReference object(RDFUtil util, int i) throws Exception {
+        return util.createResource(new URI("info:fedora/demo:" + i));
+    }
+
+    private static String date(int i) {
+        return "2014-01-" + (10 + i % 18) + "T12:00:" + (10 + i % 50) + ".000Z";
+    }
+
+    /**
+     * A <code>TupleIterator</code> over a list of rows.
+     */
+    public static class ListTupleIterator extends TupleIterator {
+
+        private Iterator<Map<String, Node>> m_iter;
+        private String[] m_names;
+
+        public ListTupleIterator(List<Map<String, Node>> rows, String[] names) {
+            m_iter = rows.iterator();
+            m_names = names;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return m_iter.hasNext();
+        }
+
+        @Override
+        public Map<String, Node> next() {
+            return m_iter.next();
+        }
+
+        @Override
+        public String[] names() {
+            return m_names;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * An <code>OutputStream</code> that discards what is written to it,
+     * keeping only a count, so serializers are measured without the cost
+     * of growing a buffer.
+     */
+    public static class CountingOutputStream extends OutputStream {
+
+        public long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+
+}
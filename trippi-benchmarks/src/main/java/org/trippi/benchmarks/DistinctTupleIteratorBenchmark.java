@@ -0,0 +1,63 @@
+package org.trippi.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.jrdf.graph.Node;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import org.trippi.TupleIterator;
+import org.trippi.impl.base.DistinctTupleIterator;
+
+/**
+ * Removes duplicates from a result of 100,000 rows, either within the
+ * memory budget or spilling to disk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DistinctTupleIteratorBenchmark {
+
+    /** How many times each distinct row appears. */
+    @Param({ "1", "4" })
+    public int copies;
+
+    /** The memory budget in bytes; the smaller one forces spilling. */
+    @Param({ "67108864", "1048576" })
+    public long memoryBudget;
+
+    private List<Map<String, Node>> m_rows;
+
+    @Setup
+    public void setUp() throws Exception {
+        List<Map<String, Node>> distinct = BenchmarkData.tuples(100000 / copies);
+        m_rows = new ArrayList<Map<String, Node>>(100000);
+        for (int i = 0; i < copies; i++) {
+            m_rows.addAll(distinct);
+        }
+    }
+
+    @Benchmark
+    public void distinct(Blackhole bh) throws Exception {
+        TupleIterator iter = new DistinctTupleIterator(
+                new BenchmarkData.ListTupleIterator(m_rows, BenchmarkData.TUPLE_NAMES),
+                memoryBudget);
+        try {
+            while (iter.hasNext()) {
+                bh.consume(iter.next());
+            }
+        } finally {
+            iter.close();
+        }
+    }
+
+}
@@ -0,0 +1,119 @@
+package org.trippi.benchmarks;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jrdf.graph.Node;
+import org.jrdf.graph.ObjectNode;
+import org.jrdf.graph.PredicateNode;
+import org.jrdf.graph.SubjectNode;
+import org.jrdf.graph.Triple;
+import org.trippi.TripleIterator;
+import org.trippi.TrippiException;
+import org.trippi.TupleIterator;
+import org.trippi.impl.base.DefaultAliasManager;
+import org.trippi.impl.base.TriplestoreSession;
+import org.trippi.impl.base.TriplestoreSessionFactory;
+import org.trippi.io.SimpleTripleIterator;
+
+/**
+ * A <code>TriplestoreSession</code> over an in-memory set of triples, so
+ * the benchmarks need no backend.
+ * <p>
+ * Every tuple query returns the same canned rows, and triple pattern
+ * queries scan the set.  All sessions from a <code>Factory</code> share
+ * one set.
+ * </p>
+ */
+public class MemoryTriplestoreSession implements TriplestoreSession {
+
+    private static final String[] LANGUAGES = new String[] { "memory" };
+
+    private Set<Triple> m_triples;
+    private List<Map<String, Node>> m_rows;
+
+    public MemoryTriplestoreSession(Set<Triple> triples,
+                                    List<Map<String, Node>> rows) {
+        m_triples = triples;
+        m_rows = rows;
+    }
+
+    public void add(Set<Triple> triples) {
+        m_triples.addAll(triples);
+    }
+
+    public void delete(Set<Triple> triples) {
+        m_triples.removeAll(triples);
+    }
+
+    public TupleIterator query(String queryText,
+                               String language) throws TrippiException {
+        return new BenchmarkData.ListTupleIterator(m_rows, BenchmarkData.TUPLE_NAMES);
+    }
+
+    public TripleIterator findTriples(String lang,
+                                      String queryText) throws TrippiException {
+        return findTriples(null, null, null);
+    }
+
+    public TripleIterator findTriples(SubjectNode subject,
+                                      PredicateNode predicate,
+                                      ObjectNode object) throws TrippiException {
+        Set<Triple> matches = new LinkedHashSet<Triple>();
+        synchronized (m_triples) {
+            for (Triple t : m_triples) {
+                if ((subject == null || subject.equals(t.getSubject()))
+                        && (predicate == null || predicate.equals(t.getPredicate()))
+                        && (object == null || object.equals(t.getObject()))) {
+                    matches.add(t);
+                }
+            }
+        }
+        return new SimpleTripleIterator(matches, new DefaultAliasManager());
+    }
+
+    public String[] listTupleLanguages() {
+        return LANGUAGES;
+    }
+
+    public String[] listTripleLanguages() {
+        return LANGUAGES;
+    }
+
+    public void close() {
+    }
+
+    /**
+     * Creates sessions sharing one store.
+     */
+    public static class Factory implements TriplestoreSessionFactory {
+
+        private Set<Triple> m_triples =
+                Collections.synchronizedSet(new HashSet<Triple>());
+        private List<Map<String, Node>> m_rows;
+
+        public Factory(List<Map<String, Node>> rows) {
+            m_rows = rows;
+        }
+
+        public TriplestoreSession newSession() {
+            return new MemoryTriplestoreSession(m_triples, m_rows);
+        }
+
+        public String[] listTripleLanguages() {
+            return LANGUAGES;
+        }
+
+        public String[] listTupleLanguages() {
+            return LANGUAGES;
+        }
+
+        public void close() {
+        }
+    }
+
+}
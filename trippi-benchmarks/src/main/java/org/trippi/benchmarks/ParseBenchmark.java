@@ -0,0 +1,77 @@
+package org.trippi.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+import org.trippi.RDFFormat;
+import org.trippi.TripleIterator;
+import org.trippi.impl.base.DefaultAliasManager;
+import org.trippi.io.SimpleTripleIterator;
+import org.trippi.io.TripleIteratorFactory;
+
+/**
+ * Parses 10,000 triples in each input format, both streamed through
+ * <code>TripleIteratorFactory.fromStream</code> (a
+ * <code>RIOTripleIterator</code>, except for binary triples) and
+ * collected with <code>allAsSet</code>.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ParseBenchmark {
+
+    /** The name of the format, as accepted by <code>RDFFormat.forName</code>. */
+    @Param({ "N-Triples", "RDF/XML", "Turtle", "Binary Triples" })
+    public String format;
+
+    private RDFFormat m_format;
+    private byte[] m_bytes;
+    private TripleIteratorFactory m_factory;
+
+    @Setup
+    public void setUp() throws Exception {
+        m_format = RDFFormat.forName(format);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new SimpleTripleIterator(BenchmarkData.triples(2000), new DefaultAliasManager())
+                .toStream(out, m_format);
+        m_bytes = out.toByteArray();
+        m_factory = new TripleIteratorFactory();
+    }
+
+    @TearDown
+    public void tearDown() {
+        m_factory.shutdown();
+    }
+
+    @Benchmark
+    public void fromStream(Blackhole bh) throws Exception {
+        TripleIterator iter = m_factory.fromStream(new ByteArrayInputStream(m_bytes), m_format);
+        try {
+            while (iter.hasNext()) {
+                bh.consume(iter.next());
+            }
+        } finally {
+            iter.close();
+        }
+    }
+
+    /**
+     * Not supported for binary triples, which JMH reports as a failure.
+     */
+    @Benchmark
+    public int allAsSet() throws Exception {
+        return m_factory.allAsSet(new ByteArrayInputStream(m_bytes), null, m_format).size();
+    }
+
+}
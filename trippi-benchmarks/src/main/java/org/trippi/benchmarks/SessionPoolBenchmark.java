@@ -0,0 +1,62 @@
+package org.trippi.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.jrdf.graph.Node;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.trippi.impl.base.ConcurrentSessionPool;
+import org.trippi.impl.base.ConfigurableSessionPool;
+import org.trippi.impl.base.TriplestoreSession;
+import org.trippi.impl.base.TriplestoreSessionPool;
+
+/**
+ * Leases a session and releases it straight back, from four threads at
+ * once, with enough sessions that no thread has to wait for one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(4)
+public class SessionPoolBenchmark {
+
+    /** The pool implementation: <code>configurable</code> or <code>concurrent</code>. */
+    @Param({ "configurable", "concurrent" })
+    public String pool;
+
+    private TriplestoreSessionPool m_pool;
+
+    @Setup
+    public void setUp() throws Exception {
+        MemoryTriplestoreSession.Factory factory =
+                new MemoryTriplestoreSession.Factory(new ArrayList<Map<String, Node>>());
+        if (pool.equals("concurrent")) {
+            m_pool = new ConcurrentSessionPool(factory, 8, 0, 0);
+        } else {
+            m_pool = new ConfigurableSessionPool(factory, 8, 0, 0);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        m_pool.close();
+    }
+
+    @Benchmark
+    public TriplestoreSession leaseAndRelease() throws Exception {
+        TriplestoreSession session = m_pool.get();
+        m_pool.release(session);
+        return session;
+    }
+
+}
@@ -0,0 +1,81 @@
+package org.trippi.benchmarks;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.jrdf.graph.Node;
+import org.jrdf.graph.Triple;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import org.trippi.TriplePattern;
+import org.trippi.TripleTemplate;
+
+/**
+ * Parses triple templates and matches them against tuples, as is done
+ * for every row of a <code>findTriples</code> query with a template.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TriplePatternBenchmark {
+
+    private static final String TEMPLATE =
+              "$s <" + BenchmarkData.MODEL + "label> $label\n"
+            + "$s <" + BenchmarkData.MODEL + "hasModel> $model\n"
+            + "$s <" + BenchmarkData.MODEL + "createdDate> $date\n"
+            + "$s <" + BenchmarkData.MODEL + "state> <" + BenchmarkData.MODEL + "Active>";
+
+    private TriplePattern[] m_patterns;
+    private List<Map<String, Node>> m_rows;
+    private TripleTemplate m_template;
+    private Triple[] m_triples;
+
+    @Setup
+    public void setUp() throws Exception {
+        m_patterns = TriplePattern.parse(TEMPLATE);
+        m_rows = BenchmarkData.tuples(1000);
+        m_template = new TripleTemplate(m_patterns, BenchmarkData.TUPLE_NAMES);
+        m_triples = new Triple[m_template.size()];
+    }
+
+    @Benchmark
+    public TriplePattern[] parse() throws Exception {
+        return TriplePattern.parse(TEMPLATE);
+    }
+
+    /**
+     * Match the template against 1000 rows, one in ten of which leave
+     * <code>$date</code> unbound.
+     */
+    @Benchmark
+    public void match(Blackhole bh) throws Exception {
+        for (int i = 0; i < m_rows.size(); i++) {
+            Map<String, Node> row = m_rows.get(i);
+            for (int j = 0; j < m_patterns.length; j++) {
+                bh.consume(m_patterns[j].match(row));
+            }
+        }
+    }
+
+    /**
+     * Project the same rows through the template compiled from the
+     * patterns, as <code>TupleBasedTripleIterator</code> does.
+     */
+    @Benchmark
+    public void project(Blackhole bh) throws Exception {
+        for (int i = 0; i < m_rows.size(); i++) {
+            int n = m_template.project(m_rows.get(i), m_triples);
+            for (int j = 0; j < n; j++) {
+                bh.consume(m_triples[j]);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,54 @@
+package org.trippi.benchmarks;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.jrdf.graph.Triple;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.trippi.RDFFormat;
+import org.trippi.TripleIterator;
+import org.trippi.impl.base.DefaultAliasManager;
+import org.trippi.io.SimpleTripleIterator;
+
+/**
+ * Serializes 10,000 triples in each of the triple output formats.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TripleWriterBenchmark {
+
+    /** The name of the format, as accepted by <code>RDFFormat.forName</code>. */
+    @Param({ "N-Triples", "Notation 3", "RDF/XML", "Turtle", "json",
+             "count", "count/json", "Binary Triples" })
+    public String format;
+
+    private RDFFormat m_format;
+    private Set<Triple> m_triples;
+    private DefaultAliasManager m_aliases;
+
+    @Setup
+    public void setUp() throws Exception {
+        m_format = RDFFormat.forName(format);
+        m_triples = BenchmarkData.triples(2000);
+        m_aliases = new DefaultAliasManager();
+        m_aliases.addAlias("fedora-model", BenchmarkData.MODEL);
+        m_aliases.addAlias("fedora-rels-ext", BenchmarkData.RELS);
+    }
+
+    @Benchmark
+    public long write() throws Exception {
+        TripleIterator iter = new SimpleTripleIterator(m_triples, m_aliases);
+        BenchmarkData.CountingOutputStream out = new BenchmarkData.CountingOutputStream();
+        iter.toStream(out, m_format);
+        return out.count;
+    }
+
+}
@@ -0,0 +1,58 @@
+package org.trippi.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import org.trippi.RDFFormat;
+import org.trippi.TupleIterator;
+
+/**
+ * Reads 10,000 tuples back with <code>TupleIterator.fromStream</code>
+ * in each of the tuple input formats.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TupleParseBenchmark {
+
+    /** The name of the format, as accepted by <code>RDFFormat.forName</code>. */
+    @Param({ "Sparql", "Sparql_W3C", "Binary Tuples" })
+    public String format;
+
+    private RDFFormat m_format;
+    private byte[] m_bytes;
+
+    @Setup
+    public void setUp() throws Exception {
+        m_format = RDFFormat.forName(format);
+        TupleIterator iter = new BenchmarkData.ListTupleIterator(
+                BenchmarkData.tuples(10000), BenchmarkData.TUPLE_NAMES);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        iter.toStream(out, m_format);
+        m_bytes = out.toByteArray();
+    }
+
+    @Benchmark
+    public int fromStream(Blackhole bh) throws Exception {
+        TupleIterator iter = TupleIterator.fromStream(
+                new ByteArrayInputStream(m_bytes), m_format);
+        int n = 0;
+        while (iter.hasNext()) {
+            bh.consume(iter.next());
+            n++;
+        }
+        iter.close();
+        return n;
+    }
+
+}
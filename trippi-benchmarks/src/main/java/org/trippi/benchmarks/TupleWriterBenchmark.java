@@ -0,0 +1,49 @@
+package org.trippi.benchmarks;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.jrdf.graph.Node;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.trippi.RDFFormat;
+import org.trippi.TupleIterator;
+
+/**
+ * Serializes 10,000 tuples in each of the tuple output formats.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TupleWriterBenchmark {
+
+    /** The name of the format, as accepted by <code>RDFFormat.forName</code>. */
+    @Param({ "CSV", "Simple", "Sparql", "Sparql_W3C", "TSV", "json",
+             "count", "count/json", "count/Sparql", "Binary Tuples" })
+    public String format;
+
+    private RDFFormat m_format;
+    private List<Map<String, Node>> m_rows;
+
+    @Setup
+    public void setUp() throws Exception {
+        m_format = RDFFormat.forName(format);
+        m_rows = BenchmarkData.tuples(10000);
+    }
+
+    @Benchmark
+    public long write() throws Exception {
+        TupleIterator iter = new BenchmarkData.ListTupleIterator(m_rows, BenchmarkData.TUPLE_NAMES);
+        BenchmarkData.CountingOutputStream out = new BenchmarkData.CountingOutputStream();
+        iter.toStream(out, m_format);
+        return out.count;
+    }
+
+}
@@ -0,0 +1,92 @@
+package org.trippi.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.jrdf.graph.Node;
+import org.jrdf.graph.Triple;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.trippi.impl.base.MemUpdateBuffer;
+import org.trippi.impl.base.StripedUpdateBuffer;
+import org.trippi.impl.base.TriplestoreSession;
+import org.trippi.impl.base.UpdateBuffer;
+
+/**
+ * Adds to an update buffer from several threads while another flushes
+ * it, as a busy <code>ConcurrentTriplestoreWriter</code> does.  Like the
+ * writer, an adder that finds the buffer over its safe capacity flushes
+ * it, so the buffer can't outgrow the heap when the adders are faster.
+ * <p>
+ * Run with <code>-tg 1,1</code> for the uncontended case.
+ * </p>
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class UpdateBufferBenchmark {
+
+    /** The buffer implementation: <code>mem</code> or <code>striped</code>. */
+    @Param({ "mem", "striped" })
+    public String buffer;
+
+    /** The number of triples in each add. */
+    @Param({ "1", "100" })
+    public int batchSize;
+
+    private UpdateBuffer m_buffer;
+    private TriplestoreSession m_session;
+    private List<Triple> m_batch;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        if (buffer.equals("striped")) {
+            m_buffer = new StripedUpdateBuffer(100000, 1000);
+        } else {
+            m_buffer = new MemUpdateBuffer(100000, 1000);
+        }
+        m_session = new MemoryTriplestoreSession.Factory(
+                new ArrayList<Map<String, Node>>()).newSession();
+        m_batch = new ArrayList<Triple>(BenchmarkData.triples(batchSize))
+                .subList(0, batchSize);
+    }
+
+    @TearDown(Level.Iteration)
+    public void drain() throws Exception {
+        m_buffer.flush(m_session);
+    }
+
+    @Benchmark
+    @Group("addFlush")
+    @GroupThreads(3)
+    public void add() throws Exception {
+        if (batchSize == 1) {
+            m_buffer.add(m_batch.get(0));
+        } else {
+            m_buffer.add(m_batch);
+        }
+        if (m_buffer.size() > m_buffer.safeCapacity()) {
+            m_buffer.flush(m_session);
+        }
+    }
+
+    @Benchmark
+    @Group("addFlush")
+    @GroupThreads(1)
+    public void flush() throws Exception {
+        m_buffer.flush(m_session);
+    }
+
+}
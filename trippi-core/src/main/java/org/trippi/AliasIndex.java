@@ -0,0 +1,208 @@
+package org.trippi;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An immutable, precompiled form of a set of aliases.
+ * <p>
+ * Expanding the aliases in a query is done in a single pass over the
+ * query, rather than one regular expression pass per alias, and finding
+ * the alias for a URI walks a trie of the expansions, yielding the
+ * longest one that matches, rather than trying every alias in turn.
+ * </p><p>
+ * Building an index costs about as much as a few queries, so it should
+ * be built once and reused until the aliases change;
+ * <code>DefaultAliasManager.getAliasIndex()</code> does this.
+ * </p>
+ */
+public class AliasIndex {
+
+    /** An index with no aliases. */
+    public static final AliasIndex EMPTY = new AliasIndex(new HashMap<String, Alias>(0));
+
+    // alias prefix -> alias
+    private final Map<String, Alias> m_byKey;
+    private final int m_maxKeyLength;
+    private final TrieNode m_root;
+
+    public AliasIndex(Map<String, Alias> aliases) {
+        m_byKey = new HashMap<String, Alias>(aliases.size() * 2);
+        int maxKeyLength = 0;
+        BuildNode root = new BuildNode();
+        for (Alias alias : aliases.values()) {
+            m_byKey.put(alias.getKey(), alias);
+            maxKeyLength = Math.max(maxKeyLength, alias.getKey().length());
+            BuildNode node = root;
+            String expansion = alias.getExpansion();
+            for (int i = 0; i < expansion.length(); i++) {
+                Character c = Character.valueOf(expansion.charAt(i));
+                BuildNode child = node.children.get(c);
+                if (child == null) {
+                    child = new BuildNode();
+                    node.children.put(c, child);
+                }
+                node = child;
+            }
+            node.alias = alias;
+        }
+        m_maxKeyLength = maxKeyLength;
+        m_root = root.compile();
+    }
+
+    /**
+     * Build an index from a map of alias prefixes to expansions.
+     */
+    public static AliasIndex fromStrings(Map<String, String> aliases) {
+        if (aliases == null || aliases.isEmpty()) return EMPTY;
+        Map<String, Alias> map = new HashMap<String, Alias>(aliases.size() * 2);
+        for (Map.Entry<String, String> entry : aliases.entrySet()) {
+            map.put(entry.getKey(), new Alias(entry.getKey(), entry.getValue()));
+        }
+        return new AliasIndex(map);
+    }
+
+    public boolean isEmpty() {
+        return m_byKey.isEmpty();
+    }
+
+    /**
+     * Get the alias with the given prefix, or null.
+     */
+    public Alias get(String key) {
+        return m_byKey.get(key);
+    }
+
+    /**
+     * Get the alias with the longest expansion that <code>s</code> starts
+     * with at <code>offset</code>, or null if there is none.
+     */
+    public Alias longestPrefix(String s, int offset) {
+        Alias match = null;
+        TrieNode node = m_root;
+        int i = offset;
+        while (true) {
+            if (node.alias != null) match = node.alias;
+            if (i == s.length()) break;
+            node = node.child(s.charAt(i++));
+            if (node == null) break;
+        }
+        return match;
+    }
+
+    /**
+     * Expand aliased URIs (<code>&lt;prefix:local&gt;</code>) and
+     * aliased datatypes (<code>^^prefix:local</code>) in a query.
+     * <p>
+     * This has the same effect as calling
+     * <code>replaceSparqlType(replaceSparqlUri(query))</code> with
+     * each <code>Alias</code>, but reads the query once.
+     * </p>
+     */
+    public String expandQuery(String query) {
+        if (m_byKey.isEmpty()) return query;
+        StringBuilder out = null;
+        int copied = 0;
+        int len = query.length();
+        int i = 0;
+        while (i < len) {
+            char c = query.charAt(i);
+            if (c == '<') {
+                Alias alias = aliasAt(query, i + 1);
+                if (alias != null) {
+                    if (out == null) out = new StringBuilder(len + 64);
+                    out.append(query, copied, i);
+                    out.append('<').append(alias.getExpansion());
+                    i += alias.getKey().length() + 2;
+                    copied = i;
+                    continue;
+                }
+            } else if (c == '^' && i + 1 < len && query.charAt(i + 1) == '^') {
+                Alias alias = aliasAt(query, i + 2);
+                int start = i + 3 + (alias == null ? 0 : alias.getKey().length());
+                if (alias != null && start < len
+                        && !Character.isWhitespace(query.charAt(start))) {
+                    int end = start + 1;
+                    while (end < len && !Character.isWhitespace(query.charAt(end))) {
+                        end++;
+                    }
+                    if (out == null) out = new StringBuilder(len + 64);
+                    out.append(query, copied, i);
+                    out.append("^^<").append(alias.getExpansion());
+                    out.append(query, start, end).append('>');
+                    i = end;
+                    copied = i;
+                    continue;
+                }
+                i += 2;
+                continue;
+            }
+            i++;
+        }
+        if (out == null) return query;
+        out.append(query, copied, len);
+        return out.toString();
+    }
+
+    /**
+     * Get the alias whose prefix, followed by a colon, starts at
+     * <code>offset</code>, or null.
+     */
+    private Alias aliasAt(String s, int offset) {
+        int limit = Math.min(s.length(), offset + m_maxKeyLength + 1);
+        for (int i = offset; i < limit; i++) {
+            char c = s.charAt(i);
+            if (c == ':') {
+                return m_byKey.get(s.substring(offset, i));
+            } else if (c == '<' || c == '>' || Character.isWhitespace(c)) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A trie node with its children in sorted arrays.
+     */
+    private static class TrieNode {
+
+        final char[] chars;
+        final TrieNode[] children;
+        final Alias alias;
+
+        TrieNode(char[] chars, TrieNode[] children, Alias alias) {
+            this.chars = chars;
+            this.children = children;
+            this.alias = alias;
+        }
+
+        TrieNode child(char c) {
+            if (chars.length == 1) {
+                return chars[0] == c ? children[0] : null;
+            }
+            int i = Arrays.binarySearch(chars, c);
+            return i < 0 ? null : children[i];
+        }
+    }
+
+    private static class BuildNode {
+
+        TreeMap<Character, BuildNode> children = new TreeMap<Character, BuildNode>();
+        Alias alias;
+
+        TrieNode compile() {
+            char[] chars = new char[children.size()];
+            TrieNode[] nodes = new TrieNode[children.size()];
+            int i = 0;
+            for (Map.Entry<Character, BuildNode> entry : children.entrySet()) {
+                chars[i] = entry.getKey().charValue();
+                nodes[i] = entry.getValue().compile();
+                i++;
+            }
+            return new TrieNode(chars, nodes, alias);
+        }
+    }
+
+}
@@ -18,4 +18,10 @@ public interface AliasManager {
 
     public abstract Map<String, Alias> getAliases();
 
+    /**
+     * Get a compiled index of the current aliases, for expanding queries
+     * and compacting URIs.
+     */
+    public abstract AliasIndex getAliasIndex();
+
 }
\ No newline at end of file
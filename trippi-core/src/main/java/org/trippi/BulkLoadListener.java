@@ -0,0 +1,15 @@
+package org.trippi;
+
+/**
+ * Receives progress notifications during a bulk load.
+ */
+public interface BulkLoadListener {
+
+    /**
+     * Called each time a batch of triples has been written.
+     *
+     * @param triplesLoaded the total number of triples written so far.
+     */
+    public void triplesLoaded(long triplesLoaded);
+
+}
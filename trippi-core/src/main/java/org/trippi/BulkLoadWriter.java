@@ -0,0 +1,32 @@
+package org.trippi;
+
+import java.io.IOException;
+
+/**
+ * A <code>TriplestoreWriter</code> that can stream large numbers of
+ * triples into the store without going through its update buffer.
+ */
+public interface BulkLoadWriter extends TriplestoreWriter {
+
+    /**
+     * Stream a large number of triples directly into the store.
+     *
+     * Unlike the <code>add</code> methods, this does not go through the
+     * update buffer: triples are written in batches of <i>batchSize</i>
+     * as they are read, without being normalized against pending updates.
+     * Anything already in the buffer is flushed first.  Duplicate triples
+     * in the input are not removed across batches.
+     *
+     * The iterator is closed before this method returns.
+     *
+     * @param  iter       an iterator over the triples
+     * @param  batchSize  the number of triples to write at a time
+     * @param  listener   notified after each batch, or null
+     * @return            the number of triples written
+     */
+    public long bulkAdd(TripleIterator iter,
+                        int batchSize,
+                        BulkLoadListener listener) throws IOException,
+                                                          TrippiException;
+
+}
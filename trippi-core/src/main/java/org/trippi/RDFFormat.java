@@ -117,6 +117,28 @@ public class RDFFormat {
             ".xml");   
     
 
+    /**
+     * A compact binary format for tuples, with each distinct value sent
+     * only once per response.
+     *
+     * @see org.trippi.io.BinaryTupleWriter
+     */
+    public static final RDFFormat BINARY_TUPLES = new RDFFormat("Binary Tuples",
+            "UTF-8",
+            "application/x-trippi-tuples",
+            ".ttb");
+
+    /**
+     * A compact binary format for triples, with each distinct node sent
+     * only once per stream.
+     *
+     * @see org.trippi.io.BinaryTripleWriter
+     */
+    public static final RDFFormat BINARY_TRIPLES = new RDFFormat("Binary Triples",
+            "UTF-8",
+            "application/x-trippi-triples",
+            ".trb");
+
     public static final RDFFormat[] ALL = new RDFFormat[] { N_TRIPLES,
                                                             NOTATION_3,
                                                             RDF_XML,
@@ -130,7 +152,9 @@ public class RDFFormat {
                                                             COUNT,
                                                             COUNT_JSON,
                                                             COUNT_SPARQL,
-                                                            COUNT };
+                                                            COUNT,
+                                                            BINARY_TUPLES,
+                                                            BINARY_TRIPLES };
 
     private String m_name;
     private String m_encoding;
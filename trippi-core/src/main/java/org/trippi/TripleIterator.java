@@ -24,6 +24,7 @@ import org.openrdf.rio.ntriples.NTriplesWriter;
 import org.openrdf.rio.rdfxml.RDFXMLWriter;
 import org.openrdf.rio.turtle.TurtleWriter;
 import org.trippi.impl.base.DefaultAliasManager;
+import org.trippi.io.BinaryTripleWriter;
 import org.trippi.io.CountTripleWriter;
 import org.trippi.io.FormatCountTripleWriter;
 import org.trippi.io.JSONTripleWriter;
@@ -47,7 +48,8 @@ public abstract class TripleIterator implements TrippiIterator<Triple>{
     public static final RDFFormat[] INPUT_FORMATS = 
                                          new RDFFormat[] { RDFFormat.N_TRIPLES,
                                                            RDFFormat.RDF_XML,
-                                                           RDFFormat.TURTLE };
+                                                           RDFFormat.TURTLE,
+                                                           RDFFormat.BINARY_TRIPLES };
 
     /** 
      * Formats supported for writing.
@@ -61,7 +63,8 @@ public abstract class TripleIterator implements TrippiIterator<Triple>{
                                                            RDFFormat.TURTLE,
                                                            RDFFormat.JSON,
                                                            RDFFormat.COUNT,
-                                                           RDFFormat.COUNT_JSON };
+                                                           RDFFormat.COUNT_JSON,
+                                                           RDFFormat.BINARY_TRIPLES };
 
     private AliasManager m_aliases = new DefaultAliasManager();
 
@@ -169,6 +172,8 @@ public abstract class TripleIterator implements TrippiIterator<Triple>{
             writer = new FormatCountTripleWriter(new JSONTripleWriter(out, m_aliases)); 
         } else if (format == RDFFormat.JSON) {
             writer = new JSONTripleWriter(out, m_aliases); 
+        } else if (format == RDFFormat.BINARY_TRIPLES) {
+            writer = new BinaryTripleWriter(out);
         } else {
             throw new TrippiException("Unsupported output format: " + format.getName());
         }
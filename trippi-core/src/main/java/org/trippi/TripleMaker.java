@@ -80,9 +80,11 @@ public class TripleMaker {
     public static URIReference createResource(String uri) 
             throws TrippiException {
         try {
-            return createResource(new URI(uri));
+            return RDFFactories.createResource(uri);
         } catch (URISyntaxException e) {
             throw new TrippiException(e.getMessage(), e);
+        } catch (GraphElementFactoryException e) {
+            throw new TrippiException(e.getMessage(), e);
         }
     }
     
@@ -150,9 +152,11 @@ public class TripleMaker {
         try {
             return create(createResource(subject),
                           createResource(predicate),
-                          createLiteral(object, new URI(datatype)));
+                          RDFFactories.createTypedLiteral(object, datatype));
         } catch (URISyntaxException e) {
             throw new TrippiException(e.getMessage(), e);
+        } catch (GraphElementFactoryException e) {
+            throw new TrippiException(e.getMessage(), e);
         }
     }
     
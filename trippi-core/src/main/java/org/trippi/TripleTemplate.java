@@ -0,0 +1,170 @@
+package org.trippi;
+
+import java.util.Map;
+
+import org.jrdf.graph.BlankNode;
+import org.jrdf.graph.GraphElementFactoryException;
+import org.jrdf.graph.Node;
+import org.jrdf.graph.ObjectNode;
+import org.jrdf.graph.PredicateNode;
+import org.jrdf.graph.SubjectNode;
+import org.jrdf.graph.Triple;
+import org.trippi.impl.RDFFactories;
+
+/**
+ * A group of <code>TriplePattern</code>s compiled against the binding
+ * variable names of a tuple result, for deriving triples from many
+ * tuples.
+ *
+ * Each variable in the patterns is resolved to a column once, so a
+ * <code>TupleRow</code> with the compiled names is projected without any
+ * map lookups.  Other tuples are still accepted; they are read by name.
+ * The triples are the same as those <code>TriplePattern.match</code>
+ * would give for each pattern, in pattern order.
+ *
+ * Instances keep no per-row state but are not thread-safe, since they
+ * recompile themselves when handed a row with different names.
+ */
+public class TripleTemplate {
+
+    private static final int SUBJECT   = 0;
+    private static final int PREDICATE = 1;
+    private static final int OBJECT    = 2;
+
+    private TriplePattern[] m_patterns;
+
+    private String[] m_names;
+
+    /** Column of each pattern position, or -1 if it's not a variable. */
+    private int[] m_columns;
+
+    /** Name of each variable position, or null if it's not a variable. */
+    private String[] m_variables;
+
+    /** Node at each constant position, or null if it's a variable. */
+    private Node[] m_constants;
+
+    private boolean m_hasBlankNodes;
+
+    /**
+     * Compile the patterns against the given binding variable names.
+     *
+     * A variable that isn't one of the names is not an error until a
+     * tuple is projected, as with <code>TriplePattern.match</code>.
+     */
+    public TripleTemplate(TriplePattern[] patterns, String[] names) {
+        m_patterns = patterns;
+        m_variables = new String[patterns.length * 3];
+        m_constants = new Node[patterns.length * 3];
+        for (int i = 0; i < patterns.length; i++) {
+            setSlot(i * 3 + SUBJECT, patterns[i].getSubject());
+            setSlot(i * 3 + PREDICATE, patterns[i].getPredicate());
+            setSlot(i * 3 + OBJECT, patterns[i].getObject());
+        }
+        compile(names);
+    }
+
+    private void setSlot(int slot, Object part) {
+        if (part instanceof String) {
+            m_variables[slot] = (String) part;
+        } else {
+            m_constants[slot] = (Node) part;
+            if (part instanceof BlankNode) m_hasBlankNodes = true;
+        }
+    }
+
+    private void compile(String[] names) {
+        m_names = names;
+        m_columns = new int[m_variables.length];
+        for (int slot = 0; slot < m_variables.length; slot++) {
+            m_columns[slot] = -1;
+            if (m_variables[slot] != null && names != null) {
+                for (int i = 0; i < names.length; i++) {
+                    if (names[i].equals(m_variables[slot])) {
+                        m_columns[slot] = i;
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the most triples a single tuple can produce.
+     */
+    public int size() {
+        return m_patterns.length;
+    }
+
+    /**
+     * Put the triples for the given tuple into <code>out</code>, which
+     * must have room for <code>size()</code> triples.
+     *
+     * Patterns whose variables are unbound in the tuple, or bound to a
+     * node of the wrong type for their position, are skipped.
+     *
+     * @return the number of triples written, starting at index 0.
+     * @throws TrippiException if the tuple does not contain a value for
+     *                         a binding name in one of the patterns.
+     */
+    public int project(Map<String, Node> tuple,
+                       Triple[] out) throws TrippiException {
+        TupleRow row = null;
+        if (tuple instanceof TupleRow) {
+            row = (TupleRow) tuple;
+            if (row.names() != m_names) compile(row.names());
+        }
+        int tupleHash = 0;
+        if (m_hasBlankNodes) tupleHash = tuple.hashCode();
+        int n = 0;
+        try {
+            for (int i = 0; i < m_patterns.length; i++) {
+                int slot = i * 3;
+                Node s = resolve(slot + SUBJECT, tuple, row, tupleHash);
+                if (!(s instanceof SubjectNode)) continue;
+                Node p = resolve(slot + PREDICATE, tuple, row, tupleHash);
+                if (!(p instanceof PredicateNode)) continue;
+                Node o = resolve(slot + OBJECT, tuple, row, tupleHash);
+                if (!(o instanceof ObjectNode)) continue;
+                out[n++] = RDFFactories.createTriple((SubjectNode) s,
+                                                     (PredicateNode) p,
+                                                     (ObjectNode) o);
+            }
+        } catch (GraphElementFactoryException e) {
+            throw new TrippiException(e.getClass().getName() + ": "
+                    + e.getMessage(), e);
+        }
+        return n;
+    }
+
+    private Node resolve(int slot,
+                         Map<String, Node> tuple,
+                         TupleRow row,
+                         int tupleHash) throws TrippiException {
+        Node constant = m_constants[slot];
+        if (constant != null) {
+            if (constant instanceof BlankNode) {
+                // Unique to the tuple, but shared by the patterns evaluated
+                // against it, as in TriplePattern.match
+                return RDFFactories.createResource(tupleHash
+                                                   + constant.hashCode());
+            }
+            return constant;
+        }
+        int column = m_columns[slot];
+        if (row != null) {
+            if (column < 0) throw noValue(slot);
+            return row.get(column);
+        }
+        String name = m_variables[slot];
+        Node node = tuple.get(name);
+        if (node == null && !tuple.containsKey(name)) throw noValue(slot);
+        return node;
+    }
+
+    private TrippiException noValue(int slot) {
+        return new TrippiException("No value named '" + m_variables[slot]
+                                   + "' in tuple.");
+    }
+
+}
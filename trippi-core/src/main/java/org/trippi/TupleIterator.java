@@ -12,12 +12,15 @@ import java.util.Map;
 
 import org.jrdf.graph.Node;
 import org.jrdf.graph.Triple;
+import org.trippi.io.BinaryTupleIterator;
+import org.trippi.io.BinaryTupleWriter;
 import org.trippi.io.CSVTupleWriter;
 import org.trippi.io.FormatCountTupleWriter;
 import org.trippi.io.JSONTupleWriter;
 import org.trippi.io.SimpleTupleWriter;
 import org.trippi.io.SparqlTupleIterator;
 import org.trippi.io.SparqlTupleWriter;
+import org.trippi.io.SparqlW3CTupleIterator;
 import org.trippi.io.SparqlW3CTupleWriter;
 import org.trippi.io.TSVTupleWriter;
 import org.trippi.io.TupleWriter;
@@ -27,7 +30,8 @@ import org.trippi.io.CountTupleWriter;
  * An iterator over a series of tuples.
  *
  * Each tuple is a Map of JRDF Node objects keyed by query binding variable
- * names.
+ * names.  The built-in iterators return <code>TupleRow</code>s, which
+ * hold the values in an array in the same order as <code>names()</code>.
  *
  * @author cwilper@cs.cornell.edu
  */
@@ -39,7 +43,9 @@ public abstract class TupleIterator implements TrippiIterator<Map<String, Node>>
      * @see #fromStream(InputStream, RDFFormat)
      */
     public static final RDFFormat[] INPUT_FORMATS = 
-                                         new RDFFormat[] { RDFFormat.SPARQL };
+                                         new RDFFormat[] { RDFFormat.SPARQL,
+                                                           RDFFormat.SPARQL_W3C,
+                                                           RDFFormat.BINARY_TUPLES };
 
     /** 
      * Formats supported for writing.
@@ -55,7 +61,8 @@ public abstract class TupleIterator implements TrippiIterator<Map<String, Node>>
                                                            RDFFormat.JSON,
                                                            RDFFormat.COUNT,
                                                            RDFFormat.COUNT_JSON,
-                                                           RDFFormat.COUNT_SPARQL };
+                                                           RDFFormat.COUNT_SPARQL,
+                                                           RDFFormat.BINARY_TUPLES };
 
     private Map<String, String> m_aliases = new HashMap<String, String>();
 
@@ -152,6 +159,8 @@ public abstract class TupleIterator implements TrippiIterator<Map<String, Node>>
             writer = new FormatCountTupleWriter(new SparqlTupleWriter(out, m_aliases)); 
         } else if (format == RDFFormat.JSON) {
             writer = new JSONTupleWriter(out, m_aliases); 
+        } else if (format == RDFFormat.BINARY_TUPLES) {
+            writer = new BinaryTupleWriter(out);
         } else {
             throw new TrippiException("Unsupported output format: " + format.getName());
         }
@@ -166,6 +175,10 @@ public abstract class TupleIterator implements TrippiIterator<Map<String, Node>>
                                                                  TrippiException {
         if (format == RDFFormat.SPARQL) {
             return new SparqlTupleIterator(in);
+        } else if (format == RDFFormat.SPARQL_W3C) {
+            return new SparqlW3CTupleIterator(in);
+        } else if (format == RDFFormat.BINARY_TUPLES) {
+            return new BinaryTupleIterator(in);
         } else {
             throw new TrippiException("Unsupported input format: " + format.getName());
         }
@@ -0,0 +1,133 @@
+package org.trippi;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.jrdf.graph.Node;
+
+/**
+ * A tuple whose values are held in an array, in the same order as the
+ * binding variable names of the <code>TupleIterator</code> it came from.
+ *
+ * The built-in iterators return these from <code>next()</code>, sharing
+ * one names array between all the rows of a result.  Code that knows
+ * the column it wants can use <code>get(int)</code>, and the writers do
+ * (see <code>valueAt</code>), but a row is also an ordinary read-only
+ * <code>Map</code>.  Every name is a key; unbound values are null.
+ */
+public class TupleRow extends AbstractMap<String, Node> {
+
+    private final String[] m_names;
+    private final Node[] m_values;
+
+    /**
+     * Create a row with the given names and values.
+     *
+     * Neither array is copied, so the names may be shared between rows,
+     * and the values must not be changed after the row is handed out.
+     */
+    public TupleRow(String[] names, Node[] values) {
+        if (names.length != values.length) {
+            throw new IllegalArgumentException("Expected " + names.length
+                    + " values, got " + values.length);
+        }
+        m_names = names;
+        m_values = values;
+    }
+
+    /**
+     * Get the binding variable names, in column order.
+     */
+    public String[] names() {
+        return m_names;
+    }
+
+    /**
+     * Get the value in the given column, or null if it is unbound.
+     */
+    public Node get(int i) {
+        return m_values[i];
+    }
+
+    /**
+     * Get the column with the given name, or -1 if there isn't one.
+     */
+    public int indexOf(Object name) {
+        for (int i = 0; i < m_names.length; i++) {
+            if (m_names[i] == name) return i;
+        }
+        for (int i = 0; i < m_names.length; i++) {
+            if (m_names[i].equals(name)) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Get column <i>i</i> of a tuple with the given names, using the
+     * array if the tuple is a <code>TupleRow</code> with the same names.
+     */
+    public static Node valueAt(Map<String, Node> tuple, String[] names, int i) {
+        if (tuple instanceof TupleRow) {
+            TupleRow row = (TupleRow) tuple;
+            if (row.m_names == names) return row.m_values[i];
+        }
+        return tuple.get(names[i]);
+    }
+
+    @Override
+    public Node get(Object key) {
+        int i = indexOf(key);
+        return i < 0 ? null : m_values[i];
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public int size() {
+        return m_names.length;
+    }
+
+    @Override
+    public Set<Map.Entry<String, Node>> entrySet() {
+        return new AbstractSet<Map.Entry<String, Node>>() {
+
+            @Override
+            public Iterator<Map.Entry<String, Node>> iterator() {
+                return new Iterator<Map.Entry<String, Node>>() {
+
+                    private int m_next = 0;
+
+                    public boolean hasNext() {
+                        return m_next < m_names.length;
+                    }
+
+                    public Map.Entry<String, Node> next() {
+                        if (m_next >= m_names.length) {
+                            throw new NoSuchElementException();
+                        }
+                        int i = m_next++;
+                        return new AbstractMap.SimpleImmutableEntry<String, Node>(
+                                m_names[i], m_values[i]);
+                    }
+
+                    public void remove() {
+                        throw new UnsupportedOperationException("Tuple rows are read-only");
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return m_names.length;
+            }
+        };
+    }
+
+}
@@ -55,6 +55,19 @@ public class ConfigUtils {
         return getRequiredIntGreaterThan(map, key, 0);
     }
     
+    /**
+     * Get a non-negative integer from the map, or the given default value
+     * if the key is not present.  If present, the value must be valid.
+     */
+    public static int getOptionalNNInt(Map<String, String> map, String key, int defaultValue)
+        throws TrippiException {
+        String value = map.get(key);
+        if (value == null || value.trim().length() == 0) {
+            return defaultValue;
+        }
+        return getRequiredNNInt(map, key);
+    }
+    
     /**
      * 
      * @param map
@@ -72,4 +85,17 @@ public class ConfigUtils {
             throw new TrippiException("Expected boolean for " + key + ", but got " + val);
         }
     }
+
+    /**
+     * Get a boolean from the map, or the given default value if the key
+     * is not present.  If present, the value must be valid.
+     */
+    public static boolean getOptionalBoolean(Map<String, String> map, String key, boolean defaultValue)
+        throws TrippiException {
+        String value = map.get(key);
+        if (value == null || value.trim().length() == 0) {
+            return defaultValue;
+        }
+        return getRequiredBoolean(map, key);
+    }
 }
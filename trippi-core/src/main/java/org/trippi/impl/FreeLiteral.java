@@ -6,6 +6,7 @@ import org.jrdf.graph.AbstractLiteral;
 
 public class FreeLiteral extends AbstractLiteral {
 	private static final long serialVersionUID = 1L;
+	private transient int m_hashCode;
 	public FreeLiteral(String lexicalForm) {
         super(lexicalForm);
     }
@@ -15,4 +16,17 @@ public class FreeLiteral extends AbstractLiteral {
     public FreeLiteral(String lexicalForm, URI datatypeURI) {
         super(lexicalForm, datatypeURI);
     }
+    @Override
+    public int hashCode() {
+        int h = m_hashCode;
+        if (h == 0) {
+            h = super.hashCode();
+            m_hashCode = h;
+        }
+        return h;
+    }
+    @Override
+    public boolean equals(Object o) {
+        return this == o || super.equals(o);
+    }
 }
\ No newline at end of file
@@ -7,6 +7,7 @@ import org.jrdf.graph.SubjectNode;
 
 public class FreeTriple extends AbstractTriple {
 	private static final long serialVersionUID = 1L;
+	private transient int m_hashCode;
 
 	public FreeTriple(SubjectNode subjectNode,
                       PredicateNode predicateNode,
@@ -15,4 +16,22 @@ public class FreeTriple extends AbstractTriple {
         this.predicateNode = predicateNode;
         this.objectNode = objectNode;
     }
+
+    @Override
+    public int hashCode() {
+        int h = m_hashCode;
+        if (h == 0) {
+            h = super.hashCode();
+            m_hashCode = h;
+        }
+        return h;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        // cached hashes that differ rule out equality without node compares
+        if (o instanceof FreeTriple && hashCode() != o.hashCode()) return false;
+        return super.equals(o);
+    }
 }
\ No newline at end of file
@@ -6,10 +6,24 @@ import org.jrdf.graph.AbstractURIReference;
 
 public class FreeURIReference extends AbstractURIReference {
 	private static final long serialVersionUID = 1L;
+	private transient int m_hashCode;
 	public FreeURIReference(URI uri) {
         super(uri);
     }
     public FreeURIReference(URI uri, boolean validate) {
         super(uri, validate);
     }
+    @Override
+    public int hashCode() {
+        int h = m_hashCode;
+        if (h == 0) {
+            h = super.hashCode();
+            m_hashCode = h;
+        }
+        return h;
+    }
+    @Override
+    public boolean equals(Object o) {
+        return this == o || super.equals(o);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,255 @@
+package org.trippi.impl;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.jrdf.graph.Literal;
+import org.jrdf.graph.Node;
+import org.jrdf.graph.URIReference;
+
+/**
+ * A bounded dictionary of <code>URIReference</code> and <code>Literal</code>
+ * nodes, keyed by lexical form.
+ * <p>
+ * Parsers and query results tend to produce the same predicates, types
+ * and common objects over and over.  Looking them up here lets repeated
+ * terms share one instance (and one cached hash code) instead of each
+ * parsing its own <code>java.net.URI</code>.
+ * </p><p>
+ * Entries are held in a fixed number of independently locked segments,
+ * each of which evicts its oldest entry once full, so the dictionary
+ * never holds more than its capacity.  To keep a stream of one-off terms
+ * (such as distinct subjects) from constantly churning the dictionary,
+ * a full segment admits only one miss in <code>ADMIT_EVERY</code>; a
+ * term that keeps recurring is admitted soon enough.  A capacity of zero
+ * disables interning.
+ * </p>
+ * Not intended for use outside Trippi project.
+ */
+public class NodeInterner {
+
+    /**
+     * The capacity used if the <code>trippi.nodeCacheSize</code> system
+     * property is not set.
+     */
+    public static final int DEFAULT_CAPACITY = 65536;
+
+    private static final int SEGMENT_BITS = 4;
+    private static final int SEGMENTS = 1 << SEGMENT_BITS;
+
+    // Add one in this many misses to the dictionary (a power of two)
+    private static final int ADMIT_EVERY = 8;
+
+    private final Segment[] m_uris;
+    private final Segment[] m_literals;
+
+    /**
+     * Create an interner that holds up to <i>capacity</i> URIs and
+     * <i>capacity</i> literals.
+     */
+    public NodeInterner(int capacity) {
+        if (capacity > 0) {
+            int perSegment = Math.max(1, capacity / SEGMENTS);
+            m_uris = new Segment[SEGMENTS];
+            m_literals = new Segment[SEGMENTS];
+            for (int i = 0; i < SEGMENTS; i++) {
+                m_uris[i] = new Segment(perSegment);
+                m_literals[i] = new Segment(perSegment);
+            }
+        } else {
+            m_uris = null;
+            m_literals = null;
+        }
+    }
+
+    /**
+     * Get the capacity configured by the <code>trippi.nodeCacheSize</code>
+     * system property, or <code>DEFAULT_CAPACITY</code> if unset or invalid.
+     */
+    public static int getConfiguredCapacity() {
+        String value = System.getProperty("trippi.nodeCacheSize");
+        if (value != null) {
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                // fall through to the default
+            }
+        }
+        return DEFAULT_CAPACITY;
+    }
+
+    public URIReference uriReference(String uri) throws URISyntaxException {
+        if (m_uris == null) {
+            return new FreeURIReference(new URI(uri));
+        }
+        Segment segment = segmentFor(m_uris, uri);
+        URIReference node = (URIReference) segment.get(uri);
+        if (node == null) {
+            node = new FreeURIReference(new URI(uri));
+            segment.admit(uri, node);
+        }
+        return node;
+    }
+
+    public URIReference uriReference(URI uri) {
+        if (m_uris == null) {
+            return new FreeURIReference(uri);
+        }
+        String key = uri.toString();
+        Segment segment = segmentFor(m_uris, key);
+        URIReference node = (URIReference) segment.get(key);
+        if (node == null) {
+            node = new FreeURIReference(uri);
+            segment.admit(key, node);
+        }
+        return node;
+    }
+
+    public Literal literal(String lexicalForm) {
+        if (m_literals == null) {
+            return new FreeLiteral(lexicalForm);
+        }
+        Segment segment = segmentFor(m_literals, lexicalForm);
+        Literal node = (Literal) segment.get(lexicalForm);
+        if (node == null) {
+            node = new FreeLiteral(lexicalForm);
+            segment.admit(lexicalForm, node);
+        }
+        return node;
+    }
+
+    public Literal literal(String lexicalForm, String language) {
+        if (m_literals == null) {
+            return new FreeLiteral(lexicalForm, language);
+        }
+        LiteralKey key = new LiteralKey(lexicalForm, language, false);
+        Segment segment = segmentFor(m_literals, key);
+        Literal node = (Literal) segment.get(key);
+        if (node == null) {
+            node = new FreeLiteral(lexicalForm, language);
+            segment.admit(key, node);
+        }
+        return node;
+    }
+
+    public Literal literal(String lexicalForm, URI datatype) {
+        if (m_literals == null) {
+            return new FreeLiteral(lexicalForm, datatype);
+        }
+        LiteralKey key = new LiteralKey(lexicalForm, datatype.toString(), true);
+        Segment segment = segmentFor(m_literals, key);
+        Literal node = (Literal) segment.get(key);
+        if (node == null) {
+            node = new FreeLiteral(lexicalForm, datatype);
+            segment.admit(key, node);
+        }
+        return node;
+    }
+
+    /**
+     * Get a typed literal, sharing the datatype's <code>URI</code> with
+     * any interned <code>URIReference</code> for it.
+     */
+    public Literal typedLiteral(String lexicalForm, String datatype)
+            throws URISyntaxException {
+        return literal(lexicalForm, uriReference(datatype).getURI());
+    }
+
+    /**
+     * Remove all entries.
+     */
+    public void clear() {
+        if (m_uris != null) {
+            for (int i = 0; i < SEGMENTS; i++) {
+                m_uris[i].clear();
+                m_literals[i].clear();
+            }
+        }
+    }
+
+    // Uses the top bits of a mixed hash, leaving the low bits (which the
+    // segment's own HashMap uses) evenly spread within each segment.
+    private static Segment segmentFor(Segment[] segments, Object key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return segments[h >>> (32 - SEGMENT_BITS)];
+    }
+
+    /**
+     * A bounded, insertion-ordered map guarded by its own lock.
+     *
+     * Lookups don't reorder entries, so a hit never writes to the map.
+     */
+    private static class Segment {
+
+        private final LinkedHashMap<Object, Node> m_map;
+        private final int m_capacity;
+        private int m_misses;
+
+        Segment(final int capacity) {
+            m_capacity = capacity;
+            m_map = new LinkedHashMap<Object, Node>(capacity * 4 / 3 + 1) {
+                private static final long serialVersionUID = 1L;
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Object, Node> eldest) {
+                    return size() > capacity;
+                }
+            };
+        }
+
+        synchronized Node get(Object key) {
+            return m_map.get(key);
+        }
+
+        /**
+         * Add the node if the segment has room, or if it's this miss's
+         * turn to be admitted.
+         */
+        synchronized void admit(Object key, Node node) {
+            if (m_map.size() < m_capacity
+                    || (m_misses++ & (ADMIT_EVERY - 1)) == 0) {
+                m_map.put(key, node);
+            }
+        }
+
+        synchronized void clear() {
+            m_map.clear();
+        }
+    }
+
+    /**
+     * Identifies a language-tagged or typed literal.
+     */
+    private static class LiteralKey {
+
+        private final String m_lexicalForm;
+        private final String m_qualifier;
+        private final boolean m_typed;
+        private final int m_hashCode;
+
+        LiteralKey(String lexicalForm, String qualifier, boolean typed) {
+            m_lexicalForm = lexicalForm;
+            m_qualifier = qualifier;
+            m_typed = typed;
+            m_hashCode = 31 * (31 * lexicalForm.hashCode() + qualifier.hashCode())
+                    + (typed ? 1 : 0);
+        }
+
+        @Override
+        public int hashCode() {
+            return m_hashCode;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof LiteralKey)) return false;
+            LiteralKey k = (LiteralKey) o;
+            return m_hashCode == k.m_hashCode
+                    && m_typed == k.m_typed
+                    && m_lexicalForm.equals(k.m_lexicalForm)
+                    && m_qualifier.equals(k.m_qualifier);
+        }
+    }
+
+}
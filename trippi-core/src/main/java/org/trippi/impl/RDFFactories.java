@@ -14,10 +14,23 @@ import org.jrdf.graph.Triple;
 import org.jrdf.graph.URIReference;
 
 
+/**
+ * Static factory methods for Trippi's JRDF node and triple implementations.
+ * <p>
+ * URI references and literals are looked up in a shared, bounded
+ * <code>NodeInterner</code>, so repeated terms are returned as the same
+ * instance.  Its capacity can be set with the
+ * <code>trippi.nodeCacheSize</code> system property (0 disables it).
+ * </p>
+ */
 public abstract class RDFFactories {
     
     public static final GraphElementFactory FACTORY =
             new StatelessGraphElementFactory();
+
+    private static final NodeInterner INTERNER =
+            new NodeInterner(NodeInterner.getConfiguredCapacity());
+
     /**
      * Create a BlankNode given a unique id.
      */
@@ -29,17 +42,26 @@ public abstract class RDFFactories {
 
     public static Literal createLiteral(String lexicalValue) 
             throws GraphElementFactoryException {
-        return new FreeLiteral(lexicalValue);
+        return INTERNER.literal(lexicalValue);
     }
 
     public static Literal createLiteral(String lexicalValue, String languageType) 
             throws GraphElementFactoryException {
-        return new FreeLiteral(lexicalValue, languageType);
+        return INTERNER.literal(lexicalValue, languageType);
     }
 
     public static Literal createLiteral(String lexicalValue, URI datatypeURI) 
             throws GraphElementFactoryException {
-        return new FreeLiteral(lexicalValue, datatypeURI);
+        return INTERNER.literal(lexicalValue, datatypeURI);
+    }
+
+    /**
+     * Create a typed Literal given the string form of its datatype URI.
+     */
+    public static Literal createTypedLiteral(String lexicalValue, String datatypeURI) 
+            throws GraphElementFactoryException,
+                   URISyntaxException {
+        return INTERNER.typedLiteral(lexicalValue, datatypeURI);
     }
 
     public static BlankNode createResource()
@@ -49,7 +71,18 @@ public abstract class RDFFactories {
 
     public static URIReference createResource(URI uri) 
             throws GraphElementFactoryException {
-        return new FreeURIReference(uri);
+        return INTERNER.uriReference(uri);
+    }
+
+    /**
+     * Create a URIReference given the string form of its URI.
+     *
+     * If the URI has been seen recently, it won't be parsed again.
+     */
+    public static URIReference createResource(String uri) 
+            throws GraphElementFactoryException,
+                   URISyntaxException {
+        return INTERNER.uriReference(uri);
     }
 
     public static URIReference createResource(URI uri, boolean validate) 
@@ -81,7 +114,7 @@ public abstract class RDFFactories {
             throws GraphElementFactoryException,
                    URISyntaxException {
         if (subject instanceof org.openrdf.model.URI) {
-            return createResource( new URI(((org.openrdf.model.URI) subject).stringValue()) );
+            return createResource( ((org.openrdf.model.URI) subject).stringValue() );
         } else {
             return createResource(((org.openrdf.model.BNode) subject).getID().hashCode());
         }
@@ -90,21 +123,21 @@ public abstract class RDFFactories {
     public static PredicateNode predicateNode(org.openrdf.model.URI predicate)
             throws GraphElementFactoryException,
                    URISyntaxException {
-        return createResource( new URI((predicate).stringValue()) );
+        return createResource( predicate.stringValue() );
     }
 
     public static ObjectNode objectNode(org.openrdf.model.Value object)
             throws GraphElementFactoryException,
                    URISyntaxException {
         if (object instanceof org.openrdf.model.URI) {
-            return createResource( new URI(((org.openrdf.model.URI) object).stringValue()) );
+            return createResource( ((org.openrdf.model.URI) object).stringValue() );
         } else if (object instanceof  org.openrdf.model.Literal) {
             org.openrdf.model.Literal lit = (org.openrdf.model.Literal) object;
             org.openrdf.model.URI uri = lit.getDatatype();
             String lang = lit.getLanguage();
             if (uri != null) {
                 // typed 
-                return createLiteral(lit.getLabel(), new URI(uri.toString()));
+                return createTypedLiteral(lit.getLabel(), uri.toString());
             } else if (lang != null && !lang.equals("")) {
                 // local
                 return createLiteral(lit.getLabel(), lang);
@@ -0,0 +1,199 @@
+package org.trippi.impl.base;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.jrdf.graph.ObjectNode;
+import org.jrdf.graph.PredicateNode;
+import org.jrdf.graph.SubjectNode;
+import org.jrdf.graph.Triple;
+
+import org.trippi.FlushErrorHandler;
+import org.trippi.RDFUtil;
+import org.trippi.TripleUpdate;
+import org.trippi.TrippiException;
+
+/**
+ * Common flushing logic for <code>UpdateBuffer</code> implementations.
+ * <p>
+ * Subclasses are responsible for storing updates and handing the
+ * pending ones to <code>writeUpdates</code>, in the order they were
+ * received, when flushed.
+ * </p>
+ */
+public abstract class AbstractUpdateBuffer implements UpdateBuffer {
+
+    private static Logger logger = LoggerFactory.getLogger(AbstractUpdateBuffer.class.getName());
+
+    private int m_safeCapacity;
+    private int m_flushBatchSize;
+
+    private FlushErrorHandler m_flushErrorHandler;
+
+    protected AbstractUpdateBuffer(int safeCapacity,
+                                   int flushBatchSize) {
+        m_safeCapacity = safeCapacity;
+        m_flushBatchSize = flushBatchSize;
+    }
+
+    public int safeCapacity() {
+        return m_safeCapacity;
+    }
+
+    protected int getFlushBatchSize() {
+        return m_flushBatchSize;
+    }
+
+    public void setFlushErrorHandler(FlushErrorHandler h) {
+        m_flushErrorHandler = h;
+    }
+
+    protected FlushErrorHandler getFlushErrorHandler() {
+        return m_flushErrorHandler;
+    }
+
+    /**
+     * Normalize the given updates and write them to the session in
+     * batches of at most <code>flushBatchSize</code>.
+     *
+     * If the session fails, the updates and the exception are passed to
+     * the <code>FlushErrorHandler</code> (if set) before the exception
+     * is re-thrown.
+     */
+    protected void writeUpdates(List<TripleUpdate> toFlush,
+                                TriplestoreSession session)
+            throws TrippiException {
+        try {
+            Set<Triple>[] updates = normalize(toFlush.iterator(), toFlush.size());
+            if (updates[0].size() > m_flushBatchSize) {
+                writeBatches(updates[0].iterator(), TripleUpdate.ADD, session);
+            } else {
+                writeBatch(TripleUpdate.ADD, updates[0], session);
+            }
+            if (updates[1].size() > m_flushBatchSize) {
+                writeBatches(updates[1].iterator(), TripleUpdate.DELETE, session);
+            } else {
+                writeBatch(TripleUpdate.DELETE, updates[1], session);
+            }
+        } catch (TrippiException e) {
+            // in the event of failure, send toFlush and the exception to the
+            // flushErrorHandler, if set.
+            if (m_flushErrorHandler != null) {
+                m_flushErrorHandler.handleFlushError(toFlush, e);
+            }
+            // ... then re-throw the exception
+            throw e;
+        }
+    }
+
+    /**
+     * Normalize the content of the buffer for efficiency.
+     *
+     * This will return an array of two Sets of Triples.
+     * The first set consists of the ADDs, and the second
+     * set consists of the DELETEs.
+     */
+    @SuppressWarnings("unchecked")
+    private static Set<Triple>[] normalize(Iterator<TripleUpdate> iter, int size) {
+        int initialCapacity = size / 2;
+        Set<Triple> adds = new HashSet<Triple>(initialCapacity);
+        Set<Triple> deletes = new HashSet<Triple>(initialCapacity);
+
+        while (iter.hasNext()) {
+            TripleUpdate update = iter.next();
+            if (update.type == TripleUpdate.ADD) {
+                if (!deletes.remove(update.triple)) {
+                    adds.add(update.triple);
+                }
+            } else {
+                if (!adds.remove(update.triple)) {
+                    deletes.add(update.triple);
+                }
+            }
+        }
+
+        return (Set<Triple>[]) new Set<?>[] { adds, deletes };
+    }
+
+    private void writeBatches(Iterator<Triple> iter, int updateType,
+            TriplestoreSession session)
+            throws TrippiException {
+        Set<Triple> triples = new HashSet<Triple>();
+        while (iter.hasNext()) {
+            triples.add(iter.next());
+            if (triples.size() == m_flushBatchSize) {
+                writeBatch(updateType, triples, session);
+                triples.clear();
+            }
+        }
+        if (triples.size() > 0) { // final write
+            writeBatch(updateType, triples, session);
+        }
+    }
+
+    /**
+     * Do the actual writing of a batch to the session.
+     */
+    private void writeBatch(int type, Set<Triple> triples, TriplestoreSession session)
+            throws TrippiException {
+        if (type == TripleUpdate.ADD) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Writing batch of " + triples.size() + " ADDs");
+            }
+            session.add(triples);
+        } else if (type == TripleUpdate.DELETE) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Writing batch of " + triples.size() + " DELETEs");
+            }
+            session.delete(triples);
+        }
+    }
+
+    /**
+     * Tell whether the given update is of the requested type and its
+     * triple matches the given (possibly null) subject, predicate and object.
+     */
+    protected static boolean matches(TripleUpdate tup,
+                                     SubjectNode subject,
+                                     PredicateNode predicate,
+                                     ObjectNode object,
+                                     int updateType) {
+        if (updateType == UpdateBuffer.EITHER_UPDATE_TYPE ||
+                tup.type == updateType) {
+            Triple t = tup.triple;
+            return (subject == null || t.getSubject().equals(subject)) &&
+                   (predicate == null || t.getPredicate().equals(predicate)) &&
+                   (object == null || t.getObject().equals(object));
+        }
+        return false;
+    }
+
+    protected static void traceUpdate(Logger log, String msg, Triple triple) {
+        if (log.isTraceEnabled()) {
+            log.trace(msg, RDFUtil.toString(triple));
+        }
+    }
+
+    protected static void debugUpdate(Logger log, String msg, List<Triple> triples) {
+        if (log.isDebugEnabled()) {
+            log.debug(msg, triples.size());
+            if (log.isTraceEnabled()) {
+                log.trace(tripleListToString(triples));
+            }
+        }
+    }
+
+    private static String tripleListToString(List<Triple> triples) {
+        StringBuffer out = new StringBuffer();
+        for (int i = 0; i < triples.size(); i++) {
+            out.append(RDFUtil.toString(triples.get(i)) + "\n");
+        }
+        return out.toString();
+    }
+
+}
@@ -0,0 +1,26 @@
+package org.trippi.impl.base;
+
+import org.trippi.BulkLoadListener;
+import org.trippi.TripleIterator;
+import org.trippi.TrippiException;
+
+/**
+ * A <code>TriplestoreSession</code> that has a native way of loading
+ * large numbers of triples.
+ */
+public interface BulkLoadSession extends TriplestoreSession {
+
+    /**
+     * Write all triples from the iterator to the store, in batches of
+     * <i>batchSize</i>, notifying the listener (if not null) after each
+     * batch.
+     *
+     * The iterator is not closed by this method.
+     *
+     * @return the number of triples written.
+     */
+    public long bulkAdd(TripleIterator iter,
+                        int batchSize,
+                        BulkLoadListener listener) throws TrippiException;
+
+}
@@ -0,0 +1,116 @@
+package org.trippi.impl.base;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.jrdf.graph.Triple;
+import org.trippi.BulkLoadListener;
+import org.trippi.TripleIterator;
+import org.trippi.TrippiException;
+
+/**
+ * Streams triples into a <code>TriplestoreSession</code> in fixed-size
+ * batches.
+ * <p>
+ * Sessions that implement <code>BulkLoadSession</code> are given the
+ * iterator directly; any other session receives each batch through
+ * <code>add(Set)</code>.
+ * </p>
+ */
+public abstract class BulkLoader {
+
+    private static final Logger logger =
+        LoggerFactory.getLogger(BulkLoader.class.getName());
+
+    /**
+     * Write all triples from the iterator to the session.
+     *
+     * The iterator is not closed by this method.
+     *
+     * @return the number of triples written.
+     */
+    public static long load(TriplestoreSession session,
+                            TripleIterator iter,
+                            int batchSize,
+                            BulkLoadListener listener) throws TrippiException {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be positive");
+        }
+        long start = System.currentTimeMillis();
+        long count;
+        if (session instanceof BulkLoadSession) {
+            count = ((BulkLoadSession) session).bulkAdd(iter, batchSize, listener);
+        } else {
+            count = loadBatches(session, null, iter, batchSize, listener);
+        }
+        double sec = (System.currentTimeMillis() - start) / 1000.0;
+        logger.info("Bulk loaded " + count + " triples in " + sec + " seconds.");
+        return count;
+    }
+
+    /**
+     * Write all triples from the iterator to a session that is shared
+     * with other writers, holding the given lock only while each batch
+     * is written.
+     *
+     * The session's native bulk load, if any, is not used, since it
+     * would hold the lock for the whole load.  The iterator is not closed
+     * by this method.
+     *
+     * @return the number of triples written.
+     */
+    public static long load(TriplestoreSession session,
+                            Object lock,
+                            TripleIterator iter,
+                            int batchSize,
+                            BulkLoadListener listener) throws TrippiException {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be positive");
+        }
+        long start = System.currentTimeMillis();
+        long count = loadBatches(session, lock, iter, batchSize, listener);
+        double sec = (System.currentTimeMillis() - start) / 1000.0;
+        logger.info("Bulk loaded " + count + " triples in " + sec + " seconds.");
+        return count;
+    }
+
+    private static long loadBatches(TriplestoreSession session,
+                                    Object lock,
+                                    TripleIterator iter,
+                                    int batchSize,
+                                    BulkLoadListener listener) throws TrippiException {
+        long count = 0;
+        Set<Triple> batch = new HashSet<Triple>(batchSize * 4 / 3 + 1);
+        while (iter.hasNext()) {
+            batch.add(iter.next());
+            if (batch.size() == batchSize) {
+                add(session, lock, batch);
+                count += batch.size();
+                batch.clear();
+                if (listener != null) listener.triplesLoaded(count);
+            }
+        }
+        if (batch.size() > 0) {
+            add(session, lock, batch);
+            count += batch.size();
+            if (listener != null) listener.triplesLoaded(count);
+        }
+        return count;
+    }
+
+    private static void add(TriplestoreSession session,
+                            Object lock,
+                            Set<Triple> batch) throws TrippiException {
+        if (lock == null) {
+            session.add(batch);
+        } else {
+            synchronized (lock) {
+                session.add(batch);
+            }
+        }
+    }
+
+}
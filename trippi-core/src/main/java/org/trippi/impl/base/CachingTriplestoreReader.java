@@ -0,0 +1,578 @@
+package org.trippi.impl.base;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jrdf.graph.Literal;
+import org.jrdf.graph.Node;
+import org.jrdf.graph.ObjectNode;
+import org.jrdf.graph.PredicateNode;
+import org.jrdf.graph.SubjectNode;
+import org.jrdf.graph.Triple;
+import org.jrdf.graph.URIReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.trippi.AliasManager;
+import org.trippi.TripleIterator;
+import org.trippi.TriplestoreReader;
+import org.trippi.TrippiException;
+import org.trippi.TupleIterator;
+import org.trippi.TupleRow;
+
+/**
+ * A <code>TriplestoreReader</code> that remembers the results of recent
+ * queries.
+ * <p>
+ * Results of up to <i>maxRows</i> rows are read fully into immutable
+ * arrays (which also releases the underlying session right away), and
+ * repeat queries are answered from them without going to the wrapped
+ * reader.  Larger results are streamed as usual and not cached.  Entries
+ * expire after <i>ttlMs</i>, and the least recently used are evicted
+ * once the estimated size of all entries exceeds <i>maxWeight</i> bytes.
+ * </p><p>
+ * Registered as an <code>UpdateListener</code> with a writer, the cache
+ * drops entries whenever changes are committed.  With selective
+ * invalidation (the default), a <code>findTriples(s, p, o)</code> entry
+ * with a bound predicate is only dropped if that predicate was changed;
+ * query-language entries can depend on any predicate, so are always
+ * dropped.  A result that was being read while an invalidation happened
+ * is never cached.
+ * </p><p>
+ * Queries are cached by their text with aliases expanded, so changing
+ * the aliases never serves a result that was read under the old ones.
+ * </p>
+ */
+public class CachingTriplestoreReader implements TriplestoreReader,
+                                                 UpdateListener {
+
+    private static final Logger logger =
+        LoggerFactory.getLogger(CachingTriplestoreReader.class.getName());
+
+    // Estimated heap used by an entry and by a node, beyond their strings
+    private static final int ENTRY_OVERHEAD = 200;
+    private static final int NODE_OVERHEAD = 64;
+
+    private TriplestoreReader m_reader;
+    private AliasManager m_aliasManager;
+    private long m_maxWeight;
+    private long m_ttlMs;
+    private int m_maxRows;
+    private volatile boolean m_selective = true;
+
+    // Least recently used first (guarded by itself)
+    private LinkedHashMap<List<Object>, Entry> m_entries =
+            new LinkedHashMap<List<Object>, Entry>(16, 0.75f, true);
+    private long m_weight;
+
+    // Incremented by every invalidation
+    private AtomicLong m_epoch = new AtomicLong();
+
+    private AtomicLong m_hits = new AtomicLong();
+    private AtomicLong m_misses = new AtomicLong();
+    private AtomicLong m_evictions = new AtomicLong();
+    private AtomicLong m_invalidations = new AtomicLong();
+
+    /**
+     * Wrap a reader that doesn't expand aliases.
+     */
+    public CachingTriplestoreReader(TriplestoreReader reader,
+                                    long maxWeight,
+                                    long ttlMs,
+                                    int maxRows) {
+        this(reader, null, maxWeight, ttlMs, maxRows);
+    }
+
+    /**
+     * @param reader the reader to wrap
+     * @param aliasManager the aliases the reader expands queries with,
+     *        or null if it doesn't
+     * @param maxWeight the most bytes of results to hold, estimated
+     * @param ttlMs how long a result may be served from the cache
+     * @param maxRows the most rows a result may have to be cached
+     */
+    public CachingTriplestoreReader(TriplestoreReader reader,
+                                    AliasManager aliasManager,
+                                    long maxWeight,
+                                    long ttlMs,
+                                    int maxRows) {
+        m_reader = reader;
+        m_aliasManager = aliasManager;
+        m_maxWeight = maxWeight;
+        m_ttlMs = ttlMs;
+        m_maxRows = maxRows;
+    }
+
+    /**
+     * Set whether to drop only the entries that depend on updated
+     * predicates (true, the default), or all entries, after each update.
+     */
+    public void setSelectiveInvalidation(boolean selective) {
+        m_selective = selective;
+    }
+
+    @Deprecated
+    public Map<String, String> getAliasMap() throws TrippiException {
+        return m_reader.getAliasMap();
+    }
+
+    /**
+     * Set the aliases of the wrapped reader, and clear the cache, since
+     * the same query text may now mean something else.
+     */
+    @Deprecated
+    public void setAliasMap(Map<String, String> aliasMap) throws TrippiException {
+        m_reader.setAliasMap(aliasMap);
+        clear();
+    }
+
+    public String[] listTupleLanguages() {
+        return m_reader.listTupleLanguages();
+    }
+
+    public String[] listTripleLanguages() {
+        return m_reader.listTripleLanguages();
+    }
+
+    public TupleIterator findTuples(String queryLang,
+                                    String tupleQuery,
+                                    int limit,
+                                    boolean distinct) throws TrippiException {
+        List<Object> key = Arrays.<Object>asList("tuples", queryLang, expand(tupleQuery),
+                                                 limit, distinct);
+        Entry entry = lookup(key);
+        if (entry != null) {
+            return new CachedTupleIterator(entry.names, entry.rows, entry.rows.length, null);
+        }
+        long epoch = m_epoch.get();
+        return materialize(key, null, epoch,
+                m_reader.findTuples(queryLang, tupleQuery, limit, distinct));
+    }
+
+    public int countTuples(String queryLang,
+                           String tupleQuery,
+                           int limit,
+                           boolean distinct) throws TrippiException {
+        return findTuples(queryLang, tupleQuery, limit, distinct).count();
+    }
+
+    public TripleIterator findTriples(String queryLang,
+                                      String tripleQuery,
+                                      int limit,
+                                      boolean distinct) throws TrippiException {
+        List<Object> key = Arrays.<Object>asList("triples", queryLang, expand(tripleQuery),
+                                                 limit, distinct);
+        Entry entry = lookup(key);
+        if (entry != null) {
+            return new CachedTripleIterator(entry.triples, entry.triples.length, null);
+        }
+        long epoch = m_epoch.get();
+        return materialize(key, null, epoch,
+                m_reader.findTriples(queryLang, tripleQuery, limit, distinct));
+    }
+
+    public int countTriples(String queryLang,
+                            String tripleQuery,
+                            int limit,
+                            boolean distinct) throws TrippiException {
+        return findTriples(queryLang, tripleQuery, limit, distinct).count();
+    }
+
+    public TripleIterator findTriples(SubjectNode subject,
+                                      PredicateNode predicate,
+                                      ObjectNode object,
+                                      int limit) throws TrippiException {
+        List<Object> key = Arrays.<Object>asList("spo", subject, predicate,
+                                                 object, limit);
+        Entry entry = lookup(key);
+        if (entry != null) {
+            return new CachedTripleIterator(entry.triples, entry.triples.length, null);
+        }
+        long epoch = m_epoch.get();
+        return materialize(key, predicate, epoch,
+                m_reader.findTriples(subject, predicate, object, limit));
+    }
+
+    public int countTriples(SubjectNode subject,
+                            PredicateNode predicate,
+                            ObjectNode object,
+                            int limit) throws TrippiException {
+        return findTriples(subject, predicate, object, limit).count();
+    }
+
+    public TripleIterator findTriples(String queryLang,
+                                      String tupleQuery,
+                                      String tripleTemplate,
+                                      int limit,
+                                      boolean distinct) throws TrippiException {
+        List<Object> key = Arrays.<Object>asList("template", queryLang, expand(tupleQuery),
+                                                 expand(tripleTemplate), limit, distinct);
+        Entry entry = lookup(key);
+        if (entry != null) {
+            return new CachedTripleIterator(entry.triples, entry.triples.length, null);
+        }
+        long epoch = m_epoch.get();
+        return materialize(key, null, epoch,
+                m_reader.findTriples(queryLang, tupleQuery, tripleTemplate,
+                                     limit, distinct));
+    }
+
+    public int countTriples(String queryLang,
+                            String tupleQuery,
+                            String tripleTemplate,
+                            int limit,
+                            boolean distinct) throws TrippiException {
+        return findTriples(queryLang, tupleQuery, tripleTemplate, limit,
+                           distinct).count();
+    }
+
+    /**
+     * Expand the aliases in a query as the wrapped reader would.
+     */
+    private String expand(String query) {
+        if (m_aliasManager == null || query == null) return query;
+        return m_aliasManager.getAliasIndex().expandQuery(query);
+    }
+
+    /**
+     * Read up to maxRows tuples.  If that's all of them, cache them;
+     * otherwise return them followed by the rest of the iterator.
+     */
+    private TupleIterator materialize(List<Object> key,
+                                      PredicateNode predicate,
+                                      long epoch,
+                                      TupleIterator iter) throws TrippiException {
+        String[] names = iter.names();
+        List<Node[]> rows = new ArrayList<Node[]>();
+        boolean complete = false;
+        boolean failed = true;
+        try {
+            while (rows.size() <= m_maxRows && iter.hasNext()) {
+                Map<String, Node> map = iter.next();
+                Node[] row = new Node[names.length];
+                for (int i = 0; i < names.length; i++) {
+                    row[i] = TupleRow.valueAt(map, names, i);
+                }
+                rows.add(row);
+            }
+            complete = !iter.hasNext() && rows.size() <= m_maxRows;
+            failed = false;
+        } finally {
+            if (failed || complete) iter.close();
+        }
+        Node[][] array = rows.toArray(new Node[rows.size()][]);
+        if (!complete) {
+            return new CachedTupleIterator(names, array, array.length, iter);
+        }
+        long weight = ENTRY_OVERHEAD + weigh(key);
+        for (String name : names) {
+            weight += 2 * name.length();
+        }
+        for (Node[] row : array) {
+            weight += 16 + 8 * row.length;
+            for (Node node : row) {
+                weight += weigh(node);
+            }
+        }
+        store(key, new Entry(names, array, null, predicate, weight), epoch);
+        return new CachedTupleIterator(names, array, array.length, null);
+    }
+
+    private TripleIterator materialize(List<Object> key,
+                                       PredicateNode predicate,
+                                       long epoch,
+                                       TripleIterator iter) throws TrippiException {
+        List<Triple> triples = new ArrayList<Triple>();
+        boolean complete = false;
+        boolean failed = true;
+        try {
+            while (triples.size() <= m_maxRows && iter.hasNext()) {
+                triples.add(iter.next());
+            }
+            complete = !iter.hasNext() && triples.size() <= m_maxRows;
+            failed = false;
+        } finally {
+            if (failed || complete) iter.close();
+        }
+        Triple[] array = triples.toArray(new Triple[triples.size()]);
+        if (!complete) {
+            return new CachedTripleIterator(array, array.length, iter);
+        }
+        long weight = ENTRY_OVERHEAD + weigh(key);
+        for (Triple triple : array) {
+            weight += 32 + weigh(triple.getSubject())
+                    + weigh(triple.getPredicate())
+                    + weigh(triple.getObject());
+        }
+        store(key, new Entry(null, null, array, predicate, weight), epoch);
+        return new CachedTripleIterator(array, array.length, null);
+    }
+
+    private static long weigh(List<Object> key) {
+        long weight = 0;
+        for (Object part : key) {
+            if (part instanceof String) {
+                weight += 2 * ((String) part).length();
+            } else if (part instanceof Node) {
+                weight += weigh((Node) part);
+            }
+        }
+        return weight;
+    }
+
+    private static long weigh(Node node) {
+        if (node == null) {
+            return 0;
+        } else if (node instanceof URIReference) {
+            return NODE_OVERHEAD + 2 * ((URIReference) node).getURI().toString().length();
+        } else if (node instanceof Literal) {
+            Literal l = (Literal) node;
+            long weight = NODE_OVERHEAD + 2 * l.getLexicalForm().length();
+            if (l.getLanguage() != null) weight += 2 * l.getLanguage().length();
+            return weight;
+        } else {
+            return NODE_OVERHEAD;
+        }
+    }
+
+    private Entry lookup(List<Object> key) {
+        synchronized (m_entries) {
+            Entry entry = m_entries.get(key);
+            if (entry != null) {
+                if (System.currentTimeMillis() - entry.created < m_ttlMs) {
+                    m_hits.incrementAndGet();
+                    return entry;
+                }
+                remove(key);
+            }
+        }
+        m_misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Cache the entry, unless an invalidation happened since the query
+     * began, or the entry alone would exceed the maximum weight.
+     */
+    private void store(List<Object> key, Entry entry, long epoch) {
+        if (entry.weight > m_maxWeight) return;
+        synchronized (m_entries) {
+            if (m_epoch.get() != epoch) return;
+            remove(key);
+            m_entries.put(key, entry);
+            m_weight += entry.weight;
+            Iterator<Map.Entry<List<Object>, Entry>> iter = m_entries.entrySet().iterator();
+            while (m_weight > m_maxWeight && iter.hasNext()) {
+                Entry eldest = iter.next().getValue();
+                iter.remove();
+                m_weight -= eldest.weight;
+                m_evictions.incrementAndGet();
+            }
+        }
+    }
+
+    // caller must hold m_entries
+    private void remove(List<Object> key) {
+        Entry old = m_entries.remove(key);
+        if (old != null) {
+            m_weight -= old.weight;
+        }
+    }
+
+    /**
+     * Drop entries that may depend on the given predicates, or all
+     * entries if predicates is null or invalidation isn't selective.
+     */
+    public void triplesUpdated(Set<PredicateNode> predicates) {
+        synchronized (m_entries) {
+            m_epoch.incrementAndGet();
+            int before = m_entries.size();
+            if (predicates == null || !m_selective) {
+                m_entries.clear();
+                m_weight = 0;
+            } else {
+                Iterator<Entry> iter = m_entries.values().iterator();
+                while (iter.hasNext()) {
+                    Entry entry = iter.next();
+                    if (entry.predicate == null || predicates.contains(entry.predicate)) {
+                        iter.remove();
+                        m_weight -= entry.weight;
+                    }
+                }
+            }
+            int dropped = before - m_entries.size();
+            m_invalidations.addAndGet(dropped);
+            if (dropped > 0 && logger.isDebugEnabled()) {
+                logger.debug("Invalidated " + dropped + " cached results");
+            }
+        }
+    }
+
+    /**
+     * Drop all entries.
+     */
+    public void clear() {
+        triplesUpdated(null);
+    }
+
+    public long getHitCount() {
+        return m_hits.get();
+    }
+
+    public long getMissCount() {
+        return m_misses.get();
+    }
+
+    public long getEvictionCount() {
+        return m_evictions.get();
+    }
+
+    public long getInvalidationCount() {
+        return m_invalidations.get();
+    }
+
+    /**
+     * Get the estimated size of all entries, in bytes.
+     */
+    public long getWeight() {
+        synchronized (m_entries) {
+            return m_weight;
+        }
+    }
+
+    public int size() {
+        synchronized (m_entries) {
+            return m_entries.size();
+        }
+    }
+
+    public void close() throws TrippiException {
+        logger.info("Closing query cache: hits = " + m_hits.get()
+                + ", misses = " + m_misses.get() + ", evictions = "
+                + m_evictions.get() + ", invalidations = "
+                + m_invalidations.get());
+        synchronized (m_entries) {
+            m_entries.clear();
+            m_weight = 0;
+        }
+        m_reader.close();
+    }
+
+    /**
+     * A cached result.  Exactly one of <code>rows</code> and
+     * <code>triples</code> is non-null.
+     */
+    private static class Entry {
+
+        final String[] names;
+        final Node[][] rows;
+        final Triple[] triples;
+        // the only predicate the result depends on, or null for any
+        final PredicateNode predicate;
+        final long weight;
+        final long created = System.currentTimeMillis();
+
+        Entry(String[] names,
+              Node[][] rows,
+              Triple[] triples,
+              PredicateNode predicate,
+              long weight) {
+            this.names = names;
+            this.rows = rows;
+            this.triples = triples;
+            this.predicate = predicate;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * Iterates over an array of rows, then over the rest of an iterator,
+     * if given.
+     */
+    private static class CachedTupleIterator extends TupleIterator {
+
+        private final String[] m_names;
+        private final Node[][] m_rows;
+        private final int m_count;
+        private final TupleIterator m_rest;
+        private int m_position;
+
+        CachedTupleIterator(String[] names,
+                            Node[][] rows,
+                            int count,
+                            TupleIterator rest) {
+            m_names = names;
+            m_rows = rows;
+            m_count = count;
+            m_rest = rest;
+        }
+
+        @Override
+        public boolean hasNext() throws TrippiException {
+            return m_position < m_count || (m_rest != null && m_rest.hasNext());
+        }
+
+        @Override
+        public Map<String, Node> next() throws TrippiException {
+            if (m_position < m_count) {
+                // cached rows are never changed, so they can be shared
+                return new TupleRow(m_names, m_rows[m_position++]);
+            }
+            return m_rest == null ? null : m_rest.next();
+        }
+
+        @Override
+        public String[] names() {
+            return m_names;
+        }
+
+        @Override
+        public void close() throws TrippiException {
+            if (m_rest != null) m_rest.close();
+        }
+    }
+
+    /**
+     * Iterates over an array of triples, then over the rest of an
+     * iterator, if given.
+     */
+    private static class CachedTripleIterator extends TripleIterator {
+
+        private final Triple[] m_triples;
+        private final int m_count;
+        private final TripleIterator m_rest;
+        private int m_position;
+
+        CachedTripleIterator(Triple[] triples,
+                             int count,
+                             TripleIterator rest) {
+            m_triples = triples;
+            m_count = count;
+            m_rest = rest;
+        }
+
+        @Override
+        public boolean hasNext() throws TrippiException {
+            return m_position < m_count || (m_rest != null && m_rest.hasNext());
+        }
+
+        @Override
+        public Triple next() throws TrippiException {
+            if (m_position < m_count) {
+                return m_triples[m_position++];
+            }
+            return m_rest == null ? null : m_rest.next();
+        }
+
+        @Override
+        public void close() throws TrippiException {
+            if (m_rest != null) m_rest.close();
+        }
+    }
+
+}
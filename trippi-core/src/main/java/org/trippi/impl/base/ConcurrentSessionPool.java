@@ -0,0 +1,402 @@
+package org.trippi.impl.base;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.trippi.TrippiException;
+
+/**
+ * A <code>TimedSessionPool</code> that queues callers when all
+ * sessions are in use, rather than failing them.
+ * <p>
+ * Free sessions are kept in a lock-free queue, and a fair semaphore
+ * counts how many are available, so a lease or release that doesn't
+ * have to wait never blocks on a lock, and callers that do have to wait
+ * are served in the order they arrived.  <code>get()</code> waits up to
+ * the pool's lease timeout; <code>get(timeoutMs)</code> waits as long
+ * as the caller chooses.
+ * </p><p>
+ * When a caller has to wait and the pool is allowed to grow, a new
+ * session is created on a worker thread and handed to the longest-waiting
+ * caller (or to the first session released before then).  If it can't be
+ * created, that caller is told so, unless another session is created
+ * first.  The pool also keeps up to <i>spareSessions</i> free in the same
+ * way.  The time each lease waited is recorded in a histogram.
+ * </p>
+ */
+public class ConcurrentSessionPool implements TimedSessionPool {
+
+    private static final Logger logger =
+        LoggerFactory.getLogger(ConcurrentSessionPool.class.getName());
+
+    /** The lease timeout used if none is given, in milliseconds. */
+    public static final long DEFAULT_LEASE_TIMEOUT_MS = 5000;
+
+    private TriplestoreSessionFactory m_factory;
+    private int m_maxSize;
+    private int m_spareSessions;
+    private long m_leaseTimeoutMs;
+
+    private ConcurrentLinkedQueue<TriplestoreSession> m_freeSessions =
+            new ConcurrentLinkedQueue<TriplestoreSession>();
+    private Set<TriplestoreSession> m_inUseSessions =
+            Collections.newSetFromMap(new ConcurrentHashMap<TriplestoreSession, Boolean>());
+
+    // One permit per free session, plus one for each failed on-demand
+    // attempt to create a session, so a waiting caller hears of it.
+    private Semaphore m_available = new Semaphore(0, true);
+
+    // Permits that stand for a failed attempt rather than a session; the
+    // next session created takes one over instead of adding its own
+    private AtomicInteger m_failedGrowths = new AtomicInteger();
+
+    // Callers waiting for a session they asked to be created
+    private AtomicInteger m_waiting = new AtomicInteger();
+
+    // Sessions created or being created
+    private AtomicInteger m_size = new AtomicInteger();
+
+    private volatile TrippiException m_growthFailure;
+    private volatile boolean m_closed = false;
+
+    // Non-null if the pool may grow
+    private volatile ExecutorService m_grower;
+
+    private WaitTimeHistogram m_leaseWaits = new WaitTimeHistogram();
+    private AtomicLong m_leaseTimeouts = new AtomicLong();
+
+    public ConcurrentSessionPool(TriplestoreSessionFactory factory,
+                                 int initialSize,
+                                 int maxGrowth,
+                                 int spareSessions) throws TrippiException {
+        this(factory, initialSize, maxGrowth, spareSessions,
+             DEFAULT_LEASE_TIMEOUT_MS);
+    }
+
+    /**
+     * Initialize the pool and grow it to its initial size.
+     *
+     * @param    initialSize  number of sessions to start with.
+     * @param      maxGrowth  max additional sessions to add.  If -1, no
+     *                        limit will be placed on the size.
+     * @param  spareSessions  number of unused sessions to keep available.
+     *                        Zero means new sessions will only be created
+     *                        on demand.
+     * @param leaseTimeoutMs  how long <code>get()</code> waits for a
+     *                        session before giving up.
+     */
+    public ConcurrentSessionPool(TriplestoreSessionFactory factory,
+                                 int initialSize,
+                                 int maxGrowth,
+                                 int spareSessions,
+                                 long leaseTimeoutMs) throws TrippiException {
+        m_factory = factory;
+        m_maxSize = maxGrowth == -1 ? -1 : initialSize + maxGrowth;
+        m_spareSessions = spareSessions;
+        m_leaseTimeoutMs = leaseTimeoutMs;
+        for (int i = 0; i < initialSize; i++) {
+            m_freeSessions.add(m_factory.newSession());
+            m_size.incrementAndGet();
+            m_available.release();
+        }
+        if (maxGrowth != 0) {
+            m_grower = SharedScheduler.newWorker("trippi-pool-grower");
+            maintainSpares();
+        }
+    }
+
+    public String[] listTripleLanguages() {
+        return m_factory.listTripleLanguages();
+    }
+
+    public String[] listTupleLanguages() {
+        return m_factory.listTupleLanguages();
+    }
+
+    /**
+     * Get a session from the pool, waiting up to the lease timeout for
+     * one to become available.
+     *
+     * @return a session, or null if none became available in time.
+     */
+    public TriplestoreSession get() throws TrippiException {
+        return get(m_leaseTimeoutMs);
+    }
+
+    public TriplestoreSession get(long timeoutMs) throws TrippiException {
+        if (m_closed) {
+            throw new TrippiException("Session pool is closed");
+        }
+        long start = System.nanoTime();
+        boolean acquired;
+        try {
+            // unlike tryAcquire(), this doesn't jump the queue of waiters
+            acquired = m_available.tryAcquire(0, TimeUnit.MILLISECONDS);
+            if (!acquired) {
+                m_waiting.incrementAndGet();
+                try {
+                    grow(1, true);
+                    acquired = m_available.tryAcquire(timeoutMs, TimeUnit.MILLISECONDS);
+                } finally {
+                    m_waiting.decrementAndGet();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TrippiException("Interrupted while waiting for a "
+                    + "triplestore session", e);
+        }
+        m_leaseWaits.record(System.nanoTime() - start);
+        if (!acquired) {
+            m_leaseTimeouts.incrementAndGet();
+            logger.warn("No triplestore session became available within "
+                    + timeoutMs + "ms (" + getStats() + ")");
+            return null;
+        }
+        if (m_closed) {
+            throw new TrippiException("Session pool is closed");
+        }
+        TriplestoreSession session = m_freeSessions.poll();
+        if (session == null) {
+            // our permit stood for a failed attempt to grow
+            TrippiException failure = m_growthFailure;
+            takeFailedGrowth();
+            throw new TrippiException("Unable to create triplestore session: "
+                    + (failure == null ? "unknown error" : failure.getMessage()),
+                    failure);
+        }
+        m_inUseSessions.add(session);
+        if (logger.isDebugEnabled()) logger.debug("Leased session: " + getStats());
+        maintainSpares();
+        return session;
+    }
+
+    /**
+     * Get a session from the pool if one is free, without waiting,
+     * growing the pool, or recording the lease.
+     */
+    public TriplestoreSession tryGet() throws TrippiException {
+        if (m_closed) {
+            throw new TrippiException("Session pool is closed");
+        }
+        // unlike tryAcquire(), this doesn't jump the queue of waiters
+        boolean acquired;
+        try {
+            acquired = m_available.tryAcquire(0, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TrippiException("Interrupted while getting a "
+                    + "triplestore session", e);
+        }
+        if (!acquired) return null;
+        TriplestoreSession session = m_freeSessions.poll();
+        if (session == null) {
+            // the permit stood for a failed attempt to grow, which the
+            // caller waiting for it still needs to hear about
+            m_available.release();
+            return null;
+        }
+        m_inUseSessions.add(session);
+        if (logger.isDebugEnabled()) logger.debug("Leased session: " + getStats());
+        maintainSpares();
+        return session;
+    }
+
+    /**
+     * Release a session back to the pool.
+     */
+    public void release(TriplestoreSession session) {
+        if (!m_inUseSessions.remove(session)) {
+            logger.warn("Session not released; it didn't originate with this pool!");
+            return;
+        }
+        if (m_closed) {
+            closeQuietly(session);
+            return;
+        }
+        m_freeSessions.add(session);
+        m_available.release();
+        if (logger.isDebugEnabled()) logger.debug("Got session back: " + getStats());
+    }
+
+    private void maintainSpares() {
+        if (m_spareSessions > 0) {
+            int diff = m_spareSessions - m_available.availablePermits();
+            if (diff > 0) {
+                grow(diff, false);
+            }
+        }
+    }
+
+    /**
+     * Reserve room for up to <i>count</i> new sessions and create them
+     * on the worker thread.
+     *
+     * @param onDemand whether a caller is waiting for one of them, and
+     *                 should be told if it can't be created.
+     */
+    private void grow(int count, final boolean onDemand) {
+        ExecutorService grower = m_grower;
+        if (grower == null || m_closed) return;
+        int reserved = 0;
+        while (reserved < count) {
+            int size = m_size.get();
+            if (m_maxSize != -1 && size >= m_maxSize) break;
+            if (m_size.compareAndSet(size, size + 1)) reserved++;
+        }
+        if (reserved == 0) return;
+        final int toCreate = reserved;
+        try {
+            grower.execute(new Runnable() {
+                public void run() {
+                    for (int i = 0; i < toCreate; i++) {
+                        addSession(onDemand);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            m_size.addAndGet(-toCreate);
+        }
+    }
+
+    private void addSession(boolean onDemand) {
+        TriplestoreSession session;
+        try {
+            session = m_factory.newSession();
+        } catch (TrippiException e) {
+            m_size.decrementAndGet();
+            logger.warn("Error growing triplestore session pool: "
+                    + e.getMessage());
+            // only a caller still waiting needs to hear of it; otherwise
+            // the permit would fail some later, unrelated lease
+            if (onDemand && m_waiting.get() > m_failedGrowths.get()) {
+                m_growthFailure = e;
+                m_failedGrowths.incrementAndGet();
+                m_available.release();
+            }
+            return;
+        }
+        if (m_closed) {
+            closeQuietly(session);
+            return;
+        }
+        m_freeSessions.add(session);
+        if (!takeFailedGrowth()) {
+            m_available.release();
+        }
+        logger.debug("Added session to pool: " + getStats());
+    }
+
+    /**
+     * Claim one of the permits left by a failed attempt to grow, if any,
+     * clearing the failure once none are left.
+     *
+     * @return whether there was one to claim.
+     */
+    private boolean takeFailedGrowth() {
+        int failed;
+        do {
+            failed = m_failedGrowths.get();
+            if (failed == 0) return false;
+        } while (!m_failedGrowths.compareAndSet(failed, failed - 1));
+        if (failed == 1) {
+            m_growthFailure = null;
+        }
+        return true;
+    }
+
+    private String getStats() {
+        return "free = " + getFreeCount() + ", in-use = " + getInUseCount();
+    }
+
+    /**
+     * Get the number of sessions currently in use.
+     */
+    public int getInUseCount() {
+        return m_inUseSessions.size();
+    }
+
+    /**
+     * Get the number of sessions not currently in use.
+     */
+    public int getFreeCount() {
+        return m_freeSessions.size();
+    }
+
+    /**
+     * Get the number of sessions in the pool, including any being created.
+     */
+    public int getSize() {
+        return m_size.get();
+    }
+
+    /**
+     * Get a histogram of how long each lease waited for a session,
+     * including leases that timed out.
+     */
+    public WaitTimeHistogram getLeaseWaitHistogram() {
+        return m_leaseWaits;
+    }
+
+    /**
+     * Get the number of leases that timed out without getting a session.
+     */
+    public long getLeaseTimeoutCount() {
+        return m_leaseTimeouts.get();
+    }
+
+    private static void closeQuietly(TriplestoreSession session) {
+        try {
+            session.close();
+        } catch (Exception e) {
+            logger.warn("Attempt to close TriplestoreSession failed, continuing...", e);
+        }
+    }
+
+    /**
+     * Close all sessions.
+     *
+     * Any callers waiting for a session are woken, and fail.  Sessions
+     * still leased are closed too.
+     */
+    public synchronized void close() throws TrippiException {
+        if (!m_closed) {
+            m_closed = true;
+            logger.info("Closing all sessions; lease waits: " + m_leaseWaits
+                    + ", timeouts = " + m_leaseTimeouts.get());
+            m_available.release(m_available.getQueueLength() + 1);
+            TriplestoreSession session;
+            while ((session = m_freeSessions.poll()) != null) {
+                closeQuietly(session);
+            }
+            for (TriplestoreSession inUse : m_inUseSessions) {
+                closeQuietly(inUse);
+            }
+            m_factory.close();
+            if (m_grower != null) {
+                m_grower.shutdown();
+                m_grower = null;
+            }
+        }
+    }
+
+    /**
+     * Call close() at garbage collection time in case it hasn't been
+     * called yet.
+     */
+    @Override
+    public void finalize() throws TrippiException {
+        close();
+    }
+
+}
@@ -1,6 +1,5 @@
 package org.trippi.impl.base;
 
-import java.util.Iterator;
 import java.util.Map;
 
 import org.jrdf.graph.ObjectNode;
@@ -8,7 +7,6 @@ import org.jrdf.graph.PredicateNode;
 import org.jrdf.graph.SubjectNode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.trippi.Alias;
 import org.trippi.AliasManager;
 import org.trippi.TripleIterator;
 import org.trippi.TriplePattern;
@@ -62,11 +60,29 @@ public class ConcurrentTriplestoreReader implements TriplestoreReader {
         return m_pool.listTripleLanguages();
     }
 
+    /**
+     * Asks the session for the count if it's a <code>CountingSession</code>
+     * and the results needn't be distinct, otherwise counts the results
+     * using the same session.
+     */
     public int countTuples(String queryLang,
                            String tupleQuery,
                            int limit,
                            boolean distinct) throws TrippiException {
-        return findTuples(queryLang, tupleQuery, limit, distinct).count();
+        TriplestoreSession session = getSession();
+        try {
+            if (!distinct && session instanceof CountingSession) {
+                int count = ((CountingSession) session).countTuples(tupleQuery,
+                                                                    queryLang);
+                if (count >= 0) return limit(count, limit);
+            }
+            TupleIterator iter = session.query(tupleQuery, queryLang);
+            if (distinct) iter = new DistinctTupleIterator(iter);
+            if (limit > 0) iter = new LimitedTupleIterator(iter, limit);
+            return iter.count();
+        } finally {
+            m_pool.release(session);
+        }
     }
 
     public TupleIterator findTuples(String queryLang,
@@ -92,26 +108,78 @@ public class ConcurrentTriplestoreReader implements TriplestoreReader {
         }
     }
 
-    private String doAliasReplacements(String q) {
-        String out = q;
-        Map<String, Alias> m = m_aliasManager.getAliases();
-        Iterator<String> iter = m.keySet().iterator();
-        while (iter.hasNext()) {
-            String key = iter.next();
-            Alias alias = m.get(key);
-            out = alias.replaceSparqlType(alias.replaceSparqlUri(out));
+    private TriplestoreSession getSession() throws TrippiException {
+        TriplestoreSession session = m_pool.get();
+        if (session == null) {
+            throw new TrippiException("Maximum triplestore connections "
+                    + "exceeded.");
         }
+        return session;
+    }
+
+    private static int limit(int count, int limit) {
+        if (limit > 0 && count > limit) return limit;
+        return count;
+    }
+
+    private TriplePattern parsePattern(String tripleQuery) throws TrippiException {
+        TriplePattern[] patterns = TriplePattern.parse(doAliasReplacements(tripleQuery));
+        if (patterns.length != 1) {
+            throw new TrippiException("Only one triple pattern may be specified.");
+        }
+        return patterns[0];
+    }
+
+    private static SubjectNode subject(TriplePattern p) {
+        if (p.getSubject() instanceof SubjectNode) return (SubjectNode) p.getSubject();
+        return null;
+    }
+
+    private static PredicateNode predicate(TriplePattern p) {
+        if (p.getPredicate() instanceof PredicateNode) return (PredicateNode) p.getPredicate();
+        return null;
+    }
+
+    private static ObjectNode object(TriplePattern p) {
+        if (p.getObject() instanceof ObjectNode) return (ObjectNode) p.getObject();
+        return null;
+    }
+
+    private String doAliasReplacements(String q) {
+        String out = m_aliasManager.getAliasIndex().expandQuery(q);
         if (!q.equals(out)) {
             logger.info("Substituted aliases, query is now: " + out);
         }
         return out;
     }
 
+    /**
+     * Asks the session for the count if it's a <code>CountingSession</code>
+     * and the results needn't be distinct, otherwise counts the results
+     * using the same session.
+     */
     public int countTriples(String queryLang,
                             String tripleQuery,
                             int limit,
                             boolean distinct) throws TrippiException {
-        return findTriples(queryLang, tripleQuery, limit, distinct).count();
+        if (queryLang.equals("spo")) {
+            TriplePattern p = parsePattern(tripleQuery);
+            return countTriples(subject(p), predicate(p), object(p), limit);
+        }
+        TriplestoreSession session = getSession();
+        try {
+            if (!distinct && session instanceof CountingSession) {
+                int count = ((CountingSession) session).countTriples(queryLang,
+                                                                     tripleQuery);
+                if (count >= 0) return limit(count, limit);
+            }
+            TripleIterator iter = session.findTriples(queryLang, tripleQuery);
+            if (distinct) iter = new DistinctTripleIterator(iter);
+            if (limit > 0) iter = new LimitedTripleIterator(iter, limit);
+            return iter.count();
+        } finally {
+            m_pool.release(session);
+        }
     }
 
     /**
@@ -123,19 +191,8 @@ public class ConcurrentTriplestoreReader implements TriplestoreReader {
                                       boolean distinct) throws TrippiException {
         if (queryLang.equals("spo")) {
             // parse and call findTriples(subj, pred, obj)
-            TriplePattern[] patterns = TriplePattern.parse(doAliasReplacements(tripleQuery));
-            if (patterns.length == 1) {
-                TriplePattern p = patterns[0];
-                SubjectNode subject = null;
-                PredicateNode predicate = null;
-                ObjectNode object = null;
-                if (p.getSubject() instanceof SubjectNode) subject = (SubjectNode) p.getSubject();
-                if (p.getPredicate() instanceof PredicateNode) predicate = (PredicateNode) p.getPredicate();
-                if (p.getObject() instanceof ObjectNode) object = (ObjectNode) p.getObject();
-                return findTriples(subject, predicate, object, limit);
-            } else {
-                throw new TrippiException("Only one triple pattern may be specified.");
-            }
+            TriplePattern p = parsePattern(tripleQuery);
+            return findTriples(subject(p), predicate(p), object(p), limit);
         } else {
             // delegate to the session
             TriplestoreSession session = m_pool.get();
@@ -158,11 +215,28 @@ public class ConcurrentTriplestoreReader implements TriplestoreReader {
         }
     }
 
+    /**
+     * Asks the session for the count if it's a <code>CountingSession</code>,
+     * otherwise counts the results using the same session.
+     */
     public int countTriples(SubjectNode subject,
                             PredicateNode predicate,
                             ObjectNode object,
                             int limit) throws TrippiException {
-        return findTriples(subject, predicate, object, limit).count();
+        TriplestoreSession session = getSession();
+        try {
+            if (session instanceof CountingSession) {
+                int count = ((CountingSession) session).countTriples(subject,
+                                                                     predicate,
+                                                                     object);
+                if (count >= 0) return limit(count, limit);
+            }
+            TripleIterator iter = session.findTriples(subject, predicate, object);
+            if (limit > 0) iter = new LimitedTripleIterator(iter, limit);
+            return iter.count();
+        } finally {
+            m_pool.release(session);
+        }
     }
 
     public TripleIterator findTriples(SubjectNode subject,
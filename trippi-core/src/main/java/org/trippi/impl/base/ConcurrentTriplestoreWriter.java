@@ -5,7 +5,21 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -14,11 +28,12 @@ import org.jrdf.graph.PredicateNode;
 import org.jrdf.graph.SubjectNode;
 import org.jrdf.graph.Triple;
 import org.trippi.AliasManager;
+import org.trippi.BulkLoadListener;
+import org.trippi.BulkLoadWriter;
 import org.trippi.FlushErrorHandler;
 import org.trippi.RDFFormat;
 import org.trippi.TripleIterator;
 import org.trippi.TripleUpdate;
-import org.trippi.TriplestoreWriter;
 import org.trippi.TrippiException;
 import org.trippi.io.TripleIteratorFactory;
 
@@ -26,17 +41,33 @@ import org.trippi.io.TripleIteratorFactory;
  * A ConcurrentTriplestoreReader that also implements TriplestoreWriter
  * with concurrent buffered write access.
  * <p>
- * In addition to on-demand flushes, additions and deletions will periodically
- * by flushed by a separate thread when a certain amount of inactivity has 
- * occurred or the buffer reaches a certain size.
+ * In addition to on-demand flushes, additions and deletions will automatically
+ * be flushed in the background as soon as the buffer reaches a certain size,
+ * or when a certain amount of inactivity has occurred.  Inactivity is timed
+ * on the <code>SharedScheduler</code>; no thread is held while the writer
+ * is idle.
  * </p><p>
- * If the buffer ever exceeds its safeCapacity(), all updates will be
- * halted until it is flushed.
+ * Updates are appended to the buffer without any locking on the part of
+ * this class, so concurrent writers only contend as much as the
+ * <code>UpdateBuffer</code> implementation requires.  If the buffer ever
+ * exceeds its safeCapacity(), the writer that notices will flush it before
+ * returning.
+ * </p><p>
+ * Alternatively, with a pipelined flush (see
+ * <code>setPipelinedFlush</code>), the writer that notices an overflow
+ * swaps the buffer's contents out as a new flush generation, hands it to
+ * the writer's own flusher thread, and carries on with the emptied
+ * buffer.  Writers only wait, until a generation has been flushed, when
+ * the configured number of generations are already in flight.
+ * </p><p>
+ * For triplestores that accept concurrent writes, a parallel flush (see
+ * <code>setParallelFlush</code>) leases extra sessions from the pool for
+ * the duration of each flush and writes to all of them at once.
  * </p>
  * @author cwilper@cs.cornell.edu
  */
 public class ConcurrentTriplestoreWriter extends ConcurrentTriplestoreReader
-                                         implements TriplestoreWriter,
+                                         implements BulkLoadWriter,
                                                     Runnable {
 
     private static final Logger logger =
@@ -54,19 +85,63 @@ public class ConcurrentTriplestoreWriter extends ConcurrentTriplestoreReader
     // The single session that writes can occur on
     private TriplestoreSession m_updateSession;
 
-    // Signal to the thread to stop running
-    private boolean m_needToClose = false;
+    // Signal to stop scheduling automatic flushes
+    private volatile boolean m_needToClose = false;
+
+    private ScheduledExecutorService m_scheduler;
+
+    // The pending inactivity check, if any (only set or cleared under
+    // m_timerLock, but writers read it without the lock)
+    private volatile ScheduledFuture<?> m_dormantCheck;
+    private Object m_timerLock = new Object();
 
-    private Object m_bufferInputLock = new Object();
+    // Whether an automatic flush has been handed to the executor
+    private AtomicBoolean m_autoFlushPending = new AtomicBoolean();
 
     // Last epochMS that the buffer was modified
-    private long m_lastBufferInputTime;
+    private volatile long m_lastBufferInputTime;
 
     private boolean m_cacheDeletes = false;
 
+    // Maximum flush generations in flight, or 0 if flushes are synchronous
+    private volatile int m_maxFlushGenerations = 0;
+
+    // Buffers swapped out for pipelined flushing, oldest first; the first
+    // stays here until it has been flushed (guarded by m_generationLock)
+    private LinkedList<UpdateBuffer> m_generations = new LinkedList<UpdateBuffer>();
+    private ReentrantLock m_generationLock = new ReentrantLock();
+
+    // Signals the flusher that there is work to do
+    private Condition m_generationQueued = m_generationLock.newCondition();
+
+    // Signals writers that a generation has been flushed
+    private Condition m_generationFlushed = m_generationLock.newCondition();
+
+    // Whether an automatic flush is waiting for the flusher to swap the buffer
+    private volatile boolean m_swapRequested = false;
+
+    private AtomicInteger m_generationCount = new AtomicInteger();
+
+    // Flushes generations while pipelined flushing is on
+    private Thread m_flusher;
+
+    private AtomicLong m_writerWaitCount = new AtomicLong();
+    private AtomicLong m_writerWaitNanos = new AtomicLong();
+
+    private WaitTimeHistogram m_flushTimes = new WaitTimeHistogram();
+
+    // Number of sessions to write to during a flush (guarded by m_updateSession)
+    private int m_flushSessions = 1;
+
+    // Writes all but the first partition of a parallel flush
+    private ExecutorService m_flushExecutor;
+
+    private List<UpdateListener> m_updateListeners =
+            new CopyOnWriteArrayList<UpdateListener>();
+
     /**
-     * Initialize variables, obtain a session for updates, and start the
-     * autoFlush thread.
+     * Initialize variables, flush anything left in the buffer, and
+     * register with the shared scheduler.
      */
     public ConcurrentTriplestoreWriter(TriplestoreSessionPool pool,
                                        AliasManager aliasManager,
@@ -86,20 +161,111 @@ public class ConcurrentTriplestoreWriter extends ConcurrentTriplestoreReader
         // Flush buffer in case of prior improper shutdown
         flushBuffer();
         m_lastBufferInputTime = System.currentTimeMillis();
-        // Start the autoFlush thread
+        // Automatic flushes run on the iteratorFactory's executor
         m_iteratorFactory = iteratorFactory;
-        m_iteratorFactory.execute(this);
+        m_scheduler = SharedScheduler.acquire();
     }
 
     public void setCacheDeletes(boolean cacheDeletes) {
         m_cacheDeletes = cacheDeletes;
     }
 
+    /**
+     * Enable or disable pipelined flushing.
+     *
+     * When enabled, a writer that pushes the buffer over its safe capacity
+     * swaps its contents out and hands them to this writer's flusher thread
+     * instead of flushing them itself, and only waits if
+     * <i>maxGenerations</i> flush generations are already in flight.
+     * Automatic flushes are swapped out and written by the flusher too.
+     * This requires a <code>SwappableUpdateBuffer</code>.
+     *
+     * @param maxGenerations the maximum number of flush generations in
+     *        flight, or 0 to flush synchronously (the default).
+     */
+    public void setPipelinedFlush(int maxGenerations) {
+        if (maxGenerations < 0) {
+            throw new IllegalArgumentException("maxGenerations cannot be negative");
+        }
+        if (maxGenerations > 0 && !(m_buffer instanceof SwappableUpdateBuffer)) {
+            throw new IllegalArgumentException("Pipelined flushing requires a "
+                    + "SwappableUpdateBuffer, not a " + m_buffer.getClass().getName());
+        }
+        m_generationLock.lock();
+        try {
+            m_maxFlushGenerations = maxGenerations;
+            if (maxGenerations > 0 && m_flusher == null && !m_needToClose) {
+                m_flusher = new Thread(new Runnable() {
+                    public void run() {
+                        runFlusher();
+                    }
+                }, "trippi-flusher");
+                m_flusher.setDaemon(true);
+                m_flusher.start();
+            }
+            // writers waiting under the old limit may not need to anymore
+            m_generationFlushed.signalAll();
+        } finally {
+            m_generationLock.unlock();
+        }
+    }
+
+    /**
+     * Enable or disable parallel flushing.
+     *
+     * When enabled, each flush leases up to <i>sessions - 1</i> sessions
+     * from the pool in addition to the update session, and writes each
+     * batch of adds (then deletes) across all of them, partitioned by
+     * subject.  If the pool can't supply enough sessions, the flush uses
+     * as many as it can get.  Extra sessions are only leased from a
+     * <code>TimedSessionPool</code>.
+     *
+     * This should only be used with triplestores that allow concurrent
+     * writes through separate sessions.
+     *
+     * @param sessions the number of sessions to write to in parallel,
+     *        or 1 to write only to the update session (the default).
+     */
+    public void setParallelFlush(int sessions) {
+        if (sessions < 1) {
+            throw new IllegalArgumentException("sessions must be positive");
+        }
+        synchronized (m_updateSession) {
+            if (m_flushExecutor != null) {
+                m_flushExecutor.shutdown();
+                m_flushExecutor = null;
+            }
+            m_flushSessions = sessions;
+            if (sessions > 1) {
+                m_flushExecutor = Executors.newFixedThreadPool(sessions - 1,
+                        new ThreadFactory() {
+                            public Thread newThread(Runnable r) {
+                                Thread t = new Thread(r, "trippi-flush");
+                                t.setDaemon(true);
+                                return t;
+                            }
+                        });
+            }
+        }
+    }
+
+    /**
+     * Register a listener to be told which predicates were touched
+     * whenever a flush or bulk load commits changes to the triplestore.
+     */
+    public void addUpdateListener(UpdateListener listener) {
+        m_updateListeners.add(listener);
+    }
+
+    public void removeUpdateListener(UpdateListener listener) {
+        m_updateListeners.remove(listener);
+    }
+
     /**
      * Add a series of triples to the store.
      *
      * This implementation actually buffers the triples for asynchronous 
-     * addition, which will occur in the autoFlush thread when <b>bufferSize</b> 
+     * addition, which will occur in the background when <b>bufferSize</b> 
      * or <b>dormantSeconds</b> is reached.  However, if <i>flush</i> is 
      * true, the buffer will be flushed in this thread before returning.
      *
@@ -109,17 +275,9 @@ public class ConcurrentTriplestoreWriter extends ConcurrentTriplestoreReader
     public void add(List<Triple> triples,
                     boolean flush) throws IOException,
                                           TrippiException {
-        boolean flushed = false;
-        synchronized (m_bufferInputLock) {
-            m_buffer.add(triples);
-            m_lastBufferInputTime = System.currentTimeMillis();
-            if ( m_buffer.size() > m_buffer.safeCapacity() ) {
-                logger.info("Forcing flush: Buffer size (" + m_buffer.size() 
-                          + ") exceeded safe capacity.");
-                flushBuffer();
-                flushed = true;
-            }
-        }
+        m_buffer.add(triples);
+        bufferUpdated();
+        boolean flushed = flushIfOverCapacity();
         if (!flushed && flush) flushBuffer();
     }
 
@@ -146,11 +304,63 @@ public class ConcurrentTriplestoreWriter extends ConcurrentTriplestoreReader
         }
     }
 
+    /**
+     * Stream triples directly to the store, bypassing the buffer.
+     *
+     * The buffer is flushed first.  The load then runs on a session
+     * leased from the pool, so it doesn't hold up flushes of updates made
+     * by other writers in the meantime, which are buffered and flushed as
+     * usual.  If the pool has no session to spare, the load shares the
+     * update session instead, a batch at a time.
+     */
+    public long bulkAdd(TripleIterator iter,
+                        int batchSize,
+                        BulkLoadListener listener) throws IOException,
+                                                          TrippiException {
+        try {
+            flushBuffer();
+            TriplestoreSession session = leaseBulkLoadSession();
+            try {
+                if (session != null) {
+                    return BulkLoader.load(session, iter, batchSize, listener);
+                } else {
+                    return BulkLoader.load(m_updateSession, m_updateSession,
+                                           iter, batchSize, listener);
+                }
+            } finally {
+                if (session != null) {
+                    m_pool.release(session);
+                }
+                // the loaded predicates aren't tracked
+                NotifyingTriplestoreSession.notify(m_updateListeners, null);
+            }
+        } finally {
+            iter.close();
+        }
+    }
+
+    /**
+     * Lease a session to bulk load on, or return null if the pool has
+     * none to spare besides the update session itself.
+     */
+    private TriplestoreSession leaseBulkLoadSession() throws TrippiException {
+        TriplestoreSession session = m_pool.get();
+        if (session == m_updateSession) {
+            m_pool.release(session);
+            return null;
+        }
+        if (session == null) {
+            logger.info("No pooled session available for bulk load; "
+                    + "sharing the update session");
+        }
+        return session;
+    }
+
     /**
      * Add a single triple to the store (convenience method).
      *
      * This implementation actually buffers the triple for asynchronous 
-     * addition, which will occur in the autoFlush thread when <b>bufferSize</b> 
+     * addition, which will occur in the background when <b>bufferSize</b> 
      * or <b>dormantSeconds</b> is reached.  However, if <i>flush</i> is 
      * true, the buffer will be flushed in this thread before returning.
      *
@@ -160,17 +370,9 @@ public class ConcurrentTriplestoreWriter extends ConcurrentTriplestoreReader
     public void add(Triple triple,
                     boolean flush)         throws IOException,
                                                          TrippiException {
-        boolean flushed = false;
-        synchronized (m_bufferInputLock) {
-            m_buffer.add(triple);
-            m_lastBufferInputTime = System.currentTimeMillis();
-            if ( m_buffer.size() > m_buffer.safeCapacity() ) {
-                logger.info("Forcing flush: Buffer size (" + m_buffer.size() 
-                          + ") exceeded safe capacity.");
-                flushBuffer();
-                flushed = true;
-            }
-        }
+        m_buffer.add(triple);
+        bufferUpdated();
+        boolean flushed = flushIfOverCapacity();
         if (!flushed && flush) flushBuffer();
     }
 
@@ -178,7 +380,7 @@ public class ConcurrentTriplestoreWriter extends ConcurrentTriplestoreReader
      * Remove a series of triples from the store.
      *
      * This implementation actually buffers the triples for asynchronous 
-     * deletion, which will occur in the updater thread when <b>bufferSize</b> 
+     * deletion, which will occur in the background when <b>bufferSize</b> 
      * or <b>dormantSeconds</b> is reached.  However, if <i>flush</i> is 
      * true, the buffer will be flushed in this thread before returning.
      *
@@ -188,17 +390,9 @@ public class ConcurrentTriplestoreWriter extends ConcurrentTriplestoreReader
     public void delete(List<Triple> triples,
                        boolean flush)      throws IOException,
                                                          TrippiException {
-        boolean flushed = false;
-        synchronized (m_bufferInputLock) {
-            m_buffer.delete(triples);
-            m_lastBufferInputTime = System.currentTimeMillis();
-            if ( m_buffer.size() > m_buffer.safeCapacity() ) {
-                logger.info("Forcing flush: Buffer size (" + m_buffer.size() 
-                          + ") exceeded safe capacity.");
-                flushBuffer();
-                flushed = true;
-            }
-        }
+        m_buffer.delete(triples);
+        bufferUpdated();
+        boolean flushed = flushIfOverCapacity();
         if (!flushed && flush) flushBuffer();
     }
 
@@ -208,15 +402,15 @@ public class ConcurrentTriplestoreWriter extends ConcurrentTriplestoreReader
         File tempFile = null;
         try {
             if (m_cacheDeletes) {
-                tempFile = File.createTempFile("trippi-deltriples", "txt");
+                tempFile = File.createTempFile("trippi-deltriples", RDFFormat.BINARY_TRIPLES.getExtension());
                 FileOutputStream fout = new FileOutputStream(tempFile);
                 try {
-                    iter.toStream(fout, RDFFormat.TURTLE);
+                    iter.toStream(fout, RDFFormat.BINARY_TRIPLES);
                 } finally {
                     try { fout.close(); } catch (Exception e) { }
                 }
                 iter.close();
-                iter = m_iteratorFactory.fromStream(new FileInputStream(tempFile), RDFFormat.TURTLE);
+                iter = m_iteratorFactory.fromStream(new FileInputStream(tempFile), RDFFormat.BINARY_TRIPLES);
             }
             try {
                 int maxListSize = m_autoFlushBufferSize;
@@ -247,7 +441,7 @@ public class ConcurrentTriplestoreWriter extends ConcurrentTriplestoreReader
      * Remove a single triple from the store (convenience method).
      *
      * This implementation actually buffers the triple for asynchronous 
-     * deletion, which will occur in the updater thread when <b>bufferSize</b> 
+     * deletion, which will occur in the background when <b>bufferSize</b> 
      * or <b>dormantSeconds</b> is reached.  However, if <i>flush</i> is 
      * true, the buffer will be flushed in this thread before returning.
      *
@@ -257,58 +451,434 @@ public class ConcurrentTriplestoreWriter extends ConcurrentTriplestoreReader
     public void delete(Triple triple,
                        boolean flush)      throws IOException,
                                                          TrippiException {
-        boolean flushed = false;
-        synchronized (m_bufferInputLock) {
-            m_buffer.delete(triple);
-            m_lastBufferInputTime = System.currentTimeMillis();
-            if ( m_buffer.size() > m_buffer.safeCapacity() ) {
-                logger.info("Forcing flush: Buffer size (" + m_buffer.size() 
-                          + ") exceeded safe capacity.");
-                flushBuffer();
-                flushed = true;
+        m_buffer.delete(triple);
+        bufferUpdated();
+        boolean flushed = flushIfOverCapacity();
+        if (!flushed && flush) flushBuffer();
+    }
+
+    /**
+     * Flush the buffer if it has grown beyond its safe capacity.
+     *
+     * The size is checked again once the update session is held, so that
+     * writers who noticed the same overflow don't each trigger a flush.
+     *
+     * @return whether a flush occurred.
+     */
+    private boolean flushIfOverCapacity() throws IOException,
+                                                 TrippiException {
+        if ( m_buffer.size() <= m_buffer.safeCapacity() ) {
+            return false;
+        }
+        if (m_maxFlushGenerations > 0) {
+            handOffFlush();
+            return false;
+        }
+        synchronized (m_updateSession) {
+            if ( m_buffer.size() <= m_buffer.safeCapacity() ) {
+                return false;
+            }
+            logger.info("Forcing flush: Buffer size (" + m_buffer.size() 
+                      + ") exceeded safe capacity.");
+            flushBuffer();
+            return true;
+        }
+    }
+
+    /**
+     * Note the time of the update, and make sure an automatic flush will
+     * happen when it should.
+     *
+     * While an inactivity check is armed, this takes no lock: the check
+     * reads the time of the last update when it runs, and re-arms itself
+     * if the buffer hasn't been idle for long enough.
+     */
+    private void bufferUpdated() {
+        m_lastBufferInputTime = System.currentTimeMillis();
+        if (m_buffer.size() >= m_autoFlushBufferSize) {
+            requestAutoFlush();
+        } else if (m_dormantCheck == null) {
+            scheduleDormantCheck(m_autoFlushDormantSeconds * 1000L);
+        }
+    }
+
+    /**
+     * Hand an automatic flush to the flusher if flushes are pipelined,
+     * otherwise to the executor, unless one is already pending.
+     */
+    private void requestAutoFlush() {
+        if (m_maxFlushGenerations > 0) {
+            if (!m_needToClose && !m_swapRequested) {
+                m_generationLock.lock();
+                try {
+                    m_swapRequested = true;
+                    m_generationQueued.signal();
+                } finally {
+                    m_generationLock.unlock();
+                }
+            }
+        } else if (!m_needToClose && m_autoFlushPending.compareAndSet(false, true)) {
+            try {
+                m_iteratorFactory.execute(this);
+            } catch (RejectedExecutionException e) {
+                m_autoFlushPending.set(false);
+                logger.warn("Unable to start automatic flush: executor has been shut down");
             }
         }
-        if (!flushed && flush) flushBuffer();
+    }
+
+    /**
+     * Schedule an inactivity check, unless one is already scheduled.
+     */
+    private void scheduleDormantCheck(long delayMs) {
+        synchronized (m_timerLock) {
+            if (m_needToClose || m_dormantCheck != null) return;
+            m_dormantCheck = m_scheduler.schedule(new Runnable() {
+                public void run() {
+                    dormantCheck();
+                }
+            }, delayMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Flush if the buffer has been idle for dormantSeconds; otherwise check
+     * again when it will have been, assuming no more updates arrive.
+     */
+    private void dormantCheck() {
+        synchronized (m_timerLock) {
+            m_dormantCheck = null;
+        }
+        if (m_needToClose || m_buffer.size() == 0) return;
+        long dormantMs = m_autoFlushDormantSeconds * 1000L;
+        long idleMs = System.currentTimeMillis() - m_lastBufferInputTime;
+        if (idleMs >= dormantMs) {
+            requestAutoFlush();
+        } else {
+            scheduleDormantCheck(dormantMs - idleMs);
+        }
+    }
+
+    /**
+     * Swap the buffer out as a new flush generation, first waiting for
+     * one to be flushed if too many are already in flight.
+     */
+    private void handOffFlush() throws IOException {
+        m_generationLock.lock();
+        try {
+            // another writer may have just swapped it out
+            if (m_buffer.size() <= m_buffer.safeCapacity()) {
+                return;
+            }
+            if (m_generations.size() >= m_maxFlushGenerations) {
+                logger.info("Waiting for flush: " + m_generations.size()
+                        + " flush generations in flight.");
+                long start = System.nanoTime();
+                while (!m_needToClose
+                        && m_generations.size() >= m_maxFlushGenerations) {
+                    m_generationFlushed.awaitUninterruptibly();
+                }
+                m_writerWaitNanos.addAndGet(System.nanoTime() - start);
+                m_writerWaitCount.incrementAndGet();
+            }
+            // ...or while we waited
+            if (!m_needToClose && m_buffer.size() > m_buffer.safeCapacity()) {
+                queueGeneration();
+            }
+        } finally {
+            m_generationLock.unlock();
+        }
+    }
+
+    /**
+     * Swap the buffer out and queue it for the flusher.
+     *
+     * Caller must hold m_generationLock.
+     */
+    private void queueGeneration() throws IOException {
+        UpdateBuffer generation = ((SwappableUpdateBuffer) m_buffer).swap();
+        if (generation.size() == 0) {
+            generation.close();
+            return;
+        }
+        m_generations.addLast(generation);
+        m_generationCount.set(m_generations.size());
+        m_generationQueued.signal();
+    }
+
+    /**
+     * Flush generations as they are queued, until the writer is closed.
+     *
+     * If a flush fails, a generation that keeps its updates (one detached
+     * from a <code>JournalUpdateBuffer</code>) is retried after
+     * dormantSeconds (or a second, if that's sooner), with writers held up
+     * as usual if the pipeline fills in the meantime.  Generations from
+     * the memory buffers drop their updates once the
+     * <code>FlushErrorHandler</code> has been notified, so a failed one is
+     * lost, as it would be with a synchronous flush.
+     */
+    private void runFlusher() {
+        while (true) {
+            m_generationLock.lock();
+            try {
+                while (!m_needToClose && m_generations.isEmpty() && !m_swapRequested) {
+                    m_generationQueued.awaitUninterruptibly();
+                }
+                if (m_needToClose) {
+                    // close() flushes whatever is left
+                    return;
+                }
+                if (m_swapRequested
+                        && m_generations.size() < Math.max(1, m_maxFlushGenerations)) {
+                    m_swapRequested = false;
+                    queueGeneration();
+                }
+            } catch (IOException e) {
+                logger.warn("Error swapping out update buffer", e);
+            } finally {
+                m_generationLock.unlock();
+            }
+            try {
+                synchronized (m_updateSession) {
+                    flushGenerations();
+                }
+            } catch (Exception e) {
+                String msg = e.getClass().getName();
+                if (e.getMessage() != null) msg = msg + ": " + e.getMessage();
+                logger.warn("Error flushing update buffer: " + msg, e);
+                m_generationLock.lock();
+                try {
+                    if (!m_needToClose) {
+                        m_generationQueued.await(Math.max(m_autoFlushDormantSeconds * 1000L, 1000L),
+                                                 TimeUnit.MILLISECONDS);
+                    }
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } finally {
+                    m_generationLock.unlock();
+                }
+            }
+        }
+    }
+
+    /**
+     * Flush queued generations, oldest first, until none are left.
+     *
+     * Caller must hold the update session's lock.
+     *
+     * @return the number of updates flushed.
+     */
+    private int flushGenerations() throws IOException,
+                                          TrippiException {
+        int flushed = 0;
+        while (true) {
+            UpdateBuffer generation;
+            m_generationLock.lock();
+            try {
+                generation = m_generations.peek();
+            } finally {
+                m_generationLock.unlock();
+            }
+            if (generation == null) {
+                return flushed;
+            }
+            int size = generation.size();
+            try {
+                flush(generation);
+            } finally {
+                // a generation that dropped its updates on failure is done too
+                if (generation.size() == 0) {
+                    m_generationLock.lock();
+                    try {
+                        m_generations.removeFirst();
+                        m_generationCount.set(m_generations.size());
+                        m_generationFlushed.signalAll();
+                    } finally {
+                        m_generationLock.unlock();
+                    }
+                    generation.close();
+                }
+            }
+            flushed += size;
+        }
     }
 
     /**
      * Flush the buffer (write the changes to the store).
      *
      * If it's currently being flushed, wait for it to finish, then
-     * re-flush it.
+     * re-flush it.  With a pipelined flush, any generations in flight are
+     * flushed first.
      */
     public void flushBuffer() throws IOException,
                                      TrippiException {
         long start = System.currentTimeMillis();
         int size = 0;
         synchronized (m_updateSession) {
-            size = m_buffer.size();
-            m_buffer.flush(m_updateSession);
+            if (m_buffer instanceof SwappableUpdateBuffer
+                    && (m_maxFlushGenerations > 0 || m_generationCount.get() > 0)) {
+                m_generationLock.lock();
+                try {
+                    queueGeneration();
+                } finally {
+                    m_generationLock.unlock();
+                }
+                size = flushGenerations();
+            } else {
+                size = m_buffer.size();
+                flush(m_buffer);
+            }
         }
         long end = System.currentTimeMillis();
         double sec = ( (end - start) ) / 1000.0;
         logger.info("Flushed " + size + " updates in " + sec + "seconds.");
     }
 
+    /**
+     * Write the given buffer to the update session, or across several
+     * sessions if flushes are parallel.
+     *
+     * Caller must hold the update session's lock.
+     */
+    private void flush(UpdateBuffer buffer) throws IOException,
+                                                   TrippiException {
+        long flushStart = System.nanoTime();
+        List<TriplestoreSession> leased = null;
+        NotifyingTriplestoreSession notifying = null;
+        try {
+            TriplestoreSession session = m_updateSession;
+            if (m_flushSessions > 1 && buffer.size() > 1) {
+                leased = leaseFlushSessions();
+                if (leased.size() > 1) {
+                    session = new PartitionedTriplestoreSession(
+                            leased.toArray(new TriplestoreSession[leased.size()]),
+                            m_flushExecutor);
+                }
+            }
+            if (!m_updateListeners.isEmpty()) {
+                notifying = new NotifyingTriplestoreSession(session,
+                                                            m_updateListeners);
+                session = notifying;
+            }
+            buffer.flush(session);
+        } finally {
+            // once per flush, even a failed one, since some batches may
+            // have been written
+            if (notifying != null) {
+                notifying.notifyListeners();
+            }
+            if (leased != null) {
+                // the first is the update session, which isn't pooled
+                for (int i = 1; i < leased.size(); i++) {
+                    m_pool.release(leased.get(i));
+                }
+            }
+            m_flushTimes.record(System.nanoTime() - flushStart);
+        }
+    }
+
+    /**
+     * Get the sessions to write to during a parallel flush, starting with
+     * the update session.
+     *
+     * Caller must hold the update session's lock.
+     */
+    private List<TriplestoreSession> leaseFlushSessions() {
+        List<TriplestoreSession> sessions =
+                new ArrayList<TriplestoreSession>(m_flushSessions);
+        sessions.add(m_updateSession);
+        while (sessions.size() < m_flushSessions) {
+            TriplestoreSession session = null;
+            try {
+                // don't hold up the flush waiting for a busy pool
+                if (m_pool instanceof TimedSessionPool) {
+                    session = ((TimedSessionPool) m_pool).tryGet();
+                }
+            } catch (TrippiException e) {
+                logger.warn("Unable to lease session for parallel flush: "
+                        + e.getMessage());
+            }
+            if (session == null) {
+                break;
+            }
+            sessions.add(session);
+        }
+        if (sessions.size() < m_flushSessions) {
+            logger.info("Flushing with " + sessions.size() + " of "
+                    + m_flushSessions + " sessions");
+        }
+        return sessions;
+    }
+
+    /**
+     * Get the number of flush generations swapped out of the buffer and
+     * not yet flushed, including the one being written.
+     */
+    public int getFlushGenerationDepth() {
+        return m_generationCount.get();
+    }
+
+    /**
+     * Get the number of times a writer has had to wait for the flush
+     * pipeline to drain.
+     */
+    public long getWriterWaitCount() {
+        return m_writerWaitCount.get();
+    }
+
+    /**
+     * Get the total time, in milliseconds, that writers have spent waiting
+     * for the flush pipeline to drain.
+     */
+    public long getWriterWaitMillis() {
+        return m_writerWaitNanos.get() / 1000000;
+    }
+
+    /**
+     * Get the distribution of flush durations, not counting time spent
+     * waiting for an earlier flush to finish.
+     */
+    public WaitTimeHistogram getFlushTimeHistogram() {
+        return m_flushTimes;
+    }
+
     public void setFlushErrorHandler(FlushErrorHandler h) {
         m_buffer.setFlushErrorHandler(h);
     }
 
+    /**
+     * Get the number of updates waiting to be written, including those in
+     * flush generations that are in flight.
+     */
     public int getBufferSize() {
-        return m_buffer.size();
+        int size = m_buffer.size();
+        if (m_generationCount.get() > 0) {
+            m_generationLock.lock();
+            try {
+                for (UpdateBuffer generation : m_generations) {
+                    size += generation.size();
+                }
+            } finally {
+                m_generationLock.unlock();
+            }
+        }
+        return size;
     }
 
     /**
-     * Watch the buffer and automatically flush it if dormantSeconds or
-     * bufferSize is reached.
+     * Flush the buffer automatically.
+     *
+     * This runs on the iteratorFactory's executor whenever the buffer
+     * reaches autoFlushBufferSize or has been idle for dormantSeconds, and
+     * keeps flushing for as long as writers keep the buffer full.
      */
     public void run() {
-        while (!m_needToClose) {
-            long now = System.currentTimeMillis();
-            long secondsSinceLast = ( now - m_lastBufferInputTime ) / 1000;
-            if ( (m_buffer.size() > 0) 
-                    && ( ( secondsSinceLast >= m_autoFlushDormantSeconds ) 
-                        || (m_buffer.size() >= m_autoFlushBufferSize ) ) ) {
+        boolean flushFailed = false;
+        try {
+            while (!m_needToClose && !flushFailed && needsAutoFlush()) {
+                long secondsSinceLast = 
+                        ( System.currentTimeMillis() - m_lastBufferInputTime ) / 1000;
                 try {
                     logger.info("Auto-flushing update buffer.  (" 
                             + secondsSinceLast + "sec., size = " 
@@ -318,20 +888,37 @@ public class ConcurrentTriplestoreWriter extends ConcurrentTriplestoreReader
                     String msg = e.getClass().getName();
                     if (e.getMessage() != null) msg = msg + ": " + e.getMessage();
                     logger.warn("Error auto-flushing update buffer: " + msg, e);
+                    flushFailed = true;
                 }
             }
-            if (!m_needToClose) {
-                try {
-                    Thread.sleep(250);
-                } catch (InterruptedException e) { }
-            }
+        } finally {
+            m_autoFlushPending.set(false);
+        }
+        if (flushFailed) {
+            // try again later rather than hammering a failing triplestore
+            scheduleDormantCheck(Math.max(m_autoFlushDormantSeconds * 1000L, 1000L));
+        } else if (m_buffer.size() >= m_autoFlushBufferSize) {
+            // a writer filled the buffer after our last check
+            requestAutoFlush();
+        } else if (m_buffer.size() > 0) {
+            scheduleDormantCheck(m_autoFlushDormantSeconds * 1000L);
         }
     }
 
+    private boolean needsAutoFlush() {
+        int size = m_buffer.size();
+        if (size == 0) return false;
+        long secondsSinceLast = 
+                ( System.currentTimeMillis() - m_lastBufferInputTime ) / 1000;
+        return secondsSinceLast >= m_autoFlushDormantSeconds 
+                || size >= m_autoFlushBufferSize
+                || size > m_buffer.safeCapacity();
+    }
+
     /**
      * Close the writer, releasing any resources.
      *
-     * This will stop the auto buffer-flushing thread, flush the buffer,
+     * This will stop automatic flushing, flush the buffer,
      * close the buffer, return the reserved update session to the pool,
      * and finally, close the pool.
      *
@@ -341,6 +928,20 @@ public class ConcurrentTriplestoreWriter extends ConcurrentTriplestoreReader
         if (!m_needToClose) {
             logger.info("Closing...");
             m_needToClose = true;
+            synchronized (m_timerLock) {
+                if (m_dormantCheck != null) {
+                    m_dormantCheck.cancel(false);
+                    m_dormantCheck = null;
+                }
+            }
+            SharedScheduler.release();
+            m_generationLock.lock();
+            try {
+                m_generationQueued.signalAll();
+                m_generationFlushed.signalAll();
+            } finally {
+                m_generationLock.unlock();
+            }
             try {
                 flushBuffer();
             } catch (Exception e) {
@@ -357,6 +958,12 @@ public class ConcurrentTriplestoreWriter extends ConcurrentTriplestoreReader
                 logger.warn("Error closing update buffer while "
                         + "closing Triplestore: " + msg);
             }
+            synchronized (m_updateSession) {
+                if (m_flushExecutor != null) {
+                    m_flushExecutor.shutdown();
+                    m_flushExecutor = null;
+                }
+            }
             m_pool.close();
         }
     }
@@ -365,7 +972,19 @@ public class ConcurrentTriplestoreWriter extends ConcurrentTriplestoreReader
 								   PredicateNode predicate, 
 								   ObjectNode object, 
 								   int updateType) {
-		return m_buffer.findBufferedUpdates(subject, predicate, object, updateType);
+		List<UpdateBuffer> generations;
+		m_generationLock.lock();
+		try {
+			generations = new ArrayList<UpdateBuffer>(m_generations);
+		} finally {
+			m_generationLock.unlock();
+		}
+		List<TripleUpdate> updates = new ArrayList<TripleUpdate>();
+		for (UpdateBuffer generation : generations) {
+			updates.addAll(generation.findBufferedUpdates(subject, predicate, object, updateType));
+		}
+		updates.addAll(m_buffer.findBufferedUpdates(subject, predicate, object, updateType));
+		return updates;
 	}
 
 }
@@ -3,6 +3,10 @@ package org.trippi.impl.base;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -11,9 +15,15 @@ import org.trippi.TrippiException;
 /**
  * A configurable <code>TriplestoreSessionPool</code> that proactively 
  * increases pool size.
+ * <p>
+ * Proactive growth is triggered when a lease leaves fewer than
+ * <i>spareSessions</i> free.  The <code>SharedScheduler</code> works out
+ * how many sessions are needed, and the pool's own worker thread creates
+ * them, so a slow triplestore never holds up the shared scheduler.
+ * </p>
  */
-public class ConfigurableSessionPool extends Thread 
-                                     implements TriplestoreSessionPool {
+public class ConfigurableSessionPool implements TimedSessionPool,
+                                                Runnable {
 
     private static final Logger logger =
         LoggerFactory.getLogger(ConfigurableSessionPool.class.getName());
@@ -30,13 +40,22 @@ public class ConfigurableSessionPool extends Thread
     private List<TriplestoreSession> m_inUseSessions;
     private List<TriplestoreSession> m_freeSessions;
 
-    private boolean m_needToFinish = false;
+    private volatile boolean m_needToFinish = false;
+
+    // Non-null if spare sessions are to be maintained in the background
+    private ScheduledExecutorService m_scheduler;
+
+    // Creates the sessions that maintenance asks for
+    private ExecutorService m_grower;
+
+    private AtomicBoolean m_maintenancePending = new AtomicBoolean();
 
 
     /**
      * Initialize the pool and grow it to its initial size.
      *
-     * This also starts a background thread that maintains the pool's size.
+     * If spare sessions are to be kept available, this also registers
+     * with the shared scheduler, which maintains the pool's size.
      *
      * @param    initialSize  number of sessions to start with.
      * @param      maxGrowth  max additional sessions to add.  If -1, no
@@ -60,9 +79,11 @@ public class ConfigurableSessionPool extends Thread
         m_freeSessions = new ArrayList<TriplestoreSession>(initialSize);
         m_inUseSessions = new ArrayList<TriplestoreSession>(initialSize);
         grow(initialSize);
-        if (maxGrowth != 0) {
-            // only start the thread if it's needed
-            this.start();
+        if (maxGrowth != 0 && spareSessions > 0) {
+            // only use the scheduler if it's needed
+            m_scheduler = SharedScheduler.acquire();
+            m_grower = SharedScheduler.newWorker("trippi-pool-grower");
+            scheduleMaintenance();
         }
     }
 
@@ -98,10 +119,58 @@ public class ConfigurableSessionPool extends Thread
         synchronized (m_inUseSessions) {
             m_inUseSessions.add(session);
         }
-        logger.info("Leased session: " + getStats());
+        if (logger.isDebugEnabled()) logger.debug("Leased session: " + getStats());
+        if (getFreeCount() < m_spareSessions) {
+            scheduleMaintenance();
+        }
+        return session;
+    }
+
+    /**
+     * Get a connection from the pool if one is free, without growing it.
+     */
+    public synchronized TriplestoreSession tryGet() throws TrippiException {
+        if (getFreeCount() == 0) return null;
+        return get();
+    }
+
+    /**
+     * Get a connection from the pool, waiting up to the given number of
+     * milliseconds for one to be released if none are available and
+     * growth isn't allowed.
+     */
+    public synchronized TriplestoreSession get(long timeoutMs) throws TrippiException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        TriplestoreSession session = get();
+        while (session == null && !m_needToFinish) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) break;
+            try {
+                wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            session = get();
+        }
         return session;
     }
 
+    /**
+     * Ask the scheduler to top up the spare sessions, unless it's already
+     * been asked.
+     */
+    private void scheduleMaintenance() {
+        if (m_scheduler != null && !m_needToFinish
+                && m_maintenancePending.compareAndSet(false, true)) {
+            try {
+                m_scheduler.execute(this);
+            } catch (RejectedExecutionException e) {
+                m_maintenancePending.set(false);
+            }
+        }
+    }
+
     private String getStats() {
         return "free = " + getFreeCount() + ", in-use = " + getInUseCount();
     }
@@ -122,7 +191,10 @@ public class ConfigurableSessionPool extends Thread
                         + "originate with this pool!");
             }
         }
-        if (released) logger.info("Got session back: " + getStats());
+        if (released) {
+            if (logger.isDebugEnabled()) logger.debug("Got session back: " + getStats());
+            notifyAll();
+        }
     }
 
     /**
@@ -146,40 +218,65 @@ public class ConfigurableSessionPool extends Thread
     /**
      * Maintain the pool size.
      *
-     * This just ensures that pool growth occurs when necessary,
-     * checking every 1/4 of a second.
+     * This just ensures that pool growth occurs when necessary.
+     * It runs on the shared scheduler whenever the number of free
+     * sessions drops below spareSessions, and hands any growth to the
+     * pool's worker thread.  No further maintenance is scheduled until
+     * that growth is done.
      */
-    @Override
 	public void run() {
-        while ( !m_needToFinish ) {
-            int diff = m_spareSessions - getFreeCount();
-            if ( diff > 0 ) {
-                // spareSessions is not met.
-                int numToAdd = diff;
-                if ( m_maxGrowth != -1 ) {
-                    // we can assume maxSize is finite (see constructor)
-                    // So we will add up to "diff" new sessions,
-                    // but the total new size can't exceed m_maxSize
-                    while ((numToAdd + m_size) > m_maxSize) {
-                        numToAdd--;
-                    }
-                }
-                if ( numToAdd > 0 ) {
-                    try {
-                        grow(numToAdd);
-                    } catch (TrippiException e) {
-                        logger.warn("Error proactively growing "
-                                + "triplestore session pool (maintenance "
-                                + "thread): " + e.getMessage());
-                    }
+        boolean growing = false;
+        try {
+            if ( !m_needToFinish ) {
+                growing = startGrowth();
+            }
+        } finally {
+            if (!growing) m_maintenancePending.set(false);
+        }
+    }
+
+    /**
+     * Work out how many spare sessions are missing, and start creating
+     * them on the worker thread.
+     *
+     * @return whether growth was started.
+     */
+    private boolean startGrowth() {
+        int diff = m_spareSessions - getFreeCount();
+        if ( diff > 0 ) {
+            // spareSessions is not met.
+            int numToAdd = diff;
+            if ( m_maxGrowth != -1 ) {
+                // we can assume maxSize is finite (see constructor)
+                // So we will add up to "diff" new sessions,
+                // but the total new size can't exceed m_maxSize
+                while ((numToAdd + m_size) > m_maxSize) {
+                    numToAdd--;
                 }
             }
-            if (!m_needToFinish) {
+            if ( numToAdd > 0 ) {
+                final int toAdd = numToAdd;
                 try {
-                    Thread.sleep(250);
-                } catch (InterruptedException e) { }
+                    m_grower.execute(new Runnable() {
+                        public void run() {
+                            try {
+                                if ( !m_needToFinish ) grow(toAdd);
+                            } catch (TrippiException e) {
+                                logger.warn("Error proactively growing "
+                                        + "triplestore session pool (maintenance "
+                                        + "task): " + e.getMessage());
+                            } finally {
+                                m_maintenancePending.set(false);
+                            }
+                        }
+                    });
+                    return true;
+                } catch (RejectedExecutionException e) {
+                    return false;
+                }
             }
         }
+        return false;
     }
 
     private void closeAll(Iterator<TriplestoreSession> iter) {
@@ -222,6 +319,12 @@ public class ConfigurableSessionPool extends Thread
             closeAll(m_inUseSessions.iterator());
             m_factory.close();
             m_needToFinish = true;
+            notifyAll();
+            if (m_scheduler != null) {
+                SharedScheduler.release();
+                m_scheduler = null;
+                m_grower.shutdown();
+            }
         }
     }
 
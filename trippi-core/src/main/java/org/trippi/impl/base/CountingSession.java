@@ -0,0 +1,45 @@
+package org.trippi.impl.base;
+
+import org.jrdf.graph.ObjectNode;
+import org.jrdf.graph.PredicateNode;
+import org.jrdf.graph.SubjectNode;
+import org.trippi.TrippiException;
+
+/**
+ * A <code>TriplestoreSession</code> that can count the results of some
+ * queries without handing them back one at a time.
+ *
+ * Each method returns -1 if the session can't count that query itself,
+ * in which case the caller should count the results of the equivalent
+ * query method instead.
+ */
+public interface CountingSession extends TriplestoreSession {
+
+    /**
+     * Count the results of a tuple query.
+     *
+     * @return the number of tuples <code>query</code> would return, or -1.
+     */
+    public int countTuples(String queryText,
+                           String language) throws TrippiException;
+
+    /**
+     * Count the results of a triple query.
+     *
+     * @return the number of triples <code>findTriples</code> would
+     *         return, or -1.
+     */
+    public int countTriples(String lang,
+                            String queryText) throws TrippiException;
+
+    /**
+     * Count the triples matching a pattern, where null matches anything.
+     *
+     * @return the number of triples <code>findTriples</code> would
+     *         return, or -1.
+     */
+    public int countTriples(SubjectNode subject,
+                            PredicateNode predicate,
+                            ObjectNode object) throws TrippiException;
+
+}
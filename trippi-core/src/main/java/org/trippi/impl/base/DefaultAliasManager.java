@@ -5,11 +5,15 @@ import java.util.Map;
 import java.util.Map.Entry;
 
 import org.trippi.Alias;
+import org.trippi.AliasIndex;
 
 public class DefaultAliasManager implements org.trippi.AliasManager {
 
     private Map<String, Alias> m_aliasMap;
 
+    // built on demand, and discarded whenever the aliases change
+    private AliasIndex m_index;
+
     public DefaultAliasManager(Map<String, String> m) { 
         m_aliasMap = stringsToAliases(m, m_aliasMap);
     }
@@ -44,6 +48,7 @@ public class DefaultAliasManager implements org.trippi.AliasManager {
             m_aliasMap = new HashMap<String, Alias>();
         }
         m_aliasMap.put(alias, new Alias(alias, fullForm));
+        m_index = null;
     }
 
     /* (non-Javadoc)
@@ -52,7 +57,12 @@ public class DefaultAliasManager implements org.trippi.AliasManager {
     @Override
     @Deprecated
     public synchronized void setAliasMap(Map<String, String> m) {
-        m_aliasMap = stringsToAliases(m, m_aliasMap);
+        // callers commonly set the same aliases before every query, so
+        // keep the index unless something actually changed
+        if (!containsAll(m)) {
+            m_aliasMap = stringsToAliases(m, m_aliasMap);
+            m_index = null;
+        }
     }
     
     /* (non-Javadoc)
@@ -61,6 +71,7 @@ public class DefaultAliasManager implements org.trippi.AliasManager {
     @Override
     public synchronized void setAliases(Map<String, Alias> aliasMap) {
         m_aliasMap = aliasMap;
+        m_index = null;
     }
     
     /* (non-Javadoc)
@@ -73,7 +84,36 @@ public class DefaultAliasManager implements org.trippi.AliasManager {
         }
         return m_aliasMap;
     }
+
+    /**
+     * Get the index of the current aliases, building it if the aliases
+     * have changed since it was last built.
+     *
+     * Changes made directly to the map returned by
+     * <code>getAliases()</code> are not seen by the index.
+     */
+    @Override
+    public synchronized AliasIndex getAliasIndex() {
+        if (m_index == null) {
+            m_index = m_aliasMap == null ? AliasIndex.EMPTY
+                                         : new AliasIndex(m_aliasMap);
+        }
+        return m_index;
+    }
     
+    private boolean containsAll(Map<String, String> strings) {
+        if (m_aliasMap == null) {
+            return false;
+        }
+        for (Entry<String, String> entry: strings.entrySet()) {
+            Alias alias = m_aliasMap.get(entry.getKey());
+            if (alias == null || !alias.getExpansion().equals(entry.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private static Map<String, Alias> stringsToAliases(
             Map<String, String> strings, Map<String, Alias> aliases) {
         if (aliases == null){
@@ -0,0 +1,377 @@
+package org.trippi.impl.base;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.trippi.io.BinaryTripleCodec;
+
+/**
+ * Removes duplicates from a stream of encoded rows within a memory budget.
+ * <p>
+ * Each row is identified by a 64-bit fingerprint of its bytes, held in an
+ * open-addressing table alongside the bytes themselves, so rows whose
+ * fingerprints collide are still compared exactly.  <code>add</code>
+ * reports each new row as soon as it is seen, so rows keep their input
+ * order.
+ * </p><p>
+ * Once the table fills the budget, the rows in it are appended to a
+ * temporary key file and the table is emptied.  Only the fingerprints of
+ * spilled rows and their positions in the file are kept in memory, sorted
+ * by fingerprint, so a row that isn't in the table is looked up with a
+ * binary search, and read back from the file only when its fingerprint
+ * matches.  Each spilled row costs 16 bytes of heap beyond the budget.
+ * </p>
+ * Not intended for use outside Trippi project.
+ */
+public class DistinctFilter {
+
+    private static final Logger logger =
+        LoggerFactory.getLogger(DistinctFilter.class.getName());
+
+    /**
+     * The budget used if the <code>trippi.distinctMemory</code> system
+     * property is not set, in bytes.
+     */
+    public static final long DEFAULT_MEMORY_BUDGET = 16L * 1024 * 1024;
+
+    private static final int INITIAL_TABLE_SIZE = 1024;
+
+    private final long m_tableBudget;
+
+    // open-addressing table; an offset of zero marks an empty slot
+    private long[] m_fingerprints = new long[INITIAL_TABLE_SIZE];
+    private int[] m_offsets = new int[INITIAL_TABLE_SIZE];
+    private int m_entries;
+
+    // length-prefixed row bytes, referenced by m_offsets (less one)
+    private byte[] m_arena = new byte[INITIAL_TABLE_SIZE * 16];
+    private int m_arenaUsed;
+
+    // spilled rows, sorted by fingerprint, and where each is in m_keyFile
+    private long[] m_spilledFingerprints = new long[0];
+    private long[] m_spilledPositions = new long[0];
+
+    private File m_keyFile;
+    private RandomAccessFile m_keys;
+    private byte[] m_readBuffer = new byte[128];
+    private long m_spilledBytes;
+
+    public DistinctFilter() {
+        this(getConfiguredMemoryBudget());
+    }
+
+    /**
+     * @param memoryBudget the approximate number of bytes to hold in
+     *        memory before spilling to disk
+     */
+    public DistinctFilter(long memoryBudget) {
+        m_tableBudget = memoryBudget;
+    }
+
+    /**
+     * Get the budget configured by the <code>trippi.distinctMemory</code>
+     * system property, or <code>DEFAULT_MEMORY_BUDGET</code> if unset or
+     * invalid.
+     */
+    public static long getConfiguredMemoryBudget() {
+        String value = System.getProperty("trippi.distinctMemory");
+        if (value != null) {
+            try {
+                return Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                // fall through to the default
+            }
+        }
+        return DEFAULT_MEMORY_BUDGET;
+    }
+
+    /**
+     * Add a row.
+     *
+     * @return true if the row has not been seen before, false if it is
+     *         a duplicate.
+     */
+    public boolean add(byte[] row) throws IOException {
+        long fingerprint = fingerprint(row);
+        int mask = m_fingerprints.length - 1;
+        int i = (int) fingerprint & mask;
+        while (m_offsets[i] != 0) {
+            if (m_fingerprints[i] == fingerprint && arenaEquals(m_offsets[i] - 1, row)) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        if (isSpilled(fingerprint, row)) {
+            return false;
+        }
+        if (!reserve(row.length)) {
+            spill();
+            reserve(row.length);
+            insert(fingerprint, row);
+        } else if (m_entries * 2 >= m_fingerprints.length) {
+            rehash(m_fingerprints.length * 2);
+            insert(fingerprint, row);
+        } else {
+            m_fingerprints[i] = fingerprint;
+            m_offsets[i] = store(row) + 1;
+            m_entries++;
+        }
+        return true;
+    }
+
+    /**
+     * Make room for another row in the table, or return false if doing
+     * so would exceed the budget.  An empty table always has room.
+     */
+    private boolean reserve(int rowLength) {
+        long tableSize = m_fingerprints.length;
+        if (m_entries * 2 >= tableSize) {
+            tableSize *= 2;
+        }
+        long arenaSize = m_arena.length;
+        long needed = m_arenaUsed + 4L + rowLength;
+        while (arenaSize < needed) {
+            arenaSize *= 2;
+        }
+        if (m_entries > 0 && (tableSize * 12 + arenaSize > m_tableBudget
+                || arenaSize > Integer.MAX_VALUE - 8)) {
+            return false;
+        }
+        if (arenaSize > m_arena.length) {
+            byte[] arena = new byte[(int) arenaSize];
+            System.arraycopy(m_arena, 0, arena, 0, m_arenaUsed);
+            m_arena = arena;
+        }
+        return true;
+    }
+
+    private void rehash(int size) {
+        long[] fingerprints = m_fingerprints;
+        int[] offsets = m_offsets;
+        m_fingerprints = new long[size];
+        m_offsets = new int[size];
+        int mask = size - 1;
+        for (int j = 0; j < offsets.length; j++) {
+            if (offsets[j] != 0) {
+                int i = (int) fingerprints[j] & mask;
+                while (m_offsets[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                m_fingerprints[i] = fingerprints[j];
+                m_offsets[i] = offsets[j];
+            }
+        }
+    }
+
+    private void insert(long fingerprint, byte[] row) {
+        int mask = m_fingerprints.length - 1;
+        int i = (int) fingerprint & mask;
+        while (m_offsets[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        m_fingerprints[i] = fingerprint;
+        m_offsets[i] = store(row) + 1;
+        m_entries++;
+    }
+
+    // caller must have reserved space
+    private int store(byte[] row) {
+        int offset = m_arenaUsed;
+        int len = row.length;
+        m_arena[offset] = (byte) (len >>> 24);
+        m_arena[offset + 1] = (byte) (len >>> 16);
+        m_arena[offset + 2] = (byte) (len >>> 8);
+        m_arena[offset + 3] = (byte) len;
+        System.arraycopy(row, 0, m_arena, offset + 4, len);
+        m_arenaUsed += 4 + len;
+        return offset;
+    }
+
+    private int arenaLength(int offset) {
+        return ((m_arena[offset] & 0xff) << 24)
+                | ((m_arena[offset + 1] & 0xff) << 16)
+                | ((m_arena[offset + 2] & 0xff) << 8)
+                | (m_arena[offset + 3] & 0xff);
+    }
+
+    private boolean arenaEquals(int offset, byte[] row) {
+        int len = arenaLength(offset);
+        if (len != row.length) return false;
+        int base = offset + 4;
+        for (int i = 0; i < len; i++) {
+            if (m_arena[base + i] != row[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Tell whether the row was seen before the table was last spilled.
+     */
+    private boolean isSpilled(long fingerprint, byte[] row) throws IOException {
+        int i = Arrays.binarySearch(m_spilledFingerprints, fingerprint);
+        if (i < 0) return false;
+        while (i > 0 && m_spilledFingerprints[i - 1] == fingerprint) {
+            i--;
+        }
+        for (; i < m_spilledFingerprints.length
+                && m_spilledFingerprints[i] == fingerprint; i++) {
+            if (keyEquals(m_spilledPositions[i], row)) return true;
+        }
+        return false;
+    }
+
+    private boolean keyEquals(long position, byte[] row) throws IOException {
+        m_keys.seek(position);
+        int len = BinaryTripleCodec.readVarInt(m_keys);
+        if (len != row.length) return false;
+        if (m_readBuffer.length < len) {
+            m_readBuffer = new byte[len];
+        }
+        m_keys.readFully(m_readBuffer, 0, len);
+        for (int i = 0; i < len; i++) {
+            if (m_readBuffer[i] != row[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Append the rows in the table to the key file, in fingerprint order,
+     * merge their fingerprints into the spilled index, and empty the table.
+     */
+    private void spill() throws IOException {
+        long[] sorted = new long[m_entries];
+        int n = 0;
+        for (int i = 0; i < m_offsets.length; i++) {
+            if (m_offsets[i] != 0) {
+                sorted[n++] = m_fingerprints[i];
+            }
+        }
+        Arrays.sort(sorted);
+
+        if (m_keyFile == null) {
+            m_keyFile = File.createTempFile("trippi-distinct", ".keys");
+            logger.info("Distinct exceeded its memory budget; spilling seen rows to "
+                    + m_keyFile.getPath());
+        }
+        long[] positions = new long[n];
+        long position = m_spilledBytes;
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(m_keyFile, true)));
+        try {
+            int mask = m_fingerprints.length - 1;
+            int written = 0;
+            for (int k = 0; k < n; k++) {
+                // rows sharing a fingerprint are all written on its first visit
+                if (k > 0 && sorted[k] == sorted[k - 1]) continue;
+                for (int i = (int) sorted[k] & mask; m_offsets[i] != 0; i = (i + 1) & mask) {
+                    if (m_fingerprints[i] == sorted[k]) {
+                        int offset = m_offsets[i] - 1;
+                        int len = arenaLength(offset);
+                        positions[written++] = position;
+                        BinaryTripleCodec.writeVarInt(len, out);
+                        out.write(m_arena, offset + 4, len);
+                        position = m_spilledBytes + out.size();
+                    }
+                }
+            }
+        } finally {
+            out.close();
+        }
+        m_spilledBytes = position;
+        if (m_keys == null) {
+            m_keys = new RandomAccessFile(m_keyFile, "r");
+        }
+        merge(sorted, positions);
+        logger.debug("Spilled " + n + " distinct rows; " + m_spilledFingerprints.length
+                + " spilled so far");
+
+        Arrays.fill(m_offsets, 0);
+        m_entries = 0;
+        m_arenaUsed = 0;
+    }
+
+    private void merge(long[] fingerprints, long[] positions) {
+        int size = m_spilledFingerprints.length + fingerprints.length;
+        long[] mergedFingerprints = new long[size];
+        long[] mergedPositions = new long[size];
+        int a = 0;
+        int b = 0;
+        for (int i = 0; i < size; i++) {
+            if (b == fingerprints.length || (a < m_spilledFingerprints.length
+                    && m_spilledFingerprints[a] <= fingerprints[b])) {
+                mergedFingerprints[i] = m_spilledFingerprints[a];
+                mergedPositions[i] = m_spilledPositions[a++];
+            } else {
+                mergedFingerprints[i] = fingerprints[b];
+                mergedPositions[i] = positions[b++];
+            }
+        }
+        m_spilledFingerprints = mergedFingerprints;
+        m_spilledPositions = mergedPositions;
+    }
+
+    /**
+     * Get the number of rows written to the key file so far.
+     */
+    public long getSpilledRows() {
+        return m_spilledFingerprints.length;
+    }
+
+    /**
+     * Get the number of bytes written to the key file so far.
+     */
+    public long getSpilledBytes() {
+        return m_spilledBytes;
+    }
+
+    /**
+     * Release the table and delete the key file, if any.
+     */
+    public void close() {
+        if (m_keys != null) {
+            try {
+                m_keys.close();
+            } catch (IOException e) {
+                logger.warn("Error closing distinct key file", e);
+            }
+            m_keys = null;
+        }
+        if (m_keyFile != null) {
+            if (!m_keyFile.delete() && m_keyFile.exists()) {
+                logger.warn("Unable to delete distinct key file " + m_keyFile.getPath());
+            }
+            m_keyFile = null;
+        }
+        m_fingerprints = new long[1];
+        m_offsets = new int[1];
+        m_arena = new byte[0];
+        m_spilledFingerprints = new long[0];
+        m_spilledPositions = new long[0];
+    }
+
+    /**
+     * A 64-bit FNV-1a hash with a final avalanche, so that the low bits
+     * used to place rows in the table are well mixed.
+     */
+    static long fingerprint(byte[] row) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < row.length; i++) {
+            h ^= row[i] & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+}
@@ -1,42 +1,74 @@
 package org.trippi.impl.base;
 
-import gnu.trove.TIntHashSet;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 
 import org.jrdf.graph.Triple;
 import org.trippi.TripleIterator;
 import org.trippi.TrippiException;
+import org.trippi.io.BinaryTripleCodec;
 
 /**
  * Ensures no dupes while iterating through the wrapped iterator.
  *
+ * Triples are compared exactly, using a <code>DistinctFilter</code>, and
+ * returned in the order they are first seen.  For very large results,
+ * the triples seen so far may be partly spilled to disk.
+ *
  * @author cwilper@cs.cornell.edu
  */
 public class DistinctTripleIterator extends TripleIterator {
 
     private TripleIterator m_wrapped;
-    private TIntHashSet m_seen;
+    private DistinctFilter m_filter;
+    private ByteArrayOutputStream m_bytes = new ByteArrayOutputStream(128);
+    private DataOutputStream m_out = new DataOutputStream(m_bytes);
     private Triple m_next;
     private boolean m_closed = false;
 
     public DistinctTripleIterator(TripleIterator wrapped) throws TrippiException {
+        this(wrapped, DistinctFilter.getConfiguredMemoryBudget());
+    }
+
+    public DistinctTripleIterator(TripleIterator wrapped,
+                                  long memoryBudget) throws TrippiException {
         m_wrapped = wrapped;
-        m_seen = new TIntHashSet();
+        m_filter = new DistinctFilter(memoryBudget);
         m_next = getNext();
     }
 
     // return null if there are no more
     private Triple getNext() throws TrippiException {
-        while (m_wrapped.hasNext()) {
-            Triple nextTriple = m_wrapped.next();
-            if (!seen(nextTriple.hashCode())) return nextTriple;
+        try {
+            while (m_wrapped.hasNext()) {
+                Triple nextTriple = m_wrapped.next();
+                if (m_filter.add(encode(nextTriple))) return nextTriple;
+            }
+            return null;
+        } catch (IOException e) {
+            throw new TrippiException("Error removing duplicate triples", e);
         }
-        return null;
     }
 
-    private boolean seen(int id) {
-        if (m_seen.contains(id)) return true;
-        m_seen.add(id);
-        return false;
+    private byte[] encode(Triple triple) throws IOException {
+        m_bytes.reset();
+        BinaryTripleCodec.writeTriple(triple, m_out);
+        return m_bytes.toByteArray();
+    }
+
+    /**
+     * Get the number of triples that were spilled to disk so far.
+     */
+    public long getSpilledRows() {
+        return m_filter.getSpilledRows();
+    }
+
+    /**
+     * Get the number of bytes that were spilled to disk so far.
+     */
+    public long getSpilledBytes() {
+        return m_filter.getSpilledBytes();
     }
 
     @Override
@@ -56,6 +88,7 @@ public class DistinctTripleIterator extends TripleIterator {
 	public void close() throws TrippiException {
         if (!m_closed) {
             m_wrapped.close();
+            m_filter.close();
             m_closed = true;
         }
     }
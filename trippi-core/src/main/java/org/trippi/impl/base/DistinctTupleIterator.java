@@ -1,44 +1,127 @@
 package org.trippi.impl.base;
 
-import gnu.trove.TIntHashSet;
-
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 import org.jrdf.graph.Node;
 import org.trippi.TrippiException;
 import org.trippi.TupleIterator;
+import org.trippi.TupleRow;
+import org.trippi.io.BinaryTripleCodec;
 
 /**
  * Ensures no dupes while iterating through the wrapped iterator.
  *
+ * Tuples are compared exactly, using a <code>DistinctFilter</code>, and
+ * returned in the order they are first seen.  For very large results,
+ * the tuples seen so far may be partly spilled to disk.
+ *
  * @author cwilper@cs.cornell.edu
  */
 public class DistinctTupleIterator extends TupleIterator {
 
+    // how each binding is encoded
+    private static final byte UNBOUND = 0;
+    private static final byte NULL = 1;
+    private static final byte BOUND = 2;
+
     private TupleIterator m_wrapped;
-    private TIntHashSet m_seen;
+    private String[] m_names;
+    private DistinctFilter m_filter;
+    private ByteArrayOutputStream m_bytes = new ByteArrayOutputStream(128);
+    private DataOutputStream m_out = new DataOutputStream(m_bytes);
     private Map<String, Node> m_next;
     private boolean m_closed = false;
 
     public DistinctTupleIterator(TupleIterator wrapped) throws TrippiException {
+        this(wrapped, DistinctFilter.getConfiguredMemoryBudget());
+    }
+
+    public DistinctTupleIterator(TupleIterator wrapped,
+                                 long memoryBudget) throws TrippiException {
         m_wrapped = wrapped;
-        m_seen = new TIntHashSet();
+        m_names = wrapped.names();
+        if (m_names == null) m_names = new String[0];
+        m_filter = new DistinctFilter(memoryBudget);
         m_next = getNext();
     }
 
     // return null if there are no more
     private Map<String, Node> getNext() throws TrippiException {
-        while (m_wrapped.hasNext()) {
-            Map<String, Node> nextMap = m_wrapped.next();
-            if (!seen(nextMap.hashCode())) return nextMap;
+        try {
+            while (m_wrapped.hasNext()) {
+                Map<String, Node> nextMap = m_wrapped.next();
+                if (m_filter.add(encode(nextMap))) return nextMap;
+            }
+            return null;
+        } catch (IOException e) {
+            throw new TrippiException("Error removing duplicate tuples", e);
+        }
+    }
+
+    /**
+     * Write each named binding in order, followed by any bindings
+     * whose names aren't listed, sorted by name.
+     */
+    private byte[] encode(Map<String, Node> map) throws IOException {
+        m_bytes.reset();
+        if (map instanceof TupleRow && ((TupleRow) map).names() == m_names) {
+            // every name is bound (possibly to null), and there are no others
+            TupleRow row = (TupleRow) map;
+            for (int i = 0; i < m_names.length; i++) {
+                writeBinding(row.get(i));
+            }
+            return m_bytes.toByteArray();
         }
-        return null;
+        int written = 0;
+        for (String name : m_names) {
+            if (map.containsKey(name)) {
+                writeBinding(map.get(name));
+                written++;
+            } else {
+                m_out.writeByte(UNBOUND);
+            }
+        }
+        if (written < map.size()) {
+            List<String> extra = new ArrayList<String>(map.keySet());
+            for (String name : m_names) {
+                extra.remove(name);
+            }
+            Collections.sort(extra);
+            for (String name : extra) {
+                BinaryTripleCodec.writeString(name, m_out);
+                writeBinding(map.get(name));
+            }
+        }
+        return m_bytes.toByteArray();
+    }
+
+    private void writeBinding(Node node) throws IOException {
+        if (node == null) {
+            m_out.writeByte(NULL);
+        } else {
+            m_out.writeByte(BOUND);
+            BinaryTripleCodec.writeNode(node, m_out);
+        }
+    }
+
+    /**
+     * Get the number of tuples that were spilled to disk so far.
+     */
+    public long getSpilledRows() {
+        return m_filter.getSpilledRows();
     }
 
-    private boolean seen(int id) {
-        if (m_seen.contains(id)) return true;
-        m_seen.add(id);
-        return false;
+    /**
+     * Get the number of bytes that were spilled to disk so far.
+     */
+    public long getSpilledBytes() {
+        return m_filter.getSpilledBytes();
     }
 
     @Override
@@ -56,13 +139,14 @@ public class DistinctTupleIterator extends TupleIterator {
 
     @Override
 	public String[] names() throws TrippiException {
-        return m_wrapped.names();
+        return m_names;
     }
 
     @Override
 	public void close() throws TrippiException {
         if (!m_closed) {
             m_wrapped.close();
+            m_filter.close();
             m_closed = true;
         }
     }
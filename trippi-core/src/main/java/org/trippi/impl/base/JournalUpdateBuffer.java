@@ -0,0 +1,666 @@
+package org.trippi.impl.base;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.jrdf.graph.ObjectNode;
+import org.jrdf.graph.PredicateNode;
+import org.jrdf.graph.SubjectNode;
+import org.jrdf.graph.Triple;
+
+import org.trippi.TripleUpdate;
+import org.trippi.TrippiException;
+import org.trippi.io.BinaryTripleCodec;
+
+/**
+ * A disk-backed buffer for triplestore updates that can be recovered
+ * after a crash.
+ * <p>
+ * Each update is appended as a binary record to a memory-mapped segment
+ * file in the journal directory, so buffered updates live in the page
+ * cache rather than on the heap.  A record's length is written after its
+ * content, so a record torn by a crash reads as the end of its segment.
+ * Only a small index of each record's position and hash codes is kept
+ * in memory, so finding buffered updates decodes just the candidates.
+ * </p><p>
+ * What survives a crash depends on the sync policy.  By default, an
+ * update is in the page cache once <code>add</code> or
+ * <code>delete</code> returns, so it survives a crash of the JVM, but not
+ * of the operating system, until its segment is forced to disk when it
+ * fills up or the buffer is closed.  With <code>sync</code> on, each
+ * call returns only after its updates have been forced to disk.
+ * </p><p>
+ * When the buffer is constructed, any segments left behind by a previous
+ * run are replayed, and will be written on the first flush.  Updates are
+ * marked flushed only after they have been successfully written; if
+ * the triplestore fails, they stay journaled (and the
+ * <code>FlushErrorHandler</code> is notified) so the next flush retries
+ * them.  A full segment is deleted once flushed, while the active segment
+ * is rewound and reused once everything in it has been flushed.
+ * </p>
+ */
+public class JournalUpdateBuffer extends AbstractUpdateBuffer
+                                 implements SwappableUpdateBuffer {
+
+    private static Logger logger = LoggerFactory.getLogger(JournalUpdateBuffer.class.getName());
+
+    /** The default size of each segment file, in bytes. */
+    public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    private static final String SEGMENT_PREFIX = "updates-";
+    private static final String SEGMENT_SUFFIX = ".journal";
+
+    private File m_dir;
+    private int m_segmentSize;
+    private boolean m_sync;
+
+    // Segments that are no longer appended to, oldest first
+    private LinkedList<Segment> m_sealed = new LinkedList<Segment>();
+    private Segment m_active;
+    private long m_nextSegmentNumber;
+
+    private Object m_appendLock = new Object();
+
+    // The number of updates that haven't been detached by swap()
+    private AtomicInteger m_size = new AtomicInteger();
+
+    public JournalUpdateBuffer(int safeCapacity,
+                               int flushBatchSize,
+                               File journalDir) throws IOException {
+        this(safeCapacity, flushBatchSize, journalDir, false);
+    }
+
+    public JournalUpdateBuffer(int safeCapacity,
+                               int flushBatchSize,
+                               File journalDir,
+                               boolean sync) throws IOException {
+        this(safeCapacity, flushBatchSize, journalDir, DEFAULT_SEGMENT_SIZE, sync);
+    }
+
+    public JournalUpdateBuffer(int safeCapacity,
+                               int flushBatchSize,
+                               File journalDir,
+                               int segmentSize) throws IOException {
+        this(safeCapacity, flushBatchSize, journalDir, segmentSize, false);
+    }
+
+    /**
+     * @param sync whether each add or delete should force its updates
+     *        to disk before returning.
+     */
+    public JournalUpdateBuffer(int safeCapacity,
+                               int flushBatchSize,
+                               File journalDir,
+                               int segmentSize,
+                               boolean sync) throws IOException {
+        super(safeCapacity, flushBatchSize);
+        m_dir = journalDir;
+        m_segmentSize = segmentSize;
+        m_sync = sync;
+        if (!m_dir.isDirectory() && !m_dir.mkdirs()) {
+            throw new IOException("Unable to create journal directory: "
+                    + m_dir.getPath());
+        }
+        replay();
+        m_active = Segment.create(segmentFile(m_nextSegmentNumber++), m_segmentSize);
+    }
+
+    /**
+     * Re-open any segments left over from a previous run, oldest first.
+     */
+    private void replay() throws IOException {
+        File[] files = m_dir.listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.startsWith(SEGMENT_PREFIX)
+                        && name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        long[] numbers = new long[files.length];
+        for (int i = 0; i < files.length; i++) {
+            numbers[i] = segmentNumber(files[i]);
+        }
+        Arrays.sort(numbers);
+        for (int i = 0; i < numbers.length; i++) {
+            Segment segment = Segment.open(segmentFile(numbers[i]));
+            if (segment.count() > 0) {
+                m_sealed.add(segment);
+                m_size.addAndGet(segment.count());
+            } else {
+                segment.delete();
+            }
+            m_nextSegmentNumber = numbers[i] + 1;
+        }
+        if (m_size.get() > 0) {
+            logger.info("Recovered " + m_size.get() + " unflushed updates from "
+                    + m_sealed.size() + " journal segment(s) in " + m_dir.getPath());
+        }
+    }
+
+    private File segmentFile(long number) {
+        return new File(m_dir, SEGMENT_PREFIX + number + SEGMENT_SUFFIX);
+    }
+
+    private static long segmentNumber(File file) throws IOException {
+        String name = file.getName();
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                    name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            throw new IOException("Unrecognized journal segment: " + file.getPath());
+        }
+    }
+
+    public void add(List<Triple> triples) throws IOException {
+        debugUpdate(logger, "Adding {} triple ADDs to buffer", triples);
+        append(TripleUpdate.ADD, triples);
+    }
+
+    public void add(Triple triple) throws IOException {
+        traceUpdate(logger, "Adding 1 triple ADD to buffer\n{}", triple);
+        append(TripleUpdate.ADD, triple);
+    }
+
+    public void delete(List<Triple> triples) throws IOException {
+        debugUpdate(logger, "Adding {} triple DELETEs to buffer", triples);
+        append(TripleUpdate.DELETE, triples);
+    }
+
+    public void delete(Triple triple) throws IOException {
+        traceUpdate(logger, "Adding 1 triple DELETE to buffer\n{}", triple);
+        append(TripleUpdate.DELETE, triple);
+    }
+
+    private void append(int type, Triple triple) throws IOException {
+        byte[] record = encode(triple);
+        synchronized (m_appendLock) {
+            appendRecord(type, record, triple);
+            if (m_sync) m_active.force();
+        }
+        m_size.incrementAndGet();
+    }
+
+    private void append(int type, List<Triple> triples) throws IOException {
+        // encode outside the lock; only the copy into the segment is serialized
+        byte[][] records = new byte[triples.size()][];
+        for (int i = 0; i < records.length; i++) {
+            records[i] = encode(triples.get(i));
+        }
+        synchronized (m_appendLock) {
+            for (int i = 0; i < records.length; i++) {
+                appendRecord(type, records[i], triples.get(i));
+            }
+            if (m_sync) m_active.force();
+        }
+        m_size.addAndGet(records.length);
+    }
+
+    // caller must hold m_appendLock
+    private void appendRecord(int type, byte[] record, Triple triple) throws IOException {
+        if (!m_active.append(type, record, triple)) {
+            seal();
+            int size = Math.max(m_segmentSize, Segment.HEADER_SIZE + Segment.recordSize(record));
+            m_active = Segment.create(segmentFile(m_nextSegmentNumber++), size);
+            if (!m_active.append(type, record, triple)) {
+                throw new IOException("Unable to append to new journal segment");
+            }
+        }
+    }
+
+    // caller must hold m_appendLock
+    private void seal() {
+        m_active.force();
+        m_sealed.add(m_active);
+    }
+
+    private static byte[] encode(Triple triple) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        BinaryTripleCodec.writeTriple(triple, out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    public int size() {
+        return m_size.get();
+    }
+
+    /**
+     * Write everything in the journal to the triplestore, oldest first.
+     *
+     * Writers may continue appending to the active segment while this
+     * happens; only the updates it held when the flush started are
+     * written.  Once everything in the active segment has been written,
+     * it is rewound for reuse rather than replaced.
+     */
+    public synchronized void flush(TriplestoreSession session) throws IOException,
+                                                                      TrippiException {
+        Generation generation = detach();
+        try {
+            generation.flush(session);
+        } finally {
+            // if this failed, the rest is flushed next time
+            generation.restore();
+        }
+    }
+
+    /**
+     * Detach everything appended so far.  The updates stay in the journal
+     * until the returned buffer has flushed them.
+     */
+    public UpdateBuffer swap() {
+        return detach();
+    }
+
+    private Generation detach() {
+        LinkedList<Piece> pieces = new LinkedList<Piece>();
+        int n = 0;
+        synchronized (m_appendLock) {
+            List<Segment> segments = new ArrayList<Segment>(m_sealed);
+            segments.add(m_active);
+            for (Segment segment : segments) {
+                if (segment.entries > segment.swapped) {
+                    pieces.add(new Piece(segment, segment.swapped, segment.entries));
+                    n += segment.entries - segment.swapped;
+                    segment.swapped = segment.entries;
+                }
+            }
+        }
+        m_size.addAndGet(-n);
+        return new Generation(pieces, n);
+    }
+
+    /**
+     * Close the buffer, leaving any unflushed segments on disk so they
+     * will be replayed the next time a buffer is opened on the directory.
+     */
+    public void close() throws IOException {
+        synchronized (m_appendLock) {
+            for (Segment segment : m_sealed) {
+                segment.close();
+            }
+            m_active.force();
+            if (m_active.count() > 0) {
+                m_active.close();
+            } else {
+                m_active.delete();
+            }
+        }
+    }
+
+    public List<TripleUpdate> findBufferedUpdates(SubjectNode subject,
+                                                  PredicateNode predicate,
+                                                  ObjectNode object,
+                                                  int updateType) {
+        List<TripleUpdate> updates = new ArrayList<TripleUpdate>();
+        try {
+            synchronized (m_appendLock) {
+                for (Segment segment : m_sealed) {
+                    segment.find(segment.swapped, segment.entries,
+                                 subject, predicate, object, updateType, updates);
+                }
+                m_active.find(m_active.swapped, m_active.entries,
+                              subject, predicate, object, updateType, updates);
+            }
+        } catch (IOException e) {
+            logger.warn("Error reading journaled updates", e);
+        }
+        return updates;
+    }
+
+    /**
+     * Updates detached from the journal by <code>swap()</code>.
+     *
+     * These are marked flushed in their segments as they are written, and
+     * are otherwise left for the journal to replay.
+     */
+    private class Generation extends AbstractUpdateBuffer {
+
+        // guarded by m_appendLock
+        private LinkedList<Piece> m_pieces;
+        private AtomicInteger m_count;
+
+        Generation(LinkedList<Piece> pieces, int count) {
+            super(JournalUpdateBuffer.this.safeCapacity(),
+                  JournalUpdateBuffer.this.getFlushBatchSize());
+            setFlushErrorHandler(JournalUpdateBuffer.this.getFlushErrorHandler());
+            m_pieces = pieces;
+            m_count = new AtomicInteger(count);
+        }
+
+        public void add(List<Triple> triples) {
+            throw new UnsupportedOperationException("Detached updates are read-only");
+        }
+
+        public void add(Triple triple) {
+            throw new UnsupportedOperationException("Detached updates are read-only");
+        }
+
+        public void delete(List<Triple> triples) {
+            throw new UnsupportedOperationException("Detached updates are read-only");
+        }
+
+        public void delete(Triple triple) {
+            throw new UnsupportedOperationException("Detached updates are read-only");
+        }
+
+        public int size() {
+            return m_count.get();
+        }
+
+        /**
+         * Write each piece in turn, marking it flushed once written.  If
+         * this fails, the rest are left for the next flush.
+         */
+        public synchronized void flush(TriplestoreSession session) throws IOException,
+                                                                          TrippiException {
+            while (true) {
+                Piece piece;
+                int[] index;
+                synchronized (m_appendLock) {
+                    piece = m_pieces.peek();
+                    if (piece == null) return;
+                    index = piece.segment.copyIndex(piece.from, piece.to);
+                }
+                List<TripleUpdate> updates = new ArrayList<TripleUpdate>(index.length / Segment.STRIDE);
+                piece.segment.read(index, updates);
+                writeUpdates(updates, session);
+                Segment segment = piece.segment;
+                boolean done;
+                synchronized (m_appendLock) {
+                    // it may have filled up and been sealed since
+                    segment.markFlushed(updates.size(), segment == m_active);
+                    m_pieces.removeFirst();
+                    done = segment != m_active && segment.count() == 0;
+                    if (done) m_sealed.remove(segment);
+                }
+                m_count.addAndGet(-updates.size());
+                if (done) segment.delete();
+            }
+        }
+
+        /**
+         * Hand whatever hasn't been flushed back to the journal.  This
+         * only works if nothing has been detached since.
+         */
+        void restore() {
+            int n = 0;
+            synchronized (m_appendLock) {
+                for (Piece piece : m_pieces) {
+                    piece.segment.swapped = Math.min(piece.segment.swapped, piece.from);
+                    n += piece.to - piece.from;
+                }
+                m_pieces.clear();
+            }
+            m_count.addAndGet(-n);
+            m_size.addAndGet(n);
+        }
+
+        public List<TripleUpdate> findBufferedUpdates(SubjectNode subject,
+                                                      PredicateNode predicate,
+                                                      ObjectNode object,
+                                                      int updateType) {
+            List<TripleUpdate> updates = new ArrayList<TripleUpdate>();
+            try {
+                synchronized (m_appendLock) {
+                    for (Piece piece : m_pieces) {
+                        piece.segment.find(piece.from, piece.to,
+                                           subject, predicate, object, updateType, updates);
+                    }
+                }
+            } catch (IOException e) {
+                logger.warn("Error reading journaled updates", e);
+            }
+            return updates;
+        }
+
+        /**
+         * Nothing to release; the segments belong to the journal.
+         */
+        public void close() {
+        }
+    }
+
+    /**
+     * A range of index entries in a segment.
+     */
+    private static class Piece {
+
+        final Segment segment;
+        final int from;
+        final int to;
+
+        Piece(Segment segment, int from, int to) {
+            this.segment = segment;
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    /**
+     * A memory-mapped journal file.
+     *
+     * The file starts with the four-byte offset of its first unflushed
+     * record.  Each record is a four-byte length, a one-byte update type,
+     * and the encoded triple.  A zero length marks the end of the records.
+     *
+     * The position, update type and node hash codes of each unflushed
+     * record are kept in memory, so records can be read without scanning
+     * and matched without decoding.  Callers must synchronize access to
+     * everything but the records themselves.
+     */
+    private static class Segment {
+
+        static final int HEADER_SIZE = 4;
+
+        // index entries are: offset, type, subject, predicate and object hash
+        static final int STRIDE = 5;
+
+        final File file;
+        final RandomAccessFile raf;
+        final MappedByteBuffer buffer;
+        int position = HEADER_SIZE;
+        int[] index = new int[STRIDE * 256];
+        int first;   // the entry of the first unflushed record
+        int swapped; // the entry of the first record not yet detached
+        int entries; // the number of entries in use
+
+        private Segment(File file, int size) throws IOException {
+            this.file = file;
+            raf = new RandomAccessFile(file, "rw");
+            FileChannel channel = raf.getChannel();
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+
+        static Segment create(File file, int size) throws IOException {
+            if (file.exists()) {
+                throw new IOException("Journal segment already exists: " + file.getPath());
+            }
+            return new Segment(file, size);
+        }
+
+        static Segment open(File file) throws IOException {
+            Segment segment = new Segment(file, (int) file.length());
+            segment.scan();
+            return segment;
+        }
+
+        static int recordSize(byte[] record) {
+            // length, type, triple, and the end marker that follows it
+            return 4 + 1 + record.length + 4;
+        }
+
+        int count() {
+            return entries - first;
+        }
+
+        // index the unflushed records, finding the end along the way
+        private void scan() throws IOException {
+            int limit = buffer.capacity();
+            if (limit < HEADER_SIZE) return;
+            int pos = Math.max(HEADER_SIZE, buffer.getInt(0));
+            while (pos + 4 <= limit) {
+                int len = buffer.getInt(pos);
+                if (len <= 0 || pos + 4 + len > limit) break;
+                TripleUpdate update = decode(pos);
+                addEntry(pos, update.type, update.triple);
+                pos += 4 + len;
+            }
+            position = pos;
+        }
+
+        boolean append(int type, byte[] record, Triple triple) {
+            if (position + recordSize(record) > buffer.capacity()) {
+                return false;
+            }
+            int len = 1 + record.length;
+            ByteBuffer dup = buffer.duplicate();
+            dup.position(position + 4);
+            dup.put((byte) type);
+            dup.put(record);
+            // a rewound segment may still hold old records past this one
+            dup.putInt(0);
+            // the length goes last, so a partial record is never visible
+            buffer.putInt(position, len);
+            addEntry(position, type, triple);
+            position += 4 + len;
+            return true;
+        }
+
+        private void addEntry(int offset, int type, Triple triple) {
+            int i = entries * STRIDE;
+            if (i == index.length) {
+                int[] bigger = new int[index.length * 2];
+                System.arraycopy(index, 0, bigger, 0, index.length);
+                index = bigger;
+            }
+            index[i] = offset;
+            index[i + 1] = type;
+            index[i + 2] = triple.getSubject().hashCode();
+            index[i + 3] = triple.getPredicate().hashCode();
+            index[i + 4] = triple.getObject().hashCode();
+            entries++;
+        }
+
+        /**
+         * Get the given range of index entries.  The records they point
+         * to don't change until they are marked flushed.
+         */
+        int[] copyIndex(int from, int to) {
+            int[] copy = new int[(to - from) * STRIDE];
+            System.arraycopy(index, from * STRIDE, copy, 0, copy.length);
+            return copy;
+        }
+
+        void read(int[] entries, List<TripleUpdate> updates) throws IOException {
+            for (int i = 0; i < entries.length; i += STRIDE) {
+                updates.add(decode(entries[i]));
+            }
+        }
+
+        void find(int from,
+                  int to,
+                  SubjectNode subject,
+                  PredicateNode predicate,
+                  ObjectNode object,
+                  int updateType,
+                  List<TripleUpdate> updates) throws IOException {
+            int sHash = subject == null ? 0 : subject.hashCode();
+            int pHash = predicate == null ? 0 : predicate.hashCode();
+            int oHash = object == null ? 0 : object.hashCode();
+            int end = to * STRIDE;
+            for (int i = from * STRIDE; i < end; i += STRIDE) {
+                if ((updateType == UpdateBuffer.EITHER_UPDATE_TYPE || index[i + 1] == updateType)
+                        && (subject == null || index[i + 2] == sHash)
+                        && (predicate == null || index[i + 3] == pHash)
+                        && (object == null || index[i + 4] == oHash)) {
+                    TripleUpdate update = decode(index[i]);
+                    if (matches(update, subject, predicate, object, updateType)) {
+                        updates.add(update);
+                    }
+                }
+            }
+        }
+
+        private TripleUpdate decode(int offset) throws IOException {
+            ByteBuffer dup = buffer.duplicate();
+            int len = dup.getInt(offset);
+            int type = dup.get(offset + 4);
+            byte[] record = new byte[len - 1];
+            dup.position(offset + 5);
+            dup.get(record);
+            Triple triple = BinaryTripleCodec.readTriple(
+                    new DataInputStream(new ByteArrayInputStream(record)));
+            return TripleUpdate.get(type, triple);
+        }
+
+        /**
+         * Mark the given number of records, from the first unflushed one,
+         * as flushed.  If that leaves none and <code>rewind</code> is set,
+         * the segment is emptied so its space can be reused.
+         */
+        void markFlushed(int n, boolean rewind) {
+            first += n;
+            buffer.putInt(0, first < entries ? index[first * STRIDE] : position);
+            buffer.force();
+            if (first == entries && rewind) {
+                // end the records at the start before pointing back there
+                buffer.putInt(HEADER_SIZE, 0);
+                buffer.force();
+                buffer.putInt(0, HEADER_SIZE);
+                position = HEADER_SIZE;
+                first = 0;
+                swapped = 0;
+                entries = 0;
+            }
+        }
+
+        void force() {
+            buffer.force();
+        }
+
+        void close() {
+            try {
+                raf.close();
+            } catch (IOException e) {
+                logger.warn("Error closing journal segment " + file.getPath(), e);
+            }
+        }
+
+        /**
+         * Mark the segment empty on disk, then remove it.
+         *
+         * The file may not be deletable while still mapped on some
+         * platforms, in which case the empty segment is simply
+         * discarded at the next replay.
+         */
+        void delete() {
+            if (buffer.capacity() >= HEADER_SIZE + 4) {
+                buffer.putInt(HEADER_SIZE, 0);
+                buffer.putInt(0, HEADER_SIZE);
+                buffer.force();
+            }
+            close();
+            if (!file.delete()) {
+                logger.debug("Unable to delete flushed journal segment " + file.getPath());
+            }
+        }
+    }
+
+}
@@ -0,0 +1,122 @@
+package org.trippi.impl.base;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.jrdf.graph.ObjectNode;
+import org.jrdf.graph.PredicateNode;
+import org.jrdf.graph.SubjectNode;
+import org.jrdf.graph.Triple;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.trippi.TripleIterator;
+import org.trippi.TrippiException;
+import org.trippi.TupleIterator;
+
+/**
+ * A <code>TriplestoreSession</code> that collects the predicates touched by
+ * each successful add or delete, and tells <code>UpdateListener</code>s
+ * about all of them at once when <code>notifyListeners()</code> is called,
+ * typically at the end of a flush.
+ *
+ * Closing this session does not close the wrapped session.
+ */
+public class NotifyingTriplestoreSession implements TriplestoreSession {
+
+    private static final Logger logger =
+        LoggerFactory.getLogger(NotifyingTriplestoreSession.class.getName());
+
+    private TriplestoreSession m_session;
+    private List<UpdateListener> m_listeners;
+
+    // touched since the last notification; adds and deletes may run on
+    // several threads during a partitioned flush
+    private Set<PredicateNode> m_predicates =
+            Collections.synchronizedSet(new HashSet<PredicateNode>());
+
+    public NotifyingTriplestoreSession(TriplestoreSession session,
+                                       List<UpdateListener> listeners) {
+        m_session = session;
+        m_listeners = listeners;
+    }
+
+    public void add(Set<Triple> triples) throws TrippiException {
+        m_session.add(triples);
+        touched(triples);
+    }
+
+    public void delete(Set<Triple> triples) throws TrippiException {
+        m_session.delete(triples);
+        touched(triples);
+    }
+
+    private void touched(Set<Triple> triples) {
+        Set<PredicateNode> predicates = new HashSet<PredicateNode>();
+        for (Triple triple : triples) {
+            predicates.add(triple.getPredicate());
+        }
+        m_predicates.addAll(predicates);
+    }
+
+    /**
+     * Tell the listeners about the predicates touched since the last call,
+     * if any.
+     */
+    public void notifyListeners() {
+        Set<PredicateNode> predicates;
+        synchronized (m_predicates) {
+            if (m_predicates.isEmpty()) return;
+            predicates = new HashSet<PredicateNode>(m_predicates);
+            m_predicates.clear();
+        }
+        notify(m_listeners, predicates);
+    }
+
+    /**
+     * Tell each listener about an update, logging (rather than
+     * propagating) any failures, since the update has already happened.
+     */
+    static void notify(List<UpdateListener> listeners,
+                       Set<PredicateNode> predicates) {
+        for (UpdateListener listener : listeners) {
+            try {
+                listener.triplesUpdated(predicates);
+            } catch (RuntimeException e) {
+                logger.warn("Update listener failed", e);
+            }
+        }
+    }
+
+    public TupleIterator query(String queryText,
+                               String language) throws TrippiException {
+        return m_session.query(queryText, language);
+    }
+
+    public TripleIterator findTriples(String lang,
+                                      String queryText) throws TrippiException {
+        return m_session.findTriples(lang, queryText);
+    }
+
+    public TripleIterator findTriples(SubjectNode subject,
+                                      PredicateNode predicate,
+                                      ObjectNode object) throws TrippiException {
+        return m_session.findTriples(subject, predicate, object);
+    }
+
+    public String[] listTupleLanguages() {
+        return m_session.listTupleLanguages();
+    }
+
+    public String[] listTripleLanguages() {
+        return m_session.listTripleLanguages();
+    }
+
+    /**
+     * Does nothing; the wrapped session is owned by the caller.
+     */
+    public void close() {
+    }
+
+}
@@ -0,0 +1,176 @@
+package org.trippi.impl.base;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.jrdf.graph.ObjectNode;
+import org.jrdf.graph.PredicateNode;
+import org.jrdf.graph.SubjectNode;
+import org.jrdf.graph.Triple;
+import org.trippi.TripleIterator;
+import org.trippi.TrippiException;
+import org.trippi.TupleIterator;
+
+/**
+ * A <code>TriplestoreSession</code> that spreads each add or delete
+ * across several underlying sessions and writes the parts in parallel.
+ * <p>
+ * Triples are partitioned by the hash of their subject, and each call
+ * returns only once every partition has been written, so an add is
+ * always complete before a subsequent delete begins (and vice versa).
+ * The first partition is written in the calling thread; the rest are
+ * handed to the given executor.
+ * </p><p>
+ * Queries go to the first session.  Closing this session does not close
+ * the underlying sessions, which remain the caller's responsibility.
+ * </p>
+ */
+public class PartitionedTriplestoreSession implements TriplestoreSession {
+
+    private TriplestoreSession[] m_sessions;
+    private ExecutorService m_executor;
+
+    public PartitionedTriplestoreSession(TriplestoreSession[] sessions,
+                                         ExecutorService executor) {
+        if (sessions.length == 0) {
+            throw new IllegalArgumentException("At least one session is required");
+        }
+        m_sessions = sessions;
+        m_executor = executor;
+    }
+
+    public void add(Set<Triple> triples) throws TrippiException {
+        write(partition(triples), true);
+    }
+
+    public void delete(Set<Triple> triples) throws TrippiException {
+        write(partition(triples), false);
+    }
+
+    private List<Set<Triple>> partition(Set<Triple> triples) {
+        int n = m_sessions.length;
+        List<Set<Triple>> parts = new ArrayList<Set<Triple>>(n);
+        for (int i = 0; i < n; i++) {
+            parts.add(new HashSet<Triple>(triples.size() / n + 1));
+        }
+        for (Triple triple : triples) {
+            int i = (triple.getSubject().hashCode() & 0x7fffffff) % n;
+            parts.get(i).add(triple);
+        }
+        return parts;
+    }
+
+    /**
+     * Write each part on its own session, waiting for all of them to
+     * finish even if one fails.
+     */
+    private void write(List<Set<Triple>> parts,
+                       boolean add) throws TrippiException {
+        List<Future<Void>> futures = new ArrayList<Future<Void>>(parts.size());
+        for (int i = 1; i < parts.size(); i++) {
+            if (parts.get(i).size() > 0) {
+                futures.add(m_executor.submit(new PartWriter(m_sessions[i],
+                                                             parts.get(i),
+                                                             add)));
+            }
+        }
+        TrippiException failure = null;
+        try {
+            new PartWriter(m_sessions[0], parts.get(0), add).call();
+        } catch (TrippiException e) {
+            failure = e;
+        }
+        boolean interrupted = false;
+        for (Future<Void> future : futures) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    // the sessions are still in use; keep waiting
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        Throwable cause = e.getCause();
+                        if (cause instanceof TrippiException) {
+                            failure = (TrippiException) cause;
+                        } else {
+                            failure = new TrippiException("Error writing "
+                                    + "partition: " + cause.getMessage(), cause);
+                        }
+                    }
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    public TupleIterator query(String queryText,
+                               String language) throws TrippiException {
+        return m_sessions[0].query(queryText, language);
+    }
+
+    public TripleIterator findTriples(String lang,
+                                      String queryText) throws TrippiException {
+        return m_sessions[0].findTriples(lang, queryText);
+    }
+
+    public TripleIterator findTriples(SubjectNode subject,
+                                      PredicateNode predicate,
+                                      ObjectNode object) throws TrippiException {
+        return m_sessions[0].findTriples(subject, predicate, object);
+    }
+
+    public String[] listTupleLanguages() {
+        return m_sessions[0].listTupleLanguages();
+    }
+
+    public String[] listTripleLanguages() {
+        return m_sessions[0].listTripleLanguages();
+    }
+
+    /**
+     * Does nothing; the underlying sessions are owned by the caller.
+     */
+    public void close() {
+    }
+
+    private static class PartWriter implements Callable<Void> {
+
+        private TriplestoreSession m_session;
+        private Set<Triple> m_triples;
+        private boolean m_add;
+
+        PartWriter(TriplestoreSession session,
+                   Set<Triple> triples,
+                   boolean add) {
+            m_session = session;
+            m_triples = triples;
+            m_add = add;
+        }
+
+        public Void call() throws TrippiException {
+            if (m_triples.size() > 0) {
+                if (m_add) {
+                    m_session.add(m_triples);
+                } else {
+                    m_session.delete(m_triples);
+                }
+            }
+            return null;
+        }
+    }
+
+}
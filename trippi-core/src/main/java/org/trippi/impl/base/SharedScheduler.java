@@ -0,0 +1,101 @@
+package org.trippi.impl.base;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A single timer thread shared by all writers and session pools in the JVM.
+ * <p>
+ * Users <code>acquire()</code> the scheduler when they open and
+ * <code>release()</code> it when they close.  The thread is started on
+ * the first acquire and shut down when the last user releases it, so an
+ * idle JVM with no open connectors runs no maintenance threads at all.
+ * </p><p>
+ * Tasks run one at a time, so they should be short; long-running work
+ * such as flushing a write buffer or opening a session should be handed
+ * off to another thread, such as one from <code>newWorker()</code>.
+ * </p>
+ */
+public final class SharedScheduler {
+
+    private static final Logger logger =
+        LoggerFactory.getLogger(SharedScheduler.class.getName());
+
+    private static ScheduledExecutorService s_scheduler;
+    private static int s_users;
+
+    private SharedScheduler() { }
+
+    /**
+     * Get the shared scheduler, starting it if necessary.
+     *
+     * Each call must be balanced by a call to <code>release()</code>.
+     */
+    public static synchronized ScheduledExecutorService acquire() {
+        if (s_scheduler == null) {
+            logger.debug("Starting shared scheduler");
+            s_scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "trippi-scheduler");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        s_users++;
+        return s_scheduler;
+    }
+
+    /**
+     * Create a single-threaded executor for work that is too slow to run
+     * on the shared scheduler.
+     *
+     * Its thread is only started when there is work to do, and exits
+     * after a minute without any.  The caller must shut it down when
+     * finished with it.
+     */
+    public static ExecutorService newWorker(final String name) {
+        ThreadPoolExecutor worker = new ThreadPoolExecutor(1, 1,
+                60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, name);
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        worker.allowCoreThreadTimeOut(true);
+        return worker;
+    }
+
+    /**
+     * Release the shared scheduler, shutting it down if this was the
+     * last user.
+     */
+    public static synchronized void release() {
+        if (s_users == 0) return;
+        if (--s_users == 0) {
+            logger.debug("Shutting down shared scheduler");
+            s_scheduler.shutdownNow();
+            s_scheduler = null;
+        }
+    }
+
+    /**
+     * Get the number of users that have acquired the scheduler and not
+     * yet released it.
+     */
+    static synchronized int getUserCount() {
+        return s_users;
+    }
+
+}
@@ -5,7 +5,7 @@ import org.trippi.TrippiException;
 /**
  * A pool providing access to a single session.
  */
-public class SingleSessionPool implements TriplestoreSessionPool {
+public class SingleSessionPool implements TimedSessionPool {
 
     private TriplestoreSession m_session;
     private String[] m_tupleLanguages;
@@ -23,6 +23,14 @@ public class SingleSessionPool implements TriplestoreSessionPool {
         return m_session;
     }
 
+    public TriplestoreSession get(long timeoutMs) {
+        return m_session;
+    }
+
+    public TriplestoreSession tryGet() {
+        return m_session;
+    }
+
     public void release(TriplestoreSession session) { }
 
     public String[] listTupleLanguages() {
@@ -0,0 +1,258 @@
+package org.trippi.impl.base;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.jrdf.graph.ObjectNode;
+import org.jrdf.graph.PredicateNode;
+import org.jrdf.graph.SubjectNode;
+import org.jrdf.graph.Triple;
+
+import org.trippi.TripleUpdate;
+import org.trippi.TrippiException;
+
+/**
+ * A memory buffer for triplestore updates that never blocks its writers.
+ * <p>
+ * Updates are appended to one of several lock-free stripes, chosen by
+ * the id of the calling thread, and are tagged with a sequence number so
+ * the original order can be restored when the stripes are merged at
+ * flush time.  The size is tracked with a single counter, so
+ * <code>size()</code> is constant-time, though it may briefly lag behind
+ * updates that are being appended or drained.
+ * </p>
+ */
+public class StripedUpdateBuffer extends AbstractUpdateBuffer
+                                 implements SwappableUpdateBuffer {
+
+    private static Logger logger = LoggerFactory.getLogger(StripedUpdateBuffer.class.getName());
+
+    private static final Comparator<SequencedUpdate> SEQUENCE_ORDER =
+            new Comparator<SequencedUpdate>() {
+                public int compare(SequencedUpdate a, SequencedUpdate b) {
+                    return a.sequence < b.sequence ? -1
+                            : (a.sequence == b.sequence ? 0 : 1);
+                }
+            };
+
+    private Stripe[] m_stripes;
+    private AtomicLong m_sequence = new AtomicLong();
+    private AtomicInteger m_size = new AtomicInteger();
+
+    /** Updates drained by a flush that started before they were made. */
+    private ConcurrentLinkedQueue<SequencedUpdate> m_carried =
+            new ConcurrentLinkedQueue<SequencedUpdate>();
+
+    /** Every update sequenced before this has been flushed; guarded by this. */
+    private long m_flushedThrough = 0;
+
+    /**
+     * Create a buffer with one stripe per available processor.
+     */
+    public StripedUpdateBuffer(int safeCapacity,
+                               int flushBatchSize) {
+        this(safeCapacity,
+             flushBatchSize,
+             Runtime.getRuntime().availableProcessors());
+    }
+
+    public StripedUpdateBuffer(int safeCapacity,
+                               int flushBatchSize,
+                               int stripeCount) {
+        super(safeCapacity, flushBatchSize);
+        if (stripeCount < 1) {
+            throw new IllegalArgumentException("stripeCount must be positive");
+        }
+        m_stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            m_stripes[i] = new Stripe();
+        }
+    }
+
+    public void add(List<Triple> triples) {
+        debugUpdate(logger, "Adding {} triple ADDs to buffer", triples);
+        append(TripleUpdate.ADD, triples);
+    }
+
+    public void add(Triple triple) {
+        traceUpdate(logger, "Adding 1 triple ADD to buffer\n{}", triple);
+        append(TripleUpdate.get(TripleUpdate.ADD, triple));
+    }
+
+    public void delete(List<Triple> triples) {
+        debugUpdate(logger, "Adding {} triple DELETEs to buffer", triples);
+        append(TripleUpdate.DELETE, triples);
+    }
+
+    public void delete(Triple triple) {
+        traceUpdate(logger, "Adding 1 triple DELETE to buffer\n{}", triple);
+        append(TripleUpdate.get(TripleUpdate.DELETE, triple));
+    }
+
+    // entries are built before their sequence numbers are taken, since
+    // drain() waits for every number it has seen handed out
+    private void append(TripleUpdate update) {
+        Stripe stripe = currentStripe();
+        SequencedUpdate su = new SequencedUpdate(update);
+        su.sequence = m_sequence.getAndIncrement();
+        stripe.queue.offer(su);
+        // counts are bumped only after the updates are visible in the
+        // queue, so a flush never tries to drain more than is there
+        stripe.count.incrementAndGet();
+        m_size.incrementAndGet();
+    }
+
+    private void append(int type, List<Triple> triples) {
+        int n = triples.size();
+        if (n == 0) return;
+        Stripe stripe = currentStripe();
+        SequencedUpdate[] entries = new SequencedUpdate[n];
+        for (int i = 0; i < n; i++) {
+            entries[i] = new SequencedUpdate(TripleUpdate.get(type, triples.get(i)));
+        }
+        // reserve a contiguous range so the list stays together when merged
+        long sequence = m_sequence.getAndAdd(n);
+        for (int i = 0; i < n; i++) {
+            entries[i].sequence = sequence + i;
+            stripe.queue.offer(entries[i]);
+        }
+        stripe.count.addAndGet(n);
+        m_size.addAndGet(n);
+    }
+
+    private Stripe currentStripe() {
+        long id = Thread.currentThread().getId();
+        return m_stripes[(int) (id % m_stripes.length)];
+    }
+
+    public int size() {
+        return m_size.get();
+    }
+
+    /**
+     * Drain all stripes, restore the original order of the updates, and
+     * write them to the triplestore.
+     *
+     * Everything sequenced before the flush started is written, and
+     * nothing sequenced after it, so an update is never written ahead of
+     * one that was made before it on another stripe.  Writers may
+     * continue appending to the stripes while this happens.
+     */
+    public synchronized void flush(TriplestoreSession session) throws TrippiException {
+        List<TripleUpdate> updates = drain();
+        if (updates.size() > 0) {
+            writeUpdates(updates, session);
+        }
+    }
+
+    public UpdateBuffer swap() {
+        return new MemUpdateBuffer(this, drain());
+    }
+
+    /**
+     * Remove and return, in order, everything sequenced so far.
+     */
+    private synchronized List<TripleUpdate> drain() {
+        long watermark = m_sequence.get();
+        int expected = (int) (watermark - m_flushedThrough);
+        List<SequencedUpdate> drained = new ArrayList<SequencedUpdate>(expected);
+        Iterator<SequencedUpdate> carried = m_carried.iterator();
+        while (carried.hasNext()) {
+            SequencedUpdate su = carried.next();
+            if (su.sequence < watermark) {
+                drained.add(su);
+                carried.remove();
+            }
+        }
+        // an update may have its sequence number but not yet be in its
+        // stripe; appends are short, so wait for it rather than leave a
+        // gap that a later update could be written ahead of
+        while (drained.size() < expected) {
+            for (int i = 0; i < m_stripes.length; i++) {
+                Stripe stripe = m_stripes[i];
+                int n = stripe.count.get();
+                for (int j = 0; j < n; j++) {
+                    SequencedUpdate su = stripe.queue.poll();
+                    if (su.sequence < watermark) {
+                        drained.add(su);
+                    } else {
+                        m_carried.offer(su);
+                    }
+                }
+                stripe.count.addAndGet(-n);
+            }
+            if (drained.size() < expected) {
+                Thread.yield();
+            }
+        }
+        m_flushedThrough = watermark;
+        m_size.addAndGet(-drained.size());
+        return toUpdateList(drained);
+    }
+
+    private static List<TripleUpdate> toUpdateList(List<SequencedUpdate> sequenced) {
+        Collections.sort(sequenced, SEQUENCE_ORDER);
+        List<TripleUpdate> updates = new ArrayList<TripleUpdate>(sequenced.size());
+        for (int i = 0; i < sequenced.size(); i++) {
+            updates.add(sequenced.get(i).update);
+        }
+        return updates;
+    }
+
+    /**
+     * Close the buffer, releasing any associated system resources.
+     */
+    public void close() {
+        // nothing to release
+    }
+
+    public List<TripleUpdate> findBufferedUpdates(SubjectNode subject,
+                                                  PredicateNode predicate,
+                                                  ObjectNode object,
+                                                  int updateType) {
+        List<SequencedUpdate> found = new ArrayList<SequencedUpdate>();
+        for (int i = 0; i < m_stripes.length; i++) {
+            Iterator<SequencedUpdate> it = m_stripes[i].queue.iterator();
+            while (it.hasNext()) {
+                SequencedUpdate su = it.next();
+                if (matches(su.update, subject, predicate, object, updateType)) {
+                    found.add(su);
+                }
+            }
+        }
+        Iterator<SequencedUpdate> it = m_carried.iterator();
+        while (it.hasNext()) {
+            SequencedUpdate su = it.next();
+            if (matches(su.update, subject, predicate, object, updateType)) {
+                found.add(su);
+            }
+        }
+        return toUpdateList(found);
+    }
+
+    private static class Stripe {
+        final ConcurrentLinkedQueue<SequencedUpdate> queue =
+                new ConcurrentLinkedQueue<SequencedUpdate>();
+        final AtomicInteger count = new AtomicInteger();
+    }
+
+    private static class SequencedUpdate {
+        /** Set once, before the entry is offered to a stripe. */
+        long sequence;
+        final TripleUpdate update;
+
+        SequencedUpdate(TripleUpdate update) {
+            this.update = update;
+        }
+    }
+
+}
@@ -0,0 +1,24 @@
+package org.trippi.impl.base;
+
+import java.io.IOException;
+
+/**
+ * An <code>UpdateBuffer</code> whose contents can be detached in one step,
+ * so they can be flushed while new updates land in the emptied buffer.
+ */
+public interface SwappableUpdateBuffer extends UpdateBuffer {
+
+    /**
+     * Detach everything buffered so far.
+     *
+     * This buffer is left empty and keeps accepting updates.  The returned
+     * buffer holds the detached updates, in the order they were made, and
+     * should only be flushed, searched and closed.  Detached buffers must
+     * be flushed in the order they were detached, and before this buffer
+     * is flushed directly.
+     *
+     * @return the detached updates, which may be empty.
+     */
+    public UpdateBuffer swap() throws IOException;
+
+}
@@ -6,7 +6,7 @@ import org.trippi.TrippiException;
 
 /**
  * Wraps a <code>TripleIterator</code> and automatically releases the
- * current thread's lock on the associated SynchronizedTriplestoreSession
+ * read lock its query took on the associated SynchronizedTriplestoreSession
  * when closed.
  *
  * @author cwilper@cs.cornell.edu
@@ -15,12 +15,14 @@ public class SynchronizedTripleIterator extends TripleIterator {
 
     private TripleIterator m_iter;
     private SynchronizedTriplestoreSession m_session;
+    private Thread m_owner;
     private boolean m_closed = false;
 
     public SynchronizedTripleIterator(TripleIterator iter,
                                       SynchronizedTriplestoreSession session) {
         m_iter = iter;
         m_session = session;
+        m_owner = Thread.currentThread();
     }
 
     @Override
@@ -48,7 +50,7 @@ public class SynchronizedTripleIterator extends TripleIterator {
             } catch (TrippiException e) {
                 throw e;
             } finally {
-                m_session.releaseLock();
+                m_session.releaseLock(m_owner);
                 m_closed = true;
             }
         }
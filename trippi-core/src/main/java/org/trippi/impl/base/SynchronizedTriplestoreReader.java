@@ -1,6 +1,5 @@
 package org.trippi.impl.base;
 
-import java.util.Iterator;
 import java.util.Map;
 
 import org.slf4j.Logger;
@@ -8,7 +7,6 @@ import org.slf4j.LoggerFactory;
 import org.jrdf.graph.ObjectNode;
 import org.jrdf.graph.PredicateNode;
 import org.jrdf.graph.SubjectNode;
-import org.trippi.Alias;
 import org.trippi.AliasManager;
 import org.trippi.TripleIterator;
 import org.trippi.TriplePattern;
@@ -62,10 +60,18 @@ public class SynchronizedTriplestoreReader implements TriplestoreReader {
         return m_session.listTripleLanguages();
     }
 
+    /**
+     * Asks the session for the count if the results needn't be distinct,
+     * otherwise counts the results.
+     */
     public int countTuples(String queryLang,
                            String tupleQuery,
                            int limit,
                            boolean distinct) throws TrippiException {
+        if (!distinct) {
+            int count = m_session.countTuples(tupleQuery, queryLang);
+            if (count >= 0) return limit(count, limit);
+        }
         return findTuples(queryLang, tupleQuery, limit, distinct).count();
     }
 
@@ -80,25 +86,58 @@ public class SynchronizedTriplestoreReader implements TriplestoreReader {
         return iter;
     }
 
-    private String doAliasReplacements(String q) {
-        String out = q;
-        Map<String, Alias> m = m_aliasManager.getAliases();
-        Iterator<String> iter = m.keySet().iterator();
-        while (iter.hasNext()) {
-            String key = iter.next();
-            Alias alias = m.get(key);
-            out = alias.replaceSparqlType(alias.replaceSparqlUri(out));
+    private static int limit(int count, int limit) {
+        if (limit > 0 && count > limit) return limit;
+        return count;
+    }
+
+    private TriplePattern parsePattern(String tripleQuery) throws TrippiException {
+        TriplePattern[] patterns = TriplePattern.parse(doAliasReplacements(tripleQuery));
+        if (patterns.length != 1) {
+            throw new TrippiException("Only one triple pattern may be specified.");
         }
+        return patterns[0];
+    }
+
+    private static SubjectNode subject(TriplePattern p) {
+        if (p.getSubject() instanceof SubjectNode) return (SubjectNode) p.getSubject();
+        return null;
+    }
+
+    private static PredicateNode predicate(TriplePattern p) {
+        if (p.getPredicate() instanceof PredicateNode) return (PredicateNode) p.getPredicate();
+        return null;
+    }
+
+    private static ObjectNode object(TriplePattern p) {
+        if (p.getObject() instanceof ObjectNode) return (ObjectNode) p.getObject();
+        return null;
+    }
+
+    private String doAliasReplacements(String q) {
+        String out = m_aliasManager.getAliasIndex().expandQuery(q);
         if (!q.equals(out)) {
             logger.info("Substituted aliases, query is now: " + out);
         }
         return out;
     }
 
+    /**
+     * Asks the session for the count if the results needn't be distinct,
+     * otherwise counts the results.
+     */
     public int countTriples(String queryLang,
                             String tripleQuery,
                             int limit,
                             boolean distinct) throws TrippiException {
+        if (queryLang.equals("spo")) {
+            TriplePattern p = parsePattern(tripleQuery);
+            return countTriples(subject(p), predicate(p), object(p), limit);
+        }
+        if (!distinct) {
+            int count = m_session.countTriples(queryLang, tripleQuery);
+            if (count >= 0) return limit(count, limit);
+        }
         return findTriples(queryLang, tripleQuery, limit, distinct).count();
     }
 
@@ -111,19 +150,8 @@ public class SynchronizedTriplestoreReader implements TriplestoreReader {
                                       boolean distinct) throws TrippiException {
         if (queryLang.equals("spo")) {
             // parse and call findTriples(subj, pred, obj)
-            TriplePattern[] patterns = TriplePattern.parse(doAliasReplacements(tripleQuery));
-            if (patterns.length == 1) {
-                TriplePattern p = patterns[0];
-                SubjectNode subject = null;
-                PredicateNode predicate = null;
-                ObjectNode object = null;
-                if (p.getSubject() instanceof SubjectNode) subject = (SubjectNode) p.getSubject();
-                if (p.getPredicate() instanceof PredicateNode) predicate = (PredicateNode) p.getPredicate();
-                if (p.getObject() instanceof ObjectNode) object = (ObjectNode) p.getObject();
-                return findTriples(subject, predicate, object, limit);
-            } else {
-                throw new TrippiException("Only one triple pattern may be specified.");
-            }
+            TriplePattern p = parsePattern(tripleQuery);
+            return findTriples(subject(p), predicate(p), object(p), limit);
         } else {
             // delegate to the session
             TripleIterator iter = null;
@@ -134,10 +162,15 @@ public class SynchronizedTriplestoreReader implements TriplestoreReader {
         }
     }
 
+    /**
+     * Asks the session for the count, counting the results if it can't.
+     */
     public int countTriples(SubjectNode subject,
                             PredicateNode predicate,
                             ObjectNode object,
                             int limit) throws TrippiException {
+        int count = m_session.countTriples(subject, predicate, object);
+        if (count >= 0) return limit(count, limit);
         return findTriples(subject, predicate, object, limit).count();
     }
 
@@ -1,8 +1,11 @@
 package org.trippi.impl.base;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -19,10 +22,26 @@ import org.trippi.TupleIterator;
  *
  * If a session doesn't support writes, the add and delete methods
  * will throw UnsupportedOperationException (an unchecked exception).
- *
+ * <p>
+ * Access is controlled by a fair read/write lock: queries share the
+ * lock until their iterators are closed, while adds, deletes and close
+ * hold it exclusively.  Threads are granted the lock in the order they
+ * asked for it, so a waiting writer isn't starved by a stream of
+ * readers, and are woken as soon as it is released.
+ * </p><p>
+ * A thread that already holds the lock may take it again, for example to
+ * run a second query or to delete triples while iterating over a query's
+ * results.  Taking the write lock while holding a read lock waits for
+ * other readers to finish; if another thread is already doing so, it
+ * fails rather than deadlocking.
+ * </p><p>
+ * Counts are passed on to the underlying session if it is a
+ * <code>CountingSession</code>, holding the read lock only while it
+ * counts.
+ * </p>
  * @author cwilper@cs.cornell.edu
  */
-public class SynchronizedTriplestoreSession implements TriplestoreSession {
+public class SynchronizedTriplestoreSession implements CountingSession {
 
     private static final Logger logger =
             LoggerFactory.getLogger(SynchronizedTriplestoreSession.class.getName());
@@ -30,37 +49,53 @@ public class SynchronizedTriplestoreSession implements TriplestoreSession {
     /** The underlying session. */
     private TriplestoreSession m_session;
 
-    /** The lock queue. The Thread at position 0 has the lock. */
-    private List<Thread> m_lockQueue;
+    /** Guards the lock state below. */
+    private final ReentrantLock m_stateLock = new ReentrantLock();
+
+    /** Signalled whenever the lock state changes. */
+    private final Condition m_changed = m_stateLock.newCondition();
+
+    /** Threads waiting for the lock, in the order they will get it. */
+    private final LinkedList<Waiter> m_waiters = new LinkedList<Waiter>();
+
+    /** The locks held by each thread. */
+    private final Map<Thread, Hold> m_holds = new HashMap<Thread, Hold>();
+
+    /** The thread waiting to upgrade its read lock, if any. */
+    private Thread m_upgrader;
+
+    private volatile boolean m_closing = false;
+
+    private final WaitTimeHistogram m_readWaits = new WaitTimeHistogram();
+    private final WaitTimeHistogram m_writeWaits = new WaitTimeHistogram();
 
     public SynchronizedTriplestoreSession(TriplestoreSession session) {
         m_session = session;
-        m_lockQueue = new ArrayList<Thread>();
     }
 
     public void add(Set<Triple> triples) throws UnsupportedOperationException,
                                          TrippiException {
-        waitForLock(false);
+        waitForLock(true, false);
         try {
             m_session.add(triples);
         } finally {
-            releaseLock();
+            release(Thread.currentThread(), true);
         }
     }
 
     public void delete(Set<Triple> triples) throws UnsupportedOperationException,
                                             TrippiException {
-        waitForLock(false);
+        waitForLock(true, false);
         try {
             m_session.delete(triples);
         } finally {
-            releaseLock();
+            release(Thread.currentThread(), true);
         }
     }
 
     public TupleIterator query(String queryText,
                                String language) throws TrippiException {
-        waitForLock(false);
+        waitForLock(false, false);
         boolean success = false;
         try {
             TupleIterator iter = new SynchronizedTupleIterator(
@@ -76,7 +111,7 @@ public class SynchronizedTriplestoreSession implements TriplestoreSession {
 
     public TripleIterator findTriples(String lang,
                                       String queryText) throws TrippiException {
-        waitForLock(false);
+        waitForLock(false, false);
         boolean success = false;
         try {
             TripleIterator iter = new SynchronizedTripleIterator(
@@ -93,7 +128,7 @@ public class SynchronizedTriplestoreSession implements TriplestoreSession {
     public TripleIterator findTriples(SubjectNode subject,
                                       PredicateNode predicate,
                                       ObjectNode object) throws TrippiException {
-        waitForLock(false);
+        waitForLock(false, false);
         boolean success = false;
         try {
             TripleIterator iter = new SynchronizedTripleIterator(
@@ -108,6 +143,44 @@ public class SynchronizedTriplestoreSession implements TriplestoreSession {
         }
     }
 
+    public int countTuples(String queryText,
+                           String language) throws TrippiException {
+        if (!(m_session instanceof CountingSession)) return -1;
+        waitForLock(false, false);
+        try {
+            return ((CountingSession) m_session).countTuples(queryText,
+                                                             language);
+        } finally {
+            releaseLock();
+        }
+    }
+
+    public int countTriples(String lang,
+                            String queryText) throws TrippiException {
+        if (!(m_session instanceof CountingSession)) return -1;
+        waitForLock(false, false);
+        try {
+            return ((CountingSession) m_session).countTriples(lang,
+                                                              queryText);
+        } finally {
+            releaseLock();
+        }
+    }
+
+    public int countTriples(SubjectNode subject,
+                            PredicateNode predicate,
+                            ObjectNode object) throws TrippiException {
+        if (!(m_session instanceof CountingSession)) return -1;
+        waitForLock(false, false);
+        try {
+            return ((CountingSession) m_session).countTriples(subject,
+                                                              predicate,
+                                                              object);
+        } finally {
+            releaseLock();
+        }
+    }
+
     public String[] listTupleLanguages() {
         return m_session.listTupleLanguages();
     }
@@ -117,85 +190,187 @@ public class SynchronizedTriplestoreSession implements TriplestoreSession {
     }
 
     /**
-     * Wait in line
+     * Wait for any other threads to finish with the session, then close it.
      */
     public synchronized void close() throws TrippiException {
         if (!m_closing) {
-            waitForLock(true);
+            waitForLock(true, true);
             try {
                 m_session.close();
             } finally {
-                releaseLock();
+                release(Thread.currentThread(), true);
             }
+            logger.info("Closed; read lock waits: " + m_readWaits
+                    + "; write lock waits: " + m_writeWaits);
         }
     }
 
-    private boolean m_closing = false;
+    /**
+     * Get a histogram of how long each query waited for the lock.
+     */
+    public WaitTimeHistogram getReadWaitHistogram() {
+        return m_readWaits;
+    }
+
+    /**
+     * Get a histogram of how long each update waited for the lock.
+     */
+    public WaitTimeHistogram getWriteWaitHistogram() {
+        return m_writeWaits;
+    }
 
     /**
-     * If the current thread is not already in the queue, add it.
-     * Then wait until it's at position 0.
+     * Wait until the current thread can have the lock, then take it.
+     *
+     * @param write whether exclusive access is needed.
+     * @param closing whether this is the last lock to be granted.
      */
-    private void waitForLock(boolean closing) throws TrippiException {
-        if (closing) {
-            m_closing = true;
-        } else {
-            if (m_closing) throw new TrippiException("Session is closing. Could not get a write lock.");
-        }
+    private void waitForLock(boolean write, boolean closing) throws TrippiException {
+        long start = System.nanoTime();
         Thread ct = Thread.currentThread();
-        String id = ct.getName();
-        synchronized (m_lockQueue) {
-            if (m_lockQueue.contains(ct)) {
-                logger.warn("Thread '" + id + "' already in lockQueue, so not re-added.");
-            } else {
-                m_lockQueue.add(ct);
+        m_stateLock.lock();
+        try {
+            if (closing) {
+                m_closing = true;
+            } else if (m_closing) {
+                throw new TrippiException("Session is closing. Could not get a "
+                        + (write ? "write" : "read") + " lock.");
             }
-        }
-        logger.info("Thread '" + id + "' waiting for lock.");
-        boolean gotLock = false;
-        while (!gotLock) {
-            synchronized (m_lockQueue) {
-                if (m_lockQueue.get(0) == ct) {
-                    gotLock = true;
+            Hold hold = m_holds.get(ct);
+            if (hold != null && (!write || hold.writes > 0)) {
+                // already has the access it needs
+                hold.take(write);
+                return;
+            }
+            Waiter waiter = new Waiter(ct, write);
+            if (hold != null) {
+                if (m_upgrader != null) {
+                    throw new TrippiException("Thread '" + m_upgrader.getName()
+                            + "' is already waiting to upgrade its read lock; "
+                            + "waiting for a write lock would deadlock.");
                 }
-                logLockStatus();
+                // go first, or a writer queued ahead would wait for us forever
+                m_upgrader = ct;
+                m_waiters.addFirst(waiter);
+            } else {
+                m_waiters.addLast(waiter);
             }
-            if (!gotLock) {
-                try {
-                    Thread.sleep(250); // sleep and try again
-                } catch (InterruptedException e) {
+            while (!canTake(waiter)) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Thread '" + ct.getName() + "' waiting for "
+                            + (write ? "write" : "read") + " lock; "
+                            + m_holds.size() + " holders, "
+                            + m_waiters.size() + " waiting.");
                 }
+                m_changed.awaitUninterruptibly();
+            }
+            m_waiters.remove(waiter);
+            if (m_upgrader == ct) m_upgrader = null;
+            if (hold == null) {
+                hold = new Hold();
+                m_holds.put(ct, hold);
+            }
+            hold.take(write);
+            // readers queued behind us may be able to go too
+            m_changed.signalAll();
+        } finally {
+            m_stateLock.unlock();
+        }
+        (write ? m_writeWaits : m_readWaits).record(System.nanoTime() - start);
+    }
+
+    /**
+     * Whether the given waiter can take the lock now.
+     *
+     * A writer needs to be first in line, with no other thread holding
+     * the lock.  A reader needs no writer ahead of it or holding the lock.
+     */
+    private boolean canTake(Waiter waiter) {
+        for (Waiter ahead : m_waiters) {
+            if (ahead == waiter) break;
+            if (waiter.write || ahead.write) return false;
+        }
+        for (Map.Entry<Thread, Hold> entry : m_holds.entrySet()) {
+            if (entry.getKey() != waiter.thread
+                    && (waiter.write || entry.getValue().writes > 0)) {
+                return false;
             }
         }
-        logger.info("Thread '" + id + "' obtained lock.");
+        return true;
     }
 
     /**
-     * If the current thread is at position zero, remove it from the queue.
+     * Release a read lock taken by a query on the current thread.
      */
     public void releaseLock() {
-        synchronized (m_lockQueue) {
-            String id = Thread.currentThread().getName();
-            if (m_lockQueue.size() == 0 || m_lockQueue.get(0) != Thread.currentThread()) {
-                logger.warn("Thread '" + id + "' did not have lock, so releaseLock() did nothing.");
-                logLockStatus();
-            } else {
-                m_lockQueue.remove(0);
-                logger.info("Thread '" + id + "' released lock.");
-                logLockStatus();
+        release(Thread.currentThread(), false);
+    }
+
+    /**
+     * Release a read lock taken by a query on the given thread.
+     *
+     * Iterators use this so that the lock is released properly even if
+     * they are closed on another thread (for example, at finalization).
+     */
+    void releaseLock(Thread owner) {
+        release(owner, false);
+    }
+
+    private void release(Thread owner, boolean write) {
+        m_stateLock.lock();
+        try {
+            Hold hold = m_holds.get(owner);
+            if (hold == null || (write ? hold.writes : hold.reads) == 0) {
+                logger.warn("Thread '" + owner.getName() + "' did not have a "
+                        + (write ? "write" : "read") + " lock, so releaseLock() did nothing.");
+                return;
+            }
+            if (hold.release(write)) {
+                m_holds.remove(owner);
             }
+            m_changed.signalAll();
+        } finally {
+            m_stateLock.unlock();
+        }
+    }
+
+    /**
+     * A thread waiting for the lock.
+     */
+    private static class Waiter {
+        final Thread thread;
+        final boolean write;
+        Waiter(Thread thread, boolean write) {
+            this.thread = thread;
+            this.write = write;
         }
     }
 
-    private void logLockStatus() {
-        int size = m_lockQueue.size();
-        if (size == 0) {
-            logger.info("Lock Status: FREE");
-        } else {
-            int waitCount = size - 1;
-            Thread lockingThread = m_lockQueue.get(0);
-            logger.info("Lock Status: LOCKER = '" + lockingThread.getName() 
-                    + "', WAITING = " + waitCount);
+    /**
+     * The number of read and write locks a thread holds.
+     */
+    private static class Hold {
+        int reads;
+        int writes;
+
+        void take(boolean write) {
+            if (write) {
+                writes++;
+            } else {
+                reads++;
+            }
+        }
+
+        /**
+         * @return whether the thread no longer holds any lock.
+         */
+        boolean release(boolean write) {
+            if (write) {
+                writes--;
+            } else {
+                reads--;
+            }
+            return reads == 0 && writes == 0;
         }
     }
 
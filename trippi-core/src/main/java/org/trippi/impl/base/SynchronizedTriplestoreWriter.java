@@ -14,11 +14,12 @@ import org.jrdf.graph.PredicateNode;
 import org.jrdf.graph.SubjectNode;
 import org.jrdf.graph.Triple;
 import org.trippi.AliasManager;
+import org.trippi.BulkLoadListener;
+import org.trippi.BulkLoadWriter;
 import org.trippi.FlushErrorHandler;
 import org.trippi.RDFFormat;
 import org.trippi.TripleIterator;
 import org.trippi.TripleUpdate;
-import org.trippi.TriplestoreWriter;
 import org.trippi.TrippiException;
 import org.trippi.io.TripleIteratorFactory;
 
@@ -29,7 +30,7 @@ import org.trippi.io.TripleIteratorFactory;
  * @author cwilper@cs.cornell.edu
  */
 public class SynchronizedTriplestoreWriter extends SynchronizedTriplestoreReader
-                                           implements TriplestoreWriter {
+                                           implements BulkLoadWriter {
 
 
     private SynchronizedTriplestoreSession m_session;
@@ -86,6 +87,24 @@ public class SynchronizedTriplestoreWriter extends SynchronizedTriplestoreReader
         }
     }
 
+    /**
+     * Immediately add all triples in the iterator to the store in batches
+     * of <i>batchSize</i>, then return.
+     *
+     * The session is locked for each batch rather than the whole load,
+     * so readers may proceed between batches.
+     */
+    public long bulkAdd(TripleIterator iter,
+                        int batchSize,
+                        BulkLoadListener listener) throws IOException,
+                                                          TrippiException {
+        try {
+            return BulkLoader.load(m_session, iter, batchSize, listener);
+        } finally {
+            iter.close();
+        }
+    }
+
     /**
      * Immediately add the given triple to the store, then return.
      */
@@ -124,16 +143,16 @@ public class SynchronizedTriplestoreWriter extends SynchronizedTriplestoreReader
             // Send the triples to a temporary file first, because they're 
             // probably coming from an iterator that has the lock,
             // and we can't delete them till the lock is freed.
-            tempFile = File.createTempFile("trippi-deltriples", "txt");
+            tempFile = File.createTempFile("trippi-deltriples", RDFFormat.BINARY_TRIPLES.getExtension());
             FileOutputStream fout = new FileOutputStream(tempFile);
             try {
-                iter.toStream(fout, RDFFormat.TURTLE);
+                iter.toStream(fout, RDFFormat.BINARY_TRIPLES);
             } finally {
                 try { fout.close(); } catch (Exception e) { }
             }
             iter.close();
             iter = m_iteratorFactory.fromStream(new FileInputStream(tempFile), 
-                                             RDFFormat.TURTLE);
+                                             RDFFormat.BINARY_TRIPLES);
             try {
                 HashSet<Triple> set = new HashSet<Triple>();
                 while (iter.hasNext()) {
@@ -11,7 +11,7 @@ import org.trippi.TupleIterator;
 
 /**
  * Wraps an <code>TupleIterator</code> and automatically releases the
- * current thread's lock on the associated SynchronizedTriplestoreSession
+ * read lock its query took on the associated SynchronizedTriplestoreSession
  * when closed.
  *
  * @author cwilper@cs.cornell.edu
@@ -20,12 +20,14 @@ public class SynchronizedTupleIterator extends TupleIterator {
 
     private TupleIterator m_iter;
     private SynchronizedTriplestoreSession m_session;
+    private Thread m_owner;
     private boolean m_closed = false;
 
     public SynchronizedTupleIterator(TupleIterator iter,
                                      SynchronizedTriplestoreSession session) {
         m_iter = iter;
         m_session = session;
+        m_owner = Thread.currentThread();
     }
 
     @Override
@@ -65,7 +67,7 @@ public class SynchronizedTupleIterator extends TupleIterator {
             } catch (TrippiException e) {
                 throw e;
             } finally {
-                m_session.releaseLock();
+                m_session.releaseLock(m_owner);
                 m_closed = true;
             }
         }
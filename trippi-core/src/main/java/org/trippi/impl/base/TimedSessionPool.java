@@ -0,0 +1,31 @@
+package org.trippi.impl.base;
+
+import org.trippi.TrippiException;
+
+/**
+ * A pool of triplestore sessions whose callers can choose how long to
+ * wait for one.
+ */
+public interface TimedSessionPool extends TriplestoreSessionPool {
+
+    /**
+     * Get a connection from the pool, waiting up to the given number of
+     * milliseconds for one to become available.
+     *
+     * @return a session, or null if none became available in time.
+     * @throws TrippiException if there were no spare sessions and an 
+     *                              attempt to create one on-demand failed.
+     */
+    public TriplestoreSession get(long timeoutMs) throws TrippiException;
+
+    /**
+     * Get a connection from the pool only if one is free right now.
+     *
+     * Unlike <code>get(0)</code>, this never grows the pool or counts
+     * as a timed-out lease.
+     *
+     * @return a session, or null if none is free.
+     */
+    public TriplestoreSession tryGet() throws TrippiException;
+
+}
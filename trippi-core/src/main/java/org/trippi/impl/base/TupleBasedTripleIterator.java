@@ -1,11 +1,12 @@
 package org.trippi.impl.base;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Map;
 
+import org.jrdf.graph.Node;
 import org.jrdf.graph.Triple;
 import org.trippi.TripleIterator;
 import org.trippi.TriplePattern;
+import org.trippi.TripleTemplate;
 import org.trippi.TrippiException;
 import org.trippi.TupleIterator;
 
@@ -14,25 +15,31 @@ import org.trippi.TupleIterator;
  * using an array of <code>TriplePattern</code>s to generate triples
  * for each tuple.
  *
+ * The patterns are compiled into a <code>TripleTemplate</code> against
+ * the tuples' binding names, and the triples for each tuple are buffered
+ * in an array that is reused for the next one.
+ *
  * @author cwilper@cs.cornell.edu
  */
 public class TupleBasedTripleIterator extends TripleIterator {
 
     private TupleIterator m_tuples;
-    private TriplePattern[] m_patterns;
+    private TripleTemplate m_template;
 
     private boolean m_closed;
 
     private Triple m_next;
-    private List<Triple> m_triplesFromTuples;
+    private Triple[] m_triplesFromTuple;
+    private int m_count;
+    private int m_position;
 
     public TupleBasedTripleIterator (TupleIterator tuples,
                                      TriplePattern[] patterns) throws TrippiException {
         m_tuples = tuples;
-        m_patterns = patterns;
         m_closed = false;
-        m_triplesFromTuples = new ArrayList<Triple>();
+        m_triplesFromTuple = new Triple[patterns.length];
         try {
+            m_template = new TripleTemplate(patterns, tuples.names());
             m_next = getNext();
         } catch (TrippiException e) {
             close();
@@ -42,11 +49,16 @@ public class TupleBasedTripleIterator extends TripleIterator {
 
     // return null if there are no more
     private Triple getNext() throws TrippiException {
-        while (m_triplesFromTuples.size() == 0) {
+        while (m_position == m_count) {
             if (!m_tuples.hasNext()) return null;
-            m_triplesFromTuples = m_tuples.nextTriples(m_patterns);
+            Map<String, Node> tuple = m_tuples.next();
+            if (tuple == null) return null;
+            m_count = m_template.project(tuple, m_triplesFromTuple);
+            m_position = 0;
         }
-        return m_triplesFromTuples.remove(0);
+        Triple triple = m_triplesFromTuple[m_position];
+        m_triplesFromTuple[m_position++] = null;
+        return triple;
     }
 
     @Override
@@ -0,0 +1,21 @@
+package org.trippi.impl.base;
+
+import java.util.Set;
+
+import org.jrdf.graph.PredicateNode;
+
+/**
+ * Notified when a writer has committed changes to the triplestore.
+ */
+public interface UpdateListener {
+
+    /**
+     * Called after triples have been added to or deleted from the
+     * triplestore.
+     *
+     * @param predicates the predicates of the changed triples, or null if
+     *        they aren't known.
+     */
+    public void triplesUpdated(Set<PredicateNode> predicates);
+
+}
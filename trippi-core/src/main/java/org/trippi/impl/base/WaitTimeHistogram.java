@@ -0,0 +1,117 @@
+package org.trippi.impl.base;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts how long callers have waited for something, such as a session
+ * lease or a lock.
+ * <p>
+ * Waits are counted in buckets whose upper bounds double from one
+ * millisecond up to about 33 seconds, plus a final bucket for anything
+ * longer.  Recording is lock-free, so it's cheap enough to do on every
+ * wait.
+ * </p>
+ */
+public class WaitTimeHistogram {
+
+    private static final int BUCKETS = 17;
+
+    private final AtomicLongArray m_counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong m_totalNanos = new AtomicLong();
+    private final AtomicLong m_maxNanos = new AtomicLong();
+
+    /**
+     * Record a wait of the given number of nanoseconds.
+     */
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        m_counts.incrementAndGet(bucketFor(nanos));
+        m_totalNanos.addAndGet(nanos);
+        long max = m_maxNanos.get();
+        while (nanos > max && !m_maxNanos.compareAndSet(max, nanos)) {
+            max = m_maxNanos.get();
+        }
+    }
+
+    private static int bucketFor(long nanos) {
+        long millis = nanos / 1000000;
+        int bucket = 0;
+        while (bucket < BUCKETS - 1 && millis >= (1L << bucket)) {
+            bucket++;
+        }
+        return bucket;
+    }
+
+    /**
+     * Get the upper bound of each bucket but the last, in milliseconds.
+     *
+     * Bucket <i>i</i> counts waits shorter than its bound and at least
+     * as long as the bound of bucket <i>i</i> - 1.
+     */
+    public long[] getBucketLimitsMillis() {
+        long[] limits = new long[BUCKETS - 1];
+        for (int i = 0; i < limits.length; i++) {
+            limits[i] = 1L << i;
+        }
+        return limits;
+    }
+
+    /**
+     * Get the number of waits counted in each bucket.
+     */
+    public long[] getCounts() {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = m_counts.get(i);
+        }
+        return counts;
+    }
+
+    /**
+     * Get the number of waits recorded.
+     */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += m_counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * Get the total time waited, in milliseconds.
+     */
+    public long getTotalMillis() {
+        return m_totalNanos.get() / 1000000;
+    }
+
+    /**
+     * Get the longest wait, in milliseconds.
+     */
+    public long getMaxMillis() {
+        return m_maxNanos.get() / 1000000;
+    }
+
+    /**
+     * Get a one-line summary listing the non-empty buckets.
+     */
+    @Override
+    public String toString() {
+        StringBuffer out = new StringBuffer();
+        out.append("count = " + getCount() + ", total = " + getTotalMillis()
+                + "ms, max = " + getMaxMillis() + "ms");
+        long[] counts = getCounts();
+        for (int i = 0; i < BUCKETS; i++) {
+            if (counts[i] > 0) {
+                if (i < BUCKETS - 1) {
+                    out.append(", <" + (1L << i) + "ms: " + counts[i]);
+                } else {
+                    out.append(", >=" + (1L << (i - 1)) + "ms: " + counts[i]);
+                }
+            }
+        }
+        return out.toString();
+    }
+
+}
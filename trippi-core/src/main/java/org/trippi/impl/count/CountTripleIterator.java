@@ -12,11 +12,23 @@ public class CountTripleIterator extends TripleIterator {
     private boolean m_hasNext;
     private boolean m_isClosed;
     private final TripleIterator m_src;
+    private final int m_count;
 
     public CountTripleIterator(TripleIterator iter){
     	m_isClosed = false;
     	m_hasNext = true;
     	m_src = iter;
+    	m_count = -1;
+    }
+
+    /**
+     * Create an iterator over a count that is already known.
+     */
+    public CountTripleIterator(int count){
+    	m_isClosed = false;
+    	m_hasNext = true;
+    	m_src = null;
+    	m_count = count;
     }
 
 	@Override
@@ -24,7 +36,7 @@ public class CountTripleIterator extends TripleIterator {
         if (!m_isClosed) {
             m_isClosed = true;
             m_hasNext = false;
-            m_src.close();
+            if (m_src != null) m_src.close();
         }
 	}
 
@@ -39,7 +51,8 @@ public class CountTripleIterator extends TripleIterator {
         try{
             SubjectNode subject = TripleMaker.createResource();
             PredicateNode predicate = TripleMaker.createResource("http://mulgara.org/mulgara#is");
-            return TripleMaker.create(subject,predicate, new CountLiteral(m_src.count()));
+            int count = m_src == null ? m_count : m_src.count();
+            return TripleMaker.create(subject,predicate, new CountLiteral(count));
         }
         finally{
             m_hasNext = false;
@@ -1,11 +1,11 @@
 package org.trippi.impl.count;
 
-import java.util.HashMap;
 import java.util.Map;
 
 import org.jrdf.graph.Node;
 import org.trippi.TrippiException;
 import org.trippi.TupleIterator;
+import org.trippi.TupleRow;
 
 public class CountTupleIterator extends TupleIterator {
     public static final String[] NAMES = new String[]{"count"};
@@ -13,10 +13,23 @@ public class CountTupleIterator extends TupleIterator {
     private boolean m_hasNext;
     private boolean m_isClosed;
     private final TupleIterator m_src;
+    private final int m_count;
+
     public CountTupleIterator(TupleIterator iter){
     	m_isClosed = false;
     	m_hasNext = true;
     	m_src = iter;
+    	m_count = -1;
+    }
+
+    /**
+     * Create an iterator over a count that is already known.
+     */
+    public CountTupleIterator(int count){
+    	m_isClosed = false;
+    	m_hasNext = true;
+    	m_src = null;
+    	m_count = count;
     }
     
     @Override
@@ -28,10 +41,9 @@ public class CountTupleIterator extends TupleIterator {
     public Map<String, Node> next() throws TrippiException {
         if (!m_hasNext) return null;
         try{
-            Node value = new CountLiteral(m_src.count());
-            Map<String, Node> m_value_map = new HashMap<String, Node>();
-            m_value_map.put(NAMES[0], value);
-        	return m_value_map;
+            int count = m_src == null ? m_count : m_src.count();
+            Node value = new CountLiteral(count);
+            return new TupleRow(NAMES, new Node[] { value });
         }
         finally{
             m_hasNext = false;
@@ -48,7 +60,7 @@ public class CountTupleIterator extends TupleIterator {
         if (!m_isClosed) {
             m_isClosed = true;
             m_hasNext = false;
-            m_src.close();
+            if (m_src != null) m_src.close();
         }
     }
 
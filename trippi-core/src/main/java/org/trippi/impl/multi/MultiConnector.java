@@ -11,11 +11,26 @@ import org.trippi.TriplestoreConnector;
 import org.trippi.TriplestoreReader;
 import org.trippi.TriplestoreWriter;
 import org.trippi.TrippiException;
+import org.trippi.config.ConfigUtils;
 import org.trippi.io.TripleIteratorFactory;
 
 /**
  * A <code>TriplestoreConnector</code> for a local, native Sesame RDF
  * triplestore.
+ * <p>
+ * Writes go to every connector.  If the <code>parallelWrites</code>
+ * configuration value is <code>true</code>, each connector's writer is
+ * updated from its own queue of up to <code>writeQueueSize</code>
+ * updates (default 64), and flushes wait up to
+ * <code>flushTimeoutSeconds</code> (default 300) for all of them.
+ * </p><p>
+ * Queries go to the first connector, unless <code>replicatedReads</code>
+ * is <code>true</code>.  Then they are spread across all connectors by
+ * <code>readRouting</code>, either <code>leastOutstanding</code> (the
+ * default) or <code>latency</code>, skipping any whose store is more than
+ * <code>maxReadLag</code> triples (default 0) behind the freshest.
+ * See <code>MultiTriplestoreReader</code>.
+ * </p>
  *
  * @author cwilper@cs.cornell.edu
  */
@@ -25,10 +40,14 @@ public class MultiConnector extends TriplestoreConnector {
 
     private TriplestoreConnector[] m_connectors;
     private MultiTriplestoreWriter m_multiWriter;
+    private MultiTriplestoreReader m_multiReader;
     private GraphElementFactory m_elementFactory;
     private TripleIteratorFactory m_iteratorFactory;
     private Map<String,String> m_config = new HashMap<String,String>(0);
 
+    public static final int DEFAULT_WRITE_QUEUE_SIZE = 64;
+    public static final int DEFAULT_FLUSH_TIMEOUT_SECONDS = 300;
+
     public MultiConnector() {
     }
 
@@ -66,6 +85,9 @@ public class MultiConnector extends TriplestoreConnector {
     		catch (TrippiException e){
     			logger.error(e.toString(),e);
     		}
+    	}
+    	if (m_multiReader != null) {
+    	    return m_multiReader;
     	}
 		return m_connectors[0].getReader();
     }
@@ -97,11 +119,48 @@ public class MultiConnector extends TriplestoreConnector {
         if (m_iteratorFactory == null){
             m_iteratorFactory = TripleIteratorFactory.defaultInstance();
         }
-        m_multiWriter = new MultiTriplestoreWriter(m_connectors[0].getReader(), writers, m_iteratorFactory);
+        TriplestoreReader reader = m_connectors[0].getReader();
+        if (ConfigUtils.getOptionalBoolean(m_config, "replicatedReads", false)) {
+            TriplestoreReader[] readers = new TriplestoreReader[m_connectors.length];
+            for (int i = 0; i < m_connectors.length; i++) {
+                readers[i] = m_connectors[i].getReader();
+            }
+            String routing = m_config.get("readRouting");
+            int policy = MultiTriplestoreReader.LEAST_OUTSTANDING;
+            if (routing != null && routing.trim().equalsIgnoreCase("latency")) {
+                policy = MultiTriplestoreReader.LOWEST_LATENCY;
+            } else if (routing != null && routing.trim().length() > 0 
+                    && !routing.trim().equalsIgnoreCase("leastOutstanding")) {
+                throw new TrippiException("readRouting must be leastOutstanding or latency");
+            }
+            int maxLag = ConfigUtils.getOptionalNNInt(m_config, "maxReadLag", 0);
+            m_multiReader = new MultiTriplestoreReader(readers, policy, maxLag);
+            reader = m_multiReader;
+        }
+        if (ConfigUtils.getOptionalBoolean(m_config, "parallelWrites", false)) {
+            int queueSize = ConfigUtils.getOptionalNNInt(m_config, "writeQueueSize",
+                                                         DEFAULT_WRITE_QUEUE_SIZE);
+            int timeout = ConfigUtils.getOptionalNNInt(m_config, "flushTimeoutSeconds",
+                                                       DEFAULT_FLUSH_TIMEOUT_SECONDS);
+            m_multiWriter = new MultiTriplestoreWriter(reader, 
+                                                       writers, 
+                                                       m_iteratorFactory,
+                                                       Math.max(1, queueSize),
+                                                       timeout * 1000L);
+        } else {
+            m_multiWriter = new MultiTriplestoreWriter(reader, writers, m_iteratorFactory);
+        }
+        if (m_multiReader != null) {
+            m_multiReader.setWriter(m_multiWriter);
+        }
     }
 
     @Override
 	public void close() throws TrippiException {
+        if (m_multiWriter != null) {
+            // let queued updates reach the writers before they close
+            m_multiWriter.stop();
+        }
         TrippiException m_exception = null;
         for (int i = 0; i < m_connectors.length; i++) {
             try {
@@ -0,0 +1,445 @@
+package org.trippi.impl.multi;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jrdf.graph.Node;
+import org.jrdf.graph.ObjectNode;
+import org.jrdf.graph.PredicateNode;
+import org.jrdf.graph.SubjectNode;
+import org.jrdf.graph.Triple;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.trippi.TriplePattern;
+import org.trippi.TripleIterator;
+import org.trippi.TriplestoreReader;
+import org.trippi.TrippiException;
+import org.trippi.TupleIterator;
+
+/**
+ * A TriplestoreReader that spreads queries across a set of equivalent
+ * TriplestoreReaders, such as those of the mirrored stores behind a
+ * <code>MultiConnector</code>.
+ * <p>
+ * Each query goes to the reader with the fewest queries outstanding
+ * (an iterator counts until it is closed), or, with
+ * <code>LOWEST_LATENCY</code>, to the one with the lowest moving average
+ * query time scaled by its outstanding queries.  If a reader fails, the
+ * query is retried on the next best one; if that works, the failed reader
+ * is avoided for <code>FAILURE_BACKOFF_MS</code>.  If every reader fails,
+ * the first error is thrown, since the query itself is most likely at
+ * fault.
+ * </p><p>
+ * When given the <code>MultiTriplestoreWriter</code> that updates the
+ * stores, readers whose stores are more than <i>maxLag</i> triples
+ * behind the most up-to-date one are skipped, so a query never sees
+ * older data than it would from the freshest store by more than that.
+ * </p>
+ */
+public class MultiTriplestoreReader implements TriplestoreReader {
+
+    private static final Logger logger =
+        LoggerFactory.getLogger(MultiTriplestoreReader.class.getName());
+
+    /** Route each query to the reader with the fewest outstanding. */
+    public static final int LEAST_OUTSTANDING = 0;
+
+    /** Route each query to the reader with the lowest expected latency. */
+    public static final int LOWEST_LATENCY = 1;
+
+    /** How long a reader is avoided after failing a query another could answer. */
+    public static final long FAILURE_BACKOFF_MS = 10000;
+
+    // weight of the newest sample in the latency moving average
+    private static final double LATENCY_ALPHA = 0.2;
+
+    private Backend[] m_backends;
+    private int m_routing;
+    private long m_maxLag;
+    private volatile MultiTriplestoreWriter m_writer;
+
+    public MultiTriplestoreReader(TriplestoreReader[] readers,
+                                  int routing,
+                                  long maxLag) {
+        m_backends = new Backend[readers.length];
+        for (int i = 0; i < readers.length; i++) {
+            m_backends[i] = new Backend(readers[i]);
+        }
+        m_routing = routing;
+        m_maxLag = maxLag;
+    }
+
+    /**
+     * Set the writer whose per-store lag is respected when routing.
+     */
+    public void setWriter(MultiTriplestoreWriter writer) {
+        m_writer = writer;
+    }
+
+    /**
+     * Get the number of queries outstanding on each reader.
+     */
+    public int[] getOutstandingQueries() {
+        int[] outstanding = new int[m_backends.length];
+        for (int i = 0; i < m_backends.length; i++) {
+            outstanding[i] = m_backends[i].outstanding.get();
+        }
+        return outstanding;
+    }
+
+    /**
+     * Get the moving average query time of each reader, in milliseconds.
+     */
+    public double[] getLatencyMillis() {
+        double[] latency = new double[m_backends.length];
+        for (int i = 0; i < m_backends.length; i++) {
+            latency[i] = m_backends[i].latencyMs;
+        }
+        return latency;
+    }
+
+    //////
+
+    public void setAliasMap(Map<String, String> aliasToPrefix) throws TrippiException {
+        for (int i = 0; i < m_backends.length; i++) {
+            m_backends[i].reader.setAliasMap(aliasToPrefix);
+        }
+    }
+
+    public Map<String, String> getAliasMap() throws TrippiException {
+        return m_backends[0].reader.getAliasMap();
+    }
+
+    public TupleIterator findTuples(final String queryLang,
+                                    final String tupleQuery,
+                                    final int limit,
+                                    final boolean distinct) throws TrippiException {
+        return route(new Query<TupleIterator>() {
+            public TupleIterator run(TriplestoreReader reader) throws TrippiException {
+                return reader.findTuples(queryLang, tupleQuery, limit, distinct);
+            }
+        });
+    }
+
+    public int countTuples(final String queryLang,
+                           final String tupleQuery,
+                           final int limit,
+                           final boolean distinct) throws TrippiException {
+        return route(new Query<Integer>() {
+            public Integer run(TriplestoreReader reader) throws TrippiException {
+                return reader.countTuples(queryLang, tupleQuery, limit, distinct);
+            }
+        });
+    }
+
+    public TripleIterator findTriples(final String queryLang,
+                                      final String tripleQuery,
+                                      final int limit,
+                                      final boolean distinct) throws TrippiException {
+        return route(new Query<TripleIterator>() {
+            public TripleIterator run(TriplestoreReader reader) throws TrippiException {
+                return reader.findTriples(queryLang, tripleQuery, limit, distinct);
+            }
+        });
+    }
+
+    public int countTriples(final String queryLang,
+                            final String tripleQuery,
+                            final int limit,
+                            final boolean distinct) throws TrippiException {
+        return route(new Query<Integer>() {
+            public Integer run(TriplestoreReader reader) throws TrippiException {
+                return reader.countTriples(queryLang, tripleQuery, limit, distinct);
+            }
+        });
+    }
+
+    public TripleIterator findTriples(final SubjectNode subject,
+                                      final PredicateNode predicate,
+                                      final ObjectNode object,
+                                      final int limit) throws TrippiException {
+        return route(new Query<TripleIterator>() {
+            public TripleIterator run(TriplestoreReader reader) throws TrippiException {
+                return reader.findTriples(subject, predicate, object, limit);
+            }
+        });
+    }
+
+    public int countTriples(final SubjectNode subject,
+                            final PredicateNode predicate,
+                            final ObjectNode object,
+                            final int limit) throws TrippiException {
+        return route(new Query<Integer>() {
+            public Integer run(TriplestoreReader reader) throws TrippiException {
+                return reader.countTriples(subject, predicate, object, limit);
+            }
+        });
+    }
+
+    public TripleIterator findTriples(final String queryLang,
+                                      final String tupleQuery,
+                                      final String tripleTemplate,
+                                      final int limit,
+                                      final boolean distinct) throws TrippiException {
+        return route(new Query<TripleIterator>() {
+            public TripleIterator run(TriplestoreReader reader) throws TrippiException {
+                return reader.findTriples(queryLang, tupleQuery, tripleTemplate,
+                                          limit, distinct);
+            }
+        });
+    }
+
+    public int countTriples(final String queryLang,
+                            final String tupleQuery,
+                            final String tripleTemplate,
+                            final int limit,
+                            final boolean distinct) throws TrippiException {
+        return route(new Query<Integer>() {
+            public Integer run(TriplestoreReader reader) throws TrippiException {
+                return reader.countTriples(queryLang, tupleQuery, tripleTemplate,
+                                           limit, distinct);
+            }
+        });
+    }
+
+    public String[] listTupleLanguages() {
+        return m_backends[0].reader.listTupleLanguages();
+    }
+
+    public String[] listTripleLanguages() {
+        return m_backends[0].reader.listTripleLanguages();
+    }
+
+    public void close() throws TrippiException {
+        TrippiException error = null;
+        for (int i = 0; i < m_backends.length; i++) {
+            try {
+                m_backends[i].reader.close();
+            } catch (TrippiException e) {
+                error = e;
+            }
+        }
+        if (error != null) throw error;
+    }
+
+    //////
+
+    private interface Query<T> {
+        T run(TriplestoreReader reader) throws TrippiException;
+    }
+
+    /**
+     * Run the query on the best reader, falling back to the others in
+     * turn if it fails.
+     */
+    private <T> T route(Query<T> query) throws TrippiException {
+        boolean[] tried = new boolean[m_backends.length];
+        List<Backend> failed = null;
+        TrippiException firstError = null;
+        int i;
+        while ((i = choose(tried)) != -1) {
+            tried[i] = true;
+            Backend backend = m_backends[i];
+            backend.outstanding.incrementAndGet();
+            long start = System.nanoTime();
+            try {
+                T result = query.run(backend.reader);
+                backend.addLatency((System.nanoTime() - start) / 1000000.0);
+                if (failed != null) {
+                    long until = System.currentTimeMillis() + FAILURE_BACKOFF_MS;
+                    for (int j = 0; j < failed.size(); j++) {
+                        failed.get(j).downUntil = until;
+                    }
+                }
+                return hold(result, backend);
+            } catch (TrippiException e) {
+                backend.outstanding.decrementAndGet();
+                if (firstError == null) firstError = e;
+            } catch (RuntimeException e) {
+                backend.outstanding.decrementAndGet();
+                if (firstError == null) {
+                    firstError = new TrippiException("Query failed", e);
+                }
+            }
+            if (failed == null) failed = new ArrayList<Backend>();
+            failed.add(backend);
+            logger.warn("Query failed on reader " + i + " ("
+                    + backend.reader.getClass().getName() + "): "
+                    + firstError.getMessage());
+        }
+        throw firstError;
+    }
+
+    /**
+     * Get the index of the best reader not yet tried, or -1 if none
+     * are left.
+     */
+    private int choose(boolean[] tried) {
+        MultiTriplestoreWriter writer = m_writer;
+        long[] lag = writer == null ? null : writer.getWriteLag();
+        long minLag = Long.MAX_VALUE;
+        if (lag != null) {
+            for (int i = 0; i < lag.length; i++) {
+                minLag = Math.min(minLag, lag[i]);
+            }
+        }
+        long now = System.currentTimeMillis();
+        int best = -1;
+        boolean bestUp = false;
+        for (int i = 0; i < m_backends.length; i++) {
+            if (tried[i]) continue;
+            if (lag != null && lag[i] - minLag > m_maxLag) continue;
+            boolean up = m_backends[i].downUntil <= now;
+            if (best == -1
+                    || (up && !bestUp)
+                    || (up == bestUp && isBetter(m_backends[i], m_backends[best]))) {
+                best = i;
+                bestUp = up;
+            }
+        }
+        return best;
+    }
+
+    private boolean isBetter(Backend a, Backend b) {
+        int aOut = a.outstanding.get();
+        int bOut = b.outstanding.get();
+        if (m_routing == LOWEST_LATENCY) {
+            return a.latencyMs * (aOut + 1) < b.latencyMs * (bOut + 1);
+        }
+        return aOut < bOut || (aOut == bOut && a.latencyMs < b.latencyMs);
+    }
+
+    /**
+     * Keep the query outstanding until the result, if it's an iterator,
+     * is closed.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T hold(T result, Backend backend) {
+        if (result instanceof TupleIterator) {
+            return (T) new RoutedTupleIterator((TupleIterator) result, backend);
+        } else if (result instanceof TripleIterator) {
+            return (T) new RoutedTripleIterator((TripleIterator) result, backend);
+        }
+        backend.outstanding.decrementAndGet();
+        return result;
+    }
+
+    private static class Backend {
+
+        final TriplestoreReader reader;
+        final AtomicInteger outstanding = new AtomicInteger();
+        volatile double latencyMs;
+        volatile long downUntil;
+
+        Backend(TriplestoreReader reader) {
+            this.reader = reader;
+        }
+
+        void addLatency(double ms) {
+            double avg = latencyMs;
+            latencyMs = avg == 0 ? ms : avg + LATENCY_ALPHA * (ms - avg);
+        }
+    }
+
+    private static class RoutedTupleIterator extends TupleIterator {
+
+        private TupleIterator m_iter;
+        private Backend m_backend;
+        private boolean m_closed = false;
+
+        RoutedTupleIterator(TupleIterator iter, Backend backend) {
+            m_iter = iter;
+            m_backend = backend;
+        }
+
+        @Override
+        public boolean hasNext() throws TrippiException {
+            boolean has = m_iter.hasNext();
+            if (!has) close();
+            return has;
+        }
+
+        @Override
+        public Map<String, Node> next() throws TrippiException {
+            return m_iter.next();
+        }
+
+        @Override
+        public List<Triple> nextTriples(TriplePattern[] patterns) throws TrippiException {
+            return m_iter.nextTriples(patterns);
+        }
+
+        @Override
+        public String[] names() throws TrippiException {
+            return m_iter.names();
+        }
+
+        @Override
+        public void close() throws TrippiException {
+            if (!m_closed) {
+                m_closed = true;
+                try {
+                    m_iter.close();
+                } finally {
+                    m_backend.outstanding.decrementAndGet();
+                }
+            }
+        }
+
+        /**
+         * Ensure close() gets called at garbage collection time.
+         */
+        @Override
+        public void finalize() throws TrippiException {
+            close();
+        }
+    }
+
+    private static class RoutedTripleIterator extends TripleIterator {
+
+        private TripleIterator m_iter;
+        private Backend m_backend;
+        private boolean m_closed = false;
+
+        RoutedTripleIterator(TripleIterator iter, Backend backend) {
+            m_iter = iter;
+            m_backend = backend;
+            setAliasManager(iter.getAliases());
+        }
+
+        @Override
+        public boolean hasNext() throws TrippiException {
+            boolean has = m_iter.hasNext();
+            if (!has) close();
+            return has;
+        }
+
+        @Override
+        public Triple next() throws TrippiException {
+            return m_iter.next();
+        }
+
+        @Override
+        public void close() throws TrippiException {
+            if (!m_closed) {
+                m_closed = true;
+                try {
+                    m_iter.close();
+                } finally {
+                    m_backend.outstanding.decrementAndGet();
+                }
+            }
+        }
+
+        /**
+         * Ensure close() gets called at garbage collection time.
+         */
+        @Override
+        public void finalize() throws TrippiException {
+            close();
+        }
+    }
+
+}
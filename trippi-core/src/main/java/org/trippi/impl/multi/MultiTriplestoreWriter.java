@@ -14,6 +14,8 @@ import org.jrdf.graph.ObjectNode;
 import org.jrdf.graph.PredicateNode;
 import org.jrdf.graph.SubjectNode;
 import org.jrdf.graph.Triple;
+import org.trippi.BulkLoadListener;
+import org.trippi.BulkLoadWriter;
 import org.trippi.FlushErrorHandler;
 import org.trippi.RDFFormat;
 import org.trippi.TripleIterator;
@@ -28,9 +30,19 @@ import org.trippi.io.TripleIteratorFactory;
  * A TriplestoreWriter that dispatches all calls to a set of underlying
  * TriplestoreWriters.
  * <p>
+ * By default, each call goes to the writers one after another.  When
+ * constructed with a queue size, each writer instead gets its own bounded
+ * queue of updates and a worker that applies them, so the writers are
+ * updated in parallel and a slow writer only holds up callers once its
+ * queue is full.  Iterators are then read once and their triples handed
+ * to every queue in batches, and calls that ask for a flush wait (up to
+ * a timeout) until every writer has applied and flushed their updates.
+ * <code>getPendingUpdates()</code> and <code>getLagMillis()</code> tell
+ * how far behind each writer is.
+ * </p>
  * @author cwilper@cs.cornell.edu
  */
-public class MultiTriplestoreWriter implements TriplestoreWriter {
+public class MultiTriplestoreWriter implements BulkLoadWriter {
 
     private static final Logger logger =
         LoggerFactory.getLogger(MultiTriplestoreWriter.class.getName());
@@ -40,7 +52,19 @@ public class MultiTriplestoreWriter implements TriplestoreWriter {
     private TripleIteratorFactory m_iteratorFactory;
 
     /**
-     * Construct.
+     * The number of triples read from an iterator before they are handed
+     * to the writers' queues.
+     */
+    public static final int TEE_BATCH_SIZE = 1000;
+
+    // null unless writing in parallel
+    private WriterQueue[] m_queues;
+    private long m_flushTimeoutMs;
+    private boolean m_stopped;
+
+    /**
+     * Construct a writer that updates the underlying writers one after
+     * another.
      */
     public MultiTriplestoreWriter(TriplestoreReader reader, 
                                   TriplestoreWriter[] writers,
@@ -49,7 +73,82 @@ public class MultiTriplestoreWriter implements TriplestoreWriter {
         m_writers = writers;
         m_iteratorFactory = iteratorFactory;
     }
-    
+
+    /**
+     * Construct a writer that updates the underlying writers in parallel.
+     *
+     * Each writer gets a queue of up to <code>queueSize</code> updates,
+     * applied by a worker run on the iterator factory's executor.  Calls
+     * that ask for a flush wait up to <code>flushTimeoutMs</code> for
+     * all writers to catch up.
+     */
+    public MultiTriplestoreWriter(TriplestoreReader reader, 
+                                  TriplestoreWriter[] writers,
+                                  TripleIteratorFactory iteratorFactory,
+                                  int queueSize,
+                                  long flushTimeoutMs) {
+        this(reader, writers, iteratorFactory);
+        m_flushTimeoutMs = flushTimeoutMs;
+        m_queues = new WriterQueue[writers.length];
+        for (int i = 0; i < writers.length; i++) {
+            m_queues[i] = new WriterQueue(writers[i], queueSize);
+            iteratorFactory.execute(m_queues[i]);
+        }
+    }
+
+    /**
+     * Get the number of updates each underlying writer has yet to apply,
+     * in the order the writers were given.  These are always zero unless
+     * writing in parallel.
+     */
+    public int[] getPendingUpdates() {
+        int[] pending = new int[m_writers.length];
+        if (m_queues != null) {
+            for (int i = 0; i < m_queues.length; i++) {
+                pending[i] = m_queues[i].getPendingUpdates();
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * Get how long, in milliseconds, the oldest update not yet applied by
+     * each underlying writer has been waiting.  These are always zero
+     * unless writing in parallel.
+     */
+    public long[] getLagMillis() {
+        long[] lag = new long[m_writers.length];
+        if (m_queues != null) {
+            for (int i = 0; i < m_queues.length; i++) {
+                lag[i] = m_queues[i].getLagMillis();
+            }
+        }
+        return lag;
+    }
+
+    /**
+     * Get the number of triples each underlying writer has accepted but
+     * not yet made visible to readers of its store: those added or
+     * deleted by updates still queued when writing in parallel, plus
+     * those in the writer's own buffer.
+     */
+    public long[] getWriteLag() {
+        long[] lag = new long[m_writers.length];
+        for (int i = 0; i < m_writers.length; i++) {
+            lag[i] = m_writers[i].getBufferSize();
+            if (m_queues != null) lag[i] += m_queues[i].getPendingTriples();
+        }
+        return lag;
+    }
+
+    /**
+     * Wait for the queued updates to be applied, then stop the workers,
+     * leaving the underlying writers open.  Does nothing unless writing
+     * in parallel.
+     */
+    public void stop() {
+        if (m_queues != null) finish(FLUSH);
+    }
     
 
     //////
@@ -136,7 +235,11 @@ public class MultiTriplestoreWriter implements TriplestoreWriter {
     /**
      * Immediately add all triples in the list to the store, then return.
      */
-    public void add(List<Triple> triples, boolean flush) {
+    public void add(List<Triple> triples, boolean flush) throws TrippiException {
+        if (m_queues != null) {
+            fanOut(addTriples(new ArrayList<Triple>(triples)), flush);
+            return;
+        }
         for (int i = 0; i < m_writers.length; i++) {
             try {
                 m_writers[i].add(triples, flush);
@@ -147,19 +250,23 @@ public class MultiTriplestoreWriter implements TriplestoreWriter {
     }
 
     public void add(TripleIterator iter, boolean flush) throws IOException, TrippiException {
+        if (m_queues != null) {
+            tee(iter, true, flush);
+            return;
+        }
         File tempFile = null;
         try {
-            tempFile = File.createTempFile("trippi-multiadd", "txt");
+            tempFile = File.createTempFile("trippi-multiadd", RDFFormat.BINARY_TRIPLES.getExtension());
             FileOutputStream fout = new FileOutputStream(tempFile);
             try {
-                iter.toStream(fout, RDFFormat.TURTLE);
+                iter.toStream(fout, RDFFormat.BINARY_TRIPLES);
             } finally {
                 try { fout.close(); } catch (Exception e) { }
             }
             iter.close();
             for (int i = 0; i < m_writers.length; i++) {
                 iter = m_iteratorFactory.fromStream(new FileInputStream(tempFile), 
-                                                 RDFFormat.TURTLE);
+                                                 RDFFormat.BINARY_TRIPLES);
                 try {
                     m_writers[i].add(iter, flush);
                 } catch (Exception e) {
@@ -173,7 +280,65 @@ public class MultiTriplestoreWriter implements TriplestoreWriter {
         }
     }
 
-    public void add(Triple triple, boolean flush) {
+    /**
+     * Spool the triples to a temporary file, then bulk load them into each
+     * underlying writer in turn.
+     *
+     * The listener is notified of progress for each writer separately.
+     * When writing in parallel, this first waits for queued updates to
+     * be applied, since bulk loads bypass the queues.  Writers that can't
+     * bulk load are given the triples through their buffers instead, and
+     * flushed.
+     *
+     * @return the number of triples loaded into the last writer.
+     */
+    public long bulkAdd(TripleIterator iter,
+                        int batchSize,
+                        BulkLoadListener listener) throws IOException,
+                                                          TrippiException {
+        if (m_queues != null) {
+            flushBuffer();
+        }
+        File tempFile = null;
+        long count = 0;
+        try {
+            tempFile = File.createTempFile("trippi-multibulk", RDFFormat.BINARY_TRIPLES.getExtension());
+            FileOutputStream fout = new FileOutputStream(tempFile);
+            int spooled;
+            try {
+                spooled = iter.toStream(fout, RDFFormat.BINARY_TRIPLES);
+            } finally {
+                try { fout.close(); } catch (Exception e) { }
+            }
+            iter.close();
+            for (int i = 0; i < m_writers.length; i++) {
+                iter = m_iteratorFactory.fromStream(new FileInputStream(tempFile), 
+                                                 RDFFormat.BINARY_TRIPLES);
+                try {
+                    if (m_writers[i] instanceof BulkLoadWriter) {
+                        count = ((BulkLoadWriter) m_writers[i]).bulkAdd(iter, batchSize, listener);
+                    } else {
+                        m_writers[i].add(iter, true);
+                        count = spooled;
+                        if (listener != null) listener.triplesLoaded(count);
+                    }
+                } catch (Exception e) {
+                    logger.warn("Error bulk loading triples from iterator (" + m_writers[i].getClass().getName() + ")", e); 
+                }
+            }
+        } finally {
+            if (tempFile != null) {
+                tempFile.delete();
+            }
+        }
+        return count;
+    }
+
+    public void add(Triple triple, boolean flush) throws TrippiException {
+        if (m_queues != null) {
+            fanOut(addTriple(triple), flush);
+            return;
+        }
         for (int i = 0; i < m_writers.length; i++) {
             try {
                 m_writers[i].add(triple, flush);
@@ -183,7 +348,11 @@ public class MultiTriplestoreWriter implements TriplestoreWriter {
         }
     }
 
-    public void delete(List<Triple> triples, boolean flush) {
+    public void delete(List<Triple> triples, boolean flush) throws TrippiException {
+        if (m_queues != null) {
+            fanOut(deleteTriples(new ArrayList<Triple>(triples)), flush);
+            return;
+        }
         for (int i = 0; i < m_writers.length; i++) {
             try {
                 m_writers[i].delete(triples, flush);
@@ -194,19 +363,23 @@ public class MultiTriplestoreWriter implements TriplestoreWriter {
     }
 
     public void delete(TripleIterator iter, boolean flush) throws IOException, TrippiException {
+        if (m_queues != null) {
+            tee(iter, false, flush);
+            return;
+        }
         File tempFile = null;
         try {
-            tempFile = File.createTempFile("trippi-multidel", "txt");
+            tempFile = File.createTempFile("trippi-multidel", RDFFormat.BINARY_TRIPLES.getExtension());
             FileOutputStream fout = new FileOutputStream(tempFile);
             try {
-                iter.toStream(fout, RDFFormat.TURTLE);
+                iter.toStream(fout, RDFFormat.BINARY_TRIPLES);
             } finally {
                 try { fout.close(); } catch (Exception e) { }
             }
             iter.close();
             for (int i = 0; i < m_writers.length; i++) {
                 iter = m_iteratorFactory.fromStream(new FileInputStream(tempFile), 
-                                                 RDFFormat.TURTLE);
+                                                 RDFFormat.BINARY_TRIPLES);
                 try {
                     m_writers[i].delete(iter, flush);
                 } catch (Exception e) {
@@ -220,7 +393,11 @@ public class MultiTriplestoreWriter implements TriplestoreWriter {
         }
     }
 
-    public void delete(Triple triple, boolean flush) {
+    public void delete(Triple triple, boolean flush) throws TrippiException {
+        if (m_queues != null) {
+            fanOut(deleteTriple(triple), flush);
+            return;
+        }
         for (int i = 0; i < m_writers.length; i++) {
             try {
                 m_writers[i].delete(triple, flush);
@@ -230,7 +407,11 @@ public class MultiTriplestoreWriter implements TriplestoreWriter {
         }
     }
 
-    public void flushBuffer() {
+    public void flushBuffer() throws TrippiException {
+        if (m_queues != null) {
+            fanOut(null, true);
+            return;
+        }
         for (int i = 0; i < m_writers.length; i++) {
             try {
                 m_writers[i].flushBuffer();
@@ -259,6 +440,9 @@ public class MultiTriplestoreWriter implements TriplestoreWriter {
     }
 
     public void close() {
+        if (m_queues != null && finish(CLOSE)) {
+            return;
+        }
         for (int i = 0; i < m_writers.length; i++) {
             try {
                 m_writers[i].close();
@@ -280,4 +464,198 @@ public class MultiTriplestoreWriter implements TriplestoreWriter {
 		return triples;
 	}
 
+    //////
+
+    /**
+     * Queue the update (if any) for every writer, followed by a flush if
+     * requested, and wait for the flush.
+     */
+    private void fanOut(WriterQueue.Update update, 
+                        boolean flush) throws TrippiException {
+        long[] seqs = new long[m_queues.length];
+        try {
+            synchronized (m_queues) {
+                if (m_stopped) {
+                    throw new TrippiException("Writer has been stopped");
+                }
+                for (int i = 0; i < m_queues.length; i++) {
+                    if (update != null) seqs[i] = m_queues[i].enqueue(update, false);
+                    if (flush) seqs[i] = m_queues[i].enqueue(FLUSH, false);
+                }
+            }
+            if (flush) {
+                long deadline = System.currentTimeMillis() + m_flushTimeoutMs;
+                for (int i = 0; i < m_queues.length; i++) {
+                    if (!m_queues[i].await(seqs[i], deadline)) {
+                        throw new TrippiException("Timed out after " 
+                                + m_flushTimeoutMs + "ms waiting for writer to flush ("
+                                + m_writers[i].getClass().getName() + ", "
+                                + m_queues[i].getPendingUpdates() + " updates pending)");
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TrippiException("Interrupted while waiting for writers", e);
+        }
+    }
+
+    /**
+     * Read the iterator once, handing its triples to every writer in
+     * batches.
+     *
+     * The iterator is spooled to a temporary file and closed first, so
+     * whatever it holds open (such as a session) isn't held while waiting
+     * for room in the queues or for the flush.
+     */
+    private void tee(TripleIterator iter, 
+                     boolean add, 
+                     boolean flush) throws IOException, TrippiException {
+        File tempFile = null;
+        try {
+            tempFile = File.createTempFile("trippi-multitee", RDFFormat.BINARY_TRIPLES.getExtension());
+            FileOutputStream fout = new FileOutputStream(tempFile);
+            try {
+                iter.toStream(fout, RDFFormat.BINARY_TRIPLES);
+            } finally {
+                try { fout.close(); } catch (Exception e) { }
+                iter.close();
+            }
+            iter = m_iteratorFactory.fromStream(new FileInputStream(tempFile), 
+                                                RDFFormat.BINARY_TRIPLES);
+            try {
+                List<Triple> batch = new ArrayList<Triple>(TEE_BATCH_SIZE);
+                while (iter.hasNext()) {
+                    batch.add(iter.next());
+                    if (batch.size() == TEE_BATCH_SIZE) {
+                        fanOut(add ? addTriples(batch) : deleteTriples(batch), false);
+                        batch = new ArrayList<Triple>(TEE_BATCH_SIZE);
+                    }
+                }
+                if (batch.size() > 0) {
+                    fanOut(add ? addTriples(batch) : deleteTriples(batch), flush);
+                } else if (flush) {
+                    fanOut(null, true);
+                }
+            } finally {
+                iter.close();
+            }
+        } finally {
+            if (tempFile != null) {
+                tempFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Queue the given update as the last for every writer, then wait for
+     * the workers to apply it and stop.
+     *
+     * @return false if the workers had already stopped.
+     */
+    private boolean finish(WriterQueue.Update last) {
+        long[] seqs = new long[m_queues.length];
+        try {
+            synchronized (m_queues) {
+                if (m_stopped) return false;
+                m_stopped = true;
+                for (int i = 0; i < m_queues.length; i++) {
+                    seqs[i] = m_queues[i].enqueue(last, true);
+                }
+            }
+            long deadline = System.currentTimeMillis() + m_flushTimeoutMs;
+            for (int i = 0; i < m_queues.length; i++) {
+                if (!m_queues[i].await(seqs[i], deadline)) {
+                    logger.warn("Timed out waiting for writer to finish " 
+                            + last.describe() + " (" + m_writers[i].getClass().getName() 
+                            + ", " + m_queues[i].getPendingUpdates() + " updates pending)");
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("Interrupted while waiting for writers to finish " + last.describe());
+        }
+        return true;
+    }
+
+    private static final WriterQueue.Update FLUSH = new WriterQueue.Update() {
+        public void apply(TriplestoreWriter writer) throws Exception {
+            writer.flushBuffer();
+        }
+        public String describe() {
+            return "flushing";
+        }
+        public int size() {
+            return 0;
+        }
+    };
+
+    private static final WriterQueue.Update CLOSE = new WriterQueue.Update() {
+        public void apply(TriplestoreWriter writer) throws Exception {
+            writer.close();
+        }
+        public String describe() {
+            return "closing writer";
+        }
+        public int size() {
+            return 0;
+        }
+    };
+
+    private static WriterQueue.Update addTriples(final List<Triple> triples) {
+        return new WriterQueue.Update() {
+            public void apply(TriplestoreWriter writer) throws Exception {
+                writer.add(triples, false);
+            }
+            public String describe() {
+                return "adding triples from list";
+            }
+            public int size() {
+                return triples.size();
+            }
+        };
+    }
+
+    private static WriterQueue.Update addTriple(final Triple triple) {
+        return new WriterQueue.Update() {
+            public void apply(TriplestoreWriter writer) throws Exception {
+                writer.add(triple, false);
+            }
+            public String describe() {
+                return "adding one triple";
+            }
+            public int size() {
+                return 1;
+            }
+        };
+    }
+
+    private static WriterQueue.Update deleteTriples(final List<Triple> triples) {
+        return new WriterQueue.Update() {
+            public void apply(TriplestoreWriter writer) throws Exception {
+                writer.delete(triples, false);
+            }
+            public String describe() {
+                return "deleting triples from list";
+            }
+            public int size() {
+                return triples.size();
+            }
+        };
+    }
+
+    private static WriterQueue.Update deleteTriple(final Triple triple) {
+        return new WriterQueue.Update() {
+            public void apply(TriplestoreWriter writer) throws Exception {
+                writer.delete(triple, false);
+            }
+            public String describe() {
+                return "deleting one triple";
+            }
+            public int size() {
+                return 1;
+            }
+        };
+    }
+
 }
@@ -0,0 +1,159 @@
+package org.trippi.impl.multi;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.trippi.TriplestoreWriter;
+
+/**
+ * A bounded queue of updates for one of the writers behind a
+ * <code>MultiTriplestoreWriter</code>, along with the worker that applies
+ * them in order.
+ * <p>
+ * Each update is given a sequence number when it is queued, so callers
+ * can wait for a particular update to be applied.  Updates that fail are
+ * logged and skipped, as they are when writing sequentially.
+ * </p>
+ */
+class WriterQueue implements Runnable {
+
+    private static final Logger logger =
+        LoggerFactory.getLogger(WriterQueue.class.getName());
+
+    /**
+     * Something to do to a writer.
+     */
+    interface Update {
+        void apply(TriplestoreWriter writer) throws Exception;
+        String describe();
+        /** The number of triples added or deleted. */
+        int size();
+    }
+
+    private static class Entry {
+        final Update update;
+        final long seq;
+        final long queued;
+        final boolean last;
+        Entry(Update update, long seq, boolean last) {
+            this.update = update;
+            this.seq = seq;
+            this.queued = System.currentTimeMillis();
+            this.last = last;
+        }
+    }
+
+    private final TriplestoreWriter m_writer;
+    private final BlockingQueue<Entry> m_queue;
+
+    private final Object m_lock = new Object();
+    private volatile long m_enqueued;
+    private volatile long m_completed;
+    private volatile Entry m_current;
+    private final AtomicLong m_pendingTriples = new AtomicLong();
+
+    WriterQueue(TriplestoreWriter writer, int capacity) {
+        m_writer = writer;
+        m_queue = new ArrayBlockingQueue<Entry>(capacity);
+    }
+
+    TriplestoreWriter getWriter() {
+        return m_writer;
+    }
+
+    /**
+     * Queue an update, waiting for room if the queue is full.
+     *
+     * Callers must not queue updates concurrently, and nothing may be
+     * queued after the last update.
+     *
+     * @param last whether the worker should stop after this update
+     * @return the update's sequence number.
+     */
+    long enqueue(Update update, boolean last) throws InterruptedException {
+        long seq = m_enqueued + 1;
+        // counted first, so the worker never subtracts it beforehand
+        m_pendingTriples.addAndGet(update.size());
+        try {
+            m_queue.put(new Entry(update, seq, last));
+        } catch (InterruptedException e) {
+            m_pendingTriples.addAndGet(-update.size());
+            throw e;
+        }
+        m_enqueued = seq;
+        return seq;
+    }
+
+    /**
+     * Wait until the update with the given sequence number has been
+     * applied, or the deadline passes.
+     *
+     * @return false if the deadline passed first.
+     */
+    boolean await(long seq, long deadline) throws InterruptedException {
+        synchronized (m_lock) {
+            while (m_completed < seq) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) return false;
+                m_lock.wait(remaining);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Get the number of updates queued but not yet applied.
+     */
+    int getPendingUpdates() {
+        return (int) Math.max(0, m_enqueued - m_completed);
+    }
+
+    /**
+     * Get the number of triples added or deleted by the updates queued
+     * but not yet applied.
+     */
+    long getPendingTriples() {
+        return m_pendingTriples.get();
+    }
+
+    /**
+     * Get how long the oldest update not yet applied has been waiting,
+     * in milliseconds, or 0 if the writer is caught up.
+     */
+    long getLagMillis() {
+        Entry oldest = m_current;
+        if (oldest == null) oldest = m_queue.peek();
+        if (oldest == null) return 0;
+        return Math.max(0, System.currentTimeMillis() - oldest.queued);
+    }
+
+    public void run() {
+        String name = m_writer.getClass().getName();
+        while (true) {
+            Entry entry;
+            try {
+                entry = m_queue.take();
+            } catch (InterruptedException e) {
+                logger.warn("Interrupted; no longer writing to " + name);
+                return;
+            }
+            m_current = entry;
+            try {
+                entry.update.apply(m_writer);
+            } catch (Exception e) {
+                logger.warn("Error " + entry.update.describe() + " (" + name + ")", e);
+            }
+            m_pendingTriples.addAndGet(-entry.update.size());
+            synchronized (m_lock) {
+                m_completed = entry.seq;
+                m_current = null;
+                m_lock.notifyAll();
+            }
+            if (entry.last) return;
+        }
+    }
+
+}
@@ -0,0 +1,149 @@
+package org.trippi.io;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.net.URISyntaxException;
+
+import org.jrdf.graph.BlankNode;
+import org.jrdf.graph.GraphElementFactoryException;
+import org.jrdf.graph.Literal;
+import org.jrdf.graph.Node;
+import org.jrdf.graph.ObjectNode;
+import org.jrdf.graph.PredicateNode;
+import org.jrdf.graph.SubjectNode;
+import org.jrdf.graph.Triple;
+import org.jrdf.graph.URIReference;
+import org.trippi.impl.RDFFactories;
+
+/**
+ * A compact binary encoding for <code>Triple</code>s.
+ * <p>
+ * Each node is written as a one-byte kind followed by its content.
+ * Strings are written as a variable-length byte count followed by their
+ * UTF-8 bytes, and blank nodes are written as their four-byte hash code,
+ * which is how Trippi identifies them elsewhere.
+ * </p>
+ * Not intended for use outside Trippi project.
+ */
+public abstract class BinaryTripleCodec {
+
+    public static final byte URI_NODE = 1;
+    public static final byte BLANK_NODE = 2;
+    public static final byte PLAIN_LITERAL = 3;
+    public static final byte LANG_LITERAL = 4;
+    public static final byte TYPED_LITERAL = 5;
+
+    public static void writeTriple(Triple triple, DataOutput out)
+            throws IOException {
+        writeNode(triple.getSubject(), out);
+        writeNode(triple.getPredicate(), out);
+        writeNode(triple.getObject(), out);
+    }
+
+    public static void writeNode(Node node, DataOutput out)
+            throws IOException {
+        if (node instanceof URIReference) {
+            out.writeByte(URI_NODE);
+            writeString(((URIReference) node).getURI().toString(), out);
+        } else if (node instanceof BlankNode) {
+            out.writeByte(BLANK_NODE);
+            out.writeInt(node.hashCode());
+        } else if (node instanceof Literal) {
+            Literal l = (Literal) node;
+            String lang = l.getLanguage();
+            if (lang != null && lang.length() > 0) {
+                out.writeByte(LANG_LITERAL);
+                writeString(l.getLexicalForm(), out);
+                writeString(lang, out);
+            } else if (l.getDatatypeURI() != null) {
+                out.writeByte(TYPED_LITERAL);
+                writeString(l.getLexicalForm(), out);
+                writeString(l.getDatatypeURI().toString(), out);
+            } else {
+                out.writeByte(PLAIN_LITERAL);
+                writeString(l.getLexicalForm(), out);
+            }
+        } else {
+            throw new IOException("Cannot encode node: " + node);
+        }
+    }
+
+    public static Triple readTriple(DataInput in) throws IOException {
+        try {
+            return RDFFactories.createTriple((SubjectNode) readNode(in),
+                                             (PredicateNode) readNode(in),
+                                             (ObjectNode) readNode(in));
+        } catch (GraphElementFactoryException e) {
+            throw new IOException("Unable to create triple: " + e.getMessage());
+        } catch (ClassCastException e) {
+            throw new IOException("Node in illegal position: " + e.getMessage());
+        }
+    }
+
+    public static Node readNode(DataInput in) throws IOException {
+        byte kind = in.readByte();
+        try {
+            switch (kind) {
+                case URI_NODE:
+                    return RDFFactories.createResource(readString(in));
+                case BLANK_NODE:
+                    return RDFFactories.createResource(in.readInt());
+                case PLAIN_LITERAL:
+                    return RDFFactories.createLiteral(readString(in));
+                case LANG_LITERAL:
+                    return RDFFactories.createLiteral(readString(in), readString(in));
+                case TYPED_LITERAL:
+                    return RDFFactories.createTypedLiteral(readString(in),
+                                                           readString(in));
+                default:
+                    throw new IOException("Unrecognized node kind: " + kind);
+            }
+        } catch (URISyntaxException e) {
+            throw new IOException("Bad URI: " + e.getMessage());
+        } catch (GraphElementFactoryException e) {
+            throw new IOException("Unable to create node: " + e.getMessage());
+        }
+    }
+
+    public static void writeString(String s, DataOutput out)
+            throws IOException {
+        byte[] bytes = s.getBytes("UTF-8");
+        writeVarInt(bytes.length, out);
+        out.write(bytes);
+    }
+
+    public static String readString(DataInput in) throws IOException {
+        byte[] bytes = new byte[readVarInt(in)];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    /**
+     * Write a non-negative int using seven bits per byte, low bits first.
+     */
+    public static void writeVarInt(int value, DataOutput out)
+            throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    public static int readVarInt(DataInput in) throws IOException {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            if (shift > 28) {
+                throw new IOException("Malformed variable-length int");
+            }
+            b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+}
@@ -0,0 +1,171 @@
+package org.trippi.io;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+
+import org.jrdf.graph.GraphElementFactoryException;
+import org.jrdf.graph.Node;
+import org.jrdf.graph.ObjectNode;
+import org.jrdf.graph.PredicateNode;
+import org.jrdf.graph.SubjectNode;
+import org.jrdf.graph.Triple;
+import org.trippi.TripleIterator;
+import org.trippi.TrippiException;
+import org.trippi.impl.RDFFactories;
+
+/**
+ * An iterator over triples in the "Binary Triples" format written by
+ * <code>BinaryTripleWriter</code>.
+ * <p>
+ * Each node is decoded once, when it first appears, and shared by every
+ * triple that refers to it.  Unlike the RIO-based iterators, no parsing
+ * thread is involved; triples are decoded on the caller's thread as they
+ * are requested.
+ * </p>
+ */
+public class BinaryTripleIterator extends TripleIterator {
+
+    private DataInputStream m_in;
+
+    private ArrayList<Node> m_dictionary = new ArrayList<Node>();
+
+    // the current chunk
+    private byte[] m_buf = new byte[BinaryTupleWriter.CHUNK_SIZE * 2];
+    private int m_pos;
+    private int m_limit;
+    private int m_triplesLeft;
+    private int[] m_previous = new int[3];
+
+    private boolean m_ended;
+    private boolean m_closed;
+
+    public BinaryTripleIterator(InputStream in) throws TrippiException {
+        m_in = new DataInputStream(new BufferedInputStream(in));
+        try {
+            byte[] magic = new byte[BinaryTripleWriter.MAGIC.length];
+            m_in.readFully(magic);
+            for (int i = 0; i < magic.length; i++) {
+                if (magic[i] != BinaryTripleWriter.MAGIC[i]) {
+                    throw new TrippiException("Not a binary triple stream");
+                }
+            }
+            int version = m_in.readUnsignedByte();
+            if (version != BinaryTripleWriter.VERSION) {
+                throw new TrippiException("Unsupported binary triple stream "
+                        + "version: " + version);
+            }
+        } catch (IOException e) {
+            close();
+            throw new TrippiException("Error reading binary triple stream header", e);
+        } catch (TrippiException e) {
+            close();
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean hasNext() throws TrippiException {
+        if (m_triplesLeft > 0) return true;
+        if (m_ended) return false;
+        try {
+            return readChunk();
+        } catch (EOFException e) {
+            throw new TrippiException("Binary triple stream ended unexpectedly", e);
+        } catch (IOException e) {
+            throw new TrippiException("Error reading binary triple stream", e);
+        }
+    }
+
+    @Override
+    public Triple next() throws TrippiException {
+        if (!hasNext()) return null;
+        Node subject = nextNode(0);
+        Node predicate = nextNode(1);
+        Node object = nextNode(2);
+        m_triplesLeft--;
+        try {
+            return RDFFactories.createTriple((SubjectNode) subject,
+                                             (PredicateNode) predicate,
+                                             (ObjectNode) object);
+        } catch (ClassCastException e) {
+            throw new TrippiException("Node in illegal position in binary "
+                    + "triple stream", e);
+        } catch (GraphElementFactoryException e) {
+            throw new TrippiException("Unable to create triple", e);
+        }
+    }
+
+    private Node nextNode(int position) throws TrippiException {
+        int zigzag = readVarInt();
+        int id = m_previous[position] + ((zigzag >>> 1) ^ -(zigzag & 1));
+        if (id < 0 || id >= m_dictionary.size()) {
+            throw new TrippiException("Bad node id in binary triple stream: " + id);
+        }
+        m_previous[position] = id;
+        return m_dictionary.get(id);
+    }
+
+    private boolean readChunk() throws IOException {
+        int tripleCount = BinaryTripleCodec.readVarInt(m_in);
+        if (tripleCount == 0) {
+            m_ended = true;
+            return false;
+        }
+        int flags = BinaryTripleCodec.readVarInt(m_in);
+        int termCount = BinaryTripleCodec.readVarInt(m_in);
+        int length = BinaryTripleCodec.readVarInt(m_in);
+        if ((flags & BinaryTupleWriter.FLAG_RESET) != 0) {
+            m_dictionary.clear();
+        }
+        if (length > m_buf.length) {
+            m_buf = new byte[length];
+        }
+        m_in.readFully(m_buf, 0, length);
+        ByteArrayInputStream termBytes = new ByteArrayInputStream(m_buf, 0, length);
+        DataInputStream terms = new DataInputStream(termBytes);
+        m_dictionary.ensureCapacity(m_dictionary.size() + termCount);
+        for (int i = 0; i < termCount; i++) {
+            m_dictionary.add(BinaryTripleCodec.readNode(terms));
+        }
+        m_pos = length - termBytes.available();
+        m_limit = length;
+        m_triplesLeft = tripleCount;
+        m_previous[0] = 0;
+        m_previous[1] = 0;
+        m_previous[2] = 0;
+        return true;
+    }
+
+    private int readVarInt() throws TrippiException {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            if (m_pos == m_limit || shift > 28) {
+                throw new TrippiException("Malformed triple in binary triple stream");
+            }
+            b = m_buf[m_pos++];
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    @Override
+    public void close() throws TrippiException {
+        if (!m_closed) {
+            m_closed = true;
+            try {
+                m_in.close();
+            } catch (IOException e) {
+                throw new TrippiException("Error closing binary triple stream", e);
+            }
+        }
+    }
+
+}
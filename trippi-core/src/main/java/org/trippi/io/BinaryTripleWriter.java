@@ -0,0 +1,129 @@
+package org.trippi.io;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jrdf.graph.Node;
+import org.jrdf.graph.Triple;
+import org.trippi.TripleIterator;
+import org.trippi.TrippiException;
+
+/**
+ * Writes triples in the compact "Binary Triples" format, which is read by
+ * <code>BinaryTripleIterator</code>.
+ * <p>
+ * The stream starts with the magic bytes <code>TRP3</code> and a version
+ * byte.  Triples follow in chunks framed as in the "Binary Tuples" format
+ * (see <code>BinaryTupleWriter</code>):
+ * <pre>
+ *   tripleCount flags termCount length payload
+ * </pre>
+ * The payload holds the nodes first seen in the chunk, then three
+ * variable-length ints per triple.  Each is the difference between the
+ * node's position in the dictionary and that of the node in the same
+ * position of the previous triple in the chunk (zero for the first),
+ * zig-zag encoded so small negative differences stay small.  Since
+ * triples tend to arrive grouped by subject and new nodes are numbered
+ * in the order they appear, most differences fit in a single byte.
+ * </p>
+ */
+public class BinaryTripleWriter extends TripleWriter {
+
+    static final byte[] MAGIC = new byte[] { 'T', 'R', 'P', '3' };
+    static final int VERSION = 1;
+
+    private DataOutputStream m_out;
+
+    private Map<Node, Integer> m_dictionary = new HashMap<Node, Integer>();
+
+    private ByteArrayOutputStream m_termBytes =
+            new ByteArrayOutputStream(BinaryTupleWriter.CHUNK_SIZE);
+    private DataOutputStream m_terms = new DataOutputStream(m_termBytes);
+    private ByteArrayOutputStream m_tripleBytes =
+            new ByteArrayOutputStream(BinaryTupleWriter.CHUNK_SIZE);
+    private DataOutputStream m_triples = new DataOutputStream(m_tripleBytes);
+    private int m_tripleCount;
+    private int m_termCount;
+    private int m_flags;
+
+    // ids of the previous triple's subject, predicate and object
+    private int[] m_previous = new int[3];
+
+    public BinaryTripleWriter(OutputStream out) {
+        m_out = new DataOutputStream(new BufferedOutputStream(out));
+    }
+
+    @Override
+    public int write(TripleIterator iter) throws TrippiException {
+        try {
+            m_out.write(MAGIC);
+            m_out.writeByte(VERSION);
+            int count = 0;
+            while (iter.hasNext()) {
+                Triple triple = iter.next();
+                writeId(0, termId(triple.getSubject()));
+                writeId(1, termId(triple.getPredicate()));
+                writeId(2, termId(triple.getObject()));
+                m_tripleCount++;
+                count++;
+                if (m_termBytes.size() + m_tripleBytes.size()
+                        >= BinaryTupleWriter.CHUNK_SIZE) {
+                    writeChunk();
+                }
+            }
+            writeChunk();
+            BinaryTripleCodec.writeVarInt(0, m_out);
+            m_out.flush();
+            iter.close();
+            return count;
+        } catch (IOException e) {
+            throw new TrippiException("Error writing", e);
+        }
+    }
+
+    private void writeId(int position, int id) throws IOException {
+        int delta = id - m_previous[position];
+        m_previous[position] = id;
+        BinaryTripleCodec.writeVarInt((delta << 1) ^ (delta >> 31), m_triples);
+    }
+
+    private int termId(Node node) throws IOException {
+        Integer id = m_dictionary.get(node);
+        if (id == null) {
+            id = Integer.valueOf(m_dictionary.size());
+            m_dictionary.put(node, id);
+            BinaryTripleCodec.writeNode(node, m_terms);
+            m_termCount++;
+        }
+        return id.intValue();
+    }
+
+    private void writeChunk() throws IOException {
+        if (m_tripleCount > 0) {
+            BinaryTripleCodec.writeVarInt(m_tripleCount, m_out);
+            BinaryTripleCodec.writeVarInt(m_flags, m_out);
+            BinaryTripleCodec.writeVarInt(m_termCount, m_out);
+            BinaryTripleCodec.writeVarInt(m_termBytes.size() + m_tripleBytes.size(), m_out);
+            m_termBytes.writeTo(m_out);
+            m_tripleBytes.writeTo(m_out);
+            m_termBytes.reset();
+            m_tripleBytes.reset();
+            m_tripleCount = 0;
+            m_termCount = 0;
+            m_flags = 0;
+            m_previous[0] = 0;
+            m_previous[1] = 0;
+            m_previous[2] = 0;
+            if (m_dictionary.size() >= BinaryTupleWriter.MAX_DICTIONARY_SIZE) {
+                m_dictionary.clear();
+                m_flags = BinaryTupleWriter.FLAG_RESET;
+            }
+        }
+    }
+
+}
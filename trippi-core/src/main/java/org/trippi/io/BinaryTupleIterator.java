@@ -0,0 +1,157 @@
+package org.trippi.io;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Map;
+
+import org.jrdf.graph.Node;
+import org.trippi.TrippiException;
+import org.trippi.TupleIterator;
+import org.trippi.TupleRow;
+
+/**
+ * An iterator over tuples in the "Binary Tuples" format written by
+ * <code>BinaryTupleWriter</code>.
+ * <p>
+ * Each term is decoded once, when it first appears, and shared by every
+ * row that refers to it; rows are decoded straight from the chunk's
+ * bytes.
+ * </p>
+ */
+public class BinaryTupleIterator extends TupleIterator {
+
+    private DataInputStream m_in;
+    private String[] m_names;
+
+    private ArrayList<Node> m_dictionary = new ArrayList<Node>();
+
+    // the current chunk
+    private byte[] m_buf = new byte[BinaryTupleWriter.CHUNK_SIZE * 2];
+    private int m_pos;
+    private int m_limit;
+    private int m_rowsLeft;
+
+    private boolean m_ended;
+    private boolean m_closed;
+
+    public BinaryTupleIterator(InputStream in) throws TrippiException {
+        m_in = new DataInputStream(new BufferedInputStream(in));
+        try {
+            byte[] magic = new byte[BinaryTupleWriter.MAGIC.length];
+            m_in.readFully(magic);
+            for (int i = 0; i < magic.length; i++) {
+                if (magic[i] != BinaryTupleWriter.MAGIC[i]) {
+                    throw new TrippiException("Not a binary tuple stream");
+                }
+            }
+            int version = m_in.readUnsignedByte();
+            if (version != BinaryTupleWriter.VERSION) {
+                throw new TrippiException("Unsupported binary tuple stream "
+                        + "version: " + version);
+            }
+            m_names = new String[BinaryTripleCodec.readVarInt(m_in)];
+            for (int i = 0; i < m_names.length; i++) {
+                m_names[i] = BinaryTripleCodec.readString(m_in);
+            }
+        } catch (IOException e) {
+            close();
+            throw new TrippiException("Error reading binary tuple stream header", e);
+        }
+    }
+
+    @Override
+    public String[] names() {
+        return m_names;
+    }
+
+    @Override
+    public boolean hasNext() throws TrippiException {
+        if (m_rowsLeft > 0) return true;
+        if (m_ended) return false;
+        try {
+            return readChunk();
+        } catch (EOFException e) {
+            throw new TrippiException("Binary tuple stream ended unexpectedly", e);
+        } catch (IOException e) {
+            throw new TrippiException("Error reading binary tuple stream", e);
+        }
+    }
+
+    @Override
+    public Map<String, Node> next() throws TrippiException {
+        if (!hasNext()) return null;
+        Node[] values = new Node[m_names.length];
+        for (int i = 0; i < m_names.length; i++) {
+            int id = readVarInt();
+            if (id > 0) {
+                if (id > m_dictionary.size()) {
+                    throw new TrippiException("Bad term id in binary tuple stream: " + id);
+                }
+                values[i] = m_dictionary.get(id - 1);
+            }
+        }
+        m_rowsLeft--;
+        return new TupleRow(m_names, values);
+    }
+
+    private boolean readChunk() throws IOException {
+        int rowCount = BinaryTripleCodec.readVarInt(m_in);
+        if (rowCount == 0) {
+            m_ended = true;
+            return false;
+        }
+        int flags = BinaryTripleCodec.readVarInt(m_in);
+        int termCount = BinaryTripleCodec.readVarInt(m_in);
+        int length = BinaryTripleCodec.readVarInt(m_in);
+        if ((flags & BinaryTupleWriter.FLAG_RESET) != 0) {
+            m_dictionary.clear();
+        }
+        if (length > m_buf.length) {
+            m_buf = new byte[length];
+        }
+        m_in.readFully(m_buf, 0, length);
+        ByteArrayInputStream termBytes = new ByteArrayInputStream(m_buf, 0, length);
+        DataInputStream terms = new DataInputStream(termBytes);
+        m_dictionary.ensureCapacity(m_dictionary.size() + termCount);
+        for (int i = 0; i < termCount; i++) {
+            m_dictionary.add(BinaryTripleCodec.readNode(terms));
+        }
+        m_pos = length - termBytes.available();
+        m_limit = length;
+        m_rowsLeft = rowCount;
+        return true;
+    }
+
+    private int readVarInt() throws TrippiException {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            if (m_pos == m_limit || shift > 28) {
+                throw new TrippiException("Malformed row in binary tuple stream");
+            }
+            b = m_buf[m_pos++];
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    @Override
+    public void close() throws TrippiException {
+        if (!m_closed) {
+            m_closed = true;
+            try {
+                m_in.close();
+            } catch (IOException e) {
+                throw new TrippiException("Error closing binary tuple stream", e);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,138 @@
+package org.trippi.io;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jrdf.graph.Node;
+import org.trippi.TrippiException;
+import org.trippi.TupleIterator;
+import org.trippi.TupleRow;
+
+/**
+ * Writes tuples in the compact "Binary Tuples" format, which is read by
+ * <code>BinaryTupleIterator</code>.
+ * <p>
+ * The stream starts with the magic bytes <code>TRPT</code>, a version
+ * byte, and the variable names.  Rows follow in chunks, each of which is
+ * <pre>
+ *   rowCount flags termCount length payload
+ * </pre>
+ * where the first four are variable-length ints and a zero rowCount
+ * ends the stream.  The payload holds the terms first seen in the chunk
+ * (encoded as by <code>BinaryTripleCodec</code>), then one
+ * variable-length int per column per row: zero if the variable is
+ * unbound, otherwise one more than the term's position in the
+ * dictionary built up over the whole response.  If bit 0 of flags is
+ * set, the dictionary is cleared before the chunk's terms are added,
+ * which keeps its size bounded for very large responses.
+ * </p>
+ */
+public class BinaryTupleWriter extends TupleWriter {
+
+    static final byte[] MAGIC = new byte[] { 'T', 'R', 'P', 'T' };
+    static final int VERSION = 1;
+    static final int FLAG_RESET = 1;
+
+    /** The approximate size of each chunk, in bytes. */
+    public static final int CHUNK_SIZE = 32 * 1024;
+
+    /** The number of terms after which the dictionary is started over. */
+    public static final int MAX_DICTIONARY_SIZE = 256 * 1024;
+
+    // The longest a chunk waits before the stream is flushed
+    private static final long MAX_DELAY_NANOS = BufferedResultWriter.DEFAULT_MAX_DELAY_MS * 1000000L;
+
+    private DataOutputStream m_out;
+
+    private Map<Node, Integer> m_dictionary = new HashMap<Node, Integer>();
+
+    private ByteArrayOutputStream m_termBytes = new ByteArrayOutputStream(CHUNK_SIZE);
+    private DataOutputStream m_terms = new DataOutputStream(m_termBytes);
+    private ByteArrayOutputStream m_rowBytes = new ByteArrayOutputStream(CHUNK_SIZE);
+    private DataOutputStream m_rows = new DataOutputStream(m_rowBytes);
+    private int m_rowCount;
+    private int m_termCount;
+    private int m_flags;
+    private long m_lastFlush;
+
+    public BinaryTupleWriter(OutputStream out) {
+        m_out = new DataOutputStream(new BufferedOutputStream(out));
+    }
+
+    @Override
+    public int write(TupleIterator iter) throws TrippiException {
+        try {
+            m_lastFlush = System.nanoTime();
+            String[] names = iter.names();
+            m_out.write(MAGIC);
+            m_out.writeByte(VERSION);
+            BinaryTripleCodec.writeVarInt(names.length, m_out);
+            for (int i = 0; i < names.length; i++) {
+                BinaryTripleCodec.writeString(names[i], m_out);
+            }
+            int count = 0;
+            while (iter.hasNext()) {
+                Map<String, Node> result = iter.next();
+                for (int i = 0; i < names.length; i++) {
+                    Node node = TupleRow.valueAt(result, names, i);
+                    BinaryTripleCodec.writeVarInt(node == null ? 0 : termId(node) + 1,
+                                                  m_rows);
+                }
+                m_rowCount++;
+                count++;
+                if (m_termBytes.size() + m_rowBytes.size() >= CHUNK_SIZE
+                        || System.nanoTime() - m_lastFlush >= MAX_DELAY_NANOS) {
+                    writeChunk();
+                }
+            }
+            writeChunk();
+            BinaryTripleCodec.writeVarInt(0, m_out);
+            m_out.flush();
+            iter.close();
+            return count;
+        } catch (IOException e) {
+            throw new TrippiException("Error writing", e);
+        }
+    }
+
+    private int termId(Node node) throws IOException {
+        Integer id = m_dictionary.get(node);
+        if (id == null) {
+            id = Integer.valueOf(m_dictionary.size());
+            m_dictionary.put(node, id);
+            BinaryTripleCodec.writeNode(node, m_terms);
+            m_termCount++;
+        }
+        return id.intValue();
+    }
+
+    private void writeChunk() throws IOException {
+        if (m_rowCount > 0) {
+            BinaryTripleCodec.writeVarInt(m_rowCount, m_out);
+            BinaryTripleCodec.writeVarInt(m_flags, m_out);
+            BinaryTripleCodec.writeVarInt(m_termCount, m_out);
+            BinaryTripleCodec.writeVarInt(m_termBytes.size() + m_rowBytes.size(), m_out);
+            m_termBytes.writeTo(m_out);
+            m_rowBytes.writeTo(m_out);
+            m_termBytes.reset();
+            m_rowBytes.reset();
+            m_rowCount = 0;
+            m_termCount = 0;
+            m_flags = 0;
+            if (m_dictionary.size() >= MAX_DICTIONARY_SIZE) {
+                m_dictionary.clear();
+                m_flags = FLAG_RESET;
+            }
+        }
+        if (System.nanoTime() - m_lastFlush >= MAX_DELAY_NANOS) {
+            m_out.flush();
+            m_lastFlush = System.nanoTime();
+        }
+    }
+
+}
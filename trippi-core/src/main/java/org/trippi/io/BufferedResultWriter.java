@@ -0,0 +1,250 @@
+package org.trippi.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+
+/**
+ * A UTF-8 writer for streaming query results.
+ * <p>
+ * Characters are encoded straight into a byte buffer, and fixed parts of
+ * the output (tags, separators, alias entities) can be encoded once with
+ * <code>encode(String)</code> and copied in with <code>write(byte[])</code>.
+ * XML escaping is done while encoding, without building intermediate
+ * strings.
+ * </p><p>
+ * Result writers call <code>endRow()</code> after each row, rather than
+ * <code>flush()</code>.  Buffered bytes are handed to the underlying
+ * stream once there are <i>bufferSize</i> of them, and the stream is
+ * flushed by the first <code>endRow()</code> at least <i>maxDelayMs</i>
+ * after the last flush, so a slow query's rows still go out in small
+ * writes while a fast query's go out in large ones.
+ * </p><p>
+ * There is no timer: the delay is only checked when a row ends, so rows
+ * written before a long pause in the results stay buffered until the
+ * next row ends or the writer is flushed or closed.
+ * </p>
+ */
+public class BufferedResultWriter extends Writer {
+
+    /** The number of bytes buffered before writing them out. */
+    public static final int DEFAULT_BUFFER_SIZE = 32 * 1024;
+
+    /** The time since the last flush after which a row end flushes the stream. */
+    public static final long DEFAULT_MAX_DELAY_MS = 100;
+
+    private static final byte[] LINE_SEPARATOR =
+            encode(System.getProperty("line.separator", "\n"));
+
+    private static final byte[] LT = encode("&lt;");
+    private static final byte[] GT = encode("&gt;");
+    private static final byte[] QUOT = encode("&quot;");
+    private static final byte[] APOS = encode("&apos;");
+    private static final byte[] AMP = encode("&amp;");
+
+    private OutputStream m_out;
+    private byte[] m_buf;
+    private int m_count;
+
+    private long m_maxDelayNanos;
+    private long m_lastFlush;
+
+    public BufferedResultWriter(OutputStream out) {
+        this(out, DEFAULT_BUFFER_SIZE, DEFAULT_MAX_DELAY_MS);
+    }
+
+    public BufferedResultWriter(OutputStream out,
+                                int bufferSize,
+                                long maxDelayMs) {
+        m_out = out;
+        // leave room for one encoded character past the threshold
+        m_buf = new byte[Math.max(bufferSize, 16) + 4];
+        m_maxDelayNanos = maxDelayMs * 1000000L;
+        m_lastFlush = System.nanoTime();
+    }
+
+    /**
+     * Get the UTF-8 encoding of the given string.
+     */
+    public static byte[] encode(String s) {
+        try {
+            return s.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException("UTF-8 is not supported", e);
+        }
+    }
+
+    /**
+     * Write pre-encoded bytes.
+     */
+    public void write(byte[] bytes) throws IOException {
+        int len = bytes.length;
+        if (len > m_buf.length - m_count) {
+            drain();
+            if (len > m_buf.length) {
+                m_out.write(bytes);
+                return;
+            }
+        }
+        System.arraycopy(bytes, 0, m_buf, m_count, len);
+        m_count += len;
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        if (m_count >= m_buf.length - 4) drain();
+        encodeChar((char) c);
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        int end = off + len;
+        for (int i = off; i < end; i++) {
+            char c = cbuf[i];
+            if (m_count >= m_buf.length - 4) drain();
+            if (c < 0x80) {
+                m_buf[m_count++] = (byte) c;
+            } else if (Character.isHighSurrogate(c) && i + 1 < end
+                    && Character.isLowSurrogate(cbuf[i + 1])) {
+                encodeCodePoint(Character.toCodePoint(c, cbuf[++i]));
+            } else {
+                encodeChar(c);
+            }
+        }
+    }
+
+    @Override
+    public void write(String s, int off, int len) throws IOException {
+        int end = off + len;
+        for (int i = off; i < end; i++) {
+            char c = s.charAt(i);
+            if (m_count >= m_buf.length - 4) drain();
+            if (c < 0x80) {
+                m_buf[m_count++] = (byte) c;
+            } else if (Character.isHighSurrogate(c) && i + 1 < end
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                encodeCodePoint(Character.toCodePoint(c, s.charAt(++i)));
+            } else {
+                encodeChar(c);
+            }
+        }
+    }
+
+    public void print(String s) throws IOException {
+        if (s == null) s = "null";
+        write(s, 0, s.length());
+    }
+
+    public void print(char c) throws IOException {
+        write(c);
+    }
+
+    public void println() throws IOException {
+        write(LINE_SEPARATOR);
+    }
+
+    public void println(String s) throws IOException {
+        print(s);
+        write(LINE_SEPARATOR);
+    }
+
+    public void println(char c) throws IOException {
+        write(c);
+        write(LINE_SEPARATOR);
+    }
+
+    /**
+     * Write the string XML-encoded, as <code>RDFWriter.enc(String)</code>
+     * would.
+     */
+    public void printEscaped(String s) throws IOException {
+        int len = s.length();
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '<':  write(LT); break;
+                case '>':  write(GT); break;
+                case '"':  write(QUOT); break;
+                case '\'': write(APOS); break;
+                case '&':  write(AMP); break;
+                default:
+                    if (m_count >= m_buf.length - 4) drain();
+                    if (c < 0x80) {
+                        m_buf[m_count++] = (byte) c;
+                    } else if (Character.isHighSurrogate(c) && i + 1 < len
+                            && Character.isLowSurrogate(s.charAt(i + 1))) {
+                        encodeCodePoint(Character.toCodePoint(c, s.charAt(++i)));
+                    } else {
+                        encodeChar(c);
+                    }
+            }
+        }
+    }
+
+    /**
+     * Mark the end of a row, writing out buffered bytes if there are
+     * enough of them, and flushing the stream if <i>maxDelayMs</i> has
+     * passed since it was last flushed.
+     */
+    public void endRow() throws IOException {
+        if (m_count >= m_buf.length - 4) {
+            drain();
+        }
+        if (System.nanoTime() - m_lastFlush >= m_maxDelayNanos) {
+            flush();
+        }
+    }
+
+    // caller ensures there are at least 3 bytes free
+    private void encodeChar(char c) {
+        if (c < 0x80) {
+            m_buf[m_count++] = (byte) c;
+        } else if (c < 0x800) {
+            m_buf[m_count++] = (byte) (0xC0 | (c >> 6));
+            m_buf[m_count++] = (byte) (0x80 | (c & 0x3F));
+        } else if (Character.isHighSurrogate(c) || Character.isLowSurrogate(c)) {
+            // unpaired surrogate; encoders replace these, too
+            m_buf[m_count++] = (byte) '?';
+        } else {
+            m_buf[m_count++] = (byte) (0xE0 | (c >> 12));
+            m_buf[m_count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            m_buf[m_count++] = (byte) (0x80 | (c & 0x3F));
+        }
+    }
+
+    // caller ensures there are at least 4 bytes free
+    private void encodeCodePoint(int cp) {
+        m_buf[m_count++] = (byte) (0xF0 | (cp >> 18));
+        m_buf[m_count++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+        m_buf[m_count++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+        m_buf[m_count++] = (byte) (0x80 | (cp & 0x3F));
+    }
+
+    /**
+     * Hand buffered bytes to the underlying stream, without flushing it.
+     */
+    private void drain() throws IOException {
+        if (m_count > 0) {
+            m_out.write(m_buf, 0, m_count);
+            m_count = 0;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        drain();
+        m_out.flush();
+        m_lastFlush = System.nanoTime();
+    }
+
+    /**
+     * Flush, but leave the underlying stream open; result writers never
+     * close the stream they were given.
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+
+}
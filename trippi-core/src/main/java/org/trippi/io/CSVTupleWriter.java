@@ -2,17 +2,17 @@ package org.trippi.io;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
-import java.util.Iterator;
 import java.util.Map;
 
 import org.jrdf.graph.Literal;
 import org.jrdf.graph.Node;
 import org.jrdf.graph.URIReference;
+import org.trippi.Alias;
+import org.trippi.AliasIndex;
 import org.trippi.RDFUtil;
 import org.trippi.TrippiException;
 import org.trippi.TupleIterator;
+import org.trippi.TupleRow;
 
 /**
  * Writes tuples as CSV's (comma-separated values), a format common in
@@ -28,16 +28,12 @@ import org.trippi.TupleIterator;
  */
 public class CSVTupleWriter extends TupleWriter {
 
-    private PrintWriter m_out;
-    private Map<String, String> m_aliases;
+    private BufferedResultWriter m_out;
+    private AliasIndex m_aliases;
 
     public CSVTupleWriter(OutputStream out, Map<String, String> aliases) throws TrippiException {
-        try {
-            m_out = new PrintWriter(new OutputStreamWriter(out, "UTF-8"));
-            m_aliases = aliases;
-        } catch (IOException e) {
-            throw new TrippiException("Error setting up writer", e);
-        }
+        m_out = new BufferedResultWriter(out);
+        m_aliases = AliasIndex.fromStrings(aliases);
     }
 
     @Override
@@ -45,7 +41,7 @@ public class CSVTupleWriter extends TupleWriter {
         try {
             String[] names = iter.names();
             for (int i = 0; i < names.length; i++) {
-                if (i > 0) m_out.print(",");
+                if (i > 0) m_out.print(',');
                 addQuoted(names[i]);
             }
             m_out.println();
@@ -53,8 +49,8 @@ public class CSVTupleWriter extends TupleWriter {
             while (iter.hasNext()) {
                 Map<String, Node> result = iter.next();
                 for (int i = 0; i < names.length; i++) {
-                    if (i > 0) m_out.print(",");
-                    String val = getValue(result.get(names[i]));
+                    if (i > 0) m_out.print(',');
+                    String val = getValue(TupleRow.valueAt(result, names, i));
                     if (val.indexOf(",") == -1 && val.indexOf("\"") == -1) {
                         m_out.print(val);
                     } else {
@@ -62,7 +58,7 @@ public class CSVTupleWriter extends TupleWriter {
                     }
                 }
                 m_out.println();
-                m_out.flush();
+                m_out.endRow();
                 count++;
             }
             m_out.flush();
@@ -74,41 +70,44 @@ public class CSVTupleWriter extends TupleWriter {
     }
 
     private void addQuoted(String val) throws IOException {
-        m_out.print("\"");
-        m_out.print(val.replaceAll("\"", "\"\""));
-        m_out.print("\"");
+        m_out.print('"');
+        int start = 0;
+        int quote;
+        while ((quote = val.indexOf('"', start)) != -1) {
+            m_out.write(val, start, quote + 1 - start);
+            m_out.print('"');
+            start = quote + 1;
+        }
+        m_out.write(val, start, val.length() - start);
+        m_out.print('"');
     }
 
     public String getValue(Node node) {
         String fullString = RDFUtil.toString(node);
-        if (m_aliases != null) {
+        if (!m_aliases.isEmpty()) {
             if (node instanceof URIReference) {
-                Iterator<String> iter = m_aliases.keySet().iterator();
-                while (iter.hasNext()) {
-                    String alias = iter.next();
-                    String prefix = m_aliases.get(alias);
-                    if (fullString.startsWith("<" + prefix)) {
-                        return fix("<" + alias + ":" + fullString.substring(prefix.length() + 1));
-                    }
+                Alias match = m_aliases.longestPrefix(fullString, 1);
+                if (match != null) {
+                    String alias = match.getKey();
+                    String prefix = match.getExpansion();
+                    return fix("<" + alias + ":" + fullString.substring(prefix.length() + 1));
                 }
             } else if (node instanceof Literal) {
                 Literal literal = (Literal) node;
                 if (literal.getDatatypeURI() != null) {
                     String uri = literal.getDatatypeURI().toString();
-                    Iterator<String> iter = m_aliases.keySet().iterator();
-                    while (iter.hasNext()) {
-                        String alias = iter.next();
-                        String expansion = m_aliases.get(alias);
-                        if (uri.startsWith(expansion)) {
-                            StringBuffer out = new StringBuffer();
-                            out.append('"');
-                            out.append(literal.getLexicalForm().replaceAll("\"", "\\\""));
-                            out.append("\"^^");
-                            out.append(alias);
-                            out.append(':');
-                            out.append(uri.substring(expansion.length()));
-                            return fix(out.toString());
-                        }
+                    Alias match = m_aliases.longestPrefix(uri, 0);
+                    if (match != null) {
+                        String alias = match.getKey();
+                        String expansion = match.getExpansion();
+                        StringBuffer out = new StringBuffer();
+                        out.append('"');
+                        out.append(literal.getLexicalForm().replaceAll("\"", "\\\""));
+                        out.append("\"^^");
+                        out.append(alias);
+                        out.append(':');
+                        out.append(uri.substring(expansion.length()));
+                        return fix(out.toString());
                     }
                 }
             }
@@ -28,21 +28,27 @@ public class CountTupleWriter extends TupleWriter {
 
     @Override
 	public int write(TupleIterator iter) throws TrippiException {
+        /* Use the in-built TupleIterator.count() method */
+        int count = iter.count();
+
+        writeCount(count);
+
+        /* Documentation states that the TripleWriter should close the 
+           Iterator, but not the stream, hence: */
+        iter.close();
+        return count;
+    }
+
+    /**
+     * Write a count that is already known, such as one the triplestore
+     * worked out without returning the results.
+     */
+    public int writeCount(int count) throws TrippiException {
         try {
-            /* Use the in-built TupleIterator.count() method */
-            int count = iter.count();
-            
-            /* Finger's crossed... */            
-            String str_count = Integer.toString(count);
-            
-            _out.write( str_count );
+            _out.write( Integer.toString(count) );
             
             /* Flush to OutputStream */
             _out.flush();
-            
-            /* Documentation states that the TripleWriter should close the 
-               Iterator, but not the stream, hence: */
-            iter.close();
             return count;
         } catch (IOException e) {
             throw new TrippiException("Error setting up CountTupleWriter", e);
@@ -29,4 +29,13 @@ public class FormatCountTupleWriter extends TupleWriter {
             iter.close();
             return 1; // not sure what the appropriate return value is; using tuples returned
     }
+
+    /**
+     * Write a count that is already known, such as one the triplestore
+     * worked out without returning the results.
+     */
+    public int writeCount(int count) throws TrippiException {
+        _out.write( new CountTupleIterator(count) );
+        return 1;
+    }
 }
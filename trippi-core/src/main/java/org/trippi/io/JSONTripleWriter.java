@@ -1,11 +1,8 @@
 package org.trippi.io;
 
-import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.Writer;
-import java.util.Iterator;
 import java.util.Map;
 
 import org.jrdf.graph.Literal;
@@ -14,6 +11,7 @@ import org.jrdf.graph.ObjectNode;
 import org.jrdf.graph.Triple;
 import org.jrdf.graph.URIReference;
 import org.trippi.Alias;
+import org.trippi.AliasIndex;
 import org.trippi.AliasManager;
 import org.trippi.RDFUtil;
 import org.trippi.TrippiException;
@@ -33,12 +31,8 @@ public class JSONTripleWriter extends TripleWriter {
     private PrintWriter m_out;
     private AliasManager m_aliases;
 
-    private static Writer defaultWriter(OutputStream out) throws TrippiException {
-        try {
-            return new OutputStreamWriter(out, "UTF-8");
-        } catch (IOException e) {
-            throw new TrippiException("Error setting up writer", e);
-        }
+    private static Writer defaultWriter(OutputStream out) {
+        return new BufferedResultWriter(out);
     }
     
     public JSONTripleWriter(OutputStream out, Map<String, String> aliases) throws TrippiException {
@@ -129,35 +123,30 @@ public class JSONTripleWriter extends TripleWriter {
     public String getValue(Node node) {
         String fullString = RDFUtil.toString(node);
         if (m_aliases != null) {
+            AliasIndex index = m_aliases.getAliasIndex();
             if (node instanceof URIReference) {
-                Iterator<Alias> iter = m_aliases.getAliases().values().iterator();
-                while (iter.hasNext()) {
-                    Alias alias = iter.next();
-                    String prefix = alias.getKey();
-                    String expansion = alias.getExpansion();
-                    if (fullString.startsWith("<".concat(expansion))) {
-                        return fix("<" + prefix + ":" + fullString.substring(expansion.length() + 1));
-                    }
+                Alias match = index.longestPrefix(fullString, 1);
+                if (match != null) {
+                    String prefix = match.getKey();
+                    String expansion = match.getExpansion();
+                    return fix("<" + prefix + ":" + fullString.substring(expansion.length() + 1));
                 }
             } else if (node instanceof Literal) {
                 Literal literal = (Literal) node;
                 if (literal.getDatatypeURI() != null) {
                     String uri = literal.getDatatypeURI().toString();
-                    Iterator<Alias> iter = m_aliases.getAliases().values().iterator();
-                    while (iter.hasNext()) {
-                        Alias a = iter.next();
-                        String alias = a.getKey();
-                        String expansion = a.getExpansion();
-                        if (uri.startsWith(expansion)) {
-                            StringBuffer out = new StringBuffer();
-                            out.append('"');
-                            out.append(literal.getLexicalForm().replaceAll("\"", "\\\""));
-                            out.append("\"^^");
-                            out.append(alias);
-                            out.append(':');
-                            out.append(uri.substring(expansion.length()));
-                            return fix(out.toString());
-                        }
+                    Alias match = index.longestPrefix(uri, 0);
+                    if (match != null) {
+                        String alias = match.getKey();
+                        String expansion = match.getExpansion();
+                        StringBuffer out = new StringBuffer();
+                        out.append('"');
+                        out.append(literal.getLexicalForm().replaceAll("\"", "\\\""));
+                        out.append("\"^^");
+                        out.append(alias);
+                        out.append(':');
+                        out.append(uri.substring(expansion.length()));
+                        return fix(out.toString());
                     }
                 }
             }
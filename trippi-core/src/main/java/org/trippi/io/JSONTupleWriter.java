@@ -2,19 +2,18 @@ package org.trippi.io;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
-import java.util.Iterator;
 import java.util.Map;
 
 import org.jrdf.graph.Literal;
 import org.jrdf.graph.Node;
 import org.jrdf.graph.URIReference;
 import org.trippi.Alias;
+import org.trippi.AliasIndex;
 import org.trippi.AliasManager;
 import org.trippi.RDFUtil;
 import org.trippi.TrippiException;
 import org.trippi.TupleIterator;
+import org.trippi.TupleRow;
 import org.trippi.impl.base.DefaultAliasManager;
 
 /**
@@ -31,24 +30,16 @@ import org.trippi.impl.base.DefaultAliasManager;
  */
 public class JSONTupleWriter extends TupleWriter {
 
-    private PrintWriter m_out;
+    private BufferedResultWriter m_out;
     private AliasManager m_aliases;
     public JSONTupleWriter(OutputStream out, Map<String, String> aliases) throws TrippiException {
-        try {
-            m_out = new PrintWriter(new OutputStreamWriter(out, "UTF-8"));
-            m_aliases = new DefaultAliasManager(aliases);
-        } catch (IOException e) {
-            throw new TrippiException("Error setting up writer", e);
-        }
+        m_out = new BufferedResultWriter(out);
+        m_aliases = new DefaultAliasManager(aliases);
     }
     
     public JSONTupleWriter(OutputStream out, AliasManager aliases) throws TrippiException {
-        try {
-            m_out = new PrintWriter(new OutputStreamWriter(out, "UTF-8"));
-            m_aliases = aliases;
-        } catch (IOException e) {
-            throw new TrippiException("Error setting up writer", e);
-        }
+        m_out = new BufferedResultWriter(out);
+        m_aliases = aliases;
     }
 
     public int write(TupleIterator iter) throws TrippiException {
@@ -67,7 +58,7 @@ public class JSONTupleWriter extends TupleWriter {
                     m_out.print('"');
                     m_out.print(names[i]);
                     m_out.print("\" : ");
-                    String val = getValue(result.get(names[i]));
+                    String val = getValue(TupleRow.valueAt(result, names, i));
                     if (val.indexOf(',') == -1 && val.indexOf('"') == -1) {
                     	m_out.print('"');
                         m_out.print(val);
@@ -77,7 +68,7 @@ public class JSONTupleWriter extends TupleWriter {
                     }
                 }
                 m_out.println('}');
-                m_out.flush();
+                m_out.endRow();
                 count++;
             }
             m_out.print("]}");
@@ -91,42 +82,44 @@ public class JSONTupleWriter extends TupleWriter {
 
     private void addQuoted(String val) throws IOException {
         m_out.print('"');
-        m_out.print(val.replaceAll("\"", "\\\\\""));
+        int start = 0;
+        int quote;
+        while ((quote = val.indexOf('"', start)) != -1) {
+            m_out.write(val, start, quote - start);
+            m_out.print("\\\"");
+            start = quote + 1;
+        }
+        m_out.write(val, start, val.length() - start);
         m_out.print('"');
     }
 
     public String getValue(Node node) {
         String fullString = RDFUtil.toString(node);
         if (m_aliases != null) {
+            AliasIndex index = m_aliases.getAliasIndex();
             if (node instanceof URIReference) {
-                Iterator<Alias> iter = m_aliases.getAliases().values().iterator();
-                while (iter.hasNext()) {
-                    Alias a = iter.next();
-                    String alias = a.getKey();
-                    String expansion = a.getExpansion();
-                    if (fullString.startsWith("<" + expansion)) {
-                        return fix("<" + alias + ":" + fullString.substring(expansion.length() + 1));
-                    }
+                Alias match = index.longestPrefix(fullString, 1);
+                if (match != null) {
+                    String alias = match.getKey();
+                    String expansion = match.getExpansion();
+                    return fix("<" + alias + ":" + fullString.substring(expansion.length() + 1));
                 }
             } else if (node instanceof Literal) {
                 Literal literal = (Literal) node;
                 if (literal.getDatatypeURI() != null) {
                     String uri = literal.getDatatypeURI().toString();
-                    Iterator<Alias> iter = m_aliases.getAliases().values().iterator();
-                    while (iter.hasNext()) {
-                        Alias a = iter.next();
-                        String alias = a.getKey();
-                        String expansion = a.getExpansion();
-                        if (uri.startsWith(expansion)) {
-                            StringBuffer out = new StringBuffer();
-                            out.append('"');
-                            out.append(literal.getLexicalForm().replaceAll("\"", "\\\""));
-                            out.append("\"^^");
-                            out.append(alias);
-                            out.append(':');
-                            out.append(uri.substring(expansion.length()));
-                            return fix(out.toString());
-                        }
+                    Alias match = index.longestPrefix(uri, 0);
+                    if (match != null) {
+                        String alias = match.getKey();
+                        String expansion = match.getExpansion();
+                        StringBuffer out = new StringBuffer();
+                        out.append('"');
+                        out.append(literal.getLexicalForm().replaceAll("\"", "\\\""));
+                        out.append("\"^^");
+                        out.append(alias);
+                        out.append(':');
+                        out.append(uri.substring(expansion.length()));
+                        return fix(out.toString());
                     }
                 }
             }
@@ -0,0 +1,353 @@
+package org.trippi.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openrdf.model.BNode;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.rio.ntriples.NTriplesParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.trippi.TrippiException;
+import org.trippi.io.transform.Transformer;
+
+/**
+ * Parses an N-Triples file on several threads at once.
+ * <p>
+ * N-Triples is line-oriented, so the file is divided into chunks that
+ * begin and end on line boundaries, and each chunk is memory-mapped and
+ * parsed independently.  Up to <code>parallelism</code> workers (one in
+ * the calling thread, the rest on the given executor) take chunks in turn
+ * until none are left, and their results are merged into a single set.
+ * The order of the parsed triples is not preserved.
+ * </p><p>
+ * Blank node labels are scoped to the file rather than to the chunk, so
+ * <code>_:a</code> on one line is the same node as <code>_:a</code>
+ * anywhere else in the file, but not the same as <code>_:a</code> in
+ * another file.  Line numbers in parse errors are relative to the start
+ * of the chunk that contained the error.
+ * </p>
+ */
+public class ParallelNTriplesParser {
+
+    private static final Logger logger =
+        LoggerFactory.getLogger(ParallelNTriplesParser.class.getName());
+
+    /** The default size of each chunk, in bytes. */
+    public static final int DEFAULT_CHUNK_SIZE = 8 * 1024 * 1024;
+
+    // Used to give each parsed file its own blank node namespace
+    private static final AtomicInteger s_fileCount = new AtomicInteger();
+
+    private final ExecutorService m_executor;
+    private final int m_parallelism;
+    private final int m_chunkSize;
+
+    public ParallelNTriplesParser(ExecutorService executor) {
+        this(executor,
+             Runtime.getRuntime().availableProcessors(),
+             DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param executor runs all workers but the first
+     * @param parallelism the most chunks to parse at once
+     * @param chunkSize the approximate size of each chunk, in bytes
+     */
+    public ParallelNTriplesParser(ExecutorService executor,
+                                  int parallelism,
+                                  int chunkSize) {
+        if (parallelism < 1 || chunkSize < 1) {
+            throw new IllegalArgumentException("parallelism and chunkSize must be positive");
+        }
+        m_executor = executor;
+        m_parallelism = parallelism;
+        m_chunkSize = chunkSize;
+    }
+
+    /**
+     * Parse the file, transforming each statement and returning the
+     * distinct results.
+     */
+    public <T> Set<T> parse(File file,
+                            String baseURI,
+                            Transformer<T> transform) throws TrippiException {
+        long startTime = System.currentTimeMillis();
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            FileChannel channel = raf.getChannel();
+            long[] bounds = split(channel, m_chunkSize);
+            int chunks = bounds.length - 1;
+            String bnodePrefix = "f" + s_fileCount.incrementAndGet() + "-";
+            AtomicInteger nextChunk = new AtomicInteger();
+            int workers = Math.min(m_parallelism, chunks);
+
+            List<Future<Set<T>>> futures = new ArrayList<Future<Set<T>>>(workers);
+            for (int i = 1; i < workers; i++) {
+                futures.add(m_executor.submit(new Worker<T>(channel, bounds,
+                        nextChunk, baseURI, bnodePrefix, transform)));
+            }
+
+            List<Set<T>> results = new ArrayList<Set<T>>(workers);
+            TrippiException failure = null;
+            Worker<T> local = new Worker<T>(channel, bounds, nextChunk,
+                                            baseURI, bnodePrefix, transform);
+            try {
+                results.add(local.call());
+            } catch (TrippiException e) {
+                failure = e;
+                nextChunk.set(chunks); // stop the other workers early
+            }
+            boolean interrupted = false;
+            for (Future<Set<T>> future : futures) {
+                while (true) {
+                    try {
+                        results.add(future.get());
+                        break;
+                    } catch (InterruptedException e) {
+                        // the channel is still in use; keep waiting
+                        interrupted = true;
+                    } catch (ExecutionException e) {
+                        if (failure == null) {
+                            Throwable cause = e.getCause();
+                            if (cause instanceof TrippiException) {
+                                failure = (TrippiException) cause;
+                            } else {
+                                failure = new TrippiException("Error parsing "
+                                        + file.getPath() + ": " + cause.getMessage(), cause);
+                            }
+                        }
+                        nextChunk.set(chunks);
+                        break;
+                    }
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (failure != null) {
+                throw failure;
+            }
+
+            Set<T> merged = merge(results);
+            if (logger.isDebugEnabled()) {
+                logger.debug("Parsed " + merged.size() + " triples from "
+                        + file.getPath() + " in " + chunks + " chunk(s) with "
+                        + workers + " worker(s) in "
+                        + (System.currentTimeMillis() - startTime) + "ms");
+            }
+            return merged;
+        } catch (IOException e) {
+            throw new TrippiException("Error reading " + file.getPath(), e);
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException e) {
+                    logger.warn("Error closing " + file.getPath(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Add every set to the largest one.
+     */
+    private static <T> Set<T> merge(List<Set<T>> results) {
+        Set<T> largest = new HashSet<T>();
+        for (Set<T> set : results) {
+            if (set.size() > largest.size()) {
+                largest = set;
+            }
+        }
+        for (Set<T> set : results) {
+            if (set != largest) {
+                largest.addAll(set);
+            }
+        }
+        return largest;
+    }
+
+    /**
+     * Get the chunk boundaries of the channel's content.
+     *
+     * Each boundary but the first and last falls just after a newline,
+     * so no line is divided between chunks.
+     */
+    static long[] split(FileChannel channel, int chunkSize) throws IOException {
+        long size = channel.size();
+        List<Long> bounds = new ArrayList<Long>();
+        bounds.add(0L);
+        ByteBuffer buf = ByteBuffer.allocate(4096);
+        long pos = chunkSize;
+        while (pos < size) {
+            long lineEnd = findNewline(channel, pos, buf);
+            if (lineEnd < 0) {
+                break;
+            }
+            long next = lineEnd + 1;
+            if (next >= size) {
+                break;
+            }
+            bounds.add(next);
+            pos = next + chunkSize;
+        }
+        bounds.add(size);
+        long[] result = new long[bounds.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = bounds.get(i);
+        }
+        return result;
+    }
+
+    // Get the position of the first newline at or after pos, or -1
+    private static long findNewline(FileChannel channel,
+                                    long pos,
+                                    ByteBuffer buf) throws IOException {
+        while (true) {
+            buf.clear();
+            int n = channel.read(buf, pos);
+            if (n <= 0) {
+                return -1;
+            }
+            for (int i = 0; i < n; i++) {
+                if (buf.get(i) == '\n') {
+                    return pos + i;
+                }
+            }
+            pos += n;
+        }
+    }
+
+    /**
+     * Parses chunks until there are none left, collecting the results.
+     */
+    private static class Worker<T> implements Callable<Set<T>> {
+
+        private final FileChannel m_channel;
+        private final long[] m_bounds;
+        private final AtomicInteger m_nextChunk;
+        private final String m_baseURI;
+        private final String m_bnodePrefix;
+        private final Transformer<T> m_transform;
+
+        Worker(FileChannel channel,
+               long[] bounds,
+               AtomicInteger nextChunk,
+               String baseURI,
+               String bnodePrefix,
+               Transformer<T> transform) {
+            m_channel = channel;
+            m_bounds = bounds;
+            m_nextChunk = nextChunk;
+            m_baseURI = baseURI;
+            m_bnodePrefix = bnodePrefix;
+            m_transform = transform;
+        }
+
+        public Set<T> call() throws TrippiException {
+            Set<T> triples = null;
+            int chunk;
+            while ((chunk = m_nextChunk.getAndIncrement()) < m_bounds.length - 1) {
+                long start = m_bounds[chunk];
+                long length = m_bounds[chunk + 1] - start;
+                Set<T> parsed;
+                try {
+                    ByteBuffer region = m_channel.map(FileChannel.MapMode.READ_ONLY,
+                                                      start, length);
+                    NTriplesParser parser = new NTriplesParser();
+                    parser.setValueFactory(new ScopedValueFactory(m_bnodePrefix));
+                    parser.setPreserveBNodeIDs(true);
+                    parsed = SimpleParsingContext.parse(new ByteBufferInputStream(region),
+                                                        parser,
+                                                        m_baseURI,
+                                                        m_transform).getSet();
+                } catch (TrippiException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new TrippiException("Error parsing N-Triples at byte "
+                            + start + ": " + e.getMessage(), e);
+                }
+                if (triples == null) {
+                    triples = parsed;
+                } else {
+                    triples.addAll(parsed);
+                }
+            }
+            if (triples == null) {
+                triples = new HashSet<T>();
+            }
+            return triples;
+        }
+    }
+
+    /**
+     * Creates blank nodes whose ids are qualified by a per-file prefix.
+     */
+    private static class ScopedValueFactory extends ValueFactoryImpl {
+
+        private final String m_prefix;
+
+        ScopedValueFactory(String prefix) {
+            m_prefix = prefix;
+        }
+
+        @Override
+        public BNode createBNode(String nodeID) {
+            return super.createBNode(m_prefix + nodeID);
+        }
+    }
+
+    /**
+     * Reads the remaining bytes of a buffer.
+     */
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer m_buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            m_buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            if (!m_buffer.hasRemaining()) {
+                return -1;
+            }
+            return m_buffer.get() & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!m_buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, m_buffer.remaining());
+            m_buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return m_buffer.remaining();
+        }
+    }
+
+}
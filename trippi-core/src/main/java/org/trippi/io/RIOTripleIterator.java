@@ -5,10 +5,10 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URISyntaxException;
-import java.util.concurrent.Exchanger;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
 
 import org.jrdf.graph.AbstractTriple;
 import org.jrdf.graph.GraphElementFactoryException;
@@ -26,7 +26,13 @@ import org.trippi.impl.RDFFactories;
 
 /**
  * An iterator over triples parsed by a RIO rdf parser.
- *
+ * <p>
+ * Parsing happens on a separate thread, which hands triples to the
+ * consumer in chunks through a bounded queue.  A chunk is handed off when
+ * it is full, or as soon as the consumer is waiting for one, so a fast
+ * consumer is never starved and a slow one only pays for one hand-off
+ * per chunk.
+ * </p>
  * @author cwilper@cs.cornell.edu
  */
 public class RIOTripleIterator extends TripleIterator 
@@ -37,23 +43,47 @@ public class RIOTripleIterator extends TripleIterator
 
     private static final FlagTriple FINISHED = new FlagTriple("FINISHED");
 
-    private static final FlagTriple NEXT = new FlagTriple("NEXT");
+    // Queued by the parser thread after its last chunk
+    private static final Triple[] END = new Triple[0];
 
     public static final long DEFAULT_TIMEOUT_MS = 5;
 
     public static final long NO_TIMEOUT_MS = -1;
 
+    /** The default maximum number of triples handed off at a time. */
+    public static final int DEFAULT_CHUNK_SIZE = 256;
+
+    /** The default number of chunks the parser may get ahead by. */
+    public static final int DEFAULT_QUEUE_DEPTH = 4;
+
+    // How long the parser waits for room in the queue before giving up
+    private static final long PUT_TIMEOUT_MS = 5000;
+
+    // How often a waiting consumer checks whether the parser has died
+    private static final long POLL_INTERVAL_MS = 1000;
+
     private InputStream m_in;
     private RDFParser m_parser;
     private String m_baseURI;
 
     // communicate between parser/consumer threads
-    private Exchanger<Triple> m_bucket =
-            new Exchanger<Triple>();
-    
+    private BlockingQueue<Triple[]> m_queue;
+    private volatile boolean m_consumerWaiting = false;
+    private volatile boolean m_closed = false;
+    private volatile boolean m_parserDone = false;
+
+    // parser thread only: the chunk being filled
+    private Triple[] m_chunk;
+    private int m_chunkLength;
+    private final int m_chunkSize;
+
+    // consumer thread only: the chunk being read
+    private Triple[] m_current = END;
+    private int m_position;
+
     private Triple m_next;
 
-    private Exception m_parseException = null;
+    private volatile Exception m_parseException = null;
 
     protected int m_tripleCount = 0;
     
@@ -78,6 +108,27 @@ public class RIOTripleIterator extends TripleIterator
             String baseURI,
             ExecutorService executor,
             long timeoutMs) throws TrippiException {
+        this(in, parser, baseURI, executor, timeoutMs,
+             DEFAULT_CHUNK_SIZE, DEFAULT_QUEUE_DEPTH);
+    }
+
+    /**
+     * Initialize the iterator by starting the parsing thread.
+     *
+     * @param chunkSize  the maximum number of triples to hand off at once.
+     * @param queueDepth the number of full chunks the parser may get
+     *                   ahead of the consumer before it waits.
+     */
+    public RIOTripleIterator(InputStream in, 
+            RDFParser parser, 
+            String baseURI,
+            ExecutorService executor,
+            long timeoutMs,
+            int chunkSize,
+            int queueDepth) throws TrippiException {
+        if (chunkSize < 1 || queueDepth < 1) {
+            throw new IllegalArgumentException("chunkSize and queueDepth must be positive");
+        }
         m_in = in;
         m_parser = parser;
         m_baseURI = baseURI;
@@ -85,12 +136,14 @@ public class RIOTripleIterator extends TripleIterator
         m_parser.setVerifyData(true);
         m_parser.setStopAtFirstError(false);
         m_timeoutMs = timeoutMs;
+        m_chunkSize = chunkSize;
+        m_chunk = new Triple[chunkSize];
+        m_queue = new ArrayBlockingQueue<Triple[]>(queueDepth + 1);
         if (logger.isDebugEnabled()) {
         	logger.debug("Starting parse thread");
         }
-        m_next = NEXT;
         executor.execute(this);
-        setNext(NEXT, false);
+        setNext(false);
     }
 
     @Override
@@ -103,60 +156,78 @@ public class RIOTripleIterator extends TripleIterator
     }
 
     /**
-     * Get the next triple out of the bucket and return it.
+     * Advance m_next to the next triple, taking a new chunk from the
+     * queue if the current one has been used up.
      *
-     * If the bucket is empty:
+     * If the queue is empty:
      *   1) If the parser is finished, 
      *      throw an exception if m_parseException != null.
-     *      Otherwise, return null.
+     *      Otherwise, set m_next to FINISHED.
      *   2) If the parser is not finished, wait for
      *      a) The parser to finish, or
-     *      b) Another triple to arrive in the bucket.
+     *      b) Another chunk to arrive in the queue, or
+     *      c) The timeout to elapse, if <i>timeout</i> is true.
      */
-    private void setNext(FlagTriple flag, boolean timeout) throws TrippiException { 
-        // wait until the bucket has a value or 2) finished parsing is true
-        if (m_next == null) return;
+    private void setNext(boolean timeout) throws TrippiException { 
         if (m_next == FINISHED) return;
-        Triple triple = null;
-    	try{
-    	    if (timeout) {
-    	        triple = m_bucket.exchange(flag, m_timeoutMs, TimeUnit.MILLISECONDS);
-    	    } else {
-    	        while(triple == null) {
-    	            try{
-                        triple = m_bucket.exchange(flag, DEFAULT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
-    	            } catch (TimeoutException e) {
-    	                logger.warn("Timed out, trying again");
-    	            }
-    	        }
-    	    }
-        } catch (InterruptedException e) {
-            logger.debug("Interrupted, quitting");
-            triple = FINISHED;
-        } catch (TimeoutException e) {
-            triple = FINISHED;
-            logger.warn("Timed out, quitting");
+        if (m_position == m_current.length) {
+            m_current = nextChunk(timeout);
+            m_position = 0;
         }
-    	// we ignore RDFHandlingInterruptedException, as it is thrown in the
-    	// special case that the iterator was closed before parsing was finished
+        // we ignore RDFHandlingInterruptedException, as it is thrown in the
+        // special case that the iterator was closed before parsing was finished
         if (m_parseException != null &&
                 ! (m_parseException instanceof RDFHandlingInterruptedException)) {
             throw new TrippiException("RDF Parse Error.", m_parseException);
         }
-        if (triple == FINISHED) {
+        if (m_current == END) {
      		logger.debug("Finished parsing {} triples.", m_tripleCount);
             m_next = FINISHED; // parser finished normally, no more triples
         } else {
             m_tripleCount++;
             if (m_tripleCount % 1000 == 0) {
             	if (logger.isDebugEnabled()) {
-            		logger.debug("Iterated {}, mem free = ",
+            		logger.debug("Iterated {}, mem free = {}",
             		        m_tripleCount,
             		        Runtime.getRuntime().freeMemory() );
             	}
             }
-            m_next = triple;
+            m_next = m_current[m_position++];
+        }
+    }
+
+    /**
+     * Wait for the parser's next chunk, returning END if there are no more.
+     */
+    private Triple[] nextChunk(boolean timeout) {
+        Triple[] chunk = m_queue.poll();
+        if (chunk != null) return chunk;
+        m_consumerWaiting = true;
+        try {
+            if (timeout) {
+                chunk = m_queue.poll(m_timeoutMs, TimeUnit.MILLISECONDS);
+                if (chunk == null) {
+                    logger.warn("Timed out, quitting");
+                    chunk = END;
+                }
+            } else {
+                while (chunk == null) {
+                    chunk = m_queue.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                    if (chunk == null && m_parserDone) {
+                        // the parser queues END before it's done, so
+                        // this only happens if it was interrupted
+                        chunk = m_queue.poll();
+                        if (chunk == null) chunk = END;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            logger.debug("Interrupted, quitting");
+            chunk = END;
+        } finally {
+            m_consumerWaiting = false;
         }
+        return chunk;
     }
     
     @Override
@@ -168,7 +239,7 @@ public class RIOTripleIterator extends TripleIterator
     public Triple next() throws TrippiException {
         if (m_next == FINISHED) return null;
         Triple last = m_next;
-        setNext(NEXT, m_timeoutMs != NO_TIMEOUT_MS);
+        setNext(m_timeoutMs != NO_TIMEOUT_MS);
         if (m_next == FINISHED) {
             logger.debug("Got the {} flag from RIOTripleIterator.setNext", m_next);
         } else {
@@ -184,21 +255,17 @@ public class RIOTripleIterator extends TripleIterator
             return;
         }
         /** signal the end of reading
-        /* if the parsing thread is waiting, it will
-         * throw a RDFHandlingInterruptedException
-         * to exit parsing early. If the consuming thread
-         * is somehow waiting it will stop and the producing thread
-         * will eventually timeout.
+        /* if the parsing thread is waiting for room in the queue,
+         * it will notice the close and throw a
+         * RDFHandlingInterruptedException to exit parsing early.
         **/
+        m_next = FINISHED;
+        m_closed = true;
+        logger.debug("sending {} on RIOTripleIterator.close()", FINISHED);
+        // make room so a waiting parser wakes up promptly
+        m_queue.clear();
         try {
-            m_next = FINISHED;
-            logger.debug("sending {} on RIOTripleIterator.close()", FINISHED);
             m_in.close();
-            m_bucket.exchange(FINISHED, 1, TimeUnit.MILLISECONDS);
-        } catch (InterruptedException e) {
-            logger.debug("closing {} offered but interrupted", FINISHED);
-        } catch (TimeoutException e) {
-            logger.debug("closing {} offered but not accepted", FINISHED);
         } catch (IOException ioe) {
             throw new TrippiException(ioe.getMessage(), ioe);
         }
@@ -216,6 +283,11 @@ public class RIOTripleIterator extends TripleIterator
         try {
             m_parser.parse(m_in, m_baseURI);
         } catch (RDFHandlingInterruptedException e) {
+            if (!m_closed) {
+                // the consumer stopped taking triples without closing
+                m_parseException = new IOException("Parsing abandoned: "
+                        + e.getMessage());
+            }
         } catch (Exception e) {
             m_parseException = e;
         } finally {
@@ -223,6 +295,22 @@ public class RIOTripleIterator extends TripleIterator
                 m_in.close();
                 m_parser = null;
             } catch (IOException e) { }
+            // make sure the consumer isn't left waiting, but don't wait
+            // forever for one that has stopped taking triples
+            try {
+                long waited = 0;
+                while (!m_closed
+                        && !m_queue.offer(END, POLL_INTERVAL_MS / 10, TimeUnit.MILLISECONDS)) {
+                    waited += POLL_INTERVAL_MS / 10;
+                    if (waited >= PUT_TIMEOUT_MS) {
+                        logger.info("Consumer did not take the end of parsing within "
+                                + PUT_TIMEOUT_MS + "ms");
+                        break;
+                    }
+                }
+            } catch (InterruptedException e) { }
+            // a consumer that comes back later sees this instead
+            m_parserDone = true;
         }
     }
 
@@ -240,37 +328,59 @@ public class RIOTripleIterator extends TripleIterator
         // first, convert the rio statement to a jrdf triple
         Triple triple = null;
             triple = RDFFactories.createTriple( subject, predicate, object);
-        put(triple); // locks until m_bucket is free or close() has been called
+        put(triple); // hands off the chunk if full or the consumer is waiting
     }
 
+    /**
+     * Add a triple to the current chunk, handing the chunk off if it's
+     * full or the consumer is waiting for one.
+     */
     private void put(Triple triple) throws RDFHandlingInterruptedException {
-        try {
-            if (m_next == FINISHED) {
-                String msg = "Refusing to put new values when processing is over";
-                logger.debug(msg);
-                throw new RDFHandlingInterruptedException(msg);
-            }
-            logger.trace("putting {} on Exchanger in RIOTripleIterator.put",
-                    triple);
-            triple = m_bucket.exchange(triple, 5, TimeUnit.SECONDS);
-            logger.trace("got {} from Exchanger in RIOTripleIterator.put",
-                    triple);
-            if (triple == FINISHED) {
-                String msg = "End of processing has been" +
-                        " signalled from the consuming thread.";
-                logger.debug(msg);
-                throw new RDFHandlingInterruptedException(msg);
+        if (m_closed) {
+            String msg = "Refusing to put new values when processing is over";
+            logger.debug(msg);
+            throw new RDFHandlingInterruptedException(msg);
+        }
+        m_chunk[m_chunkLength++] = triple;
+        if (m_chunkLength == m_chunkSize || m_consumerWaiting) {
+            Triple[] chunk;
+            if (m_chunkLength == m_chunkSize) {
+                chunk = m_chunk;
+                m_chunk = new Triple[m_chunkSize];
+            } else {
+                chunk = new Triple[m_chunkLength];
+                System.arraycopy(m_chunk, 0, chunk, 0, m_chunkLength);
             }
-            if (triple != NEXT) {
-                String msg = "Unexpected exchange flag: <" + triple + "> Client timeout?";
-                logger.warn(msg);
-                throw new RDFHandlingInterruptedException(msg);
+            m_chunkLength = 0;
+            offer(chunk);
+        }
+    }
+
+    /**
+     * Queue a chunk, waiting up to PUT_TIMEOUT_MS for room.
+     */
+    private void offer(Triple[] chunk) throws RDFHandlingInterruptedException {
+        try {
+            logger.trace("putting {} triples on queue in RIOTripleIterator.offer",
+                    chunk.length);
+            long waited = 0;
+            while (!m_queue.offer(chunk, POLL_INTERVAL_MS / 10, TimeUnit.MILLISECONDS)) {
+                if (m_closed) {
+                    String msg = "End of processing has been" +
+                            " signalled from the consuming thread.";
+                    logger.debug(msg);
+                    throw new RDFHandlingInterruptedException(msg);
+                }
+                waited += POLL_INTERVAL_MS / 10;
+                if (waited >= PUT_TIMEOUT_MS) {
+                    String msg = "Consumer did not take triples within "
+                            + PUT_TIMEOUT_MS + "ms";
+                    logger.info(msg);
+                    throw new RDFHandlingInterruptedException(msg);
+                }
             }
         } catch (InterruptedException e) {
-            logger.debug("putting {} interrupted", triple);
-            throw new RDFHandlingInterruptedException(e);
-        } catch (TimeoutException e) {
-            logger.info("putting {} timed out", triple);
+            logger.debug("putting {} triples interrupted", chunk.length);
             throw new RDFHandlingInterruptedException(e);
         }
     }
@@ -296,8 +406,13 @@ public class RIOTripleIterator extends TripleIterator
 
     @Override
     public void endRDF() throws RDFHandlerException {
-        // signal end of parsing
-        put(FINISHED);
+        // hand off the last partial chunk; run() signals the end
+        if (m_chunkLength > 0) {
+            Triple[] chunk = new Triple[m_chunkLength];
+            System.arraycopy(m_chunk, 0, chunk, 0, m_chunkLength);
+            m_chunkLength = 0;
+            offer(chunk);
+        }
     }
 
     @Override
@@ -320,7 +435,7 @@ public class RIOTripleIterator extends TripleIterator
             } catch (URISyntaxException e) {
                 throw new RDFHandlerException(e.getMessage(), e);
             }
-        put(triple); // locks until m_bucket is free or close() has been called
+        put(triple); // hands off the chunk if full or the consumer is waiting
     }
 
     @Override
@@ -2,90 +2,91 @@ package org.trippi.io;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
-import java.util.Iterator;
 import java.util.Map;
 
 import org.jrdf.graph.Literal;
 import org.jrdf.graph.Node;
 import org.jrdf.graph.URIReference;
+import org.trippi.Alias;
+import org.trippi.AliasIndex;
 import org.trippi.RDFUtil;
 import org.trippi.TrippiException;
 import org.trippi.TupleIterator;
+import org.trippi.TupleRow;
 
 /**
  * A simple, easy-to-read format for tuples.
  */
 public class SimpleTupleWriter extends TupleWriter {
 
-    private PrintWriter m_out;
-    private Map<String, String> m_aliases;
+    private BufferedResultWriter m_out;
+    private AliasIndex m_aliases;
 
     public SimpleTupleWriter(OutputStream out, Map<String, String> aliases) throws TrippiException {
-        try {
-            m_out = new PrintWriter(new OutputStreamWriter(out, "UTF-8"));
-            m_aliases = aliases;
-        } catch (IOException e) {
-            throw new TrippiException("Error setting up writer", e);
-        }
+        m_out = new BufferedResultWriter(out);
+        m_aliases = AliasIndex.fromStrings(aliases);
     }
 
     @Override
 	public int write(TupleIterator iter) throws TrippiException {
+        try {
             String[] names = iter.names();
             int longest = 0;
             for (int i = 0; i < names.length; i++) {
                 if (names[i].length() > longest) longest = names[i].length();
             }
+            // each label, padded to the longest, is the same on every row
+            byte[][] labels = new byte[names.length][];
+            for (int i = 0; i < names.length; i++) {
+                labels[i] = BufferedResultWriter.encode(names[i]
+                        + new String(SpaceCharacters.indentChars(longest - names[i].length()))
+                        + " : ");
+            }
             int count = 0;
             while (iter.hasNext()) {
                 Map<String, Node> result = iter.next();
                 for (int i = 0; i < names.length; i++) {
-                    m_out.print(names[i]);
-                    SpaceCharacters.indent(longest - names[i].length(), m_out);
-                    m_out.print(" : ");
-                    m_out.println(getString(result.get(names[i])));
+                    m_out.write(labels[i]);
+                    m_out.println(getString(TupleRow.valueAt(result, names, i)));
                 }
-                m_out.println("");
-                m_out.flush();
+                m_out.println();
+                m_out.endRow();
                 count++;
             }
             m_out.flush();
             iter.close();
             return count;
+        } catch (IOException e) {
+            throw new TrippiException("Error writing", e);
+        }
     }
 
     public String getString(Node node) {
         String fullString = RDFUtil.toString(node);
-        if (m_aliases != null) {
+        if (!m_aliases.isEmpty()) {
             if (node instanceof URIReference) {
-                Iterator<String> iter = m_aliases.keySet().iterator();
-                while (iter.hasNext()) {
-                    String alias = iter.next();
-                    String prefix = m_aliases.get(alias);
-                    if (fullString.startsWith("<" + prefix)) {
-                        return "<" + alias + ":" + fullString.substring(prefix.length() + 1);
-                    }
+                Alias match = m_aliases.longestPrefix(fullString, 1);
+                if (match != null) {
+                    String alias = match.getKey();
+                    String prefix = match.getExpansion();
+                    return "<" + alias + ":" + fullString.substring(prefix.length() + 1);
                 }
             } else if (node instanceof Literal) {
                 Literal literal = (Literal) node;
                 if (literal.getDatatypeURI() != null) {
                     String uri = literal.getDatatypeURI().toString();
-                    Iterator<String> iter = m_aliases.keySet().iterator();
-                    while (iter.hasNext()) {
-                        String alias = iter.next();
-                        String prefix = m_aliases.get(alias);
-                        if (uri.startsWith(prefix)) {
-                            StringBuffer out = new StringBuffer();
-                            out.append('"');
-                            out.append(literal.getLexicalForm().replaceAll("\"", "\\\""));
-                            out.append("\"^^");
-                            out.append(alias);
-                            out.append(':');
-                            out.append(uri.substring(prefix.length()));
-                            return out.toString();
-                        }
+                    Alias match = m_aliases.longestPrefix(uri, 0);
+                    if (match != null) {
+                        String alias = match.getKey();
+                        String prefix = match.getExpansion();
+                        StringBuffer out = new StringBuffer();
+                        out.append('"');
+                        out.append(literal.getLexicalForm().replaceAll("\"", "\\\""));
+                        out.append("\"^^");
+                        out.append(alias);
+                        out.append(':');
+                        out.append(uri.substring(prefix.length()));
+                        return out.toString();
                     }
                 }
             }
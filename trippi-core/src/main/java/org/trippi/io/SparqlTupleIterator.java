@@ -1,180 +1,97 @@
 package org.trippi.io;
 
-import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.net.URI;
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import org.jrdf.graph.Node;
-import org.trippi.RDFUtil;
 import org.trippi.TrippiException;
-import org.trippi.TupleIterator;
-import org.xmlpull.v1.XmlPullParser;
-import org.xmlpull.v1.XmlPullParserException;
-import org.xmlpull.v1.XmlPullParserFactory;
 
 /**
  * Deserializes sparql results while iterating.
  *
+ * This reads the format written by <code>SparqlTupleWriter</code>, in
+ * which each binding is an element named for its variable.
+ *
  * http://www.w3.org/2001/sw/DataAccess/rf1/result
  */
-public class SparqlTupleIterator extends TupleIterator {
-
-    private static final String[] STRING_TYPE = new String[0];
-    private InputStream m_inputStream;
-    private XmlPullParser m_xpp;
-    private String[] m_names;
-    private Map<String, Node> m_next;
-    private boolean m_closed;
-    private RDFUtil m_util;
+public class SparqlTupleIterator extends XMLTupleIterator {
 
     public SparqlTupleIterator(InputStream in) throws TrippiException {
-        try {
-            m_inputStream = in;
-            m_xpp = XmlPullParserFactory.newInstance().newPullParser();
-            m_xpp.setInput(new InputStreamReader(m_inputStream));
-            m_xpp.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, false);
-            m_closed = false;
-            m_util = new RDFUtil();
-            m_names = parseNames();
-            m_next = getNext();
-        } catch (IOException e) {
-            throw new TrippiException("IOError with xml stream", e);
-        } catch (XmlPullParserException e) {
-            throw new TrippiException("Error parsing", e);
-        }
-    }
-
-    @Override
-	public boolean hasNext() {
-        return (m_next != null);
+        super(in);
     }
 
     @Override
-	public Map<String, Node> next() throws TrippiException {
-        if (m_next == null) return null;
-        Map<String, Node> last = m_next;
-        m_next = getNext();
-        return last;
-    }
-
-    private Map<String, Node> getNext() throws TrippiException {
-        try {
-            // parse until <result>  (return null if none seen till end of doc)
-            boolean inResult = false;
-            while (!inResult) {
-                int eventType = m_xpp.next();
-                if (eventType == XmlPullParser.START_TAG && m_xpp.getName().equals("result")) {
-                    inResult = true;
-                } else if (eventType == XmlPullParser.END_DOCUMENT) {
-                    return null;
-                }
-            }
-            Map<String, Node> m = new HashMap<String, Node>();
-            while (inResult) {
-                int eventType = m_xpp.next();
-                if (eventType == XmlPullParser.START_TAG) {
-                    m.put(m_xpp.getName(), parseNode());
-                } else if (eventType == XmlPullParser.END_TAG) {
-                    inResult = false;
-                }
-            }
-            return m;
-        } catch (IOException e) {
-            throw new TrippiException("IO Error while getting next result", e);
-        } catch (XmlPullParserException e) {
-            throw new TrippiException("Parser error while getting next result", e);
+    protected void parseNames(XMLStreamReader reader,
+                              List<String> names) throws XMLStreamException {
+        // scan till we reach variables
+        String name = nextElement(reader);
+        while (name != null && !name.equals("head")) {
+            name = nextElement(reader);
         }
-    }
-
-    private Node parseNode() throws TrippiException {
-        try {
-            // check for href, datatype, xml:lang, nodeID attribs, and value
-            String uri = m_xpp.getAttributeValue(null, "uri");
-            if (uri != null) {
-                // resource
-                m_xpp.nextText();
-                return m_util.createResource(new URI(uri));
-            } else {
-                String dType = m_xpp.getAttributeValue(null, "datatype");
-                if (dType != null) {
-                    // typed literal
-                    return m_util.createLiteral(m_xpp.nextText(), new URI(dType));
-                } else {
-                    String lang = m_xpp.getAttributeValue(null, "xml:lang");
-                    if (lang != null) {
-                        // local literal
-                        return m_util.createLiteral(m_xpp.nextText(), lang);
-                    } else {
-                        String nodeID = m_xpp.getAttributeValue(null, "bnodeid");
-                        if (nodeID != null) {
-                            // blank node
-                            m_xpp.nextText();
-                            return m_util.createResource(nodeID.hashCode());
-                        } else {
-                            String bound = m_xpp.getAttributeValue(null, "bound");
-                            if (bound != null && bound.equals("false")) {
-                                // unbound
-                                m_xpp.nextText();
-                                return null;
-                            }
-                            // plain literal
-                            String val = m_xpp.nextText();
-                            if (val == null) val = "";
-                            return m_util.createLiteral(val);
-                        }
-                    }
-                }
+        // each element in the head names a variable
+        while (reader.hasNext()) {
+            int eventType = reader.next();
+            if (eventType == XMLStreamConstants.START_ELEMENT) {
+                names.add(reader.getAttributeValue(null, "name"));
+            } else if (eventType == XMLStreamConstants.END_ELEMENT
+                    && reader.getLocalName().equals("head")) {
+                return;
             }
-        } catch (Exception e) {
-            throw new TrippiException("Error parsing value as JRDF Node.", e);
         }
     }
 
-    private String[] parseNames() throws XmlPullParserException, 
-                                         IOException {
-        boolean inVariables = false;
-        // scan till we reach variables
-        while (!inVariables) {
-            int eventType = m_xpp.next();
-            if (eventType == XmlPullParser.START_TAG && m_xpp.getName().equals("head")) {
-                inVariables = true;
-            }
+    @Override
+    protected boolean parseResult(XMLStreamReader reader,
+                                  Node[] values) throws XMLStreamException,
+                                                        TrippiException {
+        // parse until <result>  (return false if none seen till end of doc)
+        String name = nextElement(reader);
+        while (name != null && !name.equals("result")) {
+            name = nextElement(reader);
         }
-        // put each in List
-        List<String> names = new ArrayList<String>();
-        while (inVariables) {
-            int eventType = m_xpp.next();
-            if (eventType == XmlPullParser.START_TAG) {
-                names.add(m_xpp.getAttributeValue(null, "name"));
-            } else if (eventType == XmlPullParser.END_TAG && m_xpp.getName().equals("head")) {
-                inVariables = false;
+        if (name == null) return false;
+        while (true) {
+            int eventType = reader.next();
+            if (eventType == XMLStreamConstants.START_ELEMENT) {
+                values[column(reader.getLocalName())] = parseNode(reader);
+            } else if (eventType == XMLStreamConstants.END_ELEMENT) {
+                return true;
+            } else if (eventType == XMLStreamConstants.END_DOCUMENT) {
+                throw new TrippiException("Unexpected end of results");
             }
         }
-        return names.toArray(STRING_TYPE);
-    }
-
-    @Override
-	public String[] names() {
-        return m_names;
     }
 
-    @Override
-	public void close() throws TrippiException {
-        if (!m_closed) {
-            try {
-                m_inputStream.close();
-                m_closed = true;
-            } catch (Exception e) {
-                throw new TrippiException("Error closing underlying InputStream.", e);
-            }
+    private static Node parseNode(XMLStreamReader reader)
+            throws XMLStreamException, TrippiException {
+        // check for uri, datatype, xml:lang, bnodeid, and bound attribs
+        String uri = reader.getAttributeValue(null, "uri");
+        if (uri != null) {
+            // resource
+            reader.getElementText();
+            return uriNode(uri);
+        }
+        String nodeID = reader.getAttributeValue(null, "bnodeid");
+        if (nodeID != null) {
+            // blank node
+            reader.getElementText();
+            return blankNode(nodeID);
         }
+        String bound = reader.getAttributeValue(null, "bound");
+        if (bound != null && bound.equals("false")) {
+            // unbound
+            reader.getElementText();
+            return null;
+        }
+        // literal, typed, local, or plain
+        String dType = reader.getAttributeValue(null, "datatype");
+        String lang = reader.getAttributeValue(XMLConstants.XML_NS_URI, "lang");
+        return literalNode(reader.getElementText(), dType, lang);
     }
 
 }
-
-
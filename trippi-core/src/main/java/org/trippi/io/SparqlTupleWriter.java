@@ -2,9 +2,8 @@ package org.trippi.io;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
 import java.net.URI;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 
@@ -12,23 +11,42 @@ import org.jrdf.graph.BlankNode;
 import org.jrdf.graph.Literal;
 import org.jrdf.graph.Node;
 import org.jrdf.graph.URIReference;
+import org.trippi.Alias;
+import org.trippi.AliasIndex;
 import org.trippi.TrippiException;
 import org.trippi.TupleIterator;
+import org.trippi.TupleRow;
 
 /**
  * http://www.w3.org/TR/2004/WD-rdf-sparql-XMLres-20041221/
  */
 public class SparqlTupleWriter extends TupleWriter {
 
-    private PrintWriter m_out;
+    private static final byte[] BOUND_FALSE = BufferedResultWriter.encode(" bound=\"false\"/>");
+    private static final byte[] URI_ATTR = BufferedResultWriter.encode(" uri=\"");
+    private static final byte[] BNODE_ATTR = BufferedResultWriter.encode(" bnodeid=\"blank");
+    private static final byte[] DATATYPE_ATTR = BufferedResultWriter.encode(" datatype=\"");
+    private static final byte[] LANG_ATTR = BufferedResultWriter.encode(" xml:lang=\"");
+    private static final byte[] END_EMPTY = BufferedResultWriter.encode("\"/>");
+    private static final byte[] END_ATTR = BufferedResultWriter.encode("\"");
+    private static final byte[] START_RESULT = BufferedResultWriter.encode("    <result>");
+    private static final byte[] END_RESULT = BufferedResultWriter.encode("    </result>");
+
+    private BufferedResultWriter m_out;
     private Map<String, String> m_aliases;
+    private AliasIndex m_index;
+
+    // "&alias;" for each alias
+    private Map<String, byte[]> m_entityRefs = new HashMap<String, byte[]>();
 
     public SparqlTupleWriter(OutputStream out, Map<String, String> aliases) throws TrippiException {
-        try {
-            m_out = new PrintWriter(new OutputStreamWriter(out, "UTF-8"));
-            m_aliases = aliases;
-        } catch (IOException e) {
-            throw new TrippiException("Error setting up writer", e);
+        m_out = new BufferedResultWriter(out);
+        m_aliases = aliases;
+        m_index = AliasIndex.fromStrings(aliases);
+        if (aliases != null) {
+            for (String alias : aliases.keySet()) {
+                m_entityRefs.put(alias, BufferedResultWriter.encode("&" + alias + ";"));
+            }
         }
     }
 
@@ -45,38 +63,56 @@ public class SparqlTupleWriter extends TupleWriter {
             }
             m_out.println("  </head>");
             m_out.println("  <results>");
+            // the tags for each variable never change, so encode them once
+            byte[][] openTags = new byte[names.length][];
+            byte[][] closeTags = new byte[names.length][];
+            for (int i = 0; i < names.length; i++) {
+                openTags[i] = BufferedResultWriter.encode("      <" + names[i]);
+                closeTags[i] = BufferedResultWriter.encode("</" + names[i] + ">");
+            }
             int count = 0;
             while (iter.hasNext()) {
-                m_out.println("    <result>");
+                m_out.write(START_RESULT);
+                m_out.println();
                 Map<String, Node> result = iter.next();
                 for (int i = 0; i < names.length; i++) {
-                    m_out.print("      <" + names[i]);
-                    Node n = result.get(names[i]);
+                    m_out.write(openTags[i]);
+                    Node n = TupleRow.valueAt(result, names, i);
                     if ( n == null ) {
-                        m_out.println(" bound=\"false\"/>");
+                        m_out.write(BOUND_FALSE);
                     } else if ( n instanceof URIReference ) {
-                        String uriString = ((URIReference) n).getURI().toString();
-                        m_out.println(" uri=\"" + getURI(uriString) + "\"/>");
+                        m_out.write(URI_ATTR);
+                        writeURI(((URIReference) n).getURI().toString());
+                        m_out.write(END_EMPTY);
                     } else if ( n instanceof BlankNode ) {
-                        String id = "blank" + n.hashCode();
-                        m_out.println(" bnodeid=\"" + id + "\"/>");
+                        m_out.write(BNODE_ATTR);
+                        m_out.print(Integer.toString(n.hashCode()));
+                        m_out.write(END_EMPTY);
                     } else if ( n instanceof Literal ) {
                         Literal lit = (Literal) n;
                         URI dType = lit.getDatatypeURI();
                         if (dType != null) {
-                            m_out.print(" datatype=\"" + getURI(dType.toString()) + "\"");
+                            m_out.write(DATATYPE_ATTR);
+                            writeURI(dType.toString());
+                            m_out.write(END_ATTR);
                         }
                         String lang = lit.getLanguage();
                         if (lang != null) {
-                            m_out.print(" xml:lang=\"" + lang + "\"");
+                            m_out.write(LANG_ATTR);
+                            m_out.print(lang);
+                            m_out.write(END_ATTR);
                         }
-                        m_out.println(">" + enc(lit.getLexicalForm()) + "</" + names[i] + ">");
+                        m_out.print('>');
+                        m_out.printEscaped(lit.getLexicalForm());
+                        m_out.write(closeTags[i]);
                     } else {
                         throw new TrippiException("Unrecognized node type: " + n.getClass().getName());
                     }
+                    m_out.println();
                 }
-                m_out.println("    </result>");
-                m_out.flush();
+                m_out.write(END_RESULT);
+                m_out.println();
+                m_out.endRow();
                 count++;
             }
             m_out.println("  </results>");
@@ -101,17 +137,14 @@ public class SparqlTupleWriter extends TupleWriter {
         m_out.println("]>");
     }
 
-    private String getURI(String s) {
-        if (m_aliases == null || m_aliases.keySet().size() == 0) return enc(s);
-        Iterator<String> iter = m_aliases.keySet().iterator();
-        while (iter.hasNext()) {
-            String alias = iter.next();
-            String prefix = m_aliases.get(alias);
-            if (s.startsWith(prefix)) {
-                return "&" + alias + ";" + enc(s.substring(prefix.length()));
-            }
+    private void writeURI(String s) throws IOException {
+        Alias alias = m_index.longestPrefix(s, 0);
+        if (alias != null) {
+            m_out.write(m_entityRefs.get(alias.getKey()));
+            m_out.printEscaped(s.substring(alias.getExpansion().length()));
+        } else {
+            m_out.printEscaped(s);
         }
-        return enc(s);
     }
 
 }
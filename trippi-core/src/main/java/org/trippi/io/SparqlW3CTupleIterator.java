@@ -0,0 +1,93 @@
+package org.trippi.io;
+
+import java.io.InputStream;
+import java.util.List;
+
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.jrdf.graph.Node;
+import org.trippi.TrippiException;
+
+/**
+ * Deserializes W3C SPARQL query results while iterating.
+ *
+ * This reads the format written by <code>SparqlW3CTupleWriter</code>.
+ * Variables without a binding in a result are unbound (null), and a
+ * boolean result is read as having no rows.
+ *
+ * http://www.w3.org/TR/rdf-sparql-XMLres/
+ */
+public class SparqlW3CTupleIterator extends XMLTupleIterator {
+
+    public SparqlW3CTupleIterator(InputStream in) throws TrippiException {
+        super(in);
+    }
+
+    @Override
+    protected void parseNames(XMLStreamReader reader,
+                              List<String> names) throws XMLStreamException,
+                                                         TrippiException {
+        String name = nextElement(reader);
+        while (name != null && !name.equals("head")) {
+            name = nextElement(reader);
+        }
+        if (name == null) {
+            throw new TrippiException("No head element in results");
+        }
+        while (reader.hasNext()) {
+            int eventType = reader.next();
+            if (eventType == XMLStreamConstants.START_ELEMENT) {
+                if (reader.getLocalName().equals("variable")) {
+                    names.add(reader.getAttributeValue(null, "name"));
+                }
+            } else if (eventType == XMLStreamConstants.END_ELEMENT
+                    && reader.getLocalName().equals("head")) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    protected boolean parseResult(XMLStreamReader reader,
+                                  Node[] values) throws XMLStreamException,
+                                                        TrippiException {
+        String name = nextElement(reader);
+        while (name != null && !name.equals("result")) {
+            name = nextElement(reader);
+        }
+        if (name == null) return false;
+        while (true) {
+            int eventType = reader.next();
+            if (eventType == XMLStreamConstants.START_ELEMENT) {
+                int column = column(reader.getAttributeValue(null, "name"));
+                reader.nextTag();
+                values[column] = parseNode(reader);
+                reader.nextTag(); // </binding>
+            } else if (eventType == XMLStreamConstants.END_ELEMENT) {
+                return true;
+            } else if (eventType == XMLStreamConstants.END_DOCUMENT) {
+                throw new TrippiException("Unexpected end of results");
+            }
+        }
+    }
+
+    private static Node parseNode(XMLStreamReader reader)
+            throws XMLStreamException, TrippiException {
+        String type = reader.getLocalName();
+        if (type.equals("uri")) {
+            return uriNode(reader.getElementText());
+        } else if (type.equals("literal")) {
+            String dType = reader.getAttributeValue(null, "datatype");
+            String lang = reader.getAttributeValue(XMLConstants.XML_NS_URI, "lang");
+            return literalNode(reader.getElementText(), dType, lang);
+        } else if (type.equals("bnode")) {
+            return blankNode(reader.getElementText());
+        } else {
+            throw new TrippiException("Unrecognized binding value: " + type);
+        }
+    }
+
+}
@@ -2,77 +2,95 @@ package org.trippi.io;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
-import java.util.Iterator;
 import java.util.Map;
 
 import org.jrdf.graph.BlankNode;
 import org.jrdf.graph.Literal;
 import org.jrdf.graph.Node;
 import org.jrdf.graph.URIReference;
+import org.trippi.Alias;
+import org.trippi.AliasIndex;
 import org.trippi.TrippiException;
 import org.trippi.TupleIterator;
+import org.trippi.TupleRow;
 
 public class SparqlW3CTupleWriter extends TupleWriter {
 
-	private PrintWriter writer;
-	private Map<String, String> aliases;
+	private BufferedResultWriter writer;
+	private AliasIndex aliases;
 
 	public SparqlW3CTupleWriter(OutputStream out, Map<String, String> aliases) throws TrippiException {
-		try {
-			this.writer = new PrintWriter(new OutputStreamWriter(out, "UTF-8"));
-			this.aliases = aliases;
-		} catch (IOException e) {
-			throw new TrippiException("Error setting up writer", e);
-		}
+		this.writer = new BufferedResultWriter(out);
+		this.aliases = AliasIndex.fromStrings(aliases);
 	}
 
 	@Override
 	public int write(final TupleIterator iter) throws TrippiException {
-		writer.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
-		writer.println("<sparql xmlns=\"http://www.w3.org/2007/SPARQL/results#\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" xsi:schemaLocation=\"http://www.w3.org/2007/SPARQL/results# http://www.w3.org/2007/SPARQL/result.xsd\">");
-		SparqlW3CTupleWriter.writeHeader(iter, writer);
-		SparqlW3CTupleWriter.writeResults(iter, writer, aliases);
-		writer.println("</sparql>");
-		writer.flush();
+		try {
+			writer.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+			writer.println("<sparql xmlns=\"http://www.w3.org/2007/SPARQL/results#\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" xsi:schemaLocation=\"http://www.w3.org/2007/SPARQL/results# http://www.w3.org/2007/SPARQL/result.xsd\">");
+			SparqlW3CTupleWriter.writeHeader(iter, writer);
+			SparqlW3CTupleWriter.writeResults(iter, writer, aliases);
+			writer.println("</sparql>");
+			writer.flush();
+		} catch (IOException e) {
+			throw new TrippiException("Error writing", e);
+		}
 		return iter.names().length;
 	}
 
-	private static void writeResults(final TupleIterator iter, final PrintWriter writer,
-			final Map<String, String> aliases) throws TrippiException {
+	private static void writeResults(final TupleIterator iter, final BufferedResultWriter writer,
+			final AliasIndex aliases) throws TrippiException, IOException {
 		writer.println("\t<results>");
+		// the binding tags for each variable never change, so encode them once
+		String[] names = iter.names();
+		byte[][] bindingTags = new byte[names.length][];
+		for (int i = 0; i < names.length; i++) {
+			bindingTags[i] = BufferedResultWriter.encode("\t\t\t<binding name=\"" + names[i] + "\">");
+		}
 		while (iter.hasNext()) {
-			writeNextTuple(iter, writer, aliases);
+			writeNextTuple(iter, names, bindingTags, writer, aliases);
+			writer.endRow();
 		}
 		writer.println("\t</results>");
 	}
 
-	private static void writeNextTuple(final TupleIterator iter, final PrintWriter writer,
-			final Map<String, String> aliases) throws TrippiException {
+	private static void writeNextTuple(final TupleIterator iter, final String[] names,
+			final byte[][] bindingTags, final BufferedResultWriter writer,
+			final AliasIndex aliases) throws TrippiException, IOException {
 		int bNodeCount = 0;
 		writer.println("\t\t<result>");
 		Map<String, Node> tuple = iter.next();
-		for (final String variableName : iter.names()) {
-			final Node node = tuple.get(variableName);
+		for (int i = 0; i < names.length; i++) {
+			final Node node = TupleRow.valueAt(tuple, names, i);
 			if (node == null) {
 				continue;
 			}
-			writer.print("\t\t\t<binding name=\"" + variableName + "\">");
+			writer.write(bindingTags[i]);
 			if (node instanceof URIReference) {
-				writer.print("<uri>" + ((URIReference) node).getURI().toASCIIString() + "</uri>");
+				writer.print("<uri>");
+				writer.print(((URIReference) node).getURI().toASCIIString());
+				writer.print("</uri>");
 			} else if (node instanceof BlankNode) {
-				writer.print("<bnode>r" + (++bNodeCount) + "</bnode>");
+				writer.print("<bnode>r");
+				writer.print(Integer.toString(++bNodeCount));
+				writer.print("</bnode>");
 			} else if (node instanceof Literal) {
 				final Literal l = (Literal) node;
 				writer.print("<literal");
 				if (l.getDatatypeURI() != null) {
-					writer.print(" datatype=\"" + getURI(l.getDatatypeURI().toString(), aliases) + "\"");
+					writer.print(" datatype=\"");
+					writeURI(l.getDatatypeURI().toString(), writer, aliases);
+					writer.print('"');
 				}
 				if (l.getLanguage() != null) {
-					writer.print(" xml:lang=\"" + l.getLanguage() + "\"");
+					writer.print(" xml:lang=\"");
+					writer.print(l.getLanguage());
+					writer.print('"');
 				}
-				writer.print(">" + enc(l.getLexicalForm()) + "</literal>");
+				writer.print('>');
+				writer.printEscaped(l.getLexicalForm());
+				writer.print("</literal>");
 			} else {
 				throw new TrippiException("Unrecognized node type: " + node.getClass().getName());
 			}
@@ -81,7 +99,8 @@ public class SparqlW3CTupleWriter extends TupleWriter {
 		writer.println("\t\t</result>");
 	}
 
-	private static void writeHeader(final TupleIterator iter, final PrintWriter writer) throws TrippiException {
+	private static void writeHeader(final TupleIterator iter, final BufferedResultWriter writer)
+			throws TrippiException, IOException {
 		writer.println("\t<head>");
 		for (String variableName : iter.names()) {
 			writer.println("\t\t<variable name=\"" + variableName + "\"/>");
@@ -89,18 +108,17 @@ public class SparqlW3CTupleWriter extends TupleWriter {
 		writer.println("\t</head>");
 	}
 
-	private static String getURI(String s, Map<String, String> aliases) {
-		if (aliases == null || aliases.keySet().size() == 0)
-			return enc(s);
-		Iterator<String> iter = aliases.keySet().iterator();
-		while (iter.hasNext()) {
-			String alias = iter.next();
-			String prefix = aliases.get(alias);
-			if (s.startsWith(prefix)) {
-				return "&" + alias + ";" + enc(s.substring(prefix.length()));
-			}
+	private static void writeURI(String s, BufferedResultWriter writer, AliasIndex aliases)
+			throws IOException {
+		Alias alias = aliases.longestPrefix(s, 0);
+		if (alias != null) {
+			writer.print('&');
+			writer.print(alias.getKey());
+			writer.print(';');
+			writer.printEscaped(s.substring(alias.getExpansion().length()));
+		} else {
+			writer.printEscaped(s);
 		}
-		return enc(s);
 	}
 
 }
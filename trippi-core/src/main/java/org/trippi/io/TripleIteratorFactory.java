@@ -1,11 +1,15 @@
 package org.trippi.io;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 import org.jrdf.graph.Triple;
+import org.trippi.AliasManager;
 import org.trippi.RDFFormat;
 import org.trippi.TripleIterator;
 import org.trippi.TrippiException;
@@ -16,6 +20,8 @@ import org.trippi.io.transform.impl.Identity;
 
 public class TripleIteratorFactory {
     private final ExecutorService m_executor;
+    private volatile int m_chunkSize = RIOTripleIterator.DEFAULT_CHUNK_SIZE;
+    private volatile int m_queueDepth = RIOTripleIterator.DEFAULT_QUEUE_DEPTH;
     
     public TripleIteratorFactory(){
         this(Executors.newCachedThreadPool());
@@ -26,6 +32,22 @@ public class TripleIteratorFactory {
     public void shutdown(){
         m_executor.shutdown();
     }
+
+    /**
+     * Set how parsed triples are handed from the parsing thread to
+     * iterators created by <code>fromStream</code>.
+     *
+     * @param chunkSize the most triples passed across in one hand-off
+     * @param queueDepth the number of chunks the parser may get ahead
+     *        of the consumer
+     */
+    public void setParseChunking(int chunkSize, int queueDepth) {
+        if (chunkSize < 1 || queueDepth < 1) {
+            throw new IllegalArgumentException("chunkSize and queueDepth must be positive");
+        }
+        m_chunkSize = chunkSize;
+        m_queueDepth = queueDepth;
+    }
     
     /**
      * This method is a convenience to make sure all the thread
@@ -55,16 +77,21 @@ public class TripleIteratorFactory {
      * The baseURI is used to resolve any relative URI references.
      * If given as null, http://localhost/ will be used.
      * The timeout value adjusts how long to wait for the parsing
-     * thread to return the next parsed triple.
+     * thread to return the next parsed triple; it does not apply to
+     * binary triples, which are decoded without a parsing thread.
      */
     public TripleIterator fromStream(InputStream in,
             String baseURI,
             RDFFormat format,
             long timeoutMs) throws TrippiException {
+        if (format == RDFFormat.BINARY_TRIPLES) {
+            return new BinaryTripleIterator(in);
+        }
         if (baseURI == null) baseURI = "http://localhost/";
         org.openrdf.rio.RDFParser parser =
                 getParser(format);
-        return new RIOTripleIterator(in, parser, baseURI, m_executor, timeoutMs);
+        return new RIOTripleIterator(in, parser, baseURI, m_executor, timeoutMs,
+                m_chunkSize, m_queueDepth);
     }
     
     private static <T> SimpleParsingContext<T> getSimpleTriples(
@@ -165,6 +192,62 @@ public class TripleIteratorFactory {
                 getSimpleTriples(in, baseURI, format, transform);
         return src.getIterator();
     }
+    /**
+     * Get an iterator over the triples in the given file.
+     *
+     * N-Triples files are parsed in parallel on this factory's
+     * <code>ExecutorService</code>, and the iterator does not return the
+     * triples in file order.  Other formats are streamed as by
+     * <code>fromStream</code>.
+     */
+    public TripleIterator fromFile(File file,
+                                   String baseURI,
+                                   RDFFormat format) throws TrippiException {
+        if (format == RDFFormat.N_TRIPLES) {
+            Set<Triple> triples = allAsSet(file, baseURI, format);
+            return new SimpleTripleIterator(triples, (AliasManager) null);
+        }
+        return fromStream(openFile(file), baseURI, format);
+    }
+
+    /**
+     * Return a set of resolved, unprefixed triples from the given file.
+     *
+     * N-Triples files are parsed in parallel on this factory's
+     * <code>ExecutorService</code>.
+     */
+    public Set<Triple> allAsSet(File file,
+                                String baseURI,
+                                RDFFormat format) throws TrippiException {
+        return allAsSet(file, baseURI, format, Identity.instance);
+    }
+
+    /**
+     * Return a set of transformation results from the resolved,
+     * unprefixed triples in the given file.
+     *
+     * N-Triples files are parsed in parallel on this factory's
+     * <code>ExecutorService</code>.
+     */
+    public <T> Set<T> allAsSet(File file,
+                               String baseURI,
+                               RDFFormat format,
+                               Transformer<T> transform) throws TrippiException {
+        if (baseURI == null) baseURI = "http://localhost/";
+        if (format == RDFFormat.N_TRIPLES) {
+            return new ParallelNTriplesParser(m_executor).parse(file, baseURI, transform);
+        }
+        return allAsSet(openFile(file), baseURI, format, transform);
+    }
+
+    private static InputStream openFile(File file) throws TrippiException {
+        try {
+            return new FileInputStream(file);
+        } catch (IOException e) {
+            throw new TrippiException("Error opening " + file.getPath(), e);
+        }
+    }
+
     /**
      * Get an iterator over the triples in the given stream.
      */
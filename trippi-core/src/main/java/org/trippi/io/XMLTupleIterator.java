@@ -0,0 +1,242 @@
+package org.trippi.io;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.jrdf.graph.Node;
+import org.trippi.TrippiException;
+import org.trippi.TupleIterator;
+import org.trippi.TupleRow;
+import org.trippi.impl.RDFFactories;
+
+/**
+ * Base class for iterators that read XML query results with a StAX
+ * parser.
+ *
+ * The input is always read as UTF-8, which is what Trippi's writers
+ * produce.  Variable names are interned, so the element and attribute
+ * names the parser hands back (from its own symbol table) usually match
+ * them by reference.  Rows are decoded <code>CHUNK_SIZE</code> at a time,
+ * once the previous chunk has been used up, into <code>TupleRow</code>s
+ * sharing one names array, and URIs and literals come from
+ * <code>RDFFactories</code>, so a recently seen term isn't parsed again.
+ * If a row can't be parsed, the rows before it are still returned, and
+ * the error is thrown once they have been.
+ *
+ * Subclasses must not rely on their own fields in <code>parseNames</code>,
+ * since it is called from this class's constructor.
+ */
+abstract class XMLTupleIterator extends TupleIterator {
+
+    /** The number of rows decoded at a time. */
+    static final int CHUNK_SIZE = 128;
+
+    private static final String[] STRING_TYPE = new String[0];
+
+    private static final XMLInputFactory FACTORY = createFactory();
+
+    private InputStream m_in;
+    private XMLStreamReader m_reader;
+    private String[] m_names;
+
+    private TupleRow[] m_rows;
+    private int m_count;
+    private int m_position;
+    private int m_nextColumn;
+    private boolean m_exhausted;
+    private TrippiException m_error;
+    private boolean m_closed;
+
+    protected XMLTupleIterator(InputStream in) throws TrippiException {
+        m_in = in;
+        m_rows = new TupleRow[CHUNK_SIZE];
+        try {
+            synchronized (FACTORY) {
+                m_reader = FACTORY.createXMLStreamReader(in, "UTF-8");
+            }
+            List<String> names = new ArrayList<String>();
+            parseNames(m_reader, names);
+            m_names = names.toArray(STRING_TYPE);
+            for (int i = 0; i < m_names.length; i++) {
+                m_names[i] = m_names[i].intern();
+            }
+        } catch (XMLStreamException e) {
+            close();
+            throw new TrippiException("Error parsing", e);
+        } catch (TrippiException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private static XMLInputFactory createFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        // aliases are declared as internal entities; nothing is fetched
+        factory.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES,
+                            Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES,
+                            Boolean.FALSE);
+        return factory;
+    }
+
+    /**
+     * Read the names of the binding variables, leaving the reader after
+     * the end of the head element.
+     */
+    protected abstract void parseNames(XMLStreamReader reader,
+                                       List<String> names)
+            throws XMLStreamException, TrippiException;
+
+    /**
+     * Read the next result into <code>values</code> (all null to start
+     * with), using <code>column</code> to find where each binding goes.
+     *
+     * @return false if there are no more results.
+     */
+    protected abstract boolean parseResult(XMLStreamReader reader,
+                                           Node[] values)
+            throws XMLStreamException, TrippiException;
+
+    // decode up to CHUNK_SIZE more rows, holding back any error until
+    // the rows before it have been returned
+    private void fill() throws TrippiException {
+        m_count = 0;
+        m_position = 0;
+        try {
+            while (m_count < CHUNK_SIZE && !m_exhausted) {
+                Node[] values = new Node[m_names.length];
+                m_nextColumn = 0;
+                if (parseResult(m_reader, values)) {
+                    m_rows[m_count++] = new TupleRow(m_names, values);
+                } else {
+                    m_exhausted = true;
+                }
+            }
+        } catch (XMLStreamException e) {
+            m_error = new TrippiException("Parser error while getting next result", e);
+        } catch (TrippiException e) {
+            m_error = e;
+        }
+        if (m_error != null) {
+            m_exhausted = true;
+            if (m_count == 0) throwError();
+        }
+    }
+
+    private void throwError() throws TrippiException {
+        TrippiException e = m_error;
+        m_error = null;
+        throw e;
+    }
+
+    /**
+     * Get the column for the given binding name.
+     *
+     * Bindings usually come in the same order as the variables, so the
+     * search starts just after the last one found in the current result.
+     */
+    protected int column(String name) throws TrippiException {
+        int n = m_names.length;
+        for (int k = 0; k < n; k++) {
+            int i = m_nextColumn + k;
+            if (i >= n) i -= n;
+            if (m_names[i] == name || m_names[i].equals(name)) {
+                m_nextColumn = i + 1 == n ? 0 : i + 1;
+                return i;
+            }
+        }
+        throw new TrippiException("Result has a binding for '" + name
+                + "', which is not a variable");
+    }
+
+    /**
+     * Advance to the next start element, or the end of the document.
+     *
+     * @return the local name of the element, or null at the end.
+     */
+    protected static String nextElement(XMLStreamReader reader)
+            throws XMLStreamException {
+        while (reader.hasNext()) {
+            if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+                return reader.getLocalName();
+            }
+        }
+        return null;
+    }
+
+    protected static Node uriNode(String uri) throws TrippiException {
+        try {
+            return RDFFactories.createResource(uri);
+        } catch (Exception e) {
+            throw new TrippiException("Error parsing value as JRDF Node.", e);
+        }
+    }
+
+    protected static Node literalNode(String value,
+                                      String datatype,
+                                      String lang) throws TrippiException {
+        try {
+            if (datatype != null) {
+                return RDFFactories.createTypedLiteral(value, datatype);
+            } else if (lang != null) {
+                return RDFFactories.createLiteral(value, lang);
+            } else {
+                return RDFFactories.createLiteral(value);
+            }
+        } catch (Exception e) {
+            throw new TrippiException("Error parsing value as JRDF Node.", e);
+        }
+    }
+
+    protected static Node blankNode(String nodeID) {
+        return RDFFactories.createResource(nodeID.hashCode());
+    }
+
+    @Override
+    public boolean hasNext() throws TrippiException {
+        if (m_position == m_count) {
+            if (m_error != null) {
+                throwError();
+            } else if (!m_exhausted && !m_closed) {
+                fill();
+            }
+        }
+        return m_position < m_count;
+    }
+
+    @Override
+    public Map<String, Node> next() throws TrippiException {
+        if (!hasNext()) return null;
+        TupleRow row = m_rows[m_position];
+        m_rows[m_position++] = null;
+        return row;
+    }
+
+    @Override
+    public String[] names() {
+        return m_names;
+    }
+
+    @Override
+    public void close() throws TrippiException {
+        if (!m_closed) {
+            m_closed = true;
+            try {
+                if (m_reader != null) m_reader.close();
+                m_in.close();
+            } catch (Exception e) {
+                throw new TrippiException("Error closing underlying InputStream.", e);
+            }
+        }
+    }
+
+}
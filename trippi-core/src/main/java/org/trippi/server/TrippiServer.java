@@ -5,6 +5,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.trippi.RDFFormat;
 import org.trippi.TripleIterator;
@@ -13,6 +15,13 @@ import org.trippi.TriplestoreReader;
 import org.trippi.TriplestoreWriter;
 import org.trippi.TrippiException;
 import org.trippi.TupleIterator;
+import org.trippi.io.CountTripleWriter;
+import org.trippi.io.CountTupleWriter;
+import org.trippi.io.FormatCountTripleWriter;
+import org.trippi.io.FormatCountTupleWriter;
+import org.trippi.io.JSONTripleWriter;
+import org.trippi.io.JSONTupleWriter;
+import org.trippi.io.SparqlTupleWriter;
 
 /**
  * Implements a Trippi Server without regard to how it's exposed.
@@ -70,6 +79,9 @@ public class TrippiServer {
     /**
      * Do a query against the triplestore, putting results into the
      * OutputStream.
+     *
+     * Counts are asked of the reader's count methods, which the
+     * triplestore may be able to answer without returning every result.
      */
     public String find(String type,       // default = tuples
                      String template, 
@@ -113,7 +125,30 @@ public class TrippiServer {
             query = loadContentAsString(query);
         }
         //
-        if (type.equals("tuples")) {
+        if (type.equals("tuples") && isCountFormat(fmt, true)) {
+            int count = m_reader.countTuples(lang,
+                                             query,
+                                             Integer.parseInt(limit),
+                                             doDistinct);
+            writeCount(count, fmt, true, out);
+            return getMediaType(fmt.getMediaType(), useDumbTypes);
+        } else if (type.equals("triples") && isCountFormat(fmt, false)) {
+            int count;
+            if (template == null) {
+                count = m_reader.countTriples(lang,
+                                              query,
+                                              Integer.parseInt(limit),
+                                              doDistinct);
+            } else {
+                count = m_reader.countTriples(lang,
+                                              query,
+                                              template,
+                                              Integer.parseInt(limit),
+                                              doDistinct);
+            }
+            writeCount(count, fmt, false, out);
+            return getMediaType(fmt.getMediaType(), useDumbTypes);
+        } else if (type.equals("tuples")) {
             // tuple query, returning tuples
             TupleIterator iter = m_reader.findTuples(lang,
                                                      query,
@@ -150,6 +185,38 @@ public class TrippiServer {
         }
     }
 
+    private static boolean isCountFormat(RDFFormat fmt, boolean tuples) {
+        return fmt == RDFFormat.COUNT
+                || fmt == RDFFormat.COUNT_JSON
+                || (tuples && fmt == RDFFormat.COUNT_SPARQL);
+    }
+
+    /**
+     * Write a count in the given count format, as the iterators' toStream
+     * methods would.
+     */
+    private static void writeCount(int count,
+                                   RDFFormat fmt,
+                                   boolean tuples,
+                                   OutputStream out) throws TrippiException {
+        Map<String, String> aliases = new HashMap<String, String>();
+        if (tuples) {
+            if (fmt == RDFFormat.COUNT) {
+                new CountTupleWriter(out).writeCount(count);
+            } else if (fmt == RDFFormat.COUNT_JSON) {
+                new FormatCountTupleWriter(new JSONTupleWriter(out, aliases)).writeCount(count);
+            } else {
+                new FormatCountTupleWriter(new SparqlTupleWriter(out, aliases)).writeCount(count);
+            }
+        } else {
+            if (fmt == RDFFormat.COUNT) {
+                new CountTripleWriter(out).writeCount(count);
+            } else {
+                new FormatCountTripleWriter(new JSONTripleWriter(out, aliases)).writeCount(count);
+            }
+        }
+    }
+
     private String loadContentAsString(String url) throws IOException {
         InputStream in = new URL(url).openStream();
         ByteArrayOutputStream out = new ByteArrayOutputStream();
@@ -176,6 +243,10 @@ public class TrippiServer {
     private static String getMediaType(String in, boolean dumb) {
         if (!dumb) return in;
         if (in.endsWith("xml")) return "text/xml";
+        if (in.equals(RDFFormat.BINARY_TUPLES.getMediaType())
+                || in.equals(RDFFormat.BINARY_TRIPLES.getMediaType())) {
+            return "application/octet-stream";
+        }
         return "text/plain";
     }
 
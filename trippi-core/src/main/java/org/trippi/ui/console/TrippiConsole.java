@@ -433,14 +433,29 @@ public class TrippiConsole {
             throw new TrippiException("No profile in use.");
     }
 
+    /**
+     * Get the format to dump to or load from the given file: the readable
+     * format with a matching extension (binary triples only for
+     * <code>.trb</code>), otherwise the current triple result format.
+     */
+    private RDFFormat getFileFormat(String filename) {
+        String name = filename.toLowerCase();
+        RDFFormat[] formats = TripleIterator.INPUT_FORMATS;
+        for (int i = 0; i < formats.length; i++) {
+            if (name.endsWith(formats[i].getExtension())) return formats[i];
+        }
+        return m_tripleForm;
+    }
+
     @SuppressWarnings("deprecation")
     public void doDump(String filename) throws Exception {
-        System.out.print("Dumping triples (in " + m_tripleForm.getName() + " format) to " + filename + "...");
+        RDFFormat format = getFileFormat(filename);
+        System.out.print("Dumping triples (in " + format.getName() + " format) to " + filename + "...");
         TripleIterator iter = m_connector.getReader().findTriples(null, null, null, 0);
         iter.setAliasMap(m_connector.getReader().getAliasMap());
         FileOutputStream out = new FileOutputStream(new File(filename));
         try {
-            iter.toStream(out, m_tripleForm);
+            iter.toStream(out, format);
         } finally {
             out.close();
         }
@@ -448,11 +463,12 @@ public class TrippiConsole {
     }
 
     public void doLoad(String filename) throws Exception {
-        System.out.print("Loading triples (in " + m_tripleForm.getName() + " format) from " + filename + "...");
+        RDFFormat format = getFileFormat(filename);
+        System.out.print("Loading triples (in " + format.getName() + " format) from " + filename + "...");
         m_connector.getWriter()
                    .add(TripleIteratorFactory.defaultInstance().fromStream(
                                         new FileInputStream(new File(filename)), 
-                                        m_tripleForm), false);
+                                        format), false);
         System.out.println("OK");
     }
 
@@ -767,13 +783,13 @@ public class TrippiConsole {
         System.out.println("create  . . . . . . . . . . Create a new profile.");
         System.out.println("delete [triples] . .  . . . Delete one or more triples.");
         System.out.println("distinct . . . . . .  . . . Toggle forced distinct mode.");
-        System.out.println("dump [file] . . . . . . . . Dump all triples to an RDF/XML file.");
+        System.out.println("dump [file] . . . . . . . . Dump all triples to a file (format by extension, else current).");
         System.out.println("help  . . . . . . . . . . . Display this help.");
         System.out.println("close . . . . . . . . . . . Close the current connector.");
         System.out.println("connectors  . . . . . . . . List known triplestore connectors.");
         System.out.println("limit . . . . . . . . . . . Show current result limit (default = none)");
         System.out.println("limit [num] . . . . . . . . Set result limit ( 0 means none )");
-        System.out.println("load [file] . . . . . . . . Load the RDF/XML file into the triplestore.");
+        System.out.println("load [file] . . . . . . . . Load a file into the triplestore (format by extension, else current).");
         System.out.println("profiles  . . . . . . . . . List known profiles.");
         System.out.println("trace . . . . . . . . . . . Toggle stack trace printing for errors.");
         System.out.println("triples [pat] [lng] [qry] . Query for tuples.");
@@ -0,0 +1,65 @@
+package org.trippi;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.trippi.impl.base.DefaultAliasManager;
+
+public class AliasIndexUnitTest extends TestCase {
+
+    private Map<String, String> m_map;
+    private AliasIndex m_index;
+
+    public AliasIndexUnitTest(String name) throws Exception {
+        super(name);
+    }
+
+    @Override
+    public void setUp() throws Exception {
+        m_map = new HashMap<String, String>();
+        m_map.put("fedora", "info:fedora/");
+        m_map.put("model", "info:fedora/fedora-system:def/model#");
+        m_map.put("xsd", "http://www.w3.org/2001/XMLSchema#");
+        m_index = AliasIndex.fromStrings(m_map);
+    }
+
+    public void testExpandQueryMatchesPerAliasReplacement() throws Exception {
+        String query = "select $s from <#ri> where $s <model:hasModel> <fedora:demo:1> "
+                + "and $s <fedora:x> '5'^^xsd:int and $s <other:y> 'a'^^xsd:string)";
+        String expected = query;
+        for (Map.Entry<String, String> entry : m_map.entrySet()) {
+            Alias alias = new Alias(entry.getKey(), entry.getValue());
+            expected = alias.replaceSparqlType(alias.replaceSparqlUri(expected));
+        }
+        assertEquals(expected, m_index.expandQuery(query));
+    }
+
+    public void testExpandQueryWithoutAliasesIsUnchanged() throws Exception {
+        String query = "select * where { ?s <urn:p> \"x\"^^<urn:t> }";
+        assertSame(query, m_index.expandQuery(query));
+        assertSame(query, AliasIndex.EMPTY.expandQuery(query));
+    }
+
+    public void testLongestPrefixWins() throws Exception {
+        assertEquals("model", m_index.longestPrefix(
+                "<info:fedora/fedora-system:def/model#Content>", 1).getKey());
+        assertEquals("fedora", m_index.longestPrefix("info:fedora/demo:1", 0).getKey());
+        assertNull(m_index.longestPrefix("info:other", 0));
+        assertNull(m_index.longestPrefix("info:fedora", 0));
+    }
+
+    public void testManagerRebuildsIndexOnlyOnChange() throws Exception {
+        DefaultAliasManager manager = new DefaultAliasManager(m_map);
+        AliasIndex index = manager.getAliasIndex();
+        assertSame(index, manager.getAliasIndex());
+        manager.setAliasMap(new HashMap<String, String>(m_map));
+        assertSame(index, manager.getAliasIndex());
+        manager.addAlias("dc", "http://purl.org/dc/elements/1.1/");
+        assertNotSame(index, manager.getAliasIndex());
+        assertEquals("dc", manager.getAliasIndex().longestPrefix(
+                "http://purl.org/dc/elements/1.1/title", 0).getKey());
+    }
+
+}
@@ -0,0 +1,356 @@
+package org.trippi;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jrdf.graph.GraphElementFactory;
+import org.jrdf.graph.ObjectNode;
+import org.jrdf.graph.PredicateNode;
+import org.jrdf.graph.SubjectNode;
+import org.jrdf.graph.Triple;
+import org.jrdf.graph.URIReference;
+import org.trippi.config.TrippiProfile;
+import org.trippi.impl.base.ConcurrentTriplestoreWriter;
+
+/**
+ * Loads synthetic Fedora-like objects into the test profile's triplestore
+ * while querying it, and reports how both went.
+ * <p>
+ * The triplestore is the one configured in <code>test.properties</code>,
+ * as for <code>TriplestoreConnectorIntegrationTest</code>, so it runs
+ * against embedded Derby from trippi-mptstore and against a local
+ * Mulgara from trippi-mulgara.  After building, run it from the
+ * connector's module with:
+ * <pre>
+ *   mvn test-compile exec:java -Dexec.classpathScope=test \
+ *       -Dexec.mainClass=org.trippi.LoadHarness -Dload.objects=20000
+ * </pre>
+ * (For Derby, also give <code>-Dderby.system.home=target/derby</code> to
+ * keep the database out of the source tree, as the tests do.)
+ * Each object is about 16 triples.  Writer threads add one object's
+ * triples at a time, without flushing, until <code>load.objects</code>
+ * have been added.  Meanwhile, query threads alternate between an
+ * <code>spo</code> query for a random object already added and a query
+ * for the members of a collection (in <code>sponge</code> if the store
+ * supports it, otherwise <code>spo</code>), reading every result.
+ * </p><p>
+ * It reports ingest throughput (up to the end of the final flush),
+ * query latency percentiles, flush durations and the number of buffered
+ * updates over time.  The store is emptied afterwards unless
+ * <code>load.keep</code> is true.  All settings are system properties:
+ * </p>
+ * <ul>
+ *   <li> load.objects - number of objects to add (10000)</li>
+ *   <li> load.writers - number of writer threads (4)</li>
+ *   <li> load.readers - number of query threads (2)</li>
+ *   <li> load.sampleMillis - how often to sample the buffer (1000)</li>
+ *   <li> load.keep - whether to leave the triples in the store (false)</li>
+ * </ul>
+ */
+public class LoadHarness {
+
+    private static final String FEDORA = "info:fedora/";
+    private static final String MODEL = "info:fedora/fedora-system:def/model#";
+    private static final String VIEW = "info:fedora/fedora-system:def/view#";
+    private static final String RELS = "info:fedora/fedora-system:def/relations-external#";
+    private static final String XSD_DATETIME = "http://www.w3.org/2001/XMLSchema#dateTime";
+
+    private static final String[] DATASTREAMS = new String[] { "DC", "RELS-EXT" };
+
+    /** Objects per collection; also the size of a collection query's result. */
+    private static final int COLLECTION_SIZE = 500;
+
+    private final TriplestoreReader m_reader;
+    private final TriplestoreWriter m_writer;
+    private final GraphElementFactory m_factory;
+
+    private final int m_objects;
+    private final int m_writers;
+    private final int m_readers;
+    private final long m_sampleMillis;
+
+    private final AtomicInteger m_nextObject = new AtomicInteger();
+    private final AtomicInteger m_objectsAdded = new AtomicInteger();
+    private final AtomicLong m_triplesAdded = new AtomicLong();
+
+    private volatile boolean m_done;
+
+    public LoadHarness(TriplestoreConnector connector,
+                       int objects,
+                       int writers,
+                       int readers,
+                       long sampleMillis) {
+        m_reader = connector.getReader();
+        m_writer = connector.getWriter();
+        m_factory = connector.getElementFactory();
+        m_objects = objects;
+        m_writers = writers;
+        m_readers = readers;
+        m_sampleMillis = sampleMillis;
+    }
+
+    /**
+     * Run the load and print the results to standard output.
+     */
+    public void run() throws Exception {
+
+        String collectionLang = "spo";
+        for (String lang : m_reader.listTripleLanguages()) {
+            if (lang.equalsIgnoreCase("sponge")) collectionLang = lang;
+        }
+
+        Writer[] writers = new Writer[m_writers];
+        Reader[] readers = new Reader[m_readers];
+        Sampler sampler = new Sampler();
+
+        long start = System.currentTimeMillis();
+        sampler.start();
+        for (int i = 0; i < writers.length; i++) {
+            writers[i] = new Writer();
+            writers[i].start();
+        }
+        for (int i = 0; i < readers.length; i++) {
+            readers[i] = new Reader(i, collectionLang);
+            readers[i].start();
+        }
+
+        for (Writer writer : writers) {
+            writer.join();
+        }
+        long submitted = System.currentTimeMillis();
+        m_writer.flushBuffer();
+        long flushed = System.currentTimeMillis();
+        m_done = true;
+        for (Reader reader : readers) {
+            reader.join();
+        }
+        sampler.join();
+
+        for (Writer writer : writers) {
+            if (writer.error != null) throw writer.error;
+        }
+        for (Reader reader : readers) {
+            if (reader.error != null) throw reader.error;
+        }
+
+        // ingest
+        long triples = m_triplesAdded.get();
+        System.out.println("Ingest: " + m_objectsAdded.get() + " objects, "
+                + triples + " triples, " + m_writers + " writers");
+        System.out.println("  submitted in " + (submitted - start) + "ms, flushed in "
+                + (flushed - start) + "ms, " + perSecond(triples, flushed - start)
+                + " triples/sec");
+
+        // queries
+        System.out.println("Queries: " + m_readers + " readers");
+        printLatencies("spo", readers, 0);
+        printLatencies(collectionLang + " (collection)", readers, 1);
+
+        // flushes
+        if (m_writer instanceof ConcurrentTriplestoreWriter) {
+            System.out.println("Flushes: "
+                    + ((ConcurrentTriplestoreWriter) m_writer).getFlushTimeHistogram());
+        } else {
+            System.out.println("Flushes: not measured for "
+                    + m_writer.getClass().getName());
+        }
+
+        // buffer occupancy
+        System.out.println("Buffer:");
+        System.out.println("  millis\tbuffered\ttriples added");
+        for (long[] sample : sampler.samples) {
+            System.out.println("  " + sample[0] + "\t" + sample[1] + "\t" + sample[2]);
+        }
+    }
+
+    private static long perSecond(long count, long millis) {
+        return millis == 0 ? count : count * 1000 / millis;
+    }
+
+    private static void printLatencies(String label, Reader[] readers, int kind) {
+        List<Long> all = new ArrayList<Long>();
+        for (Reader reader : readers) {
+            all.addAll(reader.latencies[kind]);
+        }
+        if (all.size() == 0) {
+            System.out.println("  " + label + ": none run");
+            return;
+        }
+        long[] sorted = new long[all.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = all.get(i).longValue();
+        }
+        Arrays.sort(sorted);
+        System.out.println("  " + label + ": count = " + sorted.length
+                + ", p50 = " + percentile(sorted, 50) + "ms"
+                + ", p99 = " + percentile(sorted, 99) + "ms"
+                + ", max = " + sorted[sorted.length - 1] + "ms");
+    }
+
+    private static double percentile(long[] sortedNanos, int p) {
+        int i = (int) Math.ceil(sortedNanos.length * p / 100.0) - 1;
+        long nanos = sortedNanos[Math.max(0, i)];
+        return Math.round(nanos / 10000.0) / 100.0;
+    }
+
+    private URI object(int i) throws Exception {
+        return new URI(FEDORA + "demo:" + i);
+    }
+
+    private URI collection(int i) throws Exception {
+        return new URI(FEDORA + "demo:collection" + (i / COLLECTION_SIZE));
+    }
+
+    /**
+     * Get the triples for an object, as Fedora would write them.
+     */
+    private List<Triple> getTriples(int i) throws Exception {
+        List<Triple> triples = new ArrayList<Triple>();
+        SubjectNode s = m_factory.createResource(object(i));
+        String date = "2014-01-" + (10 + i % 18) + "T12:00:" + (10 + i % 50) + ".000Z";
+        URI dateTime = new URI(XSD_DATETIME);
+        add(triples, s, MODEL + "hasModel",
+                m_factory.createResource(new URI(FEDORA + "fedora-system:FedoraObject-3.0")));
+        add(triples, s, MODEL + "hasModel",
+                m_factory.createResource(new URI(FEDORA + "demo:CModel" + (i % 10))));
+        add(triples, s, MODEL + "label", m_factory.createLiteral("Object " + i));
+        add(triples, s, MODEL + "state", m_factory.createResource(new URI(MODEL + "Active")));
+        add(triples, s, MODEL + "ownerId", m_factory.createLiteral("fedoraAdmin"));
+        add(triples, s, MODEL + "createdDate", m_factory.createLiteral(date, dateTime));
+        add(triples, s, VIEW + "lastModifiedDate", m_factory.createLiteral(date, dateTime));
+        add(triples, s, RELS + "isMemberOf", m_factory.createResource(collection(i)));
+        for (String ds : DATASTREAMS) {
+            URIReference d = m_factory.createResource(new URI(object(i) + "/" + ds));
+            add(triples, s, VIEW + "disseminates", d);
+            add(triples, d, VIEW + "disseminationType",
+                    m_factory.createResource(new URI(FEDORA + "*/" + ds)));
+            add(triples, d, VIEW + "mimeType", m_factory.createLiteral("text/xml"));
+            add(triples, d, VIEW + "isVolatile", m_factory.createLiteral("false"));
+        }
+        return triples;
+    }
+
+    private void add(List<Triple> triples, SubjectNode s, String p, ObjectNode o)
+            throws Exception {
+        PredicateNode predicate = m_factory.createResource(new URI(p));
+        triples.add(m_factory.createTriple(s, predicate, o));
+    }
+
+    private class Writer extends Thread {
+
+        Exception error;
+
+        @Override
+        public void run() {
+            try {
+                int i;
+                while ((i = m_nextObject.getAndIncrement()) < m_objects) {
+                    List<Triple> triples = getTriples(i);
+                    m_writer.add(triples, false);
+                    m_triplesAdded.addAndGet(triples.size());
+                    m_objectsAdded.incrementAndGet();
+                }
+            } catch (Exception e) {
+                error = e;
+            }
+        }
+    }
+
+    private class Reader extends Thread {
+
+        @SuppressWarnings("unchecked")
+        final List<Long>[] latencies = new List[] { new ArrayList<Long>(),
+                                                    new ArrayList<Long>() };
+        Exception error;
+        private final Random m_random;
+        private final String m_collectionLang;
+
+        Reader(int id, String collectionLang) {
+            m_random = new Random(id);
+            m_collectionLang = collectionLang;
+        }
+
+        @Override
+        public void run() {
+            try {
+                int kind = 0;
+                while (!m_done) {
+                    int added = m_objectsAdded.get();
+                    if (added == 0) {
+                        Thread.sleep(10);
+                        continue;
+                    }
+                    int i = m_random.nextInt(added);
+                    long start = System.nanoTime();
+                    if (kind == 0) {
+                        drain(m_reader.findTriples("spo", "<" + object(i) + "> * *", -1, false));
+                    } else {
+                        drain(m_reader.findTriples(m_collectionLang, "* <" + RELS
+                                + "isMemberOf> <" + collection(i) + ">", -1, false));
+                    }
+                    latencies[kind].add(Long.valueOf(System.nanoTime() - start));
+                    kind = 1 - kind;
+                }
+            } catch (Exception e) {
+                error = e;
+            }
+        }
+
+        private void drain(TripleIterator iter) throws TrippiException {
+            try {
+                while (iter.hasNext()) {
+                    iter.next();
+                }
+            } finally {
+                iter.close();
+            }
+        }
+    }
+
+    private class Sampler extends Thread {
+
+        final List<long[]> samples = new ArrayList<long[]>();
+
+        @Override
+        public void run() {
+            long start = System.currentTimeMillis();
+            while (!m_done) {
+                samples.add(new long[] { System.currentTimeMillis() - start,
+                                         m_writer.getBufferSize(),
+                                         m_triplesAdded.get() });
+                try {
+                    Thread.sleep(m_sampleMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        TrippiProfile profile = TestConfig.getTestProfile();
+        TriplestoreConnector connector = profile.getConnector();
+        connector.open();
+        try {
+            System.out.println("Profile: " + profile.getLabel());
+            LoadHarness harness = new LoadHarness(connector,
+                    Integer.getInteger("load.objects", 10000).intValue(),
+                    Integer.getInteger("load.writers", 4).intValue(),
+                    Integer.getInteger("load.readers", 2).intValue(),
+                    Long.getLong("load.sampleMillis", 1000).longValue());
+            harness.run();
+            if (!Boolean.getBoolean("load.keep")) {
+                TriplestoreWriter writer = connector.getWriter();
+                writer.delete(connector.getReader().findTriples(null, null, null, -1), true);
+            }
+        } finally {
+            connector.close();
+        }
+    }
+
+}
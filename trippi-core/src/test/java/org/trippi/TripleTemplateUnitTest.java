@@ -0,0 +1,108 @@
+package org.trippi;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.jrdf.graph.Node;
+import org.jrdf.graph.Triple;
+
+public class TripleTemplateUnitTest extends TestCase {
+
+    private static final String[] NAMES = new String[] { "s", "label", "date" };
+
+    private static final String TEMPLATE =
+              "$s <urn:label> $label\n"
+            + "$date <urn:of> $s\n"
+            + "$s <urn:created> $date\n"
+            + "$s <urn:state> <urn:Active>\n"
+            + "_:b1 <urn:about> $s";
+
+    private RDFUtil m_util;
+    private TriplePattern[] m_patterns;
+
+    public TripleTemplateUnitTest(String name) throws Exception {
+        super(name);
+    }
+
+    @Override
+    public void setUp() throws Exception {
+        m_util = new RDFUtil();
+        m_patterns = TriplePattern.parse(TEMPLATE);
+    }
+
+    public void testSameTriplesAsMatch() throws Exception {
+        TripleTemplate template = new TripleTemplate(m_patterns, NAMES);
+        Triple[] out = new Triple[template.size()];
+
+        TupleRow bound = row(NAMES, "2014-01-10");
+        assertEquals(matchAll(bound), project(template, bound, out));
+
+        // unbound $date skips two patterns, literal subject skips another
+        TupleRow unbound = row(NAMES, null);
+        List<Triple> triples = project(template, unbound, out);
+        assertEquals(matchAll(unbound), triples);
+        assertEquals(3, triples.size());
+
+        Map<String, Node> map = new HashMap<String, Node>(bound);
+        assertEquals(matchAll(map), project(template, map, out));
+    }
+
+    public void testRowWithOtherNames() throws Exception {
+        TripleTemplate template = new TripleTemplate(m_patterns, NAMES);
+        Triple[] out = new Triple[template.size()];
+        TupleRow reordered = row(new String[] { "date", "label", "s" },
+                                 "2014-01-10");
+        assertEquals(matchAll(reordered), project(template, reordered, out));
+    }
+
+    public void testMissingName() throws Exception {
+        TripleTemplate template = new TripleTemplate(
+                TriplePattern.parse("$s <urn:p> $other"), NAMES);
+        try {
+            template.project(row(NAMES, null), new Triple[1]);
+            fail("Expected an error for an unknown binding name");
+        } catch (TrippiException e) {
+            assertEquals("No value named 'other' in tuple.", e.getMessage());
+        }
+    }
+
+    private TupleRow row(String[] names, String date) throws Exception {
+        Node[] values = new Node[names.length];
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals("s")) {
+                values[i] = m_util.createResource(new URI("info:fedora/demo:1"));
+            } else if (names[i].equals("label")) {
+                values[i] = m_util.createLiteral("One");
+            } else if (date != null) {
+                values[i] = m_util.createLiteral(date);
+            }
+        }
+        return new TupleRow(names, values);
+    }
+
+    private List<Triple> matchAll(Map<String, Node> tuple) throws Exception {
+        List<Triple> triples = new ArrayList<Triple>();
+        for (int i = 0; i < m_patterns.length; i++) {
+            Triple triple = m_patterns[i].match(tuple);
+            if (triple != null) triples.add(triple);
+        }
+        return triples;
+    }
+
+    private static List<Triple> project(TripleTemplate template,
+                                        Map<String, Node> tuple,
+                                        Triple[] out) throws Exception {
+        List<Triple> triples = new ArrayList<Triple>();
+        int n = template.project(tuple, out);
+        for (int i = 0; i < n; i++) {
+            triples.add(out[i]);
+        }
+        return triples;
+    }
+
+}
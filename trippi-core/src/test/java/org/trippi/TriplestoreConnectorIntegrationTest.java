@@ -5,6 +5,7 @@ import static org.junit.Assert.assertTrue;
 
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -16,6 +17,7 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.trippi.config.TrippiProfile;
+import org.trippi.io.SimpleTripleIterator;
 
 public abstract class TriplestoreConnectorIntegrationTest {
 
@@ -91,6 +93,39 @@ public abstract class TriplestoreConnectorIntegrationTest {
                      _reader.countTriples(null, null, null, -1));
     }
 
+    /**
+     * Test bulk loading some triples.
+     *
+     * This goes through the session's native bulk load, if it has one.
+     * Make sure anything buffered is flushed too, and progress is reported
+     * after each batch.
+     */
+    @Test
+    public void testBulkAddTriples() throws Exception {
+        assertTrue("Writer can't bulk load", _writer instanceof BulkLoadWriter);
+        Triple buffered = getTriple(9, 9, 9);
+        _writer.add(buffered, false);
+
+        List<Triple> testTriples = getTriples(3, 3, 3);
+        final List<Long> progress = new ArrayList<Long>();
+        long loaded = ((BulkLoadWriter) _writer).bulkAdd(
+                new SimpleTripleIterator(new HashSet<Triple>(testTriples),
+                                         new HashMap<String, String>()),
+                10,
+                new BulkLoadListener() {
+                    public void triplesLoaded(long triplesLoaded) {
+                        progress.add(triplesLoaded);
+                    }
+                });
+        assertEquals(27, loaded);
+        assertEquals("[10, 20, 27]", progress.toString());
+
+        Set<Triple> inputSet = new HashSet<Triple>(testTriples);
+        inputSet.add(buffered);
+        Set<Triple> outputSet = getSet(_reader.findTriples(null, null, null, -1));
+        assertEquals("Bulk loaded triples don't match", inputSet, outputSet);
+    }
+
     /**
      * Test that SPO is a supported triple language.
      */
@@ -0,0 +1,71 @@
+package org.trippi;
+
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.jrdf.graph.Node;
+
+public class TupleRowUnitTest extends TestCase {
+
+    private static final String[] NAMES = new String[] { "s", "label", "date" };
+
+    private RDFUtil m_util;
+    private TupleRow m_row;
+
+    public TupleRowUnitTest(String name) throws Exception {
+        super(name);
+    }
+
+    @Override
+    public void setUp() throws Exception {
+        m_util = new RDFUtil();
+        m_row = new TupleRow(NAMES, new Node[] {
+                m_util.createResource(new URI("info:fedora/demo:1")),
+                m_util.createLiteral("One"),
+                null });
+    }
+
+    public void testAccessors() throws Exception {
+        assertSame(NAMES, m_row.names());
+        assertEquals(m_util.createLiteral("One"), m_row.get(1));
+        assertEquals(m_util.createLiteral("One"), m_row.get("label"));
+        assertEquals(1, m_row.indexOf(new String("label")));
+        assertEquals(-1, m_row.indexOf("other"));
+        assertNull(m_row.get("other"));
+        assertTrue(m_row.containsKey("date"));
+        assertNull(m_row.get("date"));
+        assertEquals(3, m_row.size());
+    }
+
+    public void testEqualsEquivalentMap() throws Exception {
+        Map<String, Node> map = new HashMap<String, Node>();
+        map.put("s", m_util.createResource(new URI("info:fedora/demo:1")));
+        map.put("label", m_util.createLiteral("One"));
+        map.put("date", null);
+        assertEquals(map, m_row);
+        assertEquals(m_row, map);
+        assertEquals(map.hashCode(), m_row.hashCode());
+        assertEquals(map, new HashMap<String, Node>(m_row));
+    }
+
+    public void testValueAt() throws Exception {
+        assertEquals(m_util.createLiteral("One"), TupleRow.valueAt(m_row, NAMES, 1));
+        String[] reordered = new String[] { "label", "s", "date" };
+        assertEquals(m_util.createLiteral("One"), TupleRow.valueAt(m_row, reordered, 0));
+        Map<String, Node> map = new HashMap<String, Node>(m_row);
+        assertEquals(m_util.createLiteral("One"), TupleRow.valueAt(map, NAMES, 1));
+    }
+
+    public void testReadOnly() throws Exception {
+        try {
+            m_row.put("label", m_util.createLiteral("Two"));
+            fail("Expected rows to be read-only");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+
+}
@@ -0,0 +1,92 @@
+package org.trippi.impl;
+
+import java.net.URI;
+
+import junit.framework.TestCase;
+
+import org.jrdf.graph.Literal;
+import org.jrdf.graph.URIReference;
+
+public class NodeInternerUnitTest extends TestCase {
+
+    public NodeInternerUnitTest(String name) throws Exception { 
+        super(name); 
+    }
+
+    public void testRepeatedURIsShareInstance() throws Exception {
+        NodeInterner interner = new NodeInterner(100);
+        URIReference ref1 = interner.uriReference("urn:test:same");
+        URIReference ref2 = interner.uriReference(new URI("urn:test:same"));
+        URIReference ref3 = interner.uriReference("urn:test:different");
+        assertSame(ref1, ref2);
+        assertFalse(ref1.equals(ref3));
+    }
+
+    public void testRepeatedLiteralsShareInstance() throws Exception {
+        NodeInterner interner = new NodeInterner(100);
+        URI type = new URI("http://www.w3.org/2001/XMLSchema#int");
+
+        assertSame(interner.literal("val"), interner.literal("val"));
+        assertSame(interner.literal("val", "en"), interner.literal("val", "en"));
+        assertSame(interner.literal("1", type),
+                   interner.typedLiteral("1", type.toString()));
+    }
+
+    public void testLiteralsDistinguishedByQualifier() throws Exception {
+        NodeInterner interner = new NodeInterner(100);
+        Literal plain = interner.literal("en");
+        Literal lang = interner.literal("en", "en");
+        Literal typed = interner.typedLiteral("en", "urn:en");
+        assertFalse(plain.equals(lang));
+        assertFalse(lang.equals(typed));
+        assertFalse(plain.equals(typed));
+        assertEquals("en", lang.getLanguage());
+        assertEquals(new URI("urn:en"), typed.getDatatypeURI());
+    }
+
+    public void testInternedNodesEqualUninterned() throws Exception {
+        NodeInterner interner = new NodeInterner(100);
+        URIReference interned = interner.uriReference("urn:test:same");
+        URIReference free = new FreeURIReference(new URI("urn:test:same"));
+        assertEquals(free, interned);
+        assertEquals(interned, free);
+        assertEquals(free.hashCode(), interned.hashCode());
+    }
+
+    public void testCapacityIsBounded() throws Exception {
+        NodeInterner interner = new NodeInterner(16);
+        URIReference first = interner.uriReference("urn:test:0");
+        for (int i = 1; i < 1000; i++) {
+            interner.uriReference("urn:test:" + i);
+        }
+        URIReference again = interner.uriReference("urn:test:0");
+        assertNotSame(first, again);
+        assertEquals(first, again);
+    }
+
+    public void testRecurringTermIsAdmittedWhenFull() throws Exception {
+        NodeInterner interner = new NodeInterner(16);
+        for (int i = 0; i < 1000; i++) {
+            interner.uriReference("urn:test:" + i);
+        }
+        // a full segment admits one miss in eight, so a term that keeps
+        // coming back gets in within eight lookups
+        URIReference previous = interner.uriReference("urn:test:hot");
+        boolean admitted = false;
+        for (int i = 0; i < 8 && !admitted; i++) {
+            URIReference current = interner.uriReference("urn:test:hot");
+            admitted = current == previous;
+            previous = current;
+        }
+        assertTrue("Recurring term was never admitted", admitted);
+    }
+
+    public void testZeroCapacityDisablesInterning() throws Exception {
+        NodeInterner interner = new NodeInterner(0);
+        URIReference ref1 = interner.uriReference("urn:test:same");
+        URIReference ref2 = interner.uriReference("urn:test:same");
+        assertNotSame(ref1, ref2);
+        assertEquals(ref1, ref2);
+    }
+
+}
@@ -0,0 +1,157 @@
+package org.trippi.impl.base;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.jrdf.graph.ObjectNode;
+import org.jrdf.graph.PredicateNode;
+import org.jrdf.graph.SubjectNode;
+import org.jrdf.graph.Triple;
+import org.trippi.BulkLoadListener;
+import org.trippi.RDFUtil;
+import org.trippi.TripleIterator;
+import org.trippi.TrippiException;
+import org.trippi.TupleIterator;
+import org.trippi.io.SimpleTripleIterator;
+
+public class BulkLoaderUnitTest extends TestCase {
+
+    public BulkLoaderUnitTest(String name) throws Exception {
+        super(name);
+    }
+
+    public void testLoadsInBatches() throws Exception {
+        Session session = new Session();
+        Progress progress = new Progress();
+        assertEquals(23, BulkLoader.load(session, iterator(23), 10, progress));
+        assertEquals("[10, 10, 3]", session.batches.toString());
+        assertEquals("[10, 20, 23]", progress.totals.toString());
+        assertEquals(23, session.triples.size());
+    }
+
+    public void testEmptyInputWritesNothing() throws Exception {
+        Session session = new Session();
+        assertEquals(0, BulkLoader.load(session, iterator(0), 10, null));
+        assertTrue(session.batches.isEmpty());
+    }
+
+    public void testNativeBulkLoadIsUsed() throws Exception {
+        NativeSession session = new NativeSession();
+        TripleIterator iter = iterator(23);
+        Progress progress = new Progress();
+        assertEquals(23, BulkLoader.load(session, iter, 10, progress));
+        assertSame(iter, session.iterator);
+        assertEquals(10, session.batchSize);
+        assertSame(progress, session.listener);
+        assertTrue("Batches went through add()", session.batches.isEmpty());
+    }
+
+    public void testSharedSessionIsLockedPerBatch() throws Exception {
+        final Object lock = new Object();
+        NativeSession session = new NativeSession() {
+            @Override
+            public void add(Set<Triple> triples) {
+                assertTrue("Batch written without the lock", Thread.holdsLock(lock));
+                super.add(triples);
+            }
+        };
+        assertEquals(23, BulkLoader.load(session, lock, iterator(23), 10, null));
+        assertFalse("Lock held between batches", Thread.holdsLock(lock));
+        assertNull("Native load would hold the lock throughout", session.iterator);
+        assertEquals("[10, 10, 3]", session.batches.toString());
+    }
+
+    public void testBatchSizeMustBePositive() throws Exception {
+        try {
+            BulkLoader.load(new Session(), iterator(1), 0, null);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static TripleIterator iterator(int size) throws Exception {
+        RDFUtil util = new RDFUtil();
+        Set<Triple> triples = new HashSet<Triple>();
+        for (int i = 0; i < size; i++) {
+            triples.add(util.createTriple(util.createResource(new URI("urn:s" + i)),
+                                          util.createResource(new URI("urn:p")),
+                                          util.createResource(new URI("urn:o"))));
+        }
+        return new SimpleTripleIterator(triples, new DefaultAliasManager());
+    }
+
+    private static class Progress implements BulkLoadListener {
+
+        List<Long> totals = new ArrayList<Long>();
+
+        public void triplesLoaded(long triplesLoaded) {
+            totals.add(triplesLoaded);
+        }
+    }
+
+    private static class Session implements TriplestoreSession {
+
+        List<Integer> batches = new ArrayList<Integer>();
+        Set<Triple> triples = new HashSet<Triple>();
+
+        public void add(Set<Triple> toAdd) {
+            batches.add(toAdd.size());
+            triples.addAll(toAdd);
+        }
+
+        public void delete(Set<Triple> toDelete) {
+            triples.removeAll(toDelete);
+        }
+
+        public TupleIterator query(String queryText, String language) {
+            return null;
+        }
+
+        public TripleIterator findTriples(String lang, String queryText) {
+            return null;
+        }
+
+        public TripleIterator findTriples(SubjectNode subject,
+                                          PredicateNode predicate,
+                                          ObjectNode object) {
+            return null;
+        }
+
+        public String[] listTupleLanguages() {
+            return new String[0];
+        }
+
+        public String[] listTripleLanguages() {
+            return new String[0];
+        }
+
+        public void close() {
+        }
+    }
+
+    /**
+     * A session that records how it was asked to bulk load.
+     */
+    private static class NativeSession extends Session implements BulkLoadSession {
+
+        TripleIterator iterator;
+        int batchSize;
+        BulkLoadListener listener;
+
+        public long bulkAdd(TripleIterator iter,
+                            int size,
+                            BulkLoadListener progress) throws TrippiException {
+            iterator = iter;
+            batchSize = size;
+            listener = progress;
+            return iter.count();
+        }
+    }
+
+}
@@ -0,0 +1,275 @@
+package org.trippi.impl.base;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.jrdf.graph.Node;
+import org.jrdf.graph.ObjectNode;
+import org.jrdf.graph.PredicateNode;
+import org.jrdf.graph.SubjectNode;
+import org.jrdf.graph.Triple;
+import org.trippi.RDFUtil;
+import org.trippi.TripleIterator;
+import org.trippi.TriplestoreReader;
+import org.trippi.TrippiException;
+import org.trippi.TupleIterator;
+
+public class CachingTriplestoreReaderUnitTest extends TestCase {
+
+    private RDFUtil m_util;
+    private PredicateNode m_p1;
+    private PredicateNode m_p2;
+    private Reader m_reader;
+
+    public CachingTriplestoreReaderUnitTest(String name) throws Exception {
+        super(name);
+    }
+
+    @Override
+    public void setUp() throws Exception {
+        m_util = new RDFUtil();
+        m_p1 = m_util.createResource(new URI("urn:test:p1"));
+        m_p2 = m_util.createResource(new URI("urn:test:p2"));
+        m_reader = new Reader();
+        for (int i = 0; i < 5; i++) {
+            m_reader.triples.add(m_util.createTriple(
+                    m_util.createResource(new URI("urn:test:s" + i)),
+                    i % 2 == 0 ? m_p1 : m_p2,
+                    m_util.createLiteral("o" + i)));
+        }
+    }
+
+    public void testRepeatQueryIsServedFromCache() throws Exception {
+        CachingTriplestoreReader cache =
+                new CachingTriplestoreReader(m_reader, 1024 * 1024, 60000, 100);
+        assertEquals(5, cache.countTuples("fake", "q", 0, false));
+        assertEquals(5, cache.countTuples("fake", "q", 0, false));
+        TupleIterator iter = cache.findTuples("fake", "q", 0, false);
+        assertEquals("x", iter.names()[0]);
+        assertEquals(m_util.createLiteral("o0"), iter.next().get("x"));
+        assertEquals(1, m_reader.queries);
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    public void testLargeResultIsStreamedAndNotCached() throws Exception {
+        CachingTriplestoreReader cache =
+                new CachingTriplestoreReader(m_reader, 1024 * 1024, 60000, 3);
+        assertEquals(5, cache.countTuples("fake", "q", 0, false));
+        assertEquals(5, cache.countTriples(null, null, null, 0));
+        assertEquals(5, cache.countTuples("fake", "q", 0, false));
+        assertEquals(3, m_reader.queries);
+        assertEquals(0, cache.size());
+    }
+
+    public void testSelectiveInvalidation() throws Exception {
+        CachingTriplestoreReader cache =
+                new CachingTriplestoreReader(m_reader, 1024 * 1024, 60000, 100);
+        assertEquals(3, cache.countTriples(null, m_p1, null, 0));
+        assertEquals(2, cache.countTriples(null, m_p2, null, 0));
+        assertEquals(5, cache.countTuples("fake", "q", 0, false));
+        assertEquals(3, cache.size());
+
+        cache.triplesUpdated(Collections.singleton(m_p2));
+        assertEquals(1, cache.size());
+        assertEquals(3, cache.countTriples(null, m_p1, null, 0));
+        assertEquals(3, m_reader.queries);
+
+        cache.triplesUpdated(null);
+        assertEquals(0, cache.size());
+        assertEquals(3, cache.getInvalidationCount());
+    }
+
+    public void testEvictsLeastRecentlyUsedWhenOverWeight() throws Exception {
+        CachingTriplestoreReader cache =
+                new CachingTriplestoreReader(m_reader, 2048, 60000, 100);
+        cache.countTriples(null, m_p1, null, 0);
+        cache.countTriples(null, m_p2, null, 0);
+        cache.countTriples(null, m_p1, null, 0);
+        cache.countTuples("fake", "q", 0, false);
+        assertTrue(cache.getWeight() <= 2048);
+        assertTrue(cache.getEvictionCount() > 0);
+        cache.countTuples("fake", "q", 0, false);
+        assertEquals(3, m_reader.queries);
+    }
+
+    public void testExpiredEntryIsRequeried() throws Exception {
+        CachingTriplestoreReader cache =
+                new CachingTriplestoreReader(m_reader, 1024 * 1024, 50, 100);
+        cache.countTuples("fake", "q", 0, false);
+        Thread.sleep(100);
+        cache.countTuples("fake", "q", 0, false);
+        assertEquals(2, m_reader.queries);
+    }
+
+    public void testAliasChangeIsNotServedStale() throws Exception {
+        DefaultAliasManager aliases = new DefaultAliasManager();
+        aliases.addAlias("test", "urn:test:");
+        CachingTriplestoreReader cache = new CachingTriplestoreReader(
+                m_reader, aliases, 1024 * 1024, 60000, 100);
+        cache.countTuples("fake", "select $x from <test:model>", 0, false);
+        cache.countTuples("fake", "select $x from <test:model>", 0, false);
+        assertEquals(1, m_reader.queries);
+
+        // same text, but it now means another model
+        aliases.addAlias("test", "urn:other:");
+        cache.countTuples("fake", "select $x from <test:model>", 0, false);
+        assertEquals(2, m_reader.queries);
+    }
+
+    private static class Reader implements TriplestoreReader {
+
+        List<Triple> triples = new ArrayList<Triple>();
+        int queries;
+
+        public Map<String, String> getAliasMap() {
+            return new HashMap<String, String>();
+        }
+
+        public void setAliasMap(Map<String, String> aliasMap) {
+        }
+
+        public String[] listTupleLanguages() {
+            return new String[] { "fake" };
+        }
+
+        public String[] listTripleLanguages() {
+            return new String[] { "fake" };
+        }
+
+        public TupleIterator findTuples(String queryLang,
+                                        String tupleQuery,
+                                        int limit,
+                                        boolean distinct) {
+            queries++;
+            List<Map<String, Node>> rows = new ArrayList<Map<String, Node>>();
+            for (Triple triple : triples) {
+                Map<String, Node> row = new HashMap<String, Node>();
+                row.put("x", triple.getObject());
+                rows.add(row);
+            }
+            return new ListTupleIterator(rows);
+        }
+
+        public int countTuples(String queryLang,
+                               String tupleQuery,
+                               int limit,
+                               boolean distinct) throws TrippiException {
+            return findTuples(queryLang, tupleQuery, limit, distinct).count();
+        }
+
+        public TripleIterator findTriples(String queryLang,
+                                          String tripleQuery,
+                                          int limit,
+                                          boolean distinct) {
+            return findTriples(null, null, null, limit);
+        }
+
+        public int countTriples(String queryLang,
+                                String tripleQuery,
+                                int limit,
+                                boolean distinct) throws TrippiException {
+            return findTriples(queryLang, tripleQuery, limit, distinct).count();
+        }
+
+        public TripleIterator findTriples(SubjectNode subject,
+                                          PredicateNode predicate,
+                                          ObjectNode object,
+                                          int limit) {
+            queries++;
+            List<Triple> matches = new ArrayList<Triple>();
+            for (Triple triple : triples) {
+                if (predicate == null || predicate.equals(triple.getPredicate())) {
+                    matches.add(triple);
+                }
+            }
+            return new ListTripleIterator(matches);
+        }
+
+        public int countTriples(SubjectNode subject,
+                                PredicateNode predicate,
+                                ObjectNode object,
+                                int limit) throws TrippiException {
+            return findTriples(subject, predicate, object, limit).count();
+        }
+
+        public TripleIterator findTriples(String queryLang,
+                                          String tupleQuery,
+                                          String tripleTemplate,
+                                          int limit,
+                                          boolean distinct) {
+            return findTriples(null, null, null, limit);
+        }
+
+        public int countTriples(String queryLang,
+                                String tupleQuery,
+                                String tripleTemplate,
+                                int limit,
+                                boolean distinct) throws TrippiException {
+            return findTriples(queryLang, tupleQuery, tripleTemplate, limit,
+                               distinct).count();
+        }
+
+        public void close() {
+        }
+    }
+
+    private static class ListTupleIterator extends TupleIterator {
+
+        private Iterator<Map<String, Node>> m_iter;
+
+        ListTupleIterator(List<Map<String, Node>> rows) {
+            m_iter = rows.iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return m_iter.hasNext();
+        }
+
+        @Override
+        public Map<String, Node> next() {
+            return m_iter.next();
+        }
+
+        @Override
+        public String[] names() {
+            return new String[] { "x" };
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static class ListTripleIterator extends TripleIterator {
+
+        private Iterator<Triple> m_iter;
+
+        ListTripleIterator(List<Triple> triples) {
+            m_iter = triples.iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return m_iter.hasNext();
+        }
+
+        @Override
+        public Triple next() {
+            return m_iter.next();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+}
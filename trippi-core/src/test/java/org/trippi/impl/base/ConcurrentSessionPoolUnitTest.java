@@ -0,0 +1,236 @@
+package org.trippi.impl.base;
+
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.jrdf.graph.ObjectNode;
+import org.jrdf.graph.PredicateNode;
+import org.jrdf.graph.SubjectNode;
+import org.jrdf.graph.Triple;
+import org.trippi.TripleIterator;
+import org.trippi.TrippiException;
+import org.trippi.TupleIterator;
+
+public class ConcurrentSessionPoolUnitTest extends TestCase {
+
+    public ConcurrentSessionPoolUnitTest(String name) throws Exception {
+        super(name);
+    }
+
+    public void testLeaseAndRelease() throws Exception {
+        ConcurrentSessionPool pool = new ConcurrentSessionPool(new Factory(), 2, 0, 0);
+        try {
+            TriplestoreSession s1 = pool.get();
+            TriplestoreSession s2 = pool.get();
+            assertNotNull(s1);
+            assertNotNull(s2);
+            assertNotSame(s1, s2);
+            assertEquals(2, pool.getInUseCount());
+            assertEquals(0, pool.getFreeCount());
+            pool.release(s1);
+            assertEquals(1, pool.getFreeCount());
+            assertSame(s1, pool.get());
+        } finally {
+            pool.close();
+        }
+    }
+
+    public void testTimesOutWhenExhausted() throws Exception {
+        ConcurrentSessionPool pool = new ConcurrentSessionPool(new Factory(), 1, 0, 0);
+        try {
+            assertNotNull(pool.get());
+            long start = System.currentTimeMillis();
+            assertNull(pool.get(100));
+            assertTrue(System.currentTimeMillis() - start >= 90);
+            assertEquals(1, pool.getLeaseTimeoutCount());
+            assertEquals(2, pool.getLeaseWaitHistogram().getCount());
+        } finally {
+            pool.close();
+        }
+    }
+
+    public void testWaiterGetsReleasedSession() throws Exception {
+        final ConcurrentSessionPool pool = new ConcurrentSessionPool(new Factory(), 1, 0, 0);
+        try {
+            final TriplestoreSession session = pool.get();
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        Thread.sleep(100);
+                    } catch (InterruptedException e) {
+                    }
+                    pool.release(session);
+                }
+            }.start();
+            assertSame(session, pool.get(5000));
+        } finally {
+            pool.close();
+        }
+    }
+
+    public void testGrowsOnDemandUpToMax() throws Exception {
+        Factory factory = new Factory();
+        ConcurrentSessionPool pool = new ConcurrentSessionPool(factory, 1, 2, 0);
+        try {
+            assertNotNull(pool.get(1000));
+            assertNotNull(pool.get(1000));
+            assertNotNull(pool.get(1000));
+            assertEquals(3, factory.created.get());
+            assertNull(pool.get(100));
+            assertEquals(3, pool.getSize());
+        } finally {
+            pool.close();
+        }
+    }
+
+    public void testTryGetDoesNotGrowOrCountTimeout() throws Exception {
+        Factory factory = new Factory();
+        ConcurrentSessionPool pool = new ConcurrentSessionPool(factory, 1, 2, 0);
+        try {
+            TriplestoreSession session = pool.tryGet();
+            assertNotNull(session);
+            assertNull(pool.tryGet());
+            assertEquals(1, pool.getSize());
+            assertEquals(1, factory.created.get());
+            assertEquals(0, pool.getLeaseTimeoutCount());
+            pool.release(session);
+            assertSame(session, pool.tryGet());
+        } finally {
+            pool.close();
+        }
+    }
+
+    public void testGrowthFailureIsReported() throws Exception {
+        Factory factory = new Factory();
+        ConcurrentSessionPool pool = new ConcurrentSessionPool(factory, 1, -1, 0);
+        try {
+            assertNotNull(pool.get());
+            factory.fail = true;
+            try {
+                pool.get(5000);
+                fail("Expected growth failure");
+            } catch (TrippiException e) {
+                // expected
+            }
+            assertEquals(1, pool.getSize());
+        } finally {
+            pool.close();
+        }
+    }
+
+    public void testFailedGrowthDoesNotFailLaterLease() throws Exception {
+        Factory factory = new Factory();
+        final ConcurrentSessionPool pool = new ConcurrentSessionPool(factory, 1, -1, 0);
+        try {
+            TriplestoreSession session = pool.get();
+            factory.gate = new CountDownLatch(1);
+            factory.fail = true;
+            final TriplestoreSession[] leased = new TriplestoreSession[1];
+            Thread waiter = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        leased[0] = pool.get(5000);
+                    } catch (TrippiException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            waiter.start();
+            assertTrue(factory.entered.await(5, TimeUnit.SECONDS));
+
+            // the waiter is served by a release before the growth fails
+            pool.release(session);
+            waiter.join(5000);
+            assertSame(session, leased[0]);
+            factory.gate.countDown();
+            for (int i = 0; i < 500 && pool.getSize() > 1; i++) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, pool.getSize());
+
+            factory.gate = null;
+            factory.fail = false;
+            pool.release(session);
+            assertSame(session, pool.get());
+            assertNotNull("Lease failed on a stale growth failure", pool.get());
+            assertEquals(2, pool.getSize());
+        } finally {
+            pool.close();
+        }
+    }
+
+    private static class Factory implements TriplestoreSessionFactory {
+
+        AtomicInteger created = new AtomicInteger();
+        final CountDownLatch entered = new CountDownLatch(1);
+        volatile CountDownLatch gate;
+        volatile boolean fail;
+
+        public TriplestoreSession newSession() throws TrippiException {
+            CountDownLatch gate = this.gate;
+            if (gate != null) {
+                entered.countDown();
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    throw new TrippiException("Interrupted", e);
+                }
+            }
+            if (fail) throw new TrippiException("Can't connect");
+            created.incrementAndGet();
+            return new Session();
+        }
+
+        public String[] listTripleLanguages() {
+            return new String[0];
+        }
+
+        public String[] listTupleLanguages() {
+            return new String[0];
+        }
+
+        public void close() {
+        }
+    }
+
+    private static class Session implements TriplestoreSession {
+
+        public void add(Set<Triple> triples) {
+        }
+
+        public void delete(Set<Triple> triples) {
+        }
+
+        public TupleIterator query(String queryText, String language) {
+            return null;
+        }
+
+        public TripleIterator findTriples(String lang, String queryText) {
+            return null;
+        }
+
+        public TripleIterator findTriples(SubjectNode subject,
+                                          PredicateNode predicate,
+                                          ObjectNode object) {
+            return null;
+        }
+
+        public String[] listTupleLanguages() {
+            return new String[0];
+        }
+
+        public String[] listTripleLanguages() {
+            return new String[0];
+        }
+
+        public void close() {
+        }
+    }
+
+}
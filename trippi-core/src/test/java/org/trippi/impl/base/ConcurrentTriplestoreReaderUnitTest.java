@@ -0,0 +1,192 @@
+package org.trippi.impl.base;
+
+import java.net.URI;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.jrdf.graph.Node;
+import org.jrdf.graph.ObjectNode;
+import org.jrdf.graph.PredicateNode;
+import org.jrdf.graph.SubjectNode;
+import org.jrdf.graph.Triple;
+import org.trippi.RDFUtil;
+import org.trippi.TripleIterator;
+import org.trippi.TupleIterator;
+import org.trippi.TupleRow;
+import org.trippi.io.SimpleTripleIterator;
+
+public class ConcurrentTriplestoreReaderUnitTest extends TestCase {
+
+    private Session m_session;
+    private CountingPool m_pool;
+    private ConcurrentTriplestoreReader m_reader;
+
+    public ConcurrentTriplestoreReaderUnitTest(String name) throws Exception {
+        super(name);
+    }
+
+    @Override
+    public void setUp() throws Exception {
+        m_session = new Session();
+        m_pool = new CountingPool(m_session);
+        m_reader = new ConcurrentTriplestoreReader(m_pool, new DefaultAliasManager());
+    }
+
+    public void testCountsPushedDown() throws Exception {
+        m_session.count = 1000000;
+        assertEquals(1000000, m_reader.countTuples("fake", "q", 0, false));
+        assertEquals(1000000, m_reader.countTriples("fake", "q", 0, false));
+        assertEquals(1000000, m_reader.countTriples(null, null, null, 0));
+        assertEquals(1000000, m_reader.countTriples("spo", "* * *", 0, false));
+        assertEquals(0, m_session.queries);
+    }
+
+    public void testLimitAppliedToPushedDownCount() throws Exception {
+        m_session.count = 1000000;
+        assertEquals(10, m_reader.countTuples("fake", "q", 10, false));
+        assertEquals(10, m_reader.countTriples(null, null, null, 10));
+        assertEquals(0, m_session.queries);
+    }
+
+    public void testDistinctCountsResults() throws Exception {
+        m_session.count = 1000000;
+        assertEquals(3, m_reader.countTuples("fake", "q", 0, true));
+        assertEquals(3, m_reader.countTriples("fake", "q", 0, true));
+        assertEquals(2, m_session.queries);
+    }
+
+    public void testFallsBackWhenSessionCannotCount() throws Exception {
+        m_session.count = -1;
+        assertEquals(3, m_reader.countTuples("fake", "q", 0, false));
+        assertEquals(3, m_reader.countTriples("fake", "q", 0, false));
+        assertEquals(2, m_reader.countTriples(null, null, null, 2));
+        assertEquals(3, m_session.queries);
+        assertEquals("Fallback leased another session", 3, m_pool.leases);
+    }
+
+    /**
+     * Counts the sessions leased from it.
+     */
+    private static class CountingPool extends SingleSessionPool {
+
+        int leases;
+
+        CountingPool(TriplestoreSession session) {
+            super(session, new String[] { "fake" }, new String[] { "fake", "spo" });
+        }
+
+        @Override
+        public TriplestoreSession get() {
+            leases++;
+            return super.get();
+        }
+
+        @Override
+        public TriplestoreSession get(long timeoutMs) {
+            leases++;
+            return super.get(timeoutMs);
+        }
+    }
+
+    /**
+     * A session with three results for every query, which counts them
+     * as <code>count</code>.
+     */
+    private static class Session implements CountingSession {
+
+        int count;
+        int queries;
+
+        public int countTuples(String queryText, String language) {
+            return count;
+        }
+
+        public int countTriples(String lang, String queryText) {
+            return count;
+        }
+
+        public int countTriples(SubjectNode subject,
+                                PredicateNode predicate,
+                                ObjectNode object) {
+            return count;
+        }
+
+        public TupleIterator query(String queryText, String language) {
+            queries++;
+            return new TupleIterator() {
+
+                private final String[] m_names = new String[] { "s" };
+                private int m_next = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return m_next < 3;
+                }
+
+                @Override
+                public Map<String, Node> next() {
+                    try {
+                        return new TupleRow(m_names, new Node[] {
+                                new RDFUtil().createResource(
+                                        new URI("urn:" + m_next++)) });
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+
+                @Override
+                public String[] names() {
+                    return m_names;
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+
+        public TripleIterator findTriples(String lang, String queryText) {
+            queries++;
+            Set<Triple> triples = new HashSet<Triple>();
+            try {
+                RDFUtil util = new RDFUtil();
+                for (int i = 0; i < 3; i++) {
+                    triples.add(util.createTriple(
+                            util.createResource(new URI("urn:s" + i)),
+                            util.createResource(new URI("urn:p")),
+                            util.createResource(new URI("urn:o"))));
+                }
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+            return new SimpleTripleIterator(triples, new DefaultAliasManager());
+        }
+
+        public TripleIterator findTriples(SubjectNode subject,
+                                          PredicateNode predicate,
+                                          ObjectNode object) {
+            return findTriples("spo", null);
+        }
+
+        public void add(Set<Triple> triples) {
+        }
+
+        public void delete(Set<Triple> triples) {
+        }
+
+        public String[] listTupleLanguages() {
+            return new String[] { "fake" };
+        }
+
+        public String[] listTripleLanguages() {
+            return new String[] { "fake", "spo" };
+        }
+
+        public void close() {
+        }
+    }
+
+}
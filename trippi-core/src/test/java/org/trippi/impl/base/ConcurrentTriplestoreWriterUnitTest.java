@@ -0,0 +1,369 @@
+package org.trippi.impl.base;
+
+import java.io.File;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.jrdf.graph.ObjectNode;
+import org.jrdf.graph.PredicateNode;
+import org.jrdf.graph.SubjectNode;
+import org.jrdf.graph.Triple;
+import org.trippi.RDFUtil;
+import org.trippi.TripleIterator;
+import org.trippi.TrippiException;
+import org.trippi.TupleIterator;
+import org.trippi.io.SimpleTripleIterator;
+import org.trippi.io.TripleIteratorFactory;
+
+public class ConcurrentTriplestoreWriterUnitTest extends TestCase {
+
+    private TripleIteratorFactory m_factory;
+    private BlockingSession m_session;
+    private ConcurrentTriplestoreWriter m_writer;
+    private File m_journalDir;
+
+    public ConcurrentTriplestoreWriterUnitTest(String name) throws Exception {
+        super(name);
+    }
+
+    @Override
+    public void setUp() throws Exception {
+        m_factory = new TripleIteratorFactory();
+        m_session = new BlockingSession();
+        // flushes only happen on overflow or on demand
+        m_writer = newWriter(new MemUpdateBuffer(10, 100), 1000000, 3600);
+    }
+
+    private ConcurrentTriplestoreWriter newWriter(UpdateBuffer buffer,
+                                                  int autoFlushBufferSize,
+                                                  int autoFlushDormantSeconds)
+            throws Exception {
+        return new ConcurrentTriplestoreWriter(
+                new SingleSessionPool(m_session, new String[0], new String[0]),
+                new DefaultAliasManager(),
+                m_session,
+                buffer,
+                m_factory,
+                autoFlushBufferSize,
+                autoFlushDormantSeconds);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        m_session.release.countDown();
+        m_writer.close();
+        m_factory.shutdown();
+        if (m_journalDir != null) {
+            File[] files = m_journalDir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            m_journalDir.delete();
+        }
+    }
+
+    public void testWritesContinueDuringPipelinedFlush() throws Exception {
+        m_writer.setPipelinedFlush(1);
+        m_writer.add(triples(0, 11), false);
+        assertTrue("Overflow was not handed to the flusher",
+                   m_session.entered.await(10, TimeUnit.SECONDS));
+        assertEquals(1, m_writer.getFlushGenerationDepth());
+
+        // the flusher is stuck in the session, but this lands in the new buffer
+        Thread writer = adder(11, 16);
+        writer.start();
+        writer.join(10000);
+        assertFalse("Writer waited for the flush", writer.isAlive());
+        assertEquals(0, m_writer.getWriterWaitCount());
+        assertEquals(5, m_writer.getBufferSize());
+        assertEquals(5, m_writer.findBufferedUpdates(null, null, null,
+                UpdateBuffer.EITHER_UPDATE_TYPE).size());
+
+        m_session.release.countDown();
+        m_writer.flushBuffer();
+        assertEquals(0, m_writer.getFlushGenerationDepth());
+        assertEquals(16, m_session.size());
+    }
+
+    public void testWritersWaitWhenGenerationsAreInFlight() throws Exception {
+        m_writer.setPipelinedFlush(1);
+        m_writer.add(triples(0, 11), false);
+        assertTrue(m_session.entered.await(10, TimeUnit.SECONDS));
+
+        // this overflows the new buffer with the only generation in flight
+        Thread writer = adder(11, 22);
+        writer.start();
+        waitUntilWaiting(writer);
+        assertEquals(1, m_writer.getFlushGenerationDepth());
+        assertEquals(0, m_writer.getWriterWaitCount());
+
+        // finishing the flush signals the writer, which swaps its overflow out
+        m_session.release.countDown();
+        writer.join(10000);
+        assertFalse("Writer was not woken by the flush", writer.isAlive());
+        assertEquals(1, m_writer.getWriterWaitCount());
+
+        m_writer.flushBuffer();
+        assertEquals(22, m_session.size());
+    }
+
+    public void testDormantCheckRearmsFromLastWrite() throws Exception {
+        m_session.release.countDown();
+        m_writer.close();
+        m_writer = newWriter(new MemUpdateBuffer(10, 100), 1000000, 1);
+
+        m_writer.add(triples(0, 1), false);
+        Thread.sleep(500);
+        // lands while the check is armed, so the check has to re-arm
+        long lastWrite = System.nanoTime();
+        m_writer.add(triples(1, 2), false);
+        waitForSize(2);
+        long idleMs = (m_session.lastAdd() - lastWrite) / 1000000;
+        assertTrue("Flushed after only " + idleMs + "ms idle", idleMs >= 900);
+
+        // the check is armed again by the next write after a flush
+        m_writer.add(triples(2, 3), false);
+        waitForSize(3);
+    }
+
+    public void testFailedAutoFlushBacksOff() throws Exception {
+        checkFailedAutoFlushBacksOff(false);
+    }
+
+    public void testFailedPipelinedFlushBacksOff() throws Exception {
+        checkFailedAutoFlushBacksOff(true);
+    }
+
+    private void checkFailedAutoFlushBacksOff(boolean pipelined) throws Exception {
+        m_session.release.countDown();
+        m_writer.close();
+        m_journalDir = File.createTempFile("trippi-journal", "");
+        m_journalDir.delete();
+        m_writer = newWriter(new JournalUpdateBuffer(10, 100, m_journalDir), 1, 1);
+        if (pipelined) m_writer.setPipelinedFlush(1);
+
+        m_session.failures = 1;
+        m_writer.add(triples(0, 1), false);
+        waitForSize(1);
+        assertEquals(2, m_session.adds.size());
+        long retryMs = (m_session.adds.get(1) - m_session.adds.get(0)) / 1000000;
+        assertTrue("Retried after only " + retryMs + "ms", retryMs >= 900);
+        // the generation is dropped just after it has been written
+        for (int i = 0; i < 1000 && m_writer.getBufferSize() > 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, m_writer.getBufferSize());
+    }
+
+    public void testBulkAddDoesNotHoldUpFlushes() throws Exception {
+        m_session.release.countDown();
+        m_writer.close();
+        final BlockingSession pooled = new BlockingSession();
+        m_writer = new ConcurrentTriplestoreWriter(
+                new SingleSessionPool(pooled, new String[0], new String[0]),
+                new DefaultAliasManager(),
+                m_session,
+                new MemUpdateBuffer(10, 100),
+                m_factory,
+                1000000,
+                3600);
+
+        final long[] loaded = new long[1];
+        Thread loader = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    loaded[0] = m_writer.bulkAdd(iterator(0, 25), 10, null);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        loader.start();
+        try {
+            assertTrue("Bulk load didn't use the pooled session",
+                       pooled.entered.await(10, TimeUnit.SECONDS));
+
+            // the load is stuck, but regular updates still get flushed
+            Thread writer = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        m_writer.add(triples(100, 101), true);
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            writer.start();
+            writer.join(10000);
+            assertFalse("Flush waited for the bulk load", writer.isAlive());
+            assertEquals(1, m_session.size());
+        } finally {
+            pooled.release.countDown();
+        }
+        loader.join(10000);
+        assertFalse(loader.isAlive());
+        assertEquals(25, loaded[0]);
+        assertEquals(25, pooled.size());
+    }
+
+    public void testBulkAddSharesUpdateSessionWhenPoolHasNoneToSpare() throws Exception {
+        m_session.release.countDown();
+        m_writer.add(triples(100, 101), false);
+        // the pool only has the update session itself
+        assertEquals(25, m_writer.bulkAdd(iterator(0, 25), 10, null));
+        assertEquals("Buffer wasn't flushed first", 0, m_writer.getBufferSize());
+        assertEquals(26, m_session.size());
+        assertEquals(4, m_session.adds.size());
+    }
+
+    public void testListenersNotifiedOncePerFlush() throws Exception {
+        m_session.release.countDown();
+        m_writer.close();
+        m_writer = newWriter(new MemUpdateBuffer(100, 3), 1000000, 3600);
+        final List<Set<PredicateNode>> updates = new ArrayList<Set<PredicateNode>>();
+        m_writer.addUpdateListener(new UpdateListener() {
+            public void triplesUpdated(Set<PredicateNode> predicates) {
+                updates.add(predicates);
+            }
+        });
+
+        m_writer.add(triples(0, 10), true);
+        assertTrue("Flush wasn't batched", m_session.adds.size() > 1);
+        assertEquals(1, updates.size());
+        assertEquals(Collections.singleton(triples(0, 1).get(0).getPredicate()),
+                     updates.get(0));
+
+        // nothing to flush, nothing to report
+        m_writer.flushBuffer();
+        assertEquals(1, updates.size());
+    }
+
+    private void waitForSize(int size) throws Exception {
+        for (int i = 0; i < 1000 && m_session.size() < size; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(size, m_session.size());
+    }
+
+    private Thread adder(final int from, final int to) {
+        return new Thread() {
+            @Override
+            public void run() {
+                try {
+                    m_writer.add(triples(from, to), false);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+    }
+
+    private static void waitUntilWaiting(Thread thread) throws Exception {
+        for (int i = 0; i < 1000 && thread.getState() != Thread.State.WAITING; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(Thread.State.WAITING, thread.getState());
+    }
+
+    private static TripleIterator iterator(int from, int to) throws Exception {
+        return new SimpleTripleIterator(new HashSet<Triple>(triples(from, to)),
+                                        new DefaultAliasManager());
+    }
+
+    private static List<Triple> triples(int from, int to) throws Exception {
+        RDFUtil util = new RDFUtil();
+        List<Triple> triples = new ArrayList<Triple>();
+        for (int i = from; i < to; i++) {
+            triples.add(util.createTriple(util.createResource(new URI("urn:s" + i)),
+                                          util.createResource(new URI("urn:p")),
+                                          util.createResource(new URI("urn:o"))));
+        }
+        return triples;
+    }
+
+    /**
+     * A session whose first non-empty write blocks until released, and
+     * which fails the next <code>failures</code> non-empty writes.
+     */
+    private static class BlockingSession implements TriplestoreSession {
+
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Long> adds = Collections.synchronizedList(new ArrayList<Long>());
+        volatile int failures;
+        private Set<Triple> m_triples = new HashSet<Triple>();
+
+        public void add(Set<Triple> triples) throws TrippiException {
+            if (!triples.isEmpty()) {
+                adds.add(System.nanoTime());
+                if (failures > 0) {
+                    failures--;
+                    throw new TrippiException("Triplestore unavailable");
+                }
+                entered.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new TrippiException("Interrupted", e);
+                }
+            }
+            synchronized (m_triples) {
+                m_triples.addAll(triples);
+            }
+        }
+
+        public void delete(Set<Triple> triples) {
+            synchronized (m_triples) {
+                m_triples.removeAll(triples);
+            }
+        }
+
+        long lastAdd() {
+            return adds.get(adds.size() - 1);
+        }
+
+        int size() {
+            synchronized (m_triples) {
+                return m_triples.size();
+            }
+        }
+
+        public TupleIterator query(String queryText, String language) {
+            return null;
+        }
+
+        public TripleIterator findTriples(String lang, String queryText) {
+            return null;
+        }
+
+        public TripleIterator findTriples(SubjectNode subject,
+                                          PredicateNode predicate,
+                                          ObjectNode object) {
+            return null;
+        }
+
+        public String[] listTupleLanguages() {
+            return new String[0];
+        }
+
+        public String[] listTripleLanguages() {
+            return new String[0];
+        }
+
+        public void close() {
+        }
+    }
+
+}
@@ -0,0 +1,173 @@
+package org.trippi.impl.base;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.jrdf.graph.Node;
+import org.jrdf.graph.Triple;
+import org.trippi.RDFUtil;
+import org.trippi.TripleIterator;
+import org.trippi.TupleIterator;
+
+public class DistinctFilterUnitTest extends TestCase {
+
+    private RDFUtil m_util;
+
+    public DistinctFilterUnitTest(String name) throws Exception {
+        super(name);
+    }
+
+    @Override
+    public void setUp() throws Exception {
+        m_util = new RDFUtil();
+    }
+
+    public void testCollidingHashCodesAreKept() throws Exception {
+        // "Aa" and "BB" have the same String hash code
+        List<Map<String, Node>> rows = new ArrayList<Map<String, Node>>();
+        rows.add(row("Aa"));
+        rows.add(row("BB"));
+        rows.add(row("Aa"));
+        assertEquals(row("Aa").hashCode(), row("BB").hashCode());
+
+        DistinctTupleIterator iter = new DistinctTupleIterator(new ListTupleIterator(rows));
+        assertEquals(2, iter.count());
+    }
+
+    public void testUnboundValuesAreDistinct() throws Exception {
+        List<Map<String, Node>> rows = new ArrayList<Map<String, Node>>();
+        rows.add(new HashMap<String, Node>());
+        Map<String, Node> withNull = new HashMap<String, Node>();
+        withNull.put("x", null);
+        rows.add(withNull);
+        rows.add(new HashMap<String, Node>());
+
+        DistinctTupleIterator iter = new DistinctTupleIterator(new ListTupleIterator(rows));
+        assertEquals(2, iter.count());
+    }
+
+    public void testSpillsWhenOverBudget() throws Exception {
+        List<Triple> triples = new ArrayList<Triple>();
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < 5000; i++) {
+                triples.add(m_util.createTriple(m_util.createResource(new URI("urn:test:s" + i)),
+                                                m_util.createResource(new URI("urn:test:p")),
+                                                m_util.createLiteral("value " + i)));
+            }
+        }
+
+        DistinctTripleIterator iter = new DistinctTripleIterator(
+                new ListTripleIterator(triples), 64 * 1024);
+        Set<Triple> seen = new HashSet<Triple>();
+        int count = 0;
+        while (iter.hasNext()) {
+            assertTrue("Returned a duplicate", seen.add(iter.next()));
+            count++;
+        }
+        assertEquals(5000, count);
+        assertTrue("Nothing was spilled", iter.getSpilledRows() > 0);
+        assertTrue(iter.getSpilledBytes() > 0);
+        iter.close();
+    }
+
+    public void testKeepsInputOrderAcrossSpill() throws Exception {
+        // each value is repeated before and after the spill
+        List<Map<String, Node>> rows = new ArrayList<Map<String, Node>>();
+        List<Map<String, Node>> expected = new ArrayList<Map<String, Node>>();
+        for (int i = 0; i < 5000; i++) {
+            rows.add(row("value " + i));
+            if (i % 3 == 0) rows.add(row("value " + (i / 2)));
+            expected.add(row("value " + i));
+        }
+        rows.add(row("value 0"));
+        rows.add(row("value 4999"));
+
+        DistinctTupleIterator iter = new DistinctTupleIterator(
+                new ListTupleIterator(rows), 64 * 1024);
+        for (int i = 0; i < expected.size(); i++) {
+            assertTrue("Ended early at " + i, iter.hasNext());
+            assertEquals("Wrong row at " + i, expected.get(i), iter.next());
+        }
+        assertFalse("Returned a duplicate", iter.hasNext());
+        assertTrue("Nothing was spilled", iter.getSpilledRows() > 0);
+        iter.close();
+    }
+
+    public void testNoSpillWithinBudget() throws Exception {
+        List<Triple> triples = new ArrayList<Triple>();
+        for (int i = 0; i < 100; i++) {
+            triples.add(m_util.createTriple(m_util.createResource(new URI("urn:test:s" + (i % 10))),
+                                            m_util.createResource(new URI("urn:test:p")),
+                                            m_util.createLiteral("value")));
+        }
+        DistinctTripleIterator iter = new DistinctTripleIterator(new ListTripleIterator(triples));
+        assertEquals(10, iter.count());
+        assertEquals(0, iter.getSpilledRows());
+    }
+
+    private Map<String, Node> row(String value) throws Exception {
+        Map<String, Node> map = new HashMap<String, Node>();
+        map.put("x", m_util.createLiteral(value));
+        return map;
+    }
+
+    private static class ListTupleIterator extends TupleIterator {
+
+        private Iterator<Map<String, Node>> m_iter;
+
+        ListTupleIterator(List<Map<String, Node>> rows) {
+            m_iter = rows.iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return m_iter.hasNext();
+        }
+
+        @Override
+        public Map<String, Node> next() {
+            return m_iter.next();
+        }
+
+        @Override
+        public String[] names() {
+            return new String[] { "x" };
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static class ListTripleIterator extends TripleIterator {
+
+        private Iterator<Triple> m_iter;
+
+        ListTripleIterator(List<Triple> triples) {
+            m_iter = triples.iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return m_iter.hasNext();
+        }
+
+        @Override
+        public Triple next() {
+            return m_iter.next();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+}
@@ -0,0 +1,176 @@
+package org.trippi.impl.base;
+
+import java.io.File;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jrdf.graph.Triple;
+import org.trippi.RDFUtil;
+import org.trippi.TripleUpdate;
+
+public class JournalUpdateBufferUnitTest extends UpdateBufferUnitTest {
+
+    private List<File> _dirs = new ArrayList<File>();
+
+    public JournalUpdateBufferUnitTest(String name) throws Exception { super (name); }
+
+    @Override
+	public UpdateBuffer getBuffer(int safeCapacity,
+                                    int flushBatchSize) throws Exception {
+        return new JournalUpdateBuffer(safeCapacity, flushBatchSize,
+                                       newJournalDir(), 64 * 1024);
+    }
+
+    public void testUnflushedUpdatesAreReplayed() throws Exception {
+        File dir = newJournalDir();
+        RDFUtil util = new RDFUtil();
+        List<Triple> triples = new ArrayList<Triple>();
+        for (int i = 0; i < 5000; i++) {
+            triples.add(util.createTriple(util.createResource(new URI("urn:s" + i)),
+                                          util.createResource(new URI("urn:p")),
+                                          util.createLiteral("o" + i, "en")));
+        }
+
+        // small segments, so the updates span several files
+        UpdateBuffer buffer = new JournalUpdateBuffer(10000, 1000, dir, 16 * 1024);
+        buffer.add(triples);
+        buffer.delete(triples.get(0));
+        buffer.close();
+
+        buffer = new JournalUpdateBuffer(10000, 1000, dir, 16 * 1024);
+        try {
+            assertEquals(5001, buffer.size());
+            FakeTriplestoreSession session = new FakeTriplestoreSession();
+            buffer.flush(session);
+            assertEquals(0, buffer.size());
+            assertEquals(4999, session.size());
+        } finally {
+            buffer.close();
+        }
+
+        buffer = new JournalUpdateBuffer(10000, 1000, dir, 16 * 1024);
+        try {
+            assertEquals("Flushed updates were replayed", 0, buffer.size());
+        } finally {
+            buffer.close();
+        }
+    }
+
+    public void testActiveSegmentIsReusedAfterFlush() throws Exception {
+        File dir = newJournalDir();
+        UpdateBuffer buffer = new JournalUpdateBuffer(10000, 1000, dir, 16 * 1024);
+        try {
+            FakeTriplestoreSession session = new FakeTriplestoreSession();
+            for (int i = 0; i < 50; i++) {
+                buffer.add(triple("urn:s" + i, "o"));
+                buffer.flush(session);
+            }
+            assertEquals(50, session.size());
+            assertEquals("Flushes created new segments", 1, dir.listFiles().length);
+        } finally {
+            buffer.close();
+        }
+    }
+
+    public void testOnlyUnflushedUpdatesAreReplayed() throws Exception {
+        File dir = newJournalDir();
+        UpdateBuffer buffer = new JournalUpdateBuffer(10000, 1000, dir, 16 * 1024, true);
+        FakeTriplestoreSession session = new FakeTriplestoreSession();
+        buffer.add(triple("urn:s1", "o"));
+        buffer.flush(session);
+        buffer.add(triple("urn:s2", "o"));
+        buffer.close();
+
+        buffer = new JournalUpdateBuffer(10000, 1000, dir, 16 * 1024, true);
+        try {
+            assertEquals(1, buffer.size());
+            session = new FakeTriplestoreSession();
+            buffer.flush(session);
+            assertEquals(1, session.size());
+        } finally {
+            buffer.close();
+        }
+    }
+
+    public void testSwappedUpdatesStayJournaledUntilFlushed() throws Exception {
+        File dir = newJournalDir();
+        JournalUpdateBuffer buffer = new JournalUpdateBuffer(10000, 1000, dir, 16 * 1024);
+        buffer.add(triple("urn:s1", "o"));
+        buffer.swap();
+        buffer.add(triple("urn:s2", "o"));
+        buffer.close();
+
+        buffer = new JournalUpdateBuffer(10000, 1000, dir, 16 * 1024);
+        try {
+            assertEquals("Unflushed swapped updates were lost", 2, buffer.size());
+            UpdateBuffer generation = buffer.swap();
+            buffer.add(triple("urn:s3", "o"));
+            assertEquals(2, generation.size());
+            assertEquals(1, buffer.size());
+            FakeTriplestoreSession session = new FakeTriplestoreSession();
+            generation.flush(session);
+            assertEquals(2, session.size());
+            assertEquals(0, generation.size());
+        } finally {
+            buffer.close();
+        }
+
+        buffer = new JournalUpdateBuffer(10000, 1000, dir, 16 * 1024);
+        try {
+            assertEquals(1, buffer.size());
+        } finally {
+            buffer.close();
+        }
+    }
+
+    public void testFindBufferedUpdates() throws Exception {
+        UpdateBuffer buffer = new JournalUpdateBuffer(10000, 1000, newJournalDir(), 16 * 1024);
+        try {
+            for (int i = 0; i < 1000; i++) {
+                buffer.add(triple("urn:s" + (i % 10), "o" + i));
+            }
+            buffer.delete(triple("urn:s3", "o3"));
+            RDFUtil util = new RDFUtil();
+            List<TripleUpdate> found = buffer.findBufferedUpdates(
+                    util.createResource(new URI("urn:s3")), null, null,
+                    UpdateBuffer.EITHER_UPDATE_TYPE);
+            assertEquals(101, found.size());
+            found = buffer.findBufferedUpdates(null, null,
+                    util.createLiteral("o3", "en"), TripleUpdate.DELETE);
+            assertEquals(1, found.size());
+            assertEquals(triple("urn:s3", "o3"), found.get(0).triple);
+        } finally {
+            buffer.close();
+        }
+    }
+
+    private static Triple triple(String subject, String object) throws Exception {
+        RDFUtil util = new RDFUtil();
+        return util.createTriple(util.createResource(new URI(subject)),
+                                 util.createResource(new URI("urn:p")),
+                                 util.createLiteral(object, "en"));
+    }
+
+    @Override
+	public void tearDown() throws Exception {
+        super.tearDown();
+        for (File dir : _dirs) {
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            dir.delete();
+        }
+    }
+
+    private File newJournalDir() throws Exception {
+        File dir = File.createTempFile("trippi-journal", "");
+        dir.delete();
+        _dirs.add(dir);
+        return dir;
+    }
+
+}
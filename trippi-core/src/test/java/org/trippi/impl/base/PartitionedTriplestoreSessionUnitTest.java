@@ -0,0 +1,210 @@
+package org.trippi.impl.base;
+
+import java.net.URI;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+
+import org.jrdf.graph.ObjectNode;
+import org.jrdf.graph.PredicateNode;
+import org.jrdf.graph.SubjectNode;
+import org.jrdf.graph.Triple;
+import org.trippi.RDFUtil;
+import org.trippi.TripleIterator;
+import org.trippi.TrippiException;
+import org.trippi.TupleIterator;
+import org.trippi.io.SimpleTripleIterator;
+
+public class PartitionedTriplestoreSessionUnitTest extends TestCase {
+
+    private static final int PARTITIONS = 3;
+
+    private ExecutorService m_executor;
+    private Session[] m_sessions;
+    private PartitionedTriplestoreSession m_session;
+
+    public PartitionedTriplestoreSessionUnitTest(String name) throws Exception {
+        super(name);
+    }
+
+    @Override
+    public void setUp() {
+        m_executor = Executors.newFixedThreadPool(PARTITIONS);
+        m_sessions = new Session[PARTITIONS];
+        for (int i = 0; i < PARTITIONS; i++) {
+            m_sessions[i] = new Session();
+        }
+        m_session = new PartitionedTriplestoreSession(m_sessions, m_executor);
+    }
+
+    @Override
+    public void tearDown() {
+        m_executor.shutdownNow();
+    }
+
+    public void testAddsArePartitionedBySubject() throws Exception {
+        Set<Triple> triples = triples(0, 60);
+        m_session.add(triples);
+
+        int total = 0;
+        for (int i = 0; i < PARTITIONS; i++) {
+            for (Triple triple : m_sessions[i].triples) {
+                assertEquals("Triple written to the wrong partition",
+                             partitionOf(triple), i);
+            }
+            total += m_sessions[i].triples.size();
+        }
+        assertEquals("Triples lost or written twice", triples.size(), total);
+        for (int i = 0; i < PARTITIONS; i++) {
+            assertFalse("Partition " + i + " was never written",
+                        m_sessions[i].triples.isEmpty());
+        }
+    }
+
+    public void testTriplesWithTheSameSubjectStayTogether() throws Exception {
+        RDFUtil util = new RDFUtil();
+        SubjectNode subject = util.createResource(new URI("urn:s"));
+        Set<Triple> triples = new HashSet<Triple>();
+        for (int i = 0; i < 20; i++) {
+            triples.add(util.createTriple(subject,
+                    util.createResource(new URI("urn:p")),
+                    util.createLiteral("o" + i)));
+        }
+        m_session.add(triples);
+        int partition = partitionOf(triples.iterator().next());
+        assertEquals(triples, m_sessions[partition].triples);
+    }
+
+    public void testDeletesGoToTheSamePartitionsAsAdds() throws Exception {
+        m_session.add(triples(0, 60));
+        m_session.delete(triples(0, 30));
+
+        Set<Triple> remaining = triples(30, 60);
+        int total = 0;
+        for (int i = 0; i < PARTITIONS; i++) {
+            for (Triple triple : m_sessions[i].triples) {
+                assertTrue("Deleted triple survived", remaining.contains(triple));
+                assertEquals(partitionOf(triple), i);
+            }
+            total += m_sessions[i].triples.size();
+        }
+        assertEquals(remaining.size(), total);
+    }
+
+    public void testEmptyPartitionsAreNotWritten() throws Exception {
+        Set<Triple> triples = triples(0, 1);
+        m_session.add(triples);
+        int partition = partitionOf(triples.iterator().next());
+        for (int i = 0; i < PARTITIONS; i++) {
+            assertEquals(i == partition ? 1 : 0, m_sessions[i].writes);
+        }
+    }
+
+    // The partitions are sessions on the same triplestore, so a find must
+    // go to just one of them; asking them all would repeat every result.
+
+    public void testFindsGoToOneSession() throws Exception {
+        m_session.add(triples(0, 60));
+        TripleIterator iter = m_session.findTriples(null, null, null);
+        try {
+            assertEquals(m_sessions[0].triples.size(), iter.count());
+        } finally {
+            iter.close();
+        }
+        m_session.findTriples("spo", "* * *");
+        m_session.query("select", "fake");
+        assertEquals(3, m_sessions[0].finds);
+        for (int i = 1; i < PARTITIONS; i++) {
+            assertEquals(0, m_sessions[i].finds);
+        }
+    }
+
+    public void testFailedPartitionIsReportedAfterTheOthersAreWritten() throws Exception {
+        Set<Triple> triples = triples(0, 60);
+        m_sessions[1].fail = true;
+        try {
+            m_session.add(triples);
+            fail("Expected the failed partition to be reported");
+        } catch (TrippiException e) {
+            assertEquals("Partition unavailable", e.getMessage());
+        }
+        assertTrue(m_sessions[1].triples.isEmpty());
+        int total = m_sessions[0].triples.size() + m_sessions[2].triples.size();
+        int expected = 0;
+        for (Triple triple : triples) {
+            if (partitionOf(triple) != 1) expected++;
+        }
+        assertEquals(expected, total);
+    }
+
+    private static int partitionOf(Triple triple) {
+        return (triple.getSubject().hashCode() & 0x7fffffff) % PARTITIONS;
+    }
+
+    private static Set<Triple> triples(int from, int to) throws Exception {
+        RDFUtil util = new RDFUtil();
+        Set<Triple> triples = new HashSet<Triple>();
+        for (int i = from; i < to; i++) {
+            triples.add(util.createTriple(util.createResource(new URI("urn:s" + i)),
+                                          util.createResource(new URI("urn:p")),
+                                          util.createResource(new URI("urn:o"))));
+        }
+        return triples;
+    }
+
+    /**
+     * A session that records what is written to it and how often it is
+     * asked to find anything.
+     */
+    private static class Session implements TriplestoreSession {
+
+        Set<Triple> triples = new HashSet<Triple>();
+        volatile boolean fail;
+        int writes;
+        int finds;
+
+        public synchronized void add(Set<Triple> toAdd) throws TrippiException {
+            if (fail) throw new TrippiException("Partition unavailable");
+            writes++;
+            triples.addAll(toAdd);
+        }
+
+        public synchronized void delete(Set<Triple> toDelete) throws TrippiException {
+            if (fail) throw new TrippiException("Partition unavailable");
+            writes++;
+            triples.removeAll(toDelete);
+        }
+
+        public synchronized TupleIterator query(String queryText, String language) {
+            finds++;
+            return null;
+        }
+
+        public synchronized TripleIterator findTriples(String lang, String queryText) {
+            finds++;
+            return new SimpleTripleIterator(new HashSet<Triple>(triples),
+                                            new DefaultAliasManager());
+        }
+
+        public TripleIterator findTriples(SubjectNode subject,
+                                          PredicateNode predicate,
+                                          ObjectNode object) {
+            return findTriples("spo", null);
+        }
+
+        public String[] listTupleLanguages() {
+            return new String[0];
+        }
+
+        public String[] listTripleLanguages() {
+            return new String[0];
+        }
+
+        public void close() {
+        }
+    }
+
+}
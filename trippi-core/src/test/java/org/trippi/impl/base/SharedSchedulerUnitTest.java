@@ -0,0 +1,153 @@
+package org.trippi.impl.base;
+
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.jrdf.graph.ObjectNode;
+import org.jrdf.graph.PredicateNode;
+import org.jrdf.graph.SubjectNode;
+import org.jrdf.graph.Triple;
+import org.trippi.TripleIterator;
+import org.trippi.TrippiException;
+import org.trippi.TupleIterator;
+
+public class SharedSchedulerUnitTest extends TestCase {
+
+    public SharedSchedulerUnitTest(String name) throws Exception {
+        super(name);
+    }
+
+    public void testReferenceCounting() throws Exception {
+        int users = SharedScheduler.getUserCount();
+        ScheduledExecutorService first = SharedScheduler.acquire();
+        ScheduledExecutorService second = SharedScheduler.acquire();
+        assertSame(first, second);
+        assertEquals(users + 2, SharedScheduler.getUserCount());
+
+        SharedScheduler.release();
+        assertEquals(users + 1, SharedScheduler.getUserCount());
+        assertFalse("Scheduler stopped while still in use", first.isShutdown());
+
+        SharedScheduler.release();
+        assertEquals(users, SharedScheduler.getUserCount());
+        assertEquals("Scheduler not stopped by its last user",
+                     users == 0, first.isShutdown());
+
+        // a new user after the last one left gets a running scheduler
+        ScheduledExecutorService third = SharedScheduler.acquire();
+        try {
+            assertFalse(third.isShutdown());
+        } finally {
+            SharedScheduler.release();
+        }
+    }
+
+    public void testSlowSessionOpenDoesNotStallScheduler() throws Exception {
+        Factory factory = new Factory();
+        ConfigurableSessionPool pool = new ConfigurableSessionPool(factory, 1, 1, 1);
+        ScheduledExecutorService scheduler = SharedScheduler.acquire();
+        try {
+            // leasing the only session makes the pool open a spare,
+            // which hangs
+            factory.block = true;
+            assertNotNull(pool.get());
+            assertTrue("Spare session was never requested",
+                       factory.opening.await(10, TimeUnit.SECONDS));
+
+            final CountDownLatch ran = new CountDownLatch(1);
+            scheduler.execute(new Runnable() {
+                public void run() {
+                    ran.countDown();
+                }
+            });
+            assertTrue("Scheduler stalled behind a session open",
+                       ran.await(10, TimeUnit.SECONDS));
+
+            factory.release.countDown();
+            for (int i = 0; i < 1000 && pool.getFreeCount() == 0; i++) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, pool.getFreeCount());
+            assertEquals(2, factory.created.get());
+        } finally {
+            factory.release.countDown();
+            SharedScheduler.release();
+            pool.close();
+        }
+    }
+
+    /**
+     * A factory that, once told to, hangs opening sessions until released.
+     */
+    private static class Factory implements TriplestoreSessionFactory {
+
+        final CountDownLatch opening = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger created = new AtomicInteger();
+        volatile boolean block;
+
+        public TriplestoreSession newSession() throws TrippiException {
+            if (block) {
+                opening.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new TrippiException("Interrupted", e);
+                }
+            }
+            created.incrementAndGet();
+            return new Session();
+        }
+
+        public String[] listTripleLanguages() {
+            return new String[0];
+        }
+
+        public String[] listTupleLanguages() {
+            return new String[0];
+        }
+
+        public void close() {
+        }
+    }
+
+    private static class Session implements TriplestoreSession {
+
+        public void add(Set<Triple> triples) {
+        }
+
+        public void delete(Set<Triple> triples) {
+        }
+
+        public TupleIterator query(String queryText, String language) {
+            return null;
+        }
+
+        public TripleIterator findTriples(String lang, String queryText) {
+            return null;
+        }
+
+        public TripleIterator findTriples(SubjectNode subject,
+                                          PredicateNode predicate,
+                                          ObjectNode object) {
+            return null;
+        }
+
+        public String[] listTupleLanguages() {
+            return new String[0];
+        }
+
+        public String[] listTripleLanguages() {
+            return new String[0];
+        }
+
+        public void close() {
+        }
+    }
+
+}
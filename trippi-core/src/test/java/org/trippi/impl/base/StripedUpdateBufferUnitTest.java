@@ -0,0 +1,145 @@
+package org.trippi.impl.base;
+
+import java.net.URI;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.jrdf.graph.Triple;
+import org.trippi.RDFUtil;
+
+public class StripedUpdateBufferUnitTest extends UpdateBufferUnitTest {
+
+    public StripedUpdateBufferUnitTest(String name) throws Exception { super (name); }
+
+    @Override
+	public UpdateBuffer getBuffer(int safeCapacity,
+                                    int flushBatchSize) {
+        return new StripedUpdateBuffer(safeCapacity, flushBatchSize, 4);
+    }
+
+    // Each adder thread adds a triple to keep and a temporary triple, then
+    // hands the temporary one to its own deleter thread (on another stripe)
+    // while flushes run continuously.  If a delete were ever flushed ahead
+    // of the add it follows, that add would survive; if any update were
+    // lost, a kept triple would be missing.
+
+    public void testConcurrentAddsAndFlushesKeepOrderAcrossStripes() throws Exception {
+        final int numAdders = 4;
+        final int triplesPerAdder = 2000;
+        final UpdateBuffer buffer = getBuffer(100, 100);
+        FakeTriplestoreSession session = new FakeTriplestoreSession();
+        FlushingThread flusher = new FlushingThread(buffer, session, 1);
+        flusher.start();
+
+        Thread[] threads = new Thread[numAdders * 2];
+        final Exception[] errors = new Exception[threads.length];
+        for (int i = 0; i < numAdders; i++) {
+            final int adder = i;
+            final BlockingQueue<Triple> handOff = new LinkedBlockingQueue<Triple>();
+            threads[i * 2] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < triplesPerAdder; j++) {
+                            buffer.add(triple("urn:keep" + adder, j));
+                            Triple temp = triple("urn:temp" + adder, j);
+                            buffer.add(temp);
+                            handOff.put(temp);
+                        }
+                    } catch (Exception e) {
+                        errors[adder * 2] = e;
+                    }
+                }
+            };
+            threads[i * 2 + 1] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < triplesPerAdder; j++) {
+                            buffer.delete(handOff.take());
+                        }
+                    } catch (Exception e) {
+                        errors[adder * 2 + 1] = e;
+                    }
+                }
+            };
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].start();
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+            if (errors[i] != null) {
+                throw new Exception("Unexpected error in modder thread", errors[i]);
+            }
+        }
+        flusher.stopAfterNextFlush();
+        flusher.join();
+        if (flusher.getError() != null) {
+            throw new Exception("Unexpected error in flusher", flusher.getError());
+        }
+
+        assertEquals(0, buffer.size());
+        assertEquals("Updates were lost or reordered",
+                     numAdders * triplesPerAdder, session.size());
+        buffer.close();
+    }
+
+    public void testFailedAppendDoesNotHangFlush() throws Exception {
+        final UpdateBuffer buffer = getBuffer(100, 100);
+        final FakeTriplestoreSession session = new FakeTriplestoreSession();
+        final List<Triple> triples = new ArrayList<Triple>();
+        triples.add(triple("urn:s", 0));
+        triples.add(triple("urn:s", 1));
+        List<Triple> failing = new AbstractList<Triple>() {
+            @Override
+            public Triple get(int i) {
+                if (i == 1) throw new IllegalStateException("Unreadable triple");
+                return triples.get(i);
+            }
+            @Override
+            public int size() {
+                return triples.size();
+            }
+        };
+        try {
+            buffer.add(failing);
+            fail("Expected the add to fail");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        buffer.add(triples.get(1));
+
+        final Exception[] error = new Exception[1];
+        Thread flusher = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    buffer.flush(session);
+                } catch (Exception e) {
+                    error[0] = e;
+                }
+            }
+        };
+        flusher.setDaemon(true);
+        flusher.start();
+        flusher.join(10000);
+        assertFalse("Flush waited for an update that was never appended",
+                    flusher.isAlive());
+        assertNull(error[0]);
+        assertEquals(1, session.size());
+        assertEquals(0, buffer.size());
+        buffer.close();
+    }
+
+    private static Triple triple(String subject, int n) throws Exception {
+        RDFUtil util = new RDFUtil();
+        return util.createTriple(util.createResource(new URI(subject)),
+                                 util.createResource(new URI("urn:p")),
+                                 util.createResource(new URI("urn:o" + n)));
+    }
+
+}
@@ -0,0 +1,197 @@
+package org.trippi.impl.base;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.jrdf.graph.ObjectNode;
+import org.jrdf.graph.PredicateNode;
+import org.jrdf.graph.SubjectNode;
+import org.jrdf.graph.Triple;
+import org.trippi.TripleIterator;
+import org.trippi.TrippiException;
+import org.trippi.TupleIterator;
+import org.trippi.io.SimpleTripleIterator;
+
+public class SynchronizedTriplestoreSessionUnitTest extends TestCase {
+
+    private Session m_session;
+    private SynchronizedTriplestoreSession m_synch;
+
+    public SynchronizedTriplestoreSessionUnitTest(String name) throws Exception {
+        super(name);
+    }
+
+    @Override
+    public void setUp() {
+        m_session = new Session();
+        m_synch = new SynchronizedTriplestoreSession(m_session);
+    }
+
+    public void testReadersShareLock() throws Exception {
+        TripleIterator first = m_synch.findTriples("spo", "* * *");
+        Caller reader = new Caller(false);
+        reader.start();
+        reader.join(5000);
+        assertTrue(reader.done);
+        first.close();
+        reader.iter.close();
+    }
+
+    public void testWriterWaitsForReadersThenGoesFirst() throws Exception {
+        TripleIterator first = m_synch.findTriples("spo", "* * *");
+        Caller writer = new Caller(true);
+        writer.start();
+        waitUntilBlocked(writer);
+        Caller reader = new Caller(false);
+        reader.start();
+        waitUntilBlocked(reader);
+        assertEquals(0, m_session.updates.get());
+
+        long start = System.currentTimeMillis();
+        first.close();
+        writer.join(5000);
+        reader.join(5000);
+        assertTrue(System.currentTimeMillis() - start < 200);
+        assertTrue(writer.done);
+        assertTrue(reader.done);
+        assertEquals(1, m_session.updates.get());
+        // the reader arrived after the writer, so it must go after it
+        assertEquals("query,update,query", m_session.calls.toString());
+        reader.iter.close();
+        assertEquals(1, m_synch.getWriteWaitHistogram().getCount());
+        assertEquals(2, m_synch.getReadWaitHistogram().getCount());
+    }
+
+    public void testUpdateWhileIterating() throws Exception {
+        TripleIterator iter = m_synch.findTriples("spo", "* * *");
+        m_synch.delete(new HashSet<Triple>());
+        iter.close();
+        assertEquals(1, m_session.updates.get());
+        Caller writer = new Caller(true);
+        writer.start();
+        writer.join(5000);
+        assertTrue(writer.done);
+    }
+
+    public void testIteratorClosedOnAnotherThreadReleasesLock() throws Exception {
+        final TripleIterator iter = m_synch.findTriples("spo", "* * *");
+        Thread closer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    iter.close();
+                } catch (TrippiException e) {
+                }
+            }
+        };
+        closer.start();
+        closer.join(5000);
+        Caller writer = new Caller(true);
+        writer.start();
+        writer.join(5000);
+        assertTrue(writer.done);
+    }
+
+    public void testNoLocksAfterClose() throws Exception {
+        m_synch.close();
+        assertTrue(m_session.closed);
+        try {
+            m_synch.findTriples("spo", "* * *");
+            fail("Expected closed session to refuse queries");
+        } catch (TrippiException e) {
+            // expected
+        }
+    }
+
+    private static void waitUntilBlocked(Thread thread) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (thread.getState() != Thread.State.WAITING) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    /**
+     * Queries or updates the session from its own thread.
+     */
+    private class Caller extends Thread {
+
+        private final boolean m_write;
+        volatile boolean done;
+        volatile TripleIterator iter;
+
+        Caller(boolean write) {
+            m_write = write;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (m_write) {
+                    m_synch.add(new HashSet<Triple>());
+                } else {
+                    iter = m_synch.findTriples("spo", "* * *");
+                }
+                done = true;
+            } catch (TrippiException e) {
+            }
+        }
+    }
+
+    private static class Session implements TriplestoreSession {
+
+        AtomicInteger updates = new AtomicInteger();
+        StringBuffer calls = new StringBuffer();
+        volatile boolean closed;
+
+        public void add(Set<Triple> triples) {
+            updated();
+        }
+
+        public void delete(Set<Triple> triples) {
+            updated();
+        }
+
+        private synchronized void updated() {
+            updates.incrementAndGet();
+            called("update");
+        }
+
+        private synchronized void called(String call) {
+            if (calls.length() > 0) calls.append(',');
+            calls.append(call);
+        }
+
+        public TupleIterator query(String queryText, String language) {
+            return null;
+        }
+
+        public TripleIterator findTriples(String lang, String queryText) {
+            called("query");
+            return new SimpleTripleIterator(new HashSet<Triple>(),
+                                            new DefaultAliasManager());
+        }
+
+        public TripleIterator findTriples(SubjectNode subject,
+                                          PredicateNode predicate,
+                                          ObjectNode object) {
+            return findTriples("spo", null);
+        }
+
+        public String[] listTupleLanguages() {
+            return new String[0];
+        }
+
+        public String[] listTripleLanguages() {
+            return new String[0];
+        }
+
+        public void close() {
+            closed = true;
+        }
+    }
+
+}
@@ -92,6 +92,30 @@ public abstract class UpdateBufferUnitTest extends TestCase {
         assertEquals(5, _buffer.size());
     }
 
+    // Test that swapping detaches what's buffered so far, in order
+
+    public void testSwapDetachesBufferedUpdates() throws Exception {
+        _buffer = getBuffer(10, 5);
+        if (!(_buffer instanceof SwappableUpdateBuffer)) return;
+        Triple triple = getTriple(1, 1, 1);
+        _buffer.add(triple);
+        _buffer.add(getTriple(1, 1, 2));
+        UpdateBuffer generation = ((SwappableUpdateBuffer) _buffer).swap();
+        _buffer.delete(triple);
+        assertEquals(2, generation.size());
+        assertEquals(1, _buffer.size());
+        assertEquals(2, generation.findBufferedUpdates(null, null, null,
+                UpdateBuffer.EITHER_UPDATE_TYPE).size());
+
+        FakeTriplestoreSession session = new FakeTriplestoreSession();
+        generation.flush(session);
+        assertEquals(0, generation.size());
+        assertEquals(2, session.size());
+        _buffer.flush(session);
+        assertEquals(1, session.size());
+        generation.close();
+    }
+
     // Test that adding to buffer can occur at the same time,
     // on a different thread from the flush
 
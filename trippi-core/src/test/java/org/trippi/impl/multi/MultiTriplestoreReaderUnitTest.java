@@ -0,0 +1,178 @@
+package org.trippi.impl.multi;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.jrdf.graph.Node;
+import org.trippi.TriplestoreReader;
+import org.trippi.TriplestoreWriter;
+import org.trippi.TrippiException;
+import org.trippi.TupleIterator;
+import org.trippi.io.TripleIteratorFactory;
+
+public class MultiTriplestoreReaderUnitTest extends TestCase {
+
+    private Backend[] m_backends;
+
+    public MultiTriplestoreReaderUnitTest(String name) throws Exception {
+        super(name);
+    }
+
+    @Override
+    public void setUp() {
+        m_backends = new Backend[] { new Backend(), new Backend() };
+    }
+
+    public void testRoutesToLeastOutstanding() throws Exception {
+        MultiTriplestoreReader reader = create(MultiTriplestoreReader.LEAST_OUTSTANDING, 0);
+        TupleIterator first = reader.findTuples("itql", "q", 0, false);
+        TupleIterator second = reader.findTuples("itql", "q", 0, false);
+        assertEquals(1, m_backends[0].queries);
+        assertEquals(1, m_backends[1].queries);
+        assertEquals(1, reader.getOutstandingQueries()[0]);
+        first.close();
+        second.close();
+        assertEquals(0, reader.getOutstandingQueries()[0]);
+        assertEquals(0, reader.getOutstandingQueries()[1]);
+        assertEquals(3, reader.countTuples("itql", "q", 0, false));
+        assertEquals(0, reader.getOutstandingQueries()[0]);
+    }
+
+    public void testFailsOverAndBacksOff() throws Exception {
+        MultiTriplestoreReader reader = create(MultiTriplestoreReader.LEAST_OUTSTANDING, 0);
+        m_backends[0].broken = true;
+        reader.findTuples("itql", "q", 0, false).close();
+        assertEquals(1, m_backends[0].queries);
+        assertEquals(1, m_backends[1].queries);
+        m_backends[0].broken = false;
+        reader.findTuples("itql", "q", 0, false).close();
+        assertEquals(1, m_backends[0].queries);
+        assertEquals(2, m_backends[1].queries);
+        assertEquals(0, reader.getOutstandingQueries()[0]);
+    }
+
+    public void testBadQueryFailsWithoutBackingOff() throws Exception {
+        MultiTriplestoreReader reader = create(MultiTriplestoreReader.LEAST_OUTSTANDING, 0);
+        m_backends[0].broken = true;
+        m_backends[1].broken = true;
+        try {
+            reader.findTuples("itql", "q", 0, false);
+            fail("Expected query to fail");
+        } catch (TrippiException e) {
+            assertEquals("backend failed", e.getMessage());
+        }
+        m_backends[0].broken = false;
+        m_backends[1].broken = false;
+        reader.findTuples("itql", "q", 0, false).close();
+        assertEquals(2, m_backends[0].queries);
+    }
+
+    public void testSkipsLaggingStores() throws Exception {
+        MultiTriplestoreReader reader = create(MultiTriplestoreReader.LEAST_OUTSTANDING, 10);
+        Backend writer0 = new Backend();
+        Backend writer1 = new Backend();
+        writer0.bufferSize = 50;
+        writer1.bufferSize = 45;
+        MultiTriplestoreWriter writer = new MultiTriplestoreWriter(reader,
+                new TriplestoreWriter[] { writer0.writer(), writer1.writer() },
+                new TripleIteratorFactory());
+        reader.setWriter(writer);
+        TupleIterator first = reader.findTuples("itql", "q", 0, false);
+        reader.findTuples("itql", "q", 0, false).close();
+        assertEquals(1, m_backends[0].queries);
+        assertEquals(1, m_backends[1].queries);
+        first.close();
+        writer0.bufferSize = 60;
+        for (int i = 0; i < 3; i++) {
+            reader.findTuples("itql", "q", 0, false).close();
+        }
+        assertEquals(1, m_backends[0].queries);
+        assertEquals(4, m_backends[1].queries);
+    }
+
+    public void testLatencyRoutingPrefersFasterStore() throws Exception {
+        MultiTriplestoreReader reader = create(MultiTriplestoreReader.LOWEST_LATENCY, 0);
+        m_backends[0].delayMs = 30;
+        for (int i = 0; i < 5; i++) {
+            reader.findTuples("itql", "q", 0, false).close();
+        }
+        assertEquals(1, m_backends[0].queries);
+        assertEquals(4, m_backends[1].queries);
+        assertTrue(reader.getLatencyMillis()[0] >= 20);
+    }
+
+    private MultiTriplestoreReader create(int routing, long maxLag) {
+        TriplestoreReader[] readers = new TriplestoreReader[m_backends.length];
+        for (int i = 0; i < m_backends.length; i++) {
+            readers[i] = m_backends[i].reader();
+        }
+        return new MultiTriplestoreReader(readers, routing, maxLag);
+    }
+
+    /**
+     * Answers every query with an empty result (or a count of 3),
+     * optionally slowly or by failing.
+     */
+    private static class Backend implements InvocationHandler {
+
+        volatile int queries;
+        volatile boolean broken;
+        volatile long delayMs;
+        volatile int bufferSize;
+
+        TriplestoreReader reader() {
+            return (TriplestoreReader) Proxy.newProxyInstance(
+                    getClass().getClassLoader(),
+                    new Class<?>[] { TriplestoreReader.class }, this);
+        }
+
+        TriplestoreWriter writer() {
+            return (TriplestoreWriter) Proxy.newProxyInstance(
+                    getClass().getClassLoader(),
+                    new Class<?>[] { TriplestoreWriter.class }, this);
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args)
+                throws Throwable {
+            String name = method.getName();
+            if (name.equals("getBufferSize")) {
+                return Integer.valueOf(bufferSize);
+            }
+            if (name.startsWith("find") || name.startsWith("count")) {
+                queries++;
+                if (delayMs > 0) Thread.sleep(delayMs);
+                if (broken) throw new TrippiException("backend failed");
+                if (name.startsWith("count")) return Integer.valueOf(3);
+                return new EmptyTupleIterator();
+            }
+            return null;
+        }
+    }
+
+    private static class EmptyTupleIterator extends TupleIterator {
+
+        @Override
+        public boolean hasNext() {
+            return false;
+        }
+
+        @Override
+        public Map<String, Node> next() {
+            return null;
+        }
+
+        @Override
+        public String[] names() {
+            return new String[0];
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+}
@@ -0,0 +1,274 @@
+package org.trippi.impl.multi;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.jrdf.graph.Triple;
+import org.trippi.RDFUtil;
+import org.trippi.TripleIterator;
+import org.trippi.TriplestoreWriter;
+import org.trippi.TrippiException;
+import org.trippi.impl.base.DefaultAliasManager;
+import org.trippi.io.SimpleTripleIterator;
+import org.trippi.io.TripleIteratorFactory;
+
+public class MultiTriplestoreWriterUnitTest extends TestCase {
+
+    private TripleIteratorFactory m_factory;
+    private List<Triple> m_triples;
+
+    public MultiTriplestoreWriterUnitTest(String name) throws Exception {
+        super(name);
+    }
+
+    @Override
+    public void setUp() throws Exception {
+        m_factory = new TripleIteratorFactory();
+        RDFUtil util = new RDFUtil();
+        m_triples = new ArrayList<Triple>();
+        for (int i = 0; i < 2500; i++) {
+            m_triples.add(util.createTriple(
+                    util.createResource(new URI("urn:test:s" + i)),
+                    util.createResource(new URI("urn:test:p")),
+                    util.createLiteral("" + i)));
+        }
+    }
+
+    @Override
+    public void tearDown() {
+        m_factory.shutdown();
+    }
+
+    public void testSlowWriterDoesNotHoldUpCallers() throws Exception {
+        Recorder fast = new Recorder(0);
+        Recorder slow = new Recorder(0);
+        slow.gate = new CountDownLatch(1);
+        final MultiTriplestoreWriter writer = create(5000, fast, slow);
+        // as many updates as the slow writer's queue holds
+        Thread caller = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < 4; i++) {
+                        writer.add(m_triples.subList(i, i + 1), false);
+                    }
+                } catch (TrippiException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        caller.start();
+        try {
+            caller.join(10000);
+            assertFalse("Caller waited for the slow writer", caller.isAlive());
+            assertEquals(0, slow.added.size());
+        } finally {
+            slow.gate.countDown();
+        }
+        writer.flushBuffer();
+        assertEquals(4, fast.added.size());
+        assertEquals(4, slow.added.size());
+        assertEquals(1, slow.flushes);
+        assertEquals(0, writer.getPendingUpdates()[1]);
+        writer.close();
+    }
+
+    public void testIteratorIsClosedBeforeWaitingForFlush() throws Exception {
+        Recorder a = new Recorder(0);
+        a.gate = new CountDownLatch(1);
+        // long enough that the flush can't time out while we wait
+        final MultiTriplestoreWriter writer = create(60000, a);
+        final ListTripleIterator iter = new ListTripleIterator(m_triples);
+        Thread caller = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    writer.add(iter, true);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        caller.start();
+        try {
+            assertTrue("Iterator was held open during the flush",
+                       iter.closed.await(10, TimeUnit.SECONDS));
+            assertEquals(0, a.flushes);
+        } finally {
+            a.gate.countDown();
+        }
+        caller.join(10000);
+        assertFalse(caller.isAlive());
+        assertEquals(m_triples, a.added);
+        assertEquals(1, a.flushes);
+        writer.close();
+    }
+
+    public void testIteratorIsReadOnceForAllWriters() throws Exception {
+        Recorder a = new Recorder(0);
+        Recorder b = new Recorder(0);
+        MultiTriplestoreWriter writer = create(5000, a, b);
+        Set<Triple> set = new LinkedHashSet<Triple>(m_triples);
+        writer.add(new SimpleTripleIterator(set, new DefaultAliasManager()), true);
+        assertEquals(m_triples, a.added);
+        assertEquals(m_triples, b.added);
+        assertEquals(3, a.lists);
+        assertEquals(1, b.flushes);
+        writer.close();
+    }
+
+    public void testFlushTimesOutAndReportsLag() throws Exception {
+        Recorder ok = new Recorder(0);
+        Recorder stuck = new Recorder(0);
+        stuck.gate = new CountDownLatch(1);
+        MultiTriplestoreWriter writer = create(300, ok, stuck);
+        try {
+            writer.add(m_triples, true);
+            fail("Expected flush to time out");
+        } catch (TrippiException e) {
+            // expected
+        }
+        assertEquals(0, writer.getPendingUpdates()[0]);
+        assertEquals(2, writer.getPendingUpdates()[1]);
+        assertTrue(writer.getLagMillis()[1] >= 200);
+        stuck.gate.countDown();
+        writer.flushBuffer();
+        assertEquals(m_triples, stuck.added);
+        assertEquals(0, writer.getLagMillis()[1]);
+        writer.close();
+    }
+
+    public void testWriteLagCountsTriples() throws Exception {
+        Recorder ok = new Recorder(0);
+        Recorder stuck = new Recorder(0);
+        stuck.gate = new CountDownLatch(1);
+        MultiTriplestoreWriter writer = create(300, ok, stuck);
+        writer.add(m_triples, false);
+        try {
+            writer.delete(m_triples.get(0), true);
+            fail("Expected flush to time out");
+        } catch (TrippiException e) {
+            // expected
+        }
+        try {
+            // two queued updates, but the lag is in triples
+            assertEquals(0, writer.getWriteLag()[0]);
+            assertEquals(m_triples.size() + 1, writer.getWriteLag()[1]);
+        } finally {
+            stuck.gate.countDown();
+        }
+        writer.flushBuffer();
+        assertEquals(0, writer.getWriteLag()[1]);
+        writer.close();
+    }
+
+    public void testCloseAppliesQueuedUpdatesFirst() throws Exception {
+        Recorder a = new Recorder(50);
+        MultiTriplestoreWriter writer = create(5000, a);
+        writer.delete(m_triples.get(0), false);
+        writer.delete(m_triples.get(1), false);
+        writer.close();
+        assertEquals(2, a.deleted.size());
+        assertTrue(a.closed);
+        try {
+            writer.flushBuffer();
+            fail("Expected closed writer to refuse updates");
+        } catch (TrippiException e) {
+            // expected
+        }
+    }
+
+    private MultiTriplestoreWriter create(long flushTimeoutMs, Recorder... recorders) {
+        TriplestoreWriter[] writers = new TriplestoreWriter[recorders.length];
+        for (int i = 0; i < recorders.length; i++) {
+            writers[i] = (TriplestoreWriter) Proxy.newProxyInstance(
+                    getClass().getClassLoader(),
+                    new Class<?>[] { TriplestoreWriter.class },
+                    recorders[i]);
+        }
+        return new MultiTriplestoreWriter(null, writers, m_factory, 4, flushTimeoutMs);
+    }
+
+    private static class ListTripleIterator extends TripleIterator {
+
+        final CountDownLatch closed = new CountDownLatch(1);
+        private Iterator<Triple> m_iter;
+
+        ListTripleIterator(List<Triple> triples) {
+            m_iter = triples.iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return m_iter.hasNext();
+        }
+
+        @Override
+        public Triple next() {
+            return m_iter.next();
+        }
+
+        @Override
+        public void close() {
+            closed.countDown();
+        }
+    }
+
+    /**
+     * Records the updates made to a writer, optionally taking a while
+     * to apply each one.
+     */
+    private static class Recorder implements InvocationHandler {
+
+        final List<Triple> added = Collections.synchronizedList(new ArrayList<Triple>());
+        final List<Triple> deleted = Collections.synchronizedList(new ArrayList<Triple>());
+        volatile int lists;
+        volatile int flushes;
+        volatile boolean closed;
+        volatile CountDownLatch gate;
+        private final long m_delayMs;
+
+        Recorder(long delayMs) {
+            m_delayMs = delayMs;
+        }
+
+        @SuppressWarnings("unchecked")
+        public Object invoke(Object proxy, Method method, Object[] args)
+                throws Throwable {
+            String name = method.getName();
+            if (name.equals("getBufferSize")) {
+                return Integer.valueOf(0);
+            }
+            if (gate != null) gate.await();
+            if (m_delayMs > 0) Thread.sleep(m_delayMs);
+            if (name.equals("add")) {
+                if (args[0] instanceof List) {
+                    lists++;
+                    added.addAll((List<Triple>) args[0]);
+                } else {
+                    added.add((Triple) args[0]);
+                }
+            } else if (name.equals("delete")) {
+                deleted.add((Triple) args[0]);
+            } else if (name.equals("flushBuffer")) {
+                flushes++;
+            } else if (name.equals("close")) {
+                closed = true;
+            }
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,111 @@
+package org.trippi.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.jrdf.graph.BlankNode;
+import org.jrdf.graph.Triple;
+import org.jrdf.graph.URIReference;
+import org.junit.Before;
+import org.junit.Test;
+import org.trippi.RDFFormat;
+import org.trippi.RDFUtil;
+import org.trippi.TripleIterator;
+import org.trippi.TrippiException;
+import org.trippi.impl.base.DefaultAliasManager;
+
+public class BinaryTripleIteratorTest {
+
+    private Set<Triple> m_triples;
+
+    @Before
+    public void setUp() throws Exception {
+        RDFUtil util = new RDFUtil();
+        URIReference label = util.createResource(new URI("info:fedora/fedora-system:def/model#label"));
+        URIReference model = util.createResource(new URI("info:fedora/fedora-system:def/model#hasModel"));
+        URIReference size = util.createResource(new URI("info:fedora/fedora-system:def/view#size"));
+        BlankNode blank = util.createResource();
+        m_triples = new LinkedHashSet<Triple>();
+        for (int i = 0; i < 20000; i++) {
+            URIReference s = util.createResource(new URI("info:fedora/demo:" + i));
+            m_triples.add(util.createTriple(s, label, util.createLiteral("label \u00e9 " + i)));
+            m_triples.add(util.createTriple(s, model,
+                    util.createResource(new URI("info:fedora/demo:Model" + (i % 5)))));
+            m_triples.add(util.createTriple(s, size,
+                    util.createLiteral("" + i, new URI("http://www.w3.org/2001/XMLSchema#int"))));
+            if (i % 100 == 0) {
+                m_triples.add(util.createTriple(blank, label, util.createLiteral("hello", "en")));
+                m_triples.add(util.createTriple(s, label, blank));
+            }
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        byte[] bytes = write(m_triples);
+        TripleIterator iter = TripleIteratorFactory.defaultInstance().fromStream(
+                new ByteArrayInputStream(bytes), RDFFormat.BINARY_TRIPLES);
+        List<Triple> expected = new ArrayList<Triple>(m_triples);
+        int i = 0;
+        while (iter.hasNext()) {
+            assertEquals(expected.get(i++), iter.next());
+        }
+        assertEquals(expected.size(), i);
+        assertFalse(iter.hasNext());
+        iter.close();
+    }
+
+    @Test
+    public void testSmallerThanJSON() throws Exception {
+        byte[] binary = write(m_triples);
+        ByteArrayOutputStream json = new ByteArrayOutputStream();
+        new SimpleTripleIterator(m_triples, new DefaultAliasManager()).toStream(
+                json, RDFFormat.JSON);
+        assertTrue(binary.length * 3 < json.size());
+    }
+
+    @Test
+    public void testEmptyStream() throws Exception {
+        byte[] bytes = write(new LinkedHashSet<Triple>());
+        TripleIterator iter = new BinaryTripleIterator(new ByteArrayInputStream(bytes));
+        assertFalse(iter.hasNext());
+    }
+
+    @Test
+    public void testTruncatedStreamFails() throws Exception {
+        byte[] bytes = write(m_triples);
+        byte[] truncated = new byte[bytes.length / 2];
+        System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+        TripleIterator iter = new BinaryTripleIterator(new ByteArrayInputStream(truncated));
+        try {
+            while (iter.hasNext()) iter.next();
+            fail("Expected truncated stream to fail");
+        } catch (TrippiException e) {
+            // expected
+        }
+    }
+
+    @Test(expected = TrippiException.class)
+    public void testRejectsBinaryTuples() throws Exception {
+        new BinaryTripleIterator(new ByteArrayInputStream(
+                new byte[] { 'T', 'R', 'P', 'T', 1, 0, 0 }));
+    }
+
+    private static byte[] write(Set<Triple> triples) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new SimpleTripleIterator(triples, new DefaultAliasManager()).toStream(
+                out, RDFFormat.BINARY_TRIPLES);
+        return out.toByteArray();
+    }
+
+}
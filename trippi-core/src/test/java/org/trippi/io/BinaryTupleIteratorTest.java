@@ -0,0 +1,135 @@
+package org.trippi.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.jrdf.graph.Node;
+import org.junit.Before;
+import org.junit.Test;
+import org.trippi.RDFFormat;
+import org.trippi.RDFUtil;
+import org.trippi.TrippiException;
+import org.trippi.TupleIterator;
+
+public class BinaryTupleIteratorTest {
+
+    private List<Map<String, Node>> m_rows;
+
+    @Before
+    public void setUp() throws Exception {
+        RDFUtil util = new RDFUtil();
+        m_rows = new ArrayList<Map<String, Node>>();
+        for (int i = 0; i < 20000; i++) {
+            Map<String, Node> row = new HashMap<String, Node>();
+            row.put("s", util.createResource(new URI("info:fedora/demo:" + i)));
+            row.put("model", util.createResource(new URI("info:fedora/demo:Model" + (i % 5))));
+            if (i % 4 == 0) {
+                row.put("o", util.createLiteral("label \u00e9 " + i));
+            } else if (i % 4 == 1) {
+                row.put("o", util.createLiteral("" + i, new URI("http://www.w3.org/2001/XMLSchema#int")));
+            } else if (i % 4 == 2) {
+                row.put("o", util.createLiteral("hello", "en"));
+            } else {
+                row.put("o", null);
+            }
+            m_rows.add(row);
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        byte[] bytes = write(new ListTupleIterator(m_rows));
+        TupleIterator iter = TupleIterator.fromStream(new ByteArrayInputStream(bytes),
+                                                      RDFFormat.BINARY_TUPLES);
+        assertArrayEquals(new String[] { "s", "model", "o" }, iter.names());
+        int i = 0;
+        while (iter.hasNext()) {
+            assertEquals(m_rows.get(i++), iter.next());
+        }
+        assertEquals(m_rows.size(), i);
+        assertFalse(iter.hasNext());
+        iter.close();
+    }
+
+    @Test
+    public void testRepeatedTermsAreSentOnce() throws Exception {
+        byte[] binary = write(new ListTupleIterator(m_rows));
+        ByteArrayOutputStream sparql = new ByteArrayOutputStream();
+        new ListTupleIterator(m_rows).toStream(sparql, RDFFormat.SPARQL);
+        assertTrue(binary.length * 3 < sparql.size());
+    }
+
+    @Test
+    public void testEmptyResult() throws Exception {
+        byte[] bytes = write(new ListTupleIterator(new ArrayList<Map<String, Node>>()));
+        TupleIterator iter = new BinaryTupleIterator(new ByteArrayInputStream(bytes));
+        assertEquals(3, iter.names().length);
+        assertFalse(iter.hasNext());
+    }
+
+    @Test
+    public void testTruncatedStreamFails() throws Exception {
+        byte[] bytes = write(new ListTupleIterator(m_rows));
+        byte[] truncated = new byte[bytes.length / 2];
+        System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+        TupleIterator iter = new BinaryTupleIterator(new ByteArrayInputStream(truncated));
+        try {
+            while (iter.hasNext()) iter.next();
+            fail("Expected truncated stream to fail");
+        } catch (TrippiException e) {
+            // expected
+        }
+    }
+
+    @Test(expected = TrippiException.class)
+    public void testRejectsOtherFormats() throws Exception {
+        new BinaryTupleIterator(new ByteArrayInputStream("<?xml version".getBytes("UTF-8")));
+    }
+
+    private static byte[] write(TupleIterator iter) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        iter.toStream(out, RDFFormat.BINARY_TUPLES);
+        return out.toByteArray();
+    }
+
+    private static class ListTupleIterator extends TupleIterator {
+
+        private Iterator<Map<String, Node>> m_iter;
+
+        ListTupleIterator(List<Map<String, Node>> rows) {
+            m_iter = rows.iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return m_iter.hasNext();
+        }
+
+        @Override
+        public Map<String, Node> next() {
+            return m_iter.next();
+        }
+
+        @Override
+        public String[] names() {
+            return new String[] { "s", "model", "o" };
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+}
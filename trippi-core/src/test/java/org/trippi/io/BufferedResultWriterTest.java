@@ -0,0 +1,76 @@
+package org.trippi.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class BufferedResultWriterTest {
+
+    @Test
+    public void testEncodesLikeStringGetBytes() throws Exception {
+        String s = "plain, \u00e9t\u00e9, \u4e2d\u6587, \ud83d\ude00 and more";
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BufferedResultWriter writer = new BufferedResultWriter(out, 16, 60000);
+        writer.print(s);
+        writer.write(s.toCharArray(), 0, s.length());
+        writer.flush();
+        assertEquals(s + s, new String(out.toByteArray(), "UTF-8"));
+    }
+
+    @Test
+    public void testEscapesLikeEnc() throws Exception {
+        String s = "<a href=\"x\">it's & \u00e9</a>";
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BufferedResultWriter writer = new BufferedResultWriter(out);
+        writer.printEscaped(s);
+        writer.flush();
+        assertEquals(RDFWriter.enc(s), new String(out.toByteArray(), "UTF-8"));
+    }
+
+    @Test
+    public void testRowsAreNotFlushedIndividually() throws Exception {
+        CountingStream out = new CountingStream();
+        BufferedResultWriter writer = new BufferedResultWriter(out, 1024, 60000);
+        for (int i = 0; i < 1000; i++) {
+            writer.println("row " + i);
+            writer.endRow();
+        }
+        assertEquals(0, out.flushes);
+        assertTrue(out.writes < 20);
+        writer.flush();
+        assertEquals(1, out.flushes);
+    }
+
+    @Test
+    public void testFlushesAfterMaxDelay() throws Exception {
+        CountingStream out = new CountingStream();
+        BufferedResultWriter writer = new BufferedResultWriter(out, 1024, 20);
+        writer.println("first row");
+        Thread.sleep(50);
+        writer.endRow();
+        assertEquals(1, out.flushes);
+        assertEquals("first row", out.toString().trim());
+    }
+
+    private static class CountingStream extends ByteArrayOutputStream {
+
+        int writes;
+        int flushes;
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            writes++;
+            super.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            flushes++;
+        }
+    }
+
+}
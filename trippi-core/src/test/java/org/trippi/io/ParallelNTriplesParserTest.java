@@ -0,0 +1,105 @@
+package org.trippi.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.jrdf.graph.Triple;
+import org.jrdf.graph.URIReference;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.trippi.RDFFormat;
+import org.trippi.io.transform.impl.Identity;
+
+public class ParallelNTriplesParserTest {
+
+    private ExecutorService m_executor;
+    private File m_file;
+
+    @Before
+    public void setUp() throws Exception {
+        m_executor = Executors.newCachedThreadPool();
+        m_file = File.createTempFile("trippi-ntriples", ".nt");
+        Writer out = new OutputStreamWriter(new FileOutputStream(m_file), "UTF-8");
+        for (int i = 0; i < 500; i++) {
+            out.write("<urn:test:s" + i + "> <urn:test:p> <urn:test:o" + (i % 7) + "> .\n");
+            out.write("<urn:test:s" + i + "> <urn:test:label> \"label " + i + "\" .\n");
+            out.write("<urn:test:s" + i + "> <urn:test:link> _:b" + (i % 10) + " .\n");
+        }
+        out.close();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        m_executor.shutdown();
+        m_file.delete();
+    }
+
+    @Test
+    public void testSplitOnLineBoundaries() throws Exception {
+        RandomAccessFile raf = new RandomAccessFile(m_file, "r");
+        try {
+            long[] bounds = ParallelNTriplesParser.split(raf.getChannel(), 100);
+            assertEquals(0, bounds[0]);
+            assertEquals(m_file.length(), bounds[bounds.length - 1]);
+            assertTrue(bounds.length > 10);
+            byte[] b = new byte[1];
+            for (int i = 1; i < bounds.length - 1; i++) {
+                assertTrue(bounds[i] > bounds[i - 1]);
+                raf.seek(bounds[i] - 1);
+                raf.readFully(b);
+                assertEquals('\n', b[0]);
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    @Test
+    public void testMatchesSerialParse() throws Exception {
+        Set<Triple> serial = new TripleIteratorFactory(m_executor).allAsSet(
+                new FileInputStream(m_file), null, RDFFormat.N_TRIPLES);
+        Set<Triple> parallel = new ParallelNTriplesParser(m_executor, 3, 256).parse(
+                m_file, "http://localhost/", Identity.instance);
+        assertEquals(1500, parallel.size());
+        assertEquals(serial.size(), parallel.size());
+    }
+
+    @Test
+    public void testBlankNodesSpanChunks() throws Exception {
+        Set<Triple> triples = new ParallelNTriplesParser(m_executor, 4, 128).parse(
+                m_file, "http://localhost/", Identity.instance);
+        Set<Triple> again = new ParallelNTriplesParser(m_executor, 4, 128).parse(
+                m_file, "http://localhost/", Identity.instance);
+        Set<Object> blankNodes = new HashSet<Object>();
+        for (Triple triple : triples) {
+            if (((URIReference) triple.getPredicate()).getURI().toString().equals("urn:test:link")) {
+                blankNodes.add(triple.getObject());
+            }
+        }
+        // ten labels, each the same node wherever it appears in the file
+        assertEquals(10, blankNodes.size());
+        // but not shared with another parse of the file
+        triples.addAll(again);
+        assertEquals(2000, triples.size());
+    }
+
+    @Test
+    public void testFactoryFromFile() throws Exception {
+        TripleIteratorFactory factory = new TripleIteratorFactory(m_executor);
+        assertEquals(1500, factory.fromFile(m_file, null, RDFFormat.N_TRIPLES).count());
+        assertEquals(1500, factory.allAsSet(m_file, null, RDFFormat.N_TRIPLES).size());
+    }
+
+}
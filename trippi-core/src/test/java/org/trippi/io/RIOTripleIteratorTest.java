@@ -1,13 +1,20 @@
 package org.trippi.io;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import org.jrdf.graph.Triple;
 import org.json.JSONArray;
@@ -17,6 +24,7 @@ import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Ignore;
 import org.junit.Test;
+import org.openrdf.rio.ntriples.NTriplesParser;
 import org.trippi.RDFFormat;
 import org.trippi.TripleIterator;
 
@@ -169,6 +177,92 @@ public class RIOTripleIteratorTest {
         assertEquals("Could not cut short iteration", 3, iter.m_tripleCount);
     }
 
+    @Test
+    public void testChunkedHandOffKeepsOrder() throws Exception {
+        m_factory.setParseChunking(16, 2);
+        TripleIterator iter = m_factory.fromStream(nTriples(1000), RDFFormat.N_TRIPLES);
+        try {
+            int i = 0;
+            while (iter.hasNext()) {
+                assertEquals("urn:s" + i, iter.next().getSubject().toString());
+                i++;
+            }
+            assertEquals(1000, i);
+        } finally {
+            iter.close();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testPartialChunkHandedToWaitingConsumer() throws Exception {
+        PipedOutputStream out = new PipedOutputStream();
+        PipedInputStream in = new PipedInputStream(out);
+        out.write(nTriple(0));
+        out.flush();
+        // the chunk holds 256, but the first triple can't wait for the rest
+        TripleIterator iter = m_factory.fromStream(in, RDFFormat.N_TRIPLES);
+        try {
+            assertTrue(iter.hasNext());
+            out.write(nTriple(1));
+            out.flush();
+            assertEquals("urn:s0", iter.next().getSubject().toString());
+            out.close();
+            assertEquals("urn:s1", iter.next().getSubject().toString());
+            assertFalse(iter.hasNext());
+        } finally {
+            iter.close();
+        }
+    }
+
+    @Test
+    public void testCloseStopsParser() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        RIOTripleIterator iter = new RIOTripleIterator(nTriples(100000),
+                new NTriplesParser(), "http://localhost/", executor,
+                RIOTripleIterator.NO_TIMEOUT_MS, 16, 1);
+        try {
+            iter.next();
+            iter.close();
+            executor.shutdown();
+            assertTrue("Parser still running after close",
+                       executor.awaitTermination(10, TimeUnit.SECONDS));
+            assertTrue("Parsed the whole stream despite close",
+                       iter.m_tripleCount < 100000);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testDroppedIteratorReleasesParser() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        RIOTripleIterator iter = new RIOTripleIterator(nTriples(100000),
+                new NTriplesParser(), "http://localhost/", executor,
+                RIOTripleIterator.NO_TIMEOUT_MS, 16, 1);
+        try {
+            iter.next();
+            // never closed: the parser must give up on its own once the
+            // queue stays full
+            executor.shutdown();
+            assertTrue("Parser never gave up on an abandoned iterator",
+                       executor.awaitTermination(60, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static InputStream nTriples(int count) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < count; i++) {
+            out.write(nTriple(i));
+        }
+        return new ByteArrayInputStream(out.toByteArray());
+    }
+
+    private static byte[] nTriple(int i) throws Exception {
+        return ("<urn:s" + i + "> <urn:p> <urn:o> .\n").getBytes("UTF-8");
+    }
+
     private void assertTriple(Triple actual, String subject, String predicate,
             String object) {
         if (actual == null) {
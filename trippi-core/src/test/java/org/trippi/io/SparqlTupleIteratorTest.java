@@ -0,0 +1,195 @@
+package org.trippi.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.jrdf.graph.BlankNode;
+import org.jrdf.graph.Node;
+import org.junit.Before;
+import org.junit.Test;
+import org.trippi.RDFFormat;
+import org.trippi.RDFUtil;
+import org.trippi.TrippiException;
+import org.trippi.TupleIterator;
+
+public class SparqlTupleIteratorTest {
+
+    private static final String[] NAMES = new String[] { "s", "model", "o" };
+
+    private List<Map<String, Node>> m_rows;
+
+    @Before
+    public void setUp() throws Exception {
+        RDFUtil util = new RDFUtil();
+        m_rows = new ArrayList<Map<String, Node>>();
+        // more than one chunk's worth
+        for (int i = 0; i < XMLTupleIterator.CHUNK_SIZE * 3 + 7; i++) {
+            Map<String, Node> row = new HashMap<String, Node>();
+            row.put("s", util.createResource(new URI("info:fedora/demo:" + i)));
+            row.put("model", util.createResource(new URI("info:fedora/demo:Model" + (i % 5))));
+            if (i % 4 == 0) {
+                row.put("o", util.createLiteral("label \u00e9 <&> \"" + i + "\""));
+            } else if (i % 4 == 1) {
+                row.put("o", util.createLiteral("" + i, new URI("http://www.w3.org/2001/XMLSchema#int")));
+            } else if (i % 4 == 2) {
+                row.put("o", util.createLiteral("hello", "en"));
+            } else {
+                row.put("o", null);
+            }
+            m_rows.add(row);
+        }
+    }
+
+    @Test
+    public void testRoundTripSparql() throws Exception {
+        Map<String, String> aliases = new HashMap<String, String>();
+        aliases.put("demo", "info:fedora/demo:");
+        aliases.put("xsd", "http://www.w3.org/2001/XMLSchema#");
+        TupleIterator iter = read(write(m_rows, RDFFormat.SPARQL, aliases),
+                                  RDFFormat.SPARQL);
+        assertTrue(iter instanceof SparqlTupleIterator);
+        assertRows(iter);
+    }
+
+    @Test
+    public void testRoundTripSparqlW3C() throws Exception {
+        TupleIterator iter = read(write(m_rows, RDFFormat.SPARQL_W3C, null),
+                                  RDFFormat.SPARQL_W3C);
+        assertTrue(iter instanceof SparqlW3CTupleIterator);
+        assertRows(iter);
+    }
+
+    @Test
+    public void testBlankNodes() throws Exception {
+        List<Map<String, Node>> rows = new ArrayList<Map<String, Node>>();
+        Map<String, Node> row = new HashMap<String, Node>(m_rows.get(0));
+        row.put("o", new RDFUtil().createResource());
+        rows.add(row);
+        for (RDFFormat format : new RDFFormat[] { RDFFormat.SPARQL,
+                                                  RDFFormat.SPARQL_W3C }) {
+            TupleIterator iter = read(write(rows, format, null), format);
+            assertTrue(iter.next().get("o") instanceof BlankNode);
+            assertFalse(iter.hasNext());
+            iter.close();
+        }
+    }
+
+    @Test
+    public void testEmptyResult() throws Exception {
+        List<Map<String, Node>> rows = new ArrayList<Map<String, Node>>();
+        for (RDFFormat format : new RDFFormat[] { RDFFormat.SPARQL,
+                                                  RDFFormat.SPARQL_W3C }) {
+            TupleIterator iter = read(write(rows, format, null), format);
+            assertArrayEquals(NAMES, iter.names());
+            assertFalse(iter.hasNext());
+            assertEquals(null, iter.next());
+            iter.close();
+        }
+    }
+
+    @Test
+    public void testUnknownBindingFails() throws Exception {
+        String xml = "<sparql><head><variable name=\"s\"/></head><results>"
+                + "<result><binding name=\"other\"><uri>urn:x</uri></binding></result>"
+                + "</results></sparql>";
+        TupleIterator iter = read(xml.getBytes("UTF-8"), RDFFormat.SPARQL_W3C);
+        try {
+            iter.hasNext();
+            fail("Expected a binding for an unknown variable to fail");
+        } catch (TrippiException e) {
+            // expected
+        }
+        iter.close();
+    }
+
+    @Test
+    public void testRowsBeforeParseErrorAreReturned() throws Exception {
+        StringBuilder xml = new StringBuilder("<sparql><head><variable name=\"s\"/></head><results>");
+        for (int i = 0; i < XMLTupleIterator.CHUNK_SIZE; i++) {
+            xml.append("<result><binding name=\"s\"><uri>urn:" + i + "</uri></binding></result>");
+        }
+        xml.append("<result><binding name=\"other\"><uri>urn:x</uri></binding></result>");
+        xml.append("</results></sparql>");
+        TupleIterator iter = read(xml.toString().getBytes("UTF-8"), RDFFormat.SPARQL_W3C);
+        for (int i = 0; i < XMLTupleIterator.CHUNK_SIZE; i++) {
+            assertTrue(iter.hasNext());
+            assertEquals(new RDFUtil().createResource(new URI("urn:" + i)),
+                         iter.next().get("s"));
+        }
+        try {
+            iter.hasNext();
+            fail("Expected a binding for an unknown variable to fail");
+        } catch (TrippiException e) {
+            // expected
+        }
+        assertFalse(iter.hasNext());
+        iter.close();
+    }
+
+    private void assertRows(TupleIterator iter) throws Exception {
+        assertArrayEquals(NAMES, iter.names());
+        int i = 0;
+        while (iter.hasNext()) {
+            assertEquals(m_rows.get(i++), iter.next());
+        }
+        assertEquals(m_rows.size(), i);
+        assertFalse(iter.hasNext());
+        iter.close();
+    }
+
+    private static TupleIterator read(byte[] bytes,
+                                      RDFFormat format) throws Exception {
+        return TupleIterator.fromStream(new ByteArrayInputStream(bytes), format);
+    }
+
+    private static byte[] write(List<Map<String, Node>> rows,
+                                RDFFormat format,
+                                Map<String, String> aliases) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TupleIterator iter = new ListTupleIterator(rows);
+        if (aliases != null) iter.setAliasMap(aliases);
+        iter.toStream(out, format);
+        return out.toByteArray();
+    }
+
+    private static class ListTupleIterator extends TupleIterator {
+
+        private Iterator<Map<String, Node>> m_iter;
+
+        ListTupleIterator(List<Map<String, Node>> rows) {
+            m_iter = rows.iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return m_iter.hasNext();
+        }
+
+        @Override
+        public Map<String, Node> next() {
+            return m_iter.next();
+        }
+
+        @Override
+        public String[] names() {
+            return NAMES;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+}
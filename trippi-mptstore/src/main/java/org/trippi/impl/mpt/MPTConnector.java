@@ -1,5 +1,6 @@
 package org.trippi.impl.mpt;
 
+import java.io.File;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
@@ -11,6 +12,7 @@ import org.jrdf.graph.GraphElementFactory;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.trippi.AliasManager;
 import org.trippi.RDFUtil;
 import org.trippi.TriplestoreConnector;
 import org.trippi.TriplestoreReader;
@@ -19,10 +21,13 @@ import org.trippi.TrippiException;
 
 import org.trippi.config.ConfigUtils;
 
+import org.trippi.impl.base.CachingTriplestoreReader;
 import org.trippi.impl.base.ConcurrentTriplestoreWriter;
-import org.trippi.impl.base.ConfigurableSessionPool;
+import org.trippi.impl.base.ConcurrentSessionPool;
 import org.trippi.impl.base.DefaultAliasManager;
+import org.trippi.impl.base.JournalUpdateBuffer;
 import org.trippi.impl.base.MemUpdateBuffer;
+import org.trippi.impl.base.StripedUpdateBuffer;
 import org.trippi.impl.base.TriplestoreSession;
 import org.trippi.impl.base.TriplestoreSessionPool;
 import org.trippi.impl.base.UpdateBuffer;
@@ -47,6 +52,8 @@ public class MPTConnector extends TriplestoreConnector {
 
     private TriplestoreWriter m_writer;
 
+    private CachingTriplestoreReader m_cache;
+
     public MPTConnector() {
     }
     
@@ -92,6 +99,23 @@ public class MPTConnector extends TriplestoreConnector {
         validated.put("autoFlushBufferSize", Integer.toString(ConfigUtils.getRequiredPosInt(config, "autoFlushBufferSize")));
         validated.put("bufferSafeCapacity", Integer.toString(ConfigUtils.getRequiredInt(config, "bufferSafeCapacity")));
         validated.put("bufferFlushBatchSize",Integer.toString(ConfigUtils.getRequiredPosInt(config, "bufferFlushBatchSize")));
+        validated.put("bufferStripes", Integer.toString(ConfigUtils.getOptionalNNInt(config, "bufferStripes", 0)));
+        validated.put("bufferFlushGenerations", Integer.toString(ConfigUtils.getOptionalNNInt(config, "bufferFlushGenerations", 0)));
+        int bufferFlushSessions = ConfigUtils.getOptionalNNInt(config, "bufferFlushSessions", 1);
+        if (bufferFlushSessions < 1) {
+            throw new TrippiException("bufferFlushSessions must be at least 1");
+        }
+        validated.put("bufferFlushSessions", Integer.toString(bufferFlushSessions));
+        validated.put("queryCacheMaxBytes", Integer.toString(ConfigUtils.getOptionalNNInt(config, "queryCacheMaxBytes", 0)));
+        validated.put("queryCacheTTLSeconds", Integer.toString(ConfigUtils.getOptionalNNInt(config, "queryCacheTTLSeconds", 60)));
+        validated.put("queryCacheMaxRows", Integer.toString(ConfigUtils.getOptionalNNInt(config, "queryCacheMaxRows", 1000)));
+        String journalDir = config.get("bufferJournalDir");
+        if (journalDir != null && journalDir.trim().length() > 0) {
+            validated.put("bufferJournalDir", journalDir.trim());
+        } else {
+            validated.remove("bufferJournalDir");
+        }
+        validated.put("bufferJournalSync", Boolean.toString(ConfigUtils.getOptionalBoolean(config, "bufferJournalSync", false)));
         
         m_config = validated;
     }
@@ -134,6 +158,14 @@ public class MPTConnector extends TriplestoreConnector {
         int autoFlushBufferSize = Integer.parseInt(m_config.get("autoFlushBufferSize"));
         int bufferSafeCapacity = Integer.parseInt(m_config.get("bufferSafeCapacity"));
         int bufferFlushBatchSize = Integer.parseInt(m_config.get("bufferFlushBatchSize"));
+        int bufferStripes = Integer.parseInt(m_config.get("bufferStripes"));
+        String bufferJournalDir = m_config.get("bufferJournalDir");
+        boolean bufferJournalSync = Boolean.valueOf(m_config.get("bufferJournalSync"));
+        int bufferFlushGenerations = Integer.parseInt(m_config.get("bufferFlushGenerations"));
+        int bufferFlushSessions = Integer.parseInt(m_config.get("bufferFlushSessions"));
+        int queryCacheMaxBytes = Integer.parseInt(m_config.get("queryCacheMaxBytes"));
+        int queryCacheTTLSeconds = Integer.parseInt(m_config.get("queryCacheTTLSeconds"));
+        int queryCacheMaxRows = Integer.parseInt(m_config.get("queryCacheMaxRows"));
 
         try {
 
@@ -158,23 +190,51 @@ public class MPTConnector extends TriplestoreConnector {
 
             // construct the TriplestoreSessionPool
             TriplestoreSessionPool sessionPool =
-                    new ConfigurableSessionPool(sessionFactory,
+                    new ConcurrentSessionPool(sessionFactory,
                                                 poolInitialSize,
                                                 poolMaxSize,
                                                 0); // no spare sessions
 
             // construct the UpdateBuffer
-            UpdateBuffer updateBuffer = new MemUpdateBuffer(bufferSafeCapacity,
-                                                            bufferFlushBatchSize);
+            UpdateBuffer updateBuffer;
+            if (bufferJournalDir != null) {
+                updateBuffer = new JournalUpdateBuffer(bufferSafeCapacity,
+                                                       bufferFlushBatchSize,
+                                                       new File(bufferJournalDir),
+                                                       bufferJournalSync);
+            } else if (bufferStripes > 0) {
+                updateBuffer = new StripedUpdateBuffer(bufferSafeCapacity,
+                                                       bufferFlushBatchSize,
+                                                       bufferStripes);
+            } else {
+                updateBuffer = new MemUpdateBuffer(bufferSafeCapacity,
+                                                   bufferFlushBatchSize);
+            }
 
             // construct the TriplestoreWriter
-            m_writer = new ConcurrentTriplestoreWriter(sessionPool,
-                                                      new DefaultAliasManager(new HashMap<String, String>()),
-                                                      m_updateSession,
-                                                      updateBuffer,
-                                                      m_iteratorFactory,
-                                                      autoFlushBufferSize,
-                                                      autoFlushDormantSeconds);
+            AliasManager aliasManager =
+                    new DefaultAliasManager(new HashMap<String, String>());
+            ConcurrentTriplestoreWriter writer =
+                    new ConcurrentTriplestoreWriter(sessionPool,
+                                                    aliasManager,
+                                                    m_updateSession,
+                                                    updateBuffer,
+                                                    m_iteratorFactory,
+                                                    autoFlushBufferSize,
+                                                    autoFlushDormantSeconds);
+            writer.setPipelinedFlush(bufferFlushGenerations);
+            writer.setParallelFlush(bufferFlushSessions);
+            m_writer = writer;
+
+            // construct the query cache, if enabled
+            if (queryCacheMaxBytes > 0) {
+                m_cache = new CachingTriplestoreReader(writer,
+                                                       aliasManager,
+                                                       queryCacheMaxBytes,
+                                                       queryCacheTTLSeconds * 1000L,
+                                                       queryCacheMaxRows);
+                writer.addUpdateListener(m_cache);
+            }
 
                                                      
         } catch (Exception e) {
@@ -216,6 +276,9 @@ public class MPTConnector extends TriplestoreConnector {
     		catch (TrippiException e){
     			logger.error(e.toString(),e);
     		}
+    	}
+    	if (m_cache != null) {
+    	    return m_cache;
     	}
 		return m_writer;
     }
@@ -258,6 +321,10 @@ public class MPTConnector extends TriplestoreConnector {
             m_updateSession.close(); // ensure the update session is also
                                     // closed, as it is not part of the session pool
             m_writer = null;
+            if (m_cache != null) {
+                m_cache.clear();
+                m_cache = null;
+            }
         }
     }
 
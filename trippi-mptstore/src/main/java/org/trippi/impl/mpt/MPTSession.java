@@ -5,6 +5,7 @@ import java.sql.Connection;
 import java.text.ParseException;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 import org.apache.commons.dbcp.BasicDataSource;
@@ -18,12 +19,13 @@ import org.jrdf.graph.URIReference;
 import org.nsdl.mptstore.core.DatabaseAdaptor;
 import org.nsdl.mptstore.query.QueryResults;
 import org.nsdl.mptstore.query.lang.QueryLanguage;
+import org.trippi.BulkLoadListener;
 import org.trippi.TripleIterator;
 import org.trippi.TrippiException;
 import org.trippi.TupleIterator;
-import org.trippi.impl.base.TriplestoreSession;
+import org.trippi.impl.base.BulkLoadSession;
 
-public class MPTSession implements TriplestoreSession {
+public class MPTSession implements BulkLoadSession {
 
     private static final String _SPO  = "spo";
     private static final String _SPONGE  = "sponge";
@@ -154,6 +156,52 @@ public class MPTSession implements TriplestoreSession {
         }
     }
 
+    /**
+     * Implements BulkLoadSession.bulkAdd(TripleIterator, int, BulkLoadListener)
+     *
+     * All batches are written on a single database connection, and each
+     * is committed as soon as it has been written.  Triples are converted
+     * to MPT triples as the adaptor consumes them, rather than being
+     * collected into sets first.
+     */
+    public long bulkAdd(TripleIterator iter,
+                        int batchSize,
+                        BulkLoadListener listener) throws TrippiException {
+        Connection conn = null;
+        boolean startedTransaction = false;
+        long count = 0;
+        try {
+            conn = _pool.getConnection();
+            conn.setAutoCommit(false);
+            startedTransaction = true;
+            while (iter.hasNext()) {
+                BatchIterator batch = new BatchIterator(iter, batchSize);
+                _adaptor.addTriples(conn, batch);
+                conn.commit();
+                count += batch.getCount();
+                if (listener != null) listener.triplesLoaded(count);
+            }
+            return count;
+        } catch (Exception e) {
+            if (startedTransaction) {
+                try {
+                    conn.rollback();
+                } catch (Exception e2) { }
+            }
+            throw new TrippiException("Error bulk loading triples after "
+                    + count + " were committed", e);
+        } finally {
+            if (conn != null) {
+                if (startedTransaction) {
+                    try {
+                        conn.setAutoCommit(true);
+                    } catch (Exception e2) { }
+                }
+                try { conn.close(); } catch (Exception e) { }
+            }
+        }
+    }
+
     /**
      * Convert the given set of JRDF Triple objects to 
      * MPT Triple objects.
@@ -162,22 +210,28 @@ public class MPTSession implements TriplestoreSession {
         Set<org.nsdl.mptstore.rdf.Triple> mptSet = new HashSet<org.nsdl.mptstore.rdf.Triple>(jrdfTriples.size());
         Iterator<Triple> iter = jrdfTriples.iterator();
         while (iter.hasNext()) {
-            Triple jrdfTriple = iter.next();
-            org.nsdl.mptstore.rdf.SubjectNode mptSubject =
-                    (org.nsdl.mptstore.rdf.SubjectNode) 
-                    jrdfToMPT(jrdfTriple.getSubject());
-            org.nsdl.mptstore.rdf.PredicateNode mptPredicate =
-                    (org.nsdl.mptstore.rdf.PredicateNode) 
-                    jrdfToMPT(jrdfTriple.getPredicate());
-            org.nsdl.mptstore.rdf.ObjectNode mptObject =
-                    (org.nsdl.mptstore.rdf.ObjectNode) 
-                    jrdfToMPT(jrdfTriple.getObject());
-            mptSet.add(new org.nsdl.mptstore.rdf.Triple(
-                    mptSubject, mptPredicate, mptObject));
+            mptSet.add(jrdfToMPT(iter.next()));
         }
         return mptSet;
     }
 
+    /**
+     * Convert a JRDF Triple object to an MPT Triple object.
+     */
+    protected static org.nsdl.mptstore.rdf.Triple jrdfToMPT(Triple jrdfTriple) {
+        org.nsdl.mptstore.rdf.SubjectNode mptSubject =
+                (org.nsdl.mptstore.rdf.SubjectNode) 
+                jrdfToMPT(jrdfTriple.getSubject());
+        org.nsdl.mptstore.rdf.PredicateNode mptPredicate =
+                (org.nsdl.mptstore.rdf.PredicateNode) 
+                jrdfToMPT(jrdfTriple.getPredicate());
+        org.nsdl.mptstore.rdf.ObjectNode mptObject =
+                (org.nsdl.mptstore.rdf.ObjectNode) 
+                jrdfToMPT(jrdfTriple.getObject());
+        return new org.nsdl.mptstore.rdf.Triple(
+                mptSubject, mptPredicate, mptObject);
+    }
+
     protected static org.nsdl.mptstore.rdf.Node jrdfToMPT(Node jrdfNode) {
         try {
             if (jrdfNode instanceof URIReference) {
@@ -217,4 +271,51 @@ public class MPTSession implements TriplestoreSession {
         // nothing to release
     }
 
+    /**
+     * Presents up to <i>batchSize</i> triples from a TripleIterator
+     * as MPT triples, converting each one as it's read.
+     */
+    private static class BatchIterator 
+            implements Iterator<org.nsdl.mptstore.rdf.Triple> {
+
+        private TripleIterator _iter;
+        private int _remaining;
+        private int _count;
+
+        public BatchIterator(TripleIterator iter, int batchSize) {
+            _iter = iter;
+            _remaining = batchSize;
+        }
+
+        public boolean hasNext() {
+            try {
+                return _remaining > 0 && _iter.hasNext();
+            } catch (TrippiException e) {
+                throw new RuntimeException("Error reading triples", e);
+            }
+        }
+
+        public org.nsdl.mptstore.rdf.Triple next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            try {
+                Triple triple = _iter.next();
+                _remaining--;
+                _count++;
+                return jrdfToMPT(triple);
+            } catch (TrippiException e) {
+                throw new RuntimeException("Error reading triples", e);
+            }
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        public int getCount() {
+            return _count;
+        }
+    }
+
 }
@@ -1,5 +1,6 @@
 package org.trippi.impl.mulgara;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
@@ -13,11 +14,14 @@ import org.trippi.TriplestoreReader;
 import org.trippi.TriplestoreWriter;
 import org.trippi.TrippiException;
 import org.trippi.config.ConfigUtils;
+import org.trippi.impl.base.CachingTriplestoreReader;
 import org.trippi.impl.base.DefaultAliasManager;
 import org.trippi.impl.base.ConcurrentTriplestoreReader;
 import org.trippi.impl.base.ConcurrentTriplestoreWriter;
-import org.trippi.impl.base.ConfigurableSessionPool;
+import org.trippi.impl.base.ConcurrentSessionPool;
+import org.trippi.impl.base.JournalUpdateBuffer;
 import org.trippi.impl.base.MemUpdateBuffer;
+import org.trippi.impl.base.StripedUpdateBuffer;
 import org.trippi.impl.base.SynchronizedTriplestoreReader;
 import org.trippi.impl.base.SynchronizedTriplestoreSession;
 import org.trippi.impl.base.SynchronizedTriplestoreWriter;
@@ -34,6 +38,7 @@ public class MulgaraConnector extends TriplestoreConnector {
 	private Map<String,String> m_config;
     private TriplestoreReader m_reader;
     private TriplestoreWriter m_writer;
+    private CachingTriplestoreReader m_cache;
     private GraphElementFactory m_elementFactory;
     
     // where writes will occur, if this connector is writable
@@ -61,6 +66,10 @@ public class MulgaraConnector extends TriplestoreConnector {
                 if (m_reader != null) {
                     m_reader.close();  // ensure this closes even if above dies
                 }
+                if (m_cache != null) {
+                    m_cache.clear();
+                    m_cache = null;
+                }
                 if (m_synch) m_sessionFactory.close();
             }
             m_isClosed = true;
@@ -88,6 +97,9 @@ public class MulgaraConnector extends TriplestoreConnector {
 				logger.error(e.toString(),e);
 			}
 		}
+		if (m_cache != null) {
+		    return m_cache;
+		}
 		return m_reader;
 	}
 
@@ -162,6 +174,18 @@ public class MulgaraConnector extends TriplestoreConnector {
             throw new TrippiException("bufferFlushBatchSize must be less than or equal to autoFlushBufferSize.");
         }
         validated.put("bufferFlushBatchSize", Integer.toString(bufferFlushBatchSize));
+        validated.put("bufferStripes", Integer.toString(ConfigUtils.getOptionalNNInt(config, "bufferStripes", 0)));
+        validated.put("bufferFlushGenerations", Integer.toString(ConfigUtils.getOptionalNNInt(config, "bufferFlushGenerations", 0)));
+        String journalDir = config.get("bufferJournalDir");
+        if (journalDir != null && journalDir.trim().length() > 0) {
+            validated.put("bufferJournalDir", journalDir.trim());
+        } else {
+            validated.remove("bufferJournalDir");
+        }
+        validated.put("bufferJournalSync", Boolean.toString(ConfigUtils.getOptionalBoolean(config, "bufferJournalSync", false)));
+        validated.put("queryCacheMaxBytes", Integer.toString(ConfigUtils.getOptionalNNInt(config, "queryCacheMaxBytes", 0)));
+        validated.put("queryCacheTTLSeconds", Integer.toString(ConfigUtils.getOptionalNNInt(config, "queryCacheTTLSeconds", 60)));
+        validated.put("queryCacheMaxRows", Integer.toString(ConfigUtils.getOptionalNNInt(config, "queryCacheMaxRows", 1000)));
 
         int poolInitialSize = ConfigUtils.getRequiredInt(config, "poolInitialSize");
         if (poolInitialSize > 0) {
@@ -239,6 +263,13 @@ public class MulgaraConnector extends TriplestoreConnector {
         int bufferFlushBatchSize = Integer.parseInt(m_config.get("bufferFlushBatchSize"));
         int bufferSafeCapacity = Integer.parseInt(m_config.get("bufferSafeCapacity"));
         int autoFlushDormantSeconds = Integer.parseInt(m_config.get("autoFlushDormantSeconds"));
+        int bufferStripes = Integer.parseInt(m_config.get("bufferStripes"));
+        String bufferJournalDir = m_config.get("bufferJournalDir");
+        boolean bufferJournalSync = Boolean.valueOf(m_config.get("bufferJournalSync"));
+        int bufferFlushGenerations = Integer.parseInt(m_config.get("bufferFlushGenerations"));
+        int queryCacheMaxBytes = Integer.parseInt(m_config.get("queryCacheMaxBytes"));
+        int queryCacheTTLSeconds = Integer.parseInt(m_config.get("queryCacheTTLSeconds"));
+        int queryCacheMaxRows = Integer.parseInt(m_config.get("queryCacheMaxRows"));
         
         if (remote) {
             String host = m_config.get("host");
@@ -276,7 +307,7 @@ public class MulgaraConnector extends TriplestoreConnector {
             }
         } else {
             TriplestoreSessionPool pool = 
-                    new ConfigurableSessionPool(m_sessionFactory,
+                    new ConcurrentSessionPool(m_sessionFactory,
                                                 poolInitialSize,
                                                 poolMaxGrowth,
                                                 poolSpareSessions);
@@ -288,17 +319,41 @@ public class MulgaraConnector extends TriplestoreConnector {
                 m_reader = new ConcurrentTriplestoreReader(pool, aliasManager);
             } else {
                 UpdateBuffer buffer = null;
-                buffer = new MemUpdateBuffer(bufferSafeCapacity,
-                                             bufferFlushBatchSize);
                 m_updateSession = updateSession;
                 try {
-					m_writer = new ConcurrentTriplestoreWriter(pool,
+                    if (bufferJournalDir != null) {
+                        buffer = new JournalUpdateBuffer(bufferSafeCapacity,
+                                                         bufferFlushBatchSize,
+                                                         new File(bufferJournalDir),
+                                                         bufferJournalSync);
+                    } else if (bufferStripes > 0) {
+                        buffer = new StripedUpdateBuffer(bufferSafeCapacity,
+                                                         bufferFlushBatchSize,
+                                                         bufferStripes);
+                    } else {
+                        buffer = new MemUpdateBuffer(bufferSafeCapacity,
+                                                     bufferFlushBatchSize);
+                    }
+					ConcurrentTriplestoreWriter writer =
+					        new ConcurrentTriplestoreWriter(pool,
+					                                        aliasManager,
+					                                        m_updateSession,
+					                                        buffer,
+					                                        m_iteratorFactory,
+					                                        autoFlushBufferSize,
+					                                        autoFlushDormantSeconds);
+					writer.setPipelinedFlush(bufferFlushGenerations);
+					m_writer = writer;
+
+					// construct the query cache, if enabled
+					if (queryCacheMaxBytes > 0) {
+					    m_cache = new CachingTriplestoreReader(writer,
 					                                           aliasManager,
-					                                           m_updateSession,
-					                                           buffer,
-					                                           m_iteratorFactory,
-					                                           autoFlushBufferSize,
-					                                           autoFlushDormantSeconds);
+					                                           queryCacheMaxBytes,
+					                                           queryCacheTTLSeconds * 1000L,
+					                                           queryCacheMaxRows);
+					    writer.addUpdateListener(m_cache);
+					}
 				} catch (IOException e) {
 					throw new TrippiException(e.getMessage(), e);
 				}
@@ -5,7 +5,6 @@ import java.net.URI;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.Map;
 import java.util.Set;
 
 import org.jrdf.graph.Graph;
@@ -22,6 +21,7 @@ import org.mulgara.parser.MulgaraLexerException;
 import org.mulgara.parser.MulgaraParserException;
 import org.mulgara.query.Answer;
 import org.mulgara.query.QueryException;
+import org.mulgara.query.TuplesException;
 import org.mulgara.resolver.LocalJRDFDatabaseSession;
 import org.mulgara.server.JRDFSession;
 import org.mulgara.server.driver.JRDFGraphFactory;
@@ -30,12 +30,14 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.trippi.Alias;
 import org.trippi.AliasManager;
+import org.trippi.BulkLoadListener;
 import org.trippi.TripleIterator;
 import org.trippi.TrippiException;
 import org.trippi.TupleIterator;
-import org.trippi.impl.base.TriplestoreSession;
+import org.trippi.impl.base.BulkLoadSession;
+import org.trippi.impl.base.CountingSession;
 
-public class MulgaraSession implements TriplestoreSession {
+public class MulgaraSession implements BulkLoadSession, CountingSession {
 	private static final Logger logger = LoggerFactory.getLogger(MulgaraSession.class.getName());
 
 	private JRDFSession m_session;
@@ -88,6 +90,12 @@ public class MulgaraSession implements TriplestoreSession {
 
 	public TripleIterator findTriples(String lang, String queryText)
 			throws TrippiException {
+		return new MulgaraTripleIterator(tripleAnswer(lang, queryText),
+				getElementFactory());
+	}
+
+	private Answer tripleAnswer(String lang, String queryText)
+			throws TrippiException {
 		if (lang.equalsIgnoreCase("sparql")) {
 		    queryText = doAliasReplacements(queryText);
             Answer ans = null;
@@ -105,7 +113,7 @@ public class MulgaraSession implements TriplestoreSession {
             } catch (MulgaraParserException e) {
                 throw new TrippiException(e.getMessage(), e);
             }
-            return new MulgaraTripleIterator(ans,getElementFactory());
+            return ans;
 		} else {
             throw new TrippiException("Unrecognized query language: " 
                     + lang);
@@ -114,14 +122,17 @@ public class MulgaraSession implements TriplestoreSession {
 
 	public TripleIterator findTriples(SubjectNode subject,
 			PredicateNode predicate, ObjectNode object) throws TrippiException {
-		Answer answer = null;
+        return new MulgaraTripleIterator(findAnswer(subject, predicate, object),
+                getElementFactory());
+	}
+
+	private Answer findAnswer(SubjectNode subject,
+			PredicateNode predicate, ObjectNode object) throws TrippiException {
 		try {
-			answer = m_session.find(m_modelURI, subject, predicate, object);
+			return m_session.find(m_modelURI, subject, predicate, object);
 		} catch (GraphException e) {
 			throw new TrippiException(e.getMessage(), e);
 		}
-		
-        return new MulgaraTripleIterator(answer, getElementFactory());
 	}
 
 	public String[] listTripleLanguages() {
@@ -134,6 +145,11 @@ public class MulgaraSession implements TriplestoreSession {
 
 	public TupleIterator query(String queryText, String language)
 			throws TrippiException {
+		return new MulgaraTupleIterator(queryAnswer(queryText, language));
+	}
+
+	private Answer queryAnswer(String queryText, String language)
+			throws TrippiException {
 	    language = language.trim();
 		if (language.equalsIgnoreCase("itql")) {
 			queryText = doAliasReplacements(queryText);
@@ -151,7 +167,7 @@ public class MulgaraSession implements TriplestoreSession {
 			} catch (MulgaraParserException e) {
 				throw new TrippiException(e.getMessage(), e);
 			}
-	        return new MulgaraTupleIterator(ans);
+	        return ans;
 		} else if (language.equalsIgnoreCase("sparql")) {
 		    queryText = doAliasReplacements(queryText);
             Answer ans = null;
@@ -169,13 +185,68 @@ public class MulgaraSession implements TriplestoreSession {
             } catch (MulgaraParserException e) {
                 throw new TrippiException(e.getMessage(), e);
             }
-            return new MulgaraTupleIterator(ans);
+            return ans;
 		} else {
             throw new TrippiException("Unrecognized query language: " 
                     + language);
         }
 	}
 	
+	/**
+	 * Count using the Answer's row count, unless its rows hold subquery
+	 * answers, which are expanded into more rows when iterated.
+	 */
+	public int countTuples(String queryText, String language)
+			throws TrippiException {
+		Answer ans = queryAnswer(queryText, language);
+		boolean hasSubanswers = false;
+		try {
+			ans.beforeFirst();
+			if (ans.next()) {
+				for (int i = 0; i < ans.getNumberOfVariables(); i++) {
+					if (ans.getObject(i) instanceof Answer) {
+						hasSubanswers = true;
+					}
+				}
+			}
+		} catch (TuplesException e) {
+			closeAnswer(ans);
+			throw new TrippiException(e.getMessage(), e);
+		}
+		if (hasSubanswers) {
+			return new MulgaraTupleIterator(ans).count();
+		}
+		return rowCount(ans);
+	}
+
+	public int countTriples(String lang, String queryText)
+			throws TrippiException {
+		return rowCount(tripleAnswer(lang, queryText));
+	}
+
+	public int countTriples(SubjectNode subject, PredicateNode predicate,
+			ObjectNode object) throws TrippiException {
+		return rowCount(findAnswer(subject, predicate, object));
+	}
+
+	private static int rowCount(Answer ans) throws TrippiException {
+		try {
+			return (int) Math.min(ans.getRowCount(), Integer.MAX_VALUE);
+		} catch (TuplesException e) {
+			throw new TrippiException(e.getMessage(), e);
+		} finally {
+			closeAnswer(ans);
+		}
+	}
+
+	private static void closeAnswer(Answer ans) {
+		try {
+			ans.close();
+		} catch (TuplesException e) {
+			logger.warn("Error closing answer", e);
+		}
+	}
+
 	public GraphElementFactory getElementFactory() throws TrippiException {
         if (m_elementFactory == null) {
         	Graph graph;
@@ -197,6 +268,54 @@ public class MulgaraSession implements TriplestoreSession {
         return m_elementFactory;
     }
 
+	/**
+	 * Insert all triples from the iterator within a single write
+	 * transaction, which is committed once the iterator is exhausted.
+	 * 
+	 * This avoids a commit per batch, which dominates the cost of
+	 * loading large numbers of triples into Mulgara.  If any batch fails,
+	 * the whole load is rolled back.
+	 */
+	public long bulkAdd(TripleIterator iter, int batchSize,
+			BulkLoadListener listener) throws TrippiException {
+		long count = 0;
+		synchronized(m_session) {
+			boolean success = false;
+			try {
+				m_session.setAutoCommit(false);
+				Set<Triple> batch = new HashSet<Triple>(batchSize * 4 / 3 + 1);
+				while (iter.hasNext()) {
+					batch.add(iter.next());
+					if (batch.size() == batchSize || !iter.hasNext()) {
+						doTriples(batch, true);
+						count += batch.size();
+						batch.clear();
+						if (listener != null) listener.triplesLoaded(count);
+					}
+				}
+				m_session.commit();
+				success = true;
+				return count;
+			} catch (QueryException e) {
+				throw new TrippiException("Error committing bulk load: " 
+						+ e.getMessage(), e);
+			} finally {
+				if (!success) {
+					try {
+						m_session.rollback();
+					} catch (Exception e) {
+						logger.warn("Error rolling back bulk load", e);
+					}
+				}
+				try {
+					m_session.setAutoCommit(true);
+				} catch (Exception e) {
+					logger.warn("Error restoring auto-commit after bulk load", e);
+				}
+			}
+		}
+	}
+
 	private void doTriples(Set<Triple> triples, boolean add) throws TrippiException {
 	    if (triples == null || triples.size() == 0) {
 	        return;
@@ -253,14 +372,7 @@ public class MulgaraSession implements TriplestoreSession {
 	}
 	
 	private String doAliasReplacements(String q) {
-		String out = q;
-		Map<String, Alias> m = m_aliasManager.getAliases();
-		Iterator<String> iter = m.keySet().iterator();
-		while (iter.hasNext()) {
-			String prefix = iter.next();
-			Alias alias = m.get(prefix);
-			out = alias.replaceSparqlType(alias.replaceSparqlUri(out));
-		}
+		String out = m_aliasManager.getAliasIndex().expandQuery(q);
 		// base model URI includes separator
 		// relative URIs introduce a library dependency on Jena, so keeping m_serverURI for now 
 		out = Alias.replaceRelativeUris(out, m_serverURI); 
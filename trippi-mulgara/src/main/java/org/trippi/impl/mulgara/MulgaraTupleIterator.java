@@ -1,6 +1,5 @@
 package org.trippi.impl.mulgara;
 
-import java.util.HashMap;
 import java.util.Map;
 
 import org.jrdf.graph.Node;
@@ -9,6 +8,7 @@ import org.mulgara.query.TuplesException;
 import org.mulgara.query.Variable;
 import org.trippi.TrippiException;
 import org.trippi.TupleIterator;
+import org.trippi.TupleRow;
 
 public class MulgaraTupleIterator extends TupleIterator {
 	
@@ -63,21 +63,20 @@ public class MulgaraTupleIterator extends TupleIterator {
 	@Override
 	public Map<String, Node> next() throws TrippiException {
 		if ( !m_hasNext ) return null;
-            Map<String, Node> map = new HashMap<String, Node>();
-            Node node;
-            for (int i = 0; i < names().length; i++) {
+            String[] names = names();
+            Node[] values = new Node[names.length];
+            for (int i = 0; i < names.length; i++) {
                 // We're guaranteed that the value will be a JRDF node,
                 // since we've wrapped the possibly-answer-containing answer
                 // in a CollapsedAnswer
                 try {
-					node = (Node)m_answer.getObject(i);
+					values[i] = (Node)m_answer.getObject(i);
 				} catch (TuplesException e) {
 					throw new TrippiException(e.getMessage(), e);
 				}
-                map.put(m_names[i], node);
             }
             checkNext();
-	        return map;
+	        return new TupleRow(names, values);
 	}
 	
 	private void checkNext() throws TrippiException {